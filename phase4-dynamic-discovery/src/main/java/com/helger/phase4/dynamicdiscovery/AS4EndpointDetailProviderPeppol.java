@@ -52,8 +52,14 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4EndpointDetailProviderPeppol.class);
 
+  private static final class DefaultEndpointCacheHolder
+  {
+    static final AS4SMPEndpointCache <EndpointType> INSTANCE = AS4SMPEndpointCache.createFromConfiguration ();
+  }
+
   private final ISMPServiceMetadataProvider m_aSMPClient;
   private ISMPTransportProfile m_aTP = DEFAULT_TRANSPORT_PROFILE;
+  private AS4SMPEndpointCache <EndpointType> m_aEndpointCache = getDefaultEndpointCache ();
   private EndpointType m_aEndpoint;
 
   public AS4EndpointDetailProviderPeppol (@Nonnull final ISMPServiceMetadataProvider aSMPClient)
@@ -99,6 +105,48 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
     return this;
   }
 
+  /**
+   * @return The endpoint cache shared by all instances of this class, that is
+   *         created from the configuration on first usage. May be
+   *         <code>null</code> if caching is disabled in the configuration.
+   * @see AS4SMPEndpointCache#createFromConfiguration()
+   * @since 1.3.2
+   */
+  @Nullable
+  public static AS4SMPEndpointCache <EndpointType> getDefaultEndpointCache ()
+  {
+    return DefaultEndpointCacheHolder.INSTANCE;
+  }
+
+  /**
+   * @return The endpoint cache to be used. Defaults to
+   *         {@link #getDefaultEndpointCache()}. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4SMPEndpointCache <EndpointType> getEndpointCache ()
+  {
+    return m_aEndpointCache;
+  }
+
+  /**
+   * Change the endpoint cache to be used. This only has an effect if it is
+   * called prior to
+   * {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}.
+   *
+   * @param aEndpointCache
+   *        The endpoint cache to be used. May be <code>null</code> to always
+   *        query the SMP.
+   * @return this for chaining.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4EndpointDetailProviderPeppol setEndpointCache (@Nullable final AS4SMPEndpointCache <EndpointType> aEndpointCache)
+  {
+    m_aEndpointCache = aEndpointCache;
+    return this;
+  }
+
   /**
    * @return The endpoint resolved. May only be non-<code>null</code> if
    *         {@link #init(IDocumentTypeIdentifier, IProcessIdentifier, IParticipantIdentifier)}
@@ -134,7 +182,15 @@ public class AS4EndpointDetailProviderPeppol implements IAS4EndpointDetailProvid
       // Perform SMP lookup
       try
       {
-        m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
+        if (m_aEndpointCache != null)
+          m_aEndpoint = m_aEndpointCache.getOrLookup (AS4SMPEndpointCache.getSMPScope (m_aSMPClient),
+                                                      aReceiverID,
+                                                      aDocTypeID,
+                                                      aProcID,
+                                                      m_aTP,
+                                                      () -> m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP));
+        else
+          m_aEndpoint = m_aSMPClient.getEndpoint (aReceiverID, aDocTypeID, aProcID, m_aTP);
         if (m_aEndpoint == null)
           throw new Phase4SMPException ("Failed to resolve SMP endpoint (" +
                                         aReceiverID.getURIEncoded () +
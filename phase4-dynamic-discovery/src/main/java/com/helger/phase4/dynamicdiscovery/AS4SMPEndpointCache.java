@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2020-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ExpiringCache;
+import com.helger.smpclient.exception.SMPClientException;
+import com.helger.smpclient.httpclient.AbstractGenericSMPClient;
+
+/**
+ * A bounded cache for SMP endpoint lookups that can be shared between many
+ * endpoint detail provider instances. The key consists of the SMP, the
+ * receiver, the document type, the process and the transport profile.
+ * <ul>
+ * <li>Found endpoints are cached for the TTL, "not found" results for the
+ * negative TTL</li>
+ * <li>Concurrent lookups of the same key are performed only once - all other
+ * callers wait for the result</li>
+ * <li>If more than the maximum number of entries are cached, the least
+ * recently used ones are removed</li>
+ * <li>Failed lookups (e.g. network errors) are never cached</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ * @param <T>
+ *        The SMP specific endpoint type
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4SMPEndpointCache <T>
+{
+  /**
+   * The callback performing the real SMP lookup.
+   *
+   * @param <T>
+   *        The SMP specific endpoint type
+   */
+  @FunctionalInterface
+  public interface IEndpointLookup <T>
+  {
+    /**
+     * @return The resolved endpoint or <code>null</code> if no such endpoint
+     *         is registered.
+     * @throws SMPClientException
+     *         In case the lookup failed
+     */
+    @Nullable
+    T lookup () throws SMPClientException;
+  }
+
+  @Immutable
+  private static final class Key
+  {
+    private final Object m_aSMPScope;
+    private final String m_sReceiverID;
+    private final String m_sDocTypeID;
+    private final String m_sProcessID;
+    private final String m_sTransportProfileID;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (@Nonnull final Object aSMPScope,
+         @Nonnull final String sReceiverID,
+         @Nonnull final String sDocTypeID,
+         @Nonnull final String sProcessID,
+         @Nonnull final String sTransportProfileID)
+    {
+      m_aSMPScope = aSMPScope;
+      m_sReceiverID = sReceiverID;
+      m_sDocTypeID = sDocTypeID;
+      m_sProcessID = sProcessID;
+      m_sTransportProfileID = sTransportProfileID;
+      m_nHashCode = new HashCodeGenerator (this).append (aSMPScope)
+                                                .append (sReceiverID)
+                                                .append (sDocTypeID)
+                                                .append (sProcessID)
+                                                .append (sTransportProfileID)
+                                                .getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return EqualsHelper.equals (m_aSMPScope, rhs.m_aSMPScope) &&
+             m_sReceiverID.equals (rhs.m_sReceiverID) &&
+             m_sDocTypeID.equals (rhs.m_sDocTypeID) &&
+             m_sProcessID.equals (rhs.m_sProcessID) &&
+             m_sTransportProfileID.equals (rhs.m_sTransportProfileID);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("SMPScope", m_aSMPScope)
+                                         .append ("ReceiverID", m_sReceiverID)
+                                         .append ("DocTypeID", m_sDocTypeID)
+                                         .append ("ProcessID", m_sProcessID)
+                                         .append ("TransportProfileID", m_sTransportProfileID)
+                                         .getToString ();
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final AS4ExpiringCache <Key, T> m_aCache;
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached lookup results. Must be &gt; 0.
+   * @param aTTL
+   *        The duration a found endpoint is cached. May not be
+   *        <code>null</code> nor negative.
+   * @param aNegativeTTL
+   *        The duration a "not found" result is cached. May not be
+   *        <code>null</code> nor negative. Use {@link Duration#ZERO} to
+   *        disable negative caching.
+   */
+  public AS4SMPEndpointCache (@Nonnegative final int nMaxSize, @Nonnull final Duration aTTL, @Nonnull final Duration aNegativeTTL)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative (), "TTL may not be negative");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL may not be negative");
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_aCache = new AS4ExpiringCache <> (nMaxSize, this::getCurrentNanoTime);
+  }
+
+  /**
+   * @return The maximum number of cached lookup results. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return The duration a found endpoint is cached. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The duration a "not found" result is cached. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getNegativeTTL ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  /**
+   * @return The current time in nanoseconds, used to determine the expiration.
+   */
+  protected long getCurrentNanoTime ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Get the SMP specific part of the cache key. For the SMP clients of
+   * peppol-smp-client this is the combination of the client class and the SMP
+   * host URI, so that new client instances for the same SMP share the cache
+   * entries. For all other objects, the object itself is used.<br>
+   * Note: clients with different security settings (e.g. trust stores) for the
+   * same SMP share the same entries, so they should not use the same cache.
+   *
+   * @param aSMPClient
+   *        The SMP client. May not be <code>null</code>.
+   * @return The object to be used in the cache key. Never <code>null</code>.
+   */
+  @Nonnull
+  public static Object getSMPScope (@Nonnull final Object aSMPClient)
+  {
+    ValueEnforcer.notNull (aSMPClient, "SMPClient");
+    if (aSMPClient instanceof AbstractGenericSMPClient <?>)
+      return aSMPClient.getClass ().getName () + " " + ((AbstractGenericSMPClient <?>) aSMPClient).getSMPHostURI ();
+    return aSMPClient;
+  }
+
+  /**
+   * Get the endpoint from the cache or perform the lookup. If the same lookup
+   * is currently performed by another thread, the result of that lookup is
+   * awaited.
+   *
+   * @param aSMPScope
+   *        The SMP specific part of the key. May not be <code>null</code>.
+   * @param aReceiverID
+   *        Receiver ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcID
+   *        Process ID. May not be <code>null</code>.
+   * @param aTP
+   *        Transport profile. May not be <code>null</code>.
+   * @param aLookup
+   *        The lookup to be performed on a cache miss. May not be
+   *        <code>null</code>.
+   * @return The endpoint or <code>null</code> if no such endpoint is
+   *         registered.
+   * @throws SMPClientException
+   *         If the lookup failed. Failures are not cached.
+   * @see #getSMPScope(Object)
+   */
+  @Nullable
+  public T getOrLookup (@Nonnull final Object aSMPScope,
+                        @Nonnull final IParticipantIdentifier aReceiverID,
+                        @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                        @Nonnull final IProcessIdentifier aProcID,
+                        @Nonnull final ISMPTransportProfile aTP,
+                        @Nonnull final IEndpointLookup <? extends T> aLookup) throws SMPClientException
+  {
+    ValueEnforcer.notNull (aSMPScope, "SMPScope");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcID, "ProcID");
+    ValueEnforcer.notNull (aTP, "TransportProfile");
+    ValueEnforcer.notNull (aLookup, "Lookup");
+
+    final Key aKey = new Key (aSMPScope,
+                              aReceiverID.getURIEncoded (),
+                              aDocTypeID.getURIEncoded (),
+                              aProcID.getURIEncoded (),
+                              aTP.getID ());
+    return m_aCache.getOrLoad (aKey, aLookup::lookup, x -> x != null ? m_aTTL : m_aNegativeTTL);
+  }
+
+  /**
+   * Remove all cached entries.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aCache.clearCache ();
+  }
+
+  /**
+   * @return The number of currently cached lookup results, including the
+   *         expired ones that were not yet accessed.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The number of lookups that were answered from the cache.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount ();
+  }
+
+  /**
+   * @return The number of lookups that were performed on the SMP.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  /**
+   * @return The number of lookups that waited for the same lookup of another
+   *         thread.
+   */
+  @Nonnegative
+  public long getJoinedCount ()
+  {
+    return m_aCache.getJoinedCount ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("Cache", m_aCache)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new cache based on the current {@link AS4Configuration} settings.
+   *
+   * @param <T>
+   *        The SMP specific endpoint type
+   * @return <code>null</code> if the cache is disabled in the configuration.
+   * @see AS4Configuration#getSMPEndpointCacheMaxSize()
+   * @see AS4Configuration#getSMPEndpointCacheTTLMinutes()
+   * @see AS4Configuration#getSMPEndpointCacheNegativeTTLMinutes()
+   */
+  @Nullable
+  public static <T> AS4SMPEndpointCache <T> createFromConfiguration ()
+  {
+    final int nMaxSize = AS4Configuration.getSMPEndpointCacheMaxSize ();
+    if (nMaxSize <= 0)
+      return null;
+    return new AS4SMPEndpointCache <> (nMaxSize,
+                                       Duration.ofMinutes (Math.max (0, AS4Configuration.getSMPEndpointCacheTTLMinutes ())),
+                                       Duration.ofMinutes (Math.max (0, AS4Configuration.getSMPEndpointCacheNegativeTTLMinutes ())));
+  }
+}
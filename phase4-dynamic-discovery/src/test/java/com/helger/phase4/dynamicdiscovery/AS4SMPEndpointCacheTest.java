@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2020-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.dynamicdiscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.smpclient.exception.SMPClientException;
+
+/**
+ * Test class for class {@link AS4SMPEndpointCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4SMPEndpointCacheTest
+{
+  private static final IDocumentTypeIdentifier DOCTYPE = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("doctype");
+  private static final IProcessIdentifier PROCESS = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("process");
+  private static final String SCOPE = "smp";
+
+  private static final class MockCache extends AS4SMPEndpointCache <String>
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+
+    MockCache (final int nMaxSize)
+    {
+      super (nMaxSize, Duration.ofMinutes (10), Duration.ofMinutes (1));
+    }
+
+    @Override
+    protected long getCurrentNanoTime ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  private static IParticipantIdentifier _receiver (final int n)
+  {
+    return PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test" + n);
+  }
+
+  @Test
+  public void testTTLAndNegativeCaching () throws Exception
+  {
+    final MockCache aCache = new MockCache (10);
+    final AtomicInteger aLookups = new AtomicInteger (0);
+    final AS4SMPEndpointCache.IEndpointLookup <String> aFound = () -> "ep" + aLookups.incrementAndGet ();
+    final AS4SMPEndpointCache.IEndpointLookup <String> aNotFound = () -> {
+      aLookups.incrementAndGet ();
+      return null;
+    };
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+    assertEquals ("ep1", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aFound));
+    assertEquals ("ep1", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aFound));
+    assertEquals (1, aLookups.get ());
+    assertEquals (1, aCache.getHitCount ());
+
+    // Different transport profile and different SMP are different keys
+    assertEquals ("ep2", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, ESMPTransportProfile.TRANSPORT_PROFILE_BDXR_AS4, aFound));
+    assertEquals ("ep3", aCache.getOrLookup ("smp2", _receiver (1), DOCTYPE, PROCESS, eTP, aFound));
+
+    // Negative result
+    assertNull (aCache.getOrLookup (SCOPE, _receiver (2), DOCTYPE, PROCESS, eTP, aNotFound));
+    assertNull (aCache.getOrLookup (SCOPE, _receiver (2), DOCTYPE, PROCESS, eTP, aNotFound));
+    assertEquals (4, aLookups.get ());
+
+    // Negative TTL expired
+    aCache.advance (Duration.ofMinutes (1));
+    assertNull (aCache.getOrLookup (SCOPE, _receiver (2), DOCTYPE, PROCESS, eTP, aNotFound));
+    assertEquals ("ep1", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aFound));
+    assertEquals (5, aLookups.get ());
+
+    // Positive TTL expired
+    aCache.advance (Duration.ofMinutes (9));
+    assertEquals ("ep6", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aFound));
+
+    // Errors are not cached
+    final AS4SMPEndpointCache.IEndpointLookup <String> aError = () -> {
+      aLookups.incrementAndGet ();
+      throw new SMPClientException ("Network error");
+    };
+    for (int i = 0; i < 2; ++i)
+      try
+      {
+        aCache.getOrLookup (SCOPE, _receiver (3), DOCTYPE, PROCESS, eTP, aError);
+        fail ();
+      }
+      catch (final SMPClientException ex)
+      {
+        // expected
+      }
+    assertEquals (8, aLookups.get ());
+  }
+
+  @Test
+  public void testLRU () throws Exception
+  {
+    final MockCache aCache = new MockCache (2);
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+    aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, () -> "ep1");
+    aCache.getOrLookup (SCOPE, _receiver (2), DOCTYPE, PROCESS, eTP, () -> "ep2");
+    // Access 1, so that 2 is the least recently used
+    assertEquals ("ep1", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, () -> "new"));
+    aCache.getOrLookup (SCOPE, _receiver (3), DOCTYPE, PROCESS, eTP, () -> "ep3");
+    assertEquals (2, aCache.size ());
+    assertEquals ("ep1", aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, () -> "new"));
+    assertEquals ("new", aCache.getOrLookup (SCOPE, _receiver (2), DOCTYPE, PROCESS, eTP, () -> "new"));
+  }
+
+  @Test
+  public void testSingleFlight () throws Exception
+  {
+    final MockCache aCache = new MockCache (10);
+    final ESMPTransportProfile eTP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+    final int nThreads = 8;
+    final CountDownLatch aStarted = new CountDownLatch (1);
+    final CountDownLatch aRelease = new CountDownLatch (1);
+    final AtomicInteger aLookups = new AtomicInteger (0);
+    final AS4SMPEndpointCache.IEndpointLookup <String> aSlowLookup = () -> {
+      aLookups.incrementAndGet ();
+      aStarted.countDown ();
+      try
+      {
+        aRelease.await ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      return "ep";
+    };
+
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    try
+    {
+      final ICommonsList <Future <String>> aFutures = new CommonsArrayList <> ();
+      aFutures.add (aES.submit ( () -> aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aSlowLookup)));
+      aStarted.await ();
+      for (int i = 1; i < nThreads; ++i)
+        aFutures.add (aES.submit ( () -> aCache.getOrLookup (SCOPE, _receiver (1), DOCTYPE, PROCESS, eTP, aSlowLookup)));
+
+      // Wait until all other threads are either waiting or done
+      while (aCache.getJoinedCount () + aCache.getHitCount () < nThreads - 1)
+        Thread.sleep (5);
+      aRelease.countDown ();
+
+      final String sFirst = aFutures.getFirst ().get (10, TimeUnit.SECONDS);
+      for (final Future <String> aFuture : aFutures)
+        assertSame (sFirst, aFuture.get (10, TimeUnit.SECONDS));
+      assertEquals (1, aLookups.get ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+}
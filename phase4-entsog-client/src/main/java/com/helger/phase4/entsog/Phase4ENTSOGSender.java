@@ -28,6 +28,8 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
@@ -178,8 +180,15 @@ public final class Phase4ENTSOGSender
         // No payload - only one attachment
         aUserMsg.setPayload (null);
 
+        // Create main attachment and other attachments
+        // Compression of multiple attachments happens in parallel
+        final ICommonsList <Phase4OutgoingAttachment> aAllAttachments = new CommonsArrayList <> (m_aPayload);
+        aAllAttachments.addAll (m_aAttachments);
+        final ICommonsList <WSS4JAttachment> aCreatedAttachments = WSS4JAttachment.createOutgoingFileAttachments (aAllAttachments,
+                                                                                                                  aResHelper);
+
         // Add main attachment
-        final WSS4JAttachment payloadAttachment = WSS4JAttachment.createOutgoingFileAttachment (m_aPayload, aResHelper);
+        final WSS4JAttachment payloadAttachment = aCreatedAttachments.getFirst ();
 
         if (m_aPayloadParams != null)
         {
@@ -189,8 +198,8 @@ public final class Phase4ENTSOGSender
         aUserMsg.addAttachment (payloadAttachment);
 
         // Add other attachments
-        for (final Phase4OutgoingAttachment aAttachment : m_aAttachments)
-          aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, aResHelper));
+        for (final WSS4JAttachment aAttachment : aCreatedAttachments.subList (1, aCreatedAttachments.size ()))
+          aUserMsg.addAttachment (aAttachment);
 
         // Main sending
         AS4BidirectionalClientHelper.sendAS4UserMessageAndReceiveAS4SignalMessage (m_aCryptoFactory,
@@ -0,0 +1,495 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4DirectByteBufferPool;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * The default implementation of {@link IAS4IncomingAttachmentStorage} with
+ * three tiers:
+ * <ol>
+ * <li>Small attachments are kept on the heap</li>
+ * <li>Mid-sized attachments are kept in pooled direct buffers that are
+ * returned to the pool when the {@link AS4ResourceHelper} is closed. If the
+ * direct memory limit of the pool is reached, they are stored in temporary
+ * files instead.</li>
+ * <li>Large attachments are stored in temporary files that are optionally read
+ * via memory mapping</li>
+ * </ol>
+ * The content is read exactly once.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public class AS4IncomingAttachmentStorage implements IAS4IncomingAttachmentStorage
+{
+  private static final int BUFFER_SIZE = 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final class DefaultPoolHolder
+  {
+    static final AS4DirectByteBufferPool INSTANCE;
+    static
+    {
+      final int nChunkSize = AS4DirectByteBufferPool.DEFAULT_CHUNK_SIZE;
+      final long nMaxPooledChunks = AS4Configuration.getIncomingAttachmentDirectBufferPoolSize () / nChunkSize;
+      final long nMaxAllocatedChunks = AS4Configuration.getIncomingAttachmentDirectBufferMaxSize () / nChunkSize;
+      INSTANCE = new AS4DirectByteBufferPool (nChunkSize, _toChunkCount (nMaxPooledChunks), _toChunkCount (nMaxAllocatedChunks));
+    }
+
+    private static int _toChunkCount (final long nChunks)
+    {
+      return (int) Math.max (0, Math.min (nChunks, Integer.MAX_VALUE));
+    }
+  }
+
+  /**
+   * An input stream over a list of buffers. Each buffer is read from position
+   * to limit. Follows the JDK contract for invalid arguments, as WSS4J relies
+   * on the {@link IndexOutOfBoundsException} for forged attachments.
+   */
+  private static final class ByteBufferListInputStream extends InputStream
+  {
+    private final ICommonsList <ByteBuffer> m_aBuffers;
+    private final Runnable m_aOnClose;
+    private int m_nIndex = 0;
+    private boolean m_bClosed = false;
+
+    ByteBufferListInputStream (@Nonnull final ICommonsList <ByteBuffer> aBuffers, @Nullable final Runnable aOnClose)
+    {
+      m_aBuffers = aBuffers;
+      m_aOnClose = aOnClose;
+    }
+
+    @Nullable
+    private ByteBuffer _current ()
+    {
+      // The buffers may be reused after closing
+      if (m_bClosed)
+        return null;
+      while (m_nIndex < m_aBuffers.size ())
+      {
+        final ByteBuffer aBuffer = m_aBuffers.get (m_nIndex);
+        if (aBuffer.hasRemaining ())
+          return aBuffer;
+        m_nIndex++;
+      }
+      return null;
+    }
+
+    @Override
+    public int read ()
+    {
+      final ByteBuffer aBuffer = _current ();
+      return aBuffer == null ? -1 : aBuffer.get () & 0xff;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      if (nOfs < 0 || nLen < 0 || nLen > aBuf.length - nOfs)
+        throw new IndexOutOfBoundsException ();
+      if (nLen == 0)
+        return 0;
+      final ByteBuffer aBuffer = _current ();
+      if (aBuffer == null)
+        return -1;
+      final int nRead = Math.min (nLen, aBuffer.remaining ());
+      aBuffer.get (aBuf, nOfs, nRead);
+      return nRead;
+    }
+
+    @Override
+    public int available ()
+    {
+      final ByteBuffer aBuffer = _current ();
+      return aBuffer == null ? 0 : aBuffer.remaining ();
+    }
+
+    @Override
+    public void close ()
+    {
+      if (!m_bClosed)
+      {
+        m_bClosed = true;
+        if (m_aOnClose != null)
+          m_aOnClose.run ();
+      }
+    }
+  }
+
+  /**
+   * Content stored in direct buffers of a pool. The chunks are only returned to
+   * the pool, if no stream on them is open when the content is released.
+   * Otherwise they are left to the garbage collector, so that an open stream
+   * never reads a chunk that is reused for other content.
+   */
+  private static final class DirectContent
+  {
+    private final AS4DirectByteBufferPool m_aPool;
+    private final ICommonsList <ByteBuffer> m_aChunks = new CommonsArrayList <> ();
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private int m_nOpenStreams = 0;
+    @GuardedBy ("m_aLock")
+    private boolean m_bReleased = false;
+    private int m_nWriteIndex = 0;
+    private long m_nSize = 0;
+
+    DirectContent (@Nonnull final AS4DirectByteBufferPool aPool)
+    {
+      m_aPool = aPool;
+    }
+
+    long getSize ()
+    {
+      return m_nSize;
+    }
+
+    boolean write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      // Acquire all chunks first, so that nothing is written if the pool is
+      // exhausted
+      long nFree = 0;
+      for (int i = m_nWriteIndex; i < m_aChunks.size (); ++i)
+        nFree += m_aChunks.get (i).remaining ();
+      while (nFree < nLen)
+      {
+        final ByteBuffer aChunk = m_aPool.acquire ();
+        if (aChunk == null)
+          return false;
+        m_aChunks.add (aChunk);
+        nFree += aChunk.remaining ();
+      }
+
+      int nOfsLeft = nOfs;
+      int nLenLeft = nLen;
+      while (nLenLeft > 0)
+      {
+        final ByteBuffer aChunk = m_aChunks.get (m_nWriteIndex);
+        if (!aChunk.hasRemaining ())
+        {
+          m_nWriteIndex++;
+          continue;
+        }
+        final int nCount = Math.min (nLenLeft, aChunk.remaining ());
+        aChunk.put (aBuf, nOfsLeft, nCount);
+        nOfsLeft += nCount;
+        nLenLeft -= nCount;
+      }
+      m_nSize += nLen;
+      return true;
+    }
+
+    @Nonnull
+    private ICommonsList <ByteBuffer> _getReadableDuplicates ()
+    {
+      return m_aChunks.getAllMapped (x -> {
+        final ByteBuffer ret = x.asReadOnlyBuffer ();
+        ret.flip ();
+        return ret;
+      });
+    }
+
+    void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+    {
+      final WritableByteChannel aChannel = Channels.newChannel (aOS);
+      for (final ByteBuffer aBuffer : _getReadableDuplicates ())
+        while (aBuffer.hasRemaining ())
+          aChannel.write (aBuffer);
+    }
+
+    @Nonnull
+    InputStream openStream ()
+    {
+      final ICommonsList <ByteBuffer> aBuffers = m_aLock.lockedGet ( () -> {
+        if (m_bReleased)
+          throw new IllegalStateException ("The attachment content was already released");
+        m_nOpenStreams++;
+        return _getReadableDuplicates ();
+      });
+      return new ByteBufferListInputStream (aBuffers, () -> m_aLock.locked ( () -> m_nOpenStreams--));
+    }
+
+    void release ()
+    {
+      m_aLock.locked ( () -> {
+        if (!m_bReleased)
+        {
+          m_bReleased = true;
+          final boolean bInUse = m_nOpenStreams > 0;
+          for (final ByteBuffer aChunk : m_aChunks)
+            if (bInUse)
+              m_aPool.discard (aChunk);
+            else
+              m_aPool.release (aChunk);
+          m_aChunks.clear ();
+        }
+      });
+    }
+  }
+
+  private final long m_nInMemoryThreshold;
+  private final long m_nDirectBufferThreshold;
+  private final AS4DirectByteBufferPool m_aPool;
+  private final boolean m_bMemoryMapped;
+
+  /**
+   * Constructor
+   *
+   * @param nInMemoryThreshold
+   *        The maximum number of bytes kept on the heap. Must be &ge; 0.
+   * @param nDirectBufferThreshold
+   *        The maximum number of bytes kept in direct buffers. Only effective
+   *        if it is larger than the in-memory threshold and if a pool is
+   *        provided.
+   * @param aPool
+   *        The direct buffer pool to use. May be <code>null</code> to disable
+   *        the direct buffer tier.
+   * @param bMemoryMapped
+   *        <code>true</code> to read temporary files via memory mapping,
+   *        <code>false</code> to use regular buffered file streams.
+   */
+  public AS4IncomingAttachmentStorage (@Nonnegative final long nInMemoryThreshold,
+                                       final long nDirectBufferThreshold,
+                                       @Nullable final AS4DirectByteBufferPool aPool,
+                                       final boolean bMemoryMapped)
+  {
+    ValueEnforcer.isGE0 (nInMemoryThreshold, "InMemoryThreshold");
+    m_nInMemoryThreshold = nInMemoryThreshold;
+    m_nDirectBufferThreshold = nDirectBufferThreshold;
+    m_aPool = aPool;
+    m_bMemoryMapped = bMemoryMapped;
+  }
+
+  /**
+   * @return The maximum number of bytes kept on the heap. Always &ge; 0.
+   */
+  @Nonnegative
+  public final long getInMemoryThreshold ()
+  {
+    return m_nInMemoryThreshold;
+  }
+
+  /**
+   * @return The maximum number of bytes kept in direct buffers.
+   */
+  public final long getDirectBufferThreshold ()
+  {
+    return m_nDirectBufferThreshold;
+  }
+
+  /**
+   * @return The direct buffer pool used. May be <code>null</code>.
+   */
+  @Nullable
+  public final AS4DirectByteBufferPool getDirectBufferPool ()
+  {
+    return m_aPool;
+  }
+
+  /**
+   * @return <code>true</code> if temporary files are read via memory mapping.
+   */
+  public final boolean isMemoryMapped ()
+  {
+    return m_bMemoryMapped;
+  }
+
+  private boolean _isDirectBufferTierEnabled ()
+  {
+    return m_aPool != null && m_nDirectBufferThreshold > m_nInMemoryThreshold;
+  }
+
+  @Nonnull
+  private static InputStream _openMapped (@Nonnull final File aFile) throws IOException
+  {
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ))
+    {
+      final long nSize = aChannel.size ();
+      if (nSize > Integer.MAX_VALUE)
+      {
+        // Cannot be mapped into a single buffer
+        return FileHelper.getBufferedInputStream (aFile);
+      }
+      // The mapping stays valid after the channel is closed
+      return new ByteBufferListInputStream (new CommonsArrayList <> (aChannel.map (MapMode.READ_ONLY, 0, nSize)), null);
+    }
+  }
+
+  @Nonnull
+  private IHasInputStream _createFileProvider (@Nonnull final File aTempFile)
+  {
+    if (m_bMemoryMapped)
+      return HasInputStream.multiple ( () -> {
+        try
+        {
+          return _openMapped (aTempFile);
+        }
+        catch (final IOException ex)
+        {
+          throw new UncheckedIOException (ex);
+        }
+      });
+    return HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile));
+  }
+
+  @Nonnull
+  public IHasInputStream store (@Nonnull @WillNotClose final InputStream aIS,
+                                @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final byte [] aBuffer = new byte [BUFFER_SIZE];
+    DirectContent aDirect = null;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) > 0)
+      {
+        if (aDirect == null)
+        {
+          if (aBAOS.size () + nRead <= m_nInMemoryThreshold)
+          {
+            aBAOS.write (aBuffer, 0, nRead);
+            continue;
+          }
+
+          if (_isDirectBufferTierEnabled () && aBAOS.size () + nRead <= m_nDirectBufferThreshold)
+          {
+            // Too large for the heap - move to direct buffers
+            final DirectContent aNewDirect = new DirectContent (m_aPool);
+            if (aNewDirect.write (aBAOS.directGetBuffer (), 0, aBAOS.size ()))
+            {
+              aDirect = aNewDirect;
+              aBAOS.reset ();
+            }
+            else
+              aNewDirect.release ();
+          }
+        }
+
+        if (aDirect != null && aDirect.getSize () + nRead <= m_nDirectBufferThreshold && aDirect.write (aBuffer, 0, nRead))
+          continue;
+
+        // Too large - spill to a temporary file
+        final File aTempFile = aResHelper.createTempFile ();
+        try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aTempFile))
+        {
+          if (aDirect != null)
+          {
+            aDirect.writeTo (aOS);
+            aDirect.release ();
+          }
+          else
+            aBAOS.writeTo (aOS);
+          aOS.write (aBuffer, 0, nRead);
+          while ((nRead = aIS.read (aBuffer)) > 0)
+            aOS.write (aBuffer, 0, nRead);
+        }
+        return _createFileProvider (aTempFile);
+      }
+
+      if (aDirect != null)
+      {
+        final DirectContent aFinalDirect = aDirect;
+        // Return the buffers to the pool, when the message is done
+        aResHelper.addCloseable (aFinalDirect::release);
+        return HasInputStream.multiple (aFinalDirect::openStream);
+      }
+
+      final byte [] aBytes = aBAOS.getBufferOrCopy ();
+      final int nSize = aBAOS.size ();
+      // Use the JDK stream, as WSS4J relies on the IndexOutOfBoundsException
+      // for forged attachments
+      return HasInputStream.multiple ( () -> new ByteArrayInputStream (aBytes, 0, nSize));
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      if (aDirect != null)
+        aDirect.release ();
+      throw ex;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("InMemoryThreshold", m_nInMemoryThreshold)
+                                       .append ("DirectBufferThreshold", m_nDirectBufferThreshold)
+                                       .append ("DirectBufferPool", m_aPool)
+                                       .append ("MemoryMapped", m_bMemoryMapped)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new storage based on the current {@link AS4Configuration}
+   * settings. All instances created by this method share the same direct
+   * buffer pool, which size is determined by the configuration at the time of
+   * the first usage.
+   *
+   * @return A new storage and never <code>null</code>.
+   * @see AS4Configuration#getIncomingAttachmentInMemoryThreshold()
+   * @see AS4Configuration#getIncomingAttachmentDirectBufferThreshold()
+   * @see AS4Configuration#getIncomingAttachmentDirectBufferPoolSize()
+   * @see AS4Configuration#getIncomingAttachmentDirectBufferMaxSize()
+   * @see AS4Configuration#isIncomingAttachmentMemoryMapped()
+   */
+  @Nonnull
+  public static AS4IncomingAttachmentStorage createFromConfiguration ()
+  {
+    final long nInMemoryThreshold = AS4Configuration.getIncomingAttachmentInMemoryThreshold ();
+    final long nDirectBufferThreshold = AS4Configuration.getIncomingAttachmentDirectBufferThreshold ();
+    return new AS4IncomingAttachmentStorage (nInMemoryThreshold,
+                                             nDirectBufferThreshold,
+                                             nDirectBufferThreshold > nInMemoryThreshold ? DefaultPoolHolder.INSTANCE : null,
+                                             AS4Configuration.isIncomingAttachmentMemoryMapped ());
+  }
+}
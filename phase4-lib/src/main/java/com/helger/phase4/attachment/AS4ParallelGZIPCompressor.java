@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A GZIP compressor that deflates fixed size blocks of the input in parallel
+ * on a {@link ForkJoinPool} - similar to <code>pigz</code>. Each block uses
+ * the last 32 KB of the previous block as the preset dictionary and is ended
+ * with a sync flush, so that the concatenated blocks form a single deflate
+ * stream. The result is a regular single member GZIP file that can be read
+ * with {@link EAS4CompressionMode#GZIP}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4ParallelGZIPCompressor
+{
+  /** The default block size of 128 KB */
+  public static final int DEFAULT_BLOCK_SIZE = 128 * CGlobal.BYTES_PER_KILOBYTE;
+  /** The maximum deflate window size */
+  public static final int DICTIONARY_SIZE = 32 * CGlobal.BYTES_PER_KILOBYTE;
+
+  // ID1, ID2, CM=deflate, FLG, MTIME (4 bytes), XFL, OS - same as JDK
+  private static final byte [] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private final ForkJoinPool m_aPool;
+  private final int m_nBlockSize;
+  private final int m_nLevel;
+
+  /**
+   * Constructor using the common {@link ForkJoinPool}, the default block size
+   * and the default compression level.
+   */
+  public AS4ParallelGZIPCompressor ()
+  {
+    this (ForkJoinPool.commonPool (), DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aPool
+   *        The pool to run the block compression on. May not be
+   *        <code>null</code>.
+   * @param nBlockSize
+   *        The block size in bytes. Must be &ge; {@link #DICTIONARY_SIZE}.
+   * @param nLevel
+   *        The deflate compression level from -1 (default) to 9.
+   */
+  public AS4ParallelGZIPCompressor (@Nonnull final ForkJoinPool aPool, @Nonnegative final int nBlockSize, final int nLevel)
+  {
+    ValueEnforcer.notNull (aPool, "Pool");
+    ValueEnforcer.isTrue (nBlockSize >= DICTIONARY_SIZE, () -> "BlockSize must be >= " + DICTIONARY_SIZE);
+    ValueEnforcer.isBetweenInclusive (nLevel, "Level", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION);
+    m_aPool = aPool;
+    m_nBlockSize = nBlockSize;
+    m_nLevel = nLevel;
+  }
+
+  /**
+   * @return The pool used for compression. Never <code>null</code>.
+   */
+  @Nonnull
+  public ForkJoinPool getPool ()
+  {
+    return m_aPool;
+  }
+
+  /**
+   * @return The block size in bytes.
+   */
+  @Nonnegative
+  public int getBlockSize ()
+  {
+    return m_nBlockSize;
+  }
+
+  /**
+   * @return The deflate compression level.
+   */
+  public int getLevel ()
+  {
+    return m_nLevel;
+  }
+
+  @Nonnegative
+  private static int _readBlock (@Nonnull final InputStream aIS, @Nonnull final byte [] aBlock) throws IOException
+  {
+    int nTotal = 0;
+    while (nTotal < aBlock.length)
+    {
+      final int nRead = aIS.read (aBlock, nTotal, aBlock.length - nTotal);
+      if (nRead < 0)
+        break;
+      nTotal += nRead;
+    }
+    return nTotal;
+  }
+
+  @Nonnull
+  private static byte [] _deflateBlock (@Nullable final byte [] aDictionary,
+                                        @Nonnull final byte [] aBlock,
+                                        @Nonnegative final int nLength,
+                                        final int nLevel,
+                                        final boolean bLast)
+  {
+    // Raw deflate without zlib header
+    final Deflater aDeflater = new Deflater (nLevel, true);
+    try
+    {
+      if (aDictionary != null)
+        // Copy, because the offset based setDictionary is broken in Java 11
+        aDeflater.setDictionary (Arrays.copyOfRange (aDictionary, aDictionary.length - DICTIONARY_SIZE, aDictionary.length));
+      aDeflater.setInput (aBlock, 0, nLength);
+
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nLength / 2 + 64);
+      final byte [] aBuf = new byte [16 * CGlobal.BYTES_PER_KILOBYTE];
+      if (bLast)
+      {
+        aDeflater.finish ();
+        while (!aDeflater.finished ())
+        {
+          final int nDeflated = aDeflater.deflate (aBuf);
+          aBAOS.write (aBuf, 0, nDeflated);
+        }
+      }
+      else
+      {
+        // Byte align the output, so that the next block can be appended.
+        // Repeat until everything is flushed - a partially filled buffer does
+        // not mean that all the input was consumed
+        int nDeflated;
+        do
+        {
+          nDeflated = aDeflater.deflate (aBuf, 0, aBuf.length, Deflater.SYNC_FLUSH);
+          aBAOS.write (aBuf, 0, nDeflated);
+        } while (nDeflated > 0);
+      }
+      return aBAOS.toByteArray ();
+    }
+    finally
+    {
+      aDeflater.end ();
+    }
+  }
+
+  private static void _writeIntLE (@Nonnull final OutputStream aOS, final long nValue) throws IOException
+  {
+    aOS.write ((int) (nValue & 0xff));
+    aOS.write ((int) ((nValue >> 8) & 0xff));
+    aOS.write ((int) ((nValue >> 16) & 0xff));
+    aOS.write ((int) ((nValue >> 24) & 0xff));
+  }
+
+  /**
+   * Compress the provided input stream to the provided output stream in GZIP
+   * format.
+   *
+   * @param aIS
+   *        The uncompressed source stream. May not be <code>null</code>.
+   * @param aOS
+   *        The target stream. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   */
+  public void compress (@Nonnull @WillNotClose final InputStream aIS, @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+    ValueEnforcer.notNull (aOS, "OS");
+
+    // Limit the number of blocks in memory
+    final int nMaxInFlight = Math.max (2, 2 * m_aPool.getParallelism ());
+    final Deque <ForkJoinTask <byte []>> aInFlight = new ArrayDeque <> (nMaxInFlight);
+    final CRC32 aCRC = new CRC32 ();
+    long nTotalLength = 0;
+
+    aOS.write (GZIP_HEADER);
+    try
+    {
+      byte [] aDictionary = null;
+      byte [] aCurBlock = new byte [m_nBlockSize];
+      int nCurLength = _readBlock (aIS, aCurBlock);
+      while (true)
+      {
+        // Read ahead to determine if the current block is the last one
+        byte [] aNextBlock = null;
+        int nNextLength = 0;
+        if (nCurLength == m_nBlockSize)
+        {
+          aNextBlock = new byte [m_nBlockSize];
+          nNextLength = _readBlock (aIS, aNextBlock);
+        }
+        final boolean bLast = nNextLength == 0;
+
+        aCRC.update (aCurBlock, 0, nCurLength);
+        nTotalLength += nCurLength;
+
+        final byte [] aBlockDictionary = aDictionary;
+        final byte [] aBlock = aCurBlock;
+        final int nLength = nCurLength;
+        aInFlight.addLast (m_aPool.submit ( () -> _deflateBlock (aBlockDictionary, aBlock, nLength, m_nLevel, bLast)));
+
+        // Write the oldest blocks in order
+        while (aInFlight.size () >= nMaxInFlight)
+          aOS.write (aInFlight.removeFirst ().join ());
+
+        if (bLast)
+          break;
+
+        // Only full blocks are followed by another block
+        aDictionary = aCurBlock;
+        aCurBlock = aNextBlock;
+        nCurLength = nNextLength;
+      }
+
+      while (!aInFlight.isEmpty ())
+        aOS.write (aInFlight.removeFirst ().join ());
+    }
+    finally
+    {
+      // In case of an error
+      for (final ForkJoinTask <byte []> aTask : aInFlight)
+        aTask.cancel (false);
+    }
+
+    _writeIntLE (aOS, aCRC.getValue ());
+    _writeIntLE (aOS, nTotalLength);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Pool", m_aPool)
+                                       .append ("BlockSize", m_nBlockSize)
+                                       .append ("Level", m_nLevel)
+                                       .getToString ();
+  }
+}
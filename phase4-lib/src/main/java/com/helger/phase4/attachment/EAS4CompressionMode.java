@@ -19,13 +19,18 @@ package com.helger.phase4.attachment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.id.IHasID;
 import com.helger.commons.lang.EnumHelper;
 import com.helger.commons.mime.CMimeType;
@@ -51,12 +56,43 @@ public enum EAS4CompressionMode implements IHasID <String>
 
     @Override
     @Nonnull
-    public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+    public OutputStream getCompressStream (@Nonnull final OutputStream aOS, final int nLevel) throws IOException
     {
-      return new GZIPOutputStream (aOS);
+      ValueEnforcer.isBetweenInclusive (nLevel, "Level", Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION);
+      return new GZIPOutputStream (aOS)
+      {
+        {
+          // No data was written so far
+          def.setLevel (nLevel);
+        }
+      };
     }
   };
 
+  /**
+   * The default compression level, that lets the codec decide.
+   *
+   * @since 1.3.2
+   */
+  public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+  // MIME types of content that is already compressed
+  private static final ICommonsSet <String> COMPRESSED_MIME_TYPES = new CommonsHashSet <> ("application/gzip",
+                                                                                         "application/x-gzip",
+                                                                                         "application/zip",
+                                                                                         "application/x-zip-compressed",
+                                                                                         "application/x-7z-compressed",
+                                                                                         "application/x-bzip2",
+                                                                                         "application/x-xz",
+                                                                                         "application/zstd",
+                                                                                         "application/x-rar-compressed",
+                                                                                         "application/pdf",
+                                                                                         "image/jpeg",
+                                                                                         "image/jpg",
+                                                                                         "image/png",
+                                                                                         "image/gif",
+                                                                                         "image/webp");
+
   private final String m_sID;
   private final IMimeType m_aMimeType;
   private final String m_sFileExtension;
@@ -129,7 +165,45 @@ public enum EAS4CompressionMode implements IHasID <String>
    *         In case of IO error
    */
   @Nonnull
-  public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS) throws IOException;
+  public OutputStream getCompressStream (@Nonnull final OutputStream aOS) throws IOException
+  {
+    return getCompressStream (aOS, DEFAULT_COMPRESSION_LEVEL);
+  }
+
+  /**
+   * Get an {@link OutputStream} to compress the provided {@link OutputStream}
+   * with a specific compression level.
+   *
+   * @param aOS
+   *        The source {@link OutputStream}. May not be <code>null</code>.
+   * @param nLevel
+   *        The compression level from 0 (no compression) to 9 (best
+   *        compression) or {@link #DEFAULT_COMPRESSION_LEVEL}.
+   * @return The compressing {@link OutputStream}
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.3.2
+   */
+  @Nonnull
+  public abstract OutputStream getCompressStream (@Nonnull OutputStream aOS, int nLevel) throws IOException;
+
+  /**
+   * Check if the provided MIME type denotes content that is already
+   * compressed (like ZIP, PDF or JPEG), so that compressing it again is a
+   * waste of CPU time.
+   *
+   * @param aMimeType
+   *        The MIME type to check. May be <code>null</code>.
+   * @return <code>true</code> if the content is known to be compressed.
+   * @since 1.3.2
+   */
+  public static boolean isAlreadyCompressedMimeType (@Nullable final IMimeType aMimeType)
+  {
+    if (aMimeType == null)
+      return false;
+    final String sMimeType = aMimeType.getAsStringWithoutParameters ().toLowerCase (Locale.US);
+    return COMPRESSED_MIME_TYPES.contains (sMimeType) || sMimeType.startsWith ("audio/") || sMimeType.startsWith ("video/");
+  }
 
   @Nullable
   public static EAS4CompressionMode getFromMimeTypeStringOrNull (@Nullable final String sMimeType)
@@ -17,11 +17,16 @@
 package com.helger.phase4.attachment;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.phase4.util.AS4ResourceHelper;
 
 /**
@@ -50,10 +55,117 @@ public interface IAS4IncomingAttachmentFactory
   WSS4JAttachment createAttachment (@Nonnull MimeBodyPart aBodyPart, @Nonnull AS4ResourceHelper aResHelper) throws IOException,
                                                                                                             MessagingException;
 
+  /**
+   * Create an attachment from the MIME part headers and the MIME part body
+   * stream, if the source message is a MIME message. This is called by the
+   * incoming message handling, so that the body of a MIME part does not need
+   * to be buffered completely. The default implementation creates a
+   * {@link MimeBodyPart} and calls
+   * {@link #createAttachment(MimeBodyPart, AS4ResourceHelper)} for backwards
+   * compatibility. Implementations should override this method to avoid the
+   * buffering.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The (not yet decoded) MIME part body. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The internal attachment representation. Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   * @throws MessagingException
+   *         In case MIME part reading fails.
+   * @since 1.3.2
+   */
+  @Nonnull
+  default WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                            @Nonnull @WillNotClose final InputStream aBodyIS,
+                                            @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+  {
+    return createAttachment (new MimeBodyPart (aHeaders, StreamHelper.getAllBytes (aBodyIS)), aResHelper);
+  }
+
+  /**
+   * Get the storage strategy for the content of incoming attachments. It is
+   * used by the default implementations, when creating attachments from the
+   * MIME part headers and the body stream.
+   *
+   * @return The storage strategy to use. Never <code>null</code>. By default a
+   *         new {@link AS4IncomingAttachmentStorage} based on the current
+   *         configuration is returned.
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IAS4IncomingAttachmentStorage getAttachmentStorage ()
+  {
+    return AS4IncomingAttachmentStorage.createFromConfiguration ();
+  }
+
   /**
    * The default instance of {@link IAS4IncomingAttachmentFactory} that uses
    * {@link WSS4JAttachment#createIncomingFileAttachment(MimeBodyPart, AS4ResourceHelper)}
+   * and
+   * {@link WSS4JAttachment#createIncomingFileAttachment(InternetHeaders, InputStream, IAS4IncomingAttachmentStorage, AS4ResourceHelper)}
+   */
+  @Nonnull
+  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = new IAS4IncomingAttachmentFactory ()
+  {
+    @Nonnull
+    public WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                             @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+    {
+      return WSS4JAttachment.createIncomingFileAttachment (aBodyPart, aResHelper);
+    }
+
+    @Override
+    @Nonnull
+    public WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                             @Nonnull @WillNotClose final InputStream aBodyIS,
+                                             @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+    {
+      return WSS4JAttachment.createIncomingFileAttachment (aHeaders, aBodyIS, getAttachmentStorage (), aResHelper);
+    }
+  };
+
+  /**
+   * Create a new {@link IAS4IncomingAttachmentFactory} that behaves like
+   * {@link #DEFAULT_INSTANCE} but uses the provided storage strategy for the
+   * content of incoming attachments.
+   *
+   * @param aStorage
+   *        The storage strategy to use. May not be <code>null</code>.
+   * @return The new factory. Never <code>null</code>.
+   * @since 1.3.2
    */
   @Nonnull
-  IAS4IncomingAttachmentFactory DEFAULT_INSTANCE = WSS4JAttachment::createIncomingFileAttachment;
+  static IAS4IncomingAttachmentFactory createWithStorage (@Nonnull final IAS4IncomingAttachmentStorage aStorage)
+  {
+    ValueEnforcer.notNull (aStorage, "Storage");
+    return new IAS4IncomingAttachmentFactory ()
+    {
+      @Nonnull
+      public WSS4JAttachment createAttachment (@Nonnull final MimeBodyPart aBodyPart,
+                                               @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+      {
+        return WSS4JAttachment.createIncomingFileAttachment (aBodyPart, aResHelper);
+      }
+
+      @Override
+      @Nonnull
+      public WSS4JAttachment createAttachment (@Nonnull final InternetHeaders aHeaders,
+                                               @Nonnull @WillNotClose final InputStream aBodyIS,
+                                               @Nonnull final AS4ResourceHelper aResHelper) throws IOException, MessagingException
+      {
+        return WSS4JAttachment.createIncomingFileAttachment (aHeaders, aBodyIS, aStorage, aResHelper);
+      }
+
+      @Override
+      @Nonnull
+      public IAS4IncomingAttachmentStorage getAttachmentStorage ()
+      {
+        return aStorage;
+      }
+    };
+  }
 }
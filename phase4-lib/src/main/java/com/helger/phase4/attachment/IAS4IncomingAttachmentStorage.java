@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.WillNotClose;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Storage strategy for the content of incoming attachments. It decides where
+ * the (decoded) attachment content is kept until the processing of the
+ * incoming message is finished.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4IncomingAttachmentStorage
+{
+  /**
+   * Store the content of the provided input stream.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is read
+   *        until the end but not closed.
+   * @param aResHelper
+   *        The resource helper of the current message. All resources allocated
+   *        for the content must be registered there, so that they are freed
+   *        when the message processing is finished. May not be
+   *        <code>null</code>.
+   * @return A provider for the stored content that can be read more than once.
+   *         Never <code>null</code>.
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nonnull
+  IHasInputStream store (@Nonnull @WillNotClose InputStream aIS, @Nonnull AS4ResourceHelper aResHelper) throws IOException;
+}
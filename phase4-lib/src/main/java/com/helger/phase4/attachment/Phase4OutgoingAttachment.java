@@ -28,6 +28,7 @@ import com.helger.commons.io.ByteArrayWrapper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 
 /**
@@ -193,6 +194,7 @@ public class Phase4OutgoingAttachment
     private String m_sFilename;
     private IMimeType m_aMimeType;
     private EAS4CompressionMode m_eCompressionMode;
+    private boolean m_bCompressionSpecified = false;
     private Charset m_aCharset;
 
     public Builder ()
@@ -269,13 +271,33 @@ public class Phase4OutgoingAttachment
       return compression (EAS4CompressionMode.GZIP);
     }
 
+    /**
+     * Set the compression mode to be used. The provided value is always used,
+     * even for already compressed content. If this method is not called, see
+     * {@link AS4Configuration#isOutgoingCompressionSkipCompressed()}.
+     *
+     * @param e
+     *        The compression mode to use. May be <code>null</code> for no
+     *        compression.
+     * @return this for chaining
+     */
     @Nonnull
     public Builder compression (@Nullable final EAS4CompressionMode e)
     {
       m_eCompressionMode = e;
+      m_bCompressionSpecified = true;
       return this;
     }
 
+    @Nullable
+    private EAS4CompressionMode _getEffectiveCompressionMode ()
+    {
+      if (m_bCompressionSpecified || !AS4Configuration.isOutgoingCompressionSkipCompressed ())
+        return m_eCompressionMode;
+      // No explicit choice - compress, unless it is already compressed
+      return EAS4CompressionMode.isAlreadyCompressedMimeType (m_aMimeType) ? null : EAS4CompressionMode.GZIP;
+    }
+
     /**
      * Define the charset of the outgoing attachment.
      *
@@ -303,7 +325,7 @@ public class Phase4OutgoingAttachment
                                            m_sContentID,
                                            m_sFilename,
                                            m_aMimeType,
-                                           m_eCompressionMode,
+                                           _getEffectiveCompressionMode (),
                                            m_aCharset);
     }
   }
@@ -24,27 +24,35 @@ import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.util.Enumeration;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.mail.Header;
 import javax.mail.MessagingException;
+import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
 
 import org.apache.wss4j.common.ext.Attachment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.annotation.UnsupportedOperation;
+import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.http.CHttpHeader;
 import com.helger.commons.io.IHasInputStream;
@@ -52,11 +60,13 @@ import com.helger.commons.io.file.FileHelper;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.mail.datasource.InputStreamProviderDataSource;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.util.AS4ResourceHelper;
 
@@ -336,6 +346,47 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     aAttachment.addHeader (CHttpHeader.CONTENT_TYPE, aAttachment.getMimeType ());
   }
 
+  /**
+   * Compress the source stream into the destination file. GZIP compression of
+   * large sources is performed block-wise in parallel.
+   *
+   * @param eCompressionMode
+   *        Compression mode to use. May not be <code>null</code>.
+   * @param aIS
+   *        The uncompressed source. Is closed afterwards.
+   * @param nSrcSize
+   *        The number of bytes of the source.
+   * @param aDstFile
+   *        The file to write the compressed content to.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   * @see AS4Configuration#getOutgoingCompressionParallelThreshold()
+   * @see AS4Configuration#getOutgoingCompressionLevel()
+   */
+  private static void _compress (@Nonnull final EAS4CompressionMode eCompressionMode,
+                                 @Nonnull @WillClose final InputStream aIS,
+                                 final long nSrcSize,
+                                 @Nonnull final File aDstFile) throws IOException
+  {
+    final int nLevel = AS4Configuration.getOutgoingCompressionLevel ();
+    final long nParallelThreshold = AS4Configuration.getOutgoingCompressionParallelThreshold ();
+    if (eCompressionMode == EAS4CompressionMode.GZIP && nParallelThreshold > 0 && nSrcSize >= nParallelThreshold)
+    {
+      try (final InputStream aSrcIS = aIS; final OutputStream aOS = FileHelper.getBufferedOutputStream (aDstFile))
+      {
+        new AS4ParallelGZIPCompressor (ForkJoinPool.commonPool (), AS4ParallelGZIPCompressor.DEFAULT_BLOCK_SIZE, nLevel).compress (aSrcIS,
+                                                                                                                                aOS);
+      }
+    }
+    else
+    {
+      try (final OutputStream aOS = eCompressionMode.getCompressStream (FileHelper.getBufferedOutputStream (aDstFile), nLevel))
+      {
+        StreamHelper.copyInputStreamToOutputStream (aIS, aOS);
+      }
+    }
+  }
+
   @Nonnull
   public static WSS4JAttachment createOutgoingFileAttachment (@Nonnull final Phase4OutgoingAttachment aAttachment,
                                                               @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
@@ -367,6 +418,69 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
     throw new IllegalStateException ("Unsupported outgoing attachment data provider: " + aAttachment);
   }
 
+  /**
+   * Create all outgoing attachments. If more than one attachment needs to be
+   * compressed, the attachments are created in parallel on the common
+   * {@link ForkJoinPool}.
+   *
+   * @param aAttachments
+   *        The attachments to be created. May be <code>null</code>.
+   * @param aResHelper
+   *        The resource manager to use. May not be <code>null</code>.
+   * @return The created attachments in the same order as the source
+   *         attachments. Never <code>null</code>.
+   * @throws IOException
+   *         In case something goes wrong during compression
+   * @since 1.3.2
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <WSS4JAttachment> createOutgoingFileAttachments (@Nullable final Iterable <? extends Phase4OutgoingAttachment> aAttachments,
+                                                                              @Nonnull @WillNotClose final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final ICommonsList <Phase4OutgoingAttachment> aSrcList = new CommonsArrayList <> (aAttachments);
+    final ICommonsList <WSS4JAttachment> ret = new CommonsArrayList <> (aSrcList.size ());
+    if (aSrcList.getCount (x -> x.getCompressionMode () != null) <= 1)
+    {
+      // Nothing to parallelize
+      for (final Phase4OutgoingAttachment aAttachment : aSrcList)
+        ret.add (createOutgoingFileAttachment (aAttachment, aResHelper));
+      return ret;
+    }
+
+    final ICommonsList <ForkJoinTask <WSS4JAttachment>> aTasks = new CommonsArrayList <> (aSrcList.size ());
+    for (final Phase4OutgoingAttachment aAttachment : aSrcList)
+      aTasks.add (ForkJoinPool.commonPool ().submit ( () -> createOutgoingFileAttachment (aAttachment, aResHelper)));
+    try
+    {
+      for (final ForkJoinTask <WSS4JAttachment> aTask : aTasks)
+        ret.add (aTask.get ());
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new IOException ("Interrupted while creating outgoing attachments", ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof IOException)
+        throw (IOException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      throw new IOException ("Failed to create outgoing attachments", aCause);
+    }
+    finally
+    {
+      // In case of an error
+      for (final ForkJoinTask <WSS4JAttachment> aTask : aTasks)
+        aTask.cancel (false);
+    }
+    return ret;
+  }
+
   /**
    * Quasi constructor. Performs compression internally if necessary.
    *
@@ -417,10 +531,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
       // Create temporary file with compressed content to avoid that the
       // original is compressed more than once
       aRealFile = aResHelper.createTempFile ();
-      try (final OutputStream aOS = eCompressionMode.getCompressStream (FileHelper.getBufferedOutputStream (aRealFile)))
-      {
-        StreamHelper.copyInputStreamToOutputStream (FileHelper.getBufferedInputStream (aSrcFile), aOS);
-      }
+      _compress (eCompressionMode, FileHelper.getBufferedInputStream (aSrcFile), aSrcFile.length (), aRealFile);
     }
     else
     {
@@ -483,10 +594,7 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
       // Create temporary file with compressed content
       final File aRealFile = aResHelper.createTempFile ();
-      try (final OutputStream aOS = eCompressionMode.getCompressStream (FileHelper.getBufferedOutputStream (aRealFile)))
-      {
-        aOS.write (aSrcData);
-      }
+      _compress (eCompressionMode, new NonBlockingByteArrayInputStream (aSrcData), aSrcData.length, aRealFile);
       ret.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aRealFile)));
     }
     else
@@ -503,11 +611,13 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
    *
    * @param nBytes
    *        File size.
-   * @return <code>true</code> if the size is &le; than 64 Kilobytes
+   * @return <code>true</code> if the size is &le; than the configured
+   *         threshold (64 Kilobytes by default)
+   * @see AS4Configuration#getIncomingAttachmentInMemoryThreshold()
    */
   public static boolean canBeKeptInMemory (final long nBytes)
   {
-    return nBytes <= 64 * CGlobal.BYTES_PER_KILOBYTE;
+    return nBytes <= AS4Configuration.getIncomingAttachmentInMemoryThreshold ();
   }
 
   @Nonnull
@@ -590,4 +700,99 @@ public class WSS4JAttachment extends Attachment implements IAS4Attachment
 
     return ret;
   }
+
+  /**
+   * Create an incoming attachment from the MIME part headers and the
+   * (undecoded) MIME part body, without buffering the whole MIME part. The body
+   * is decoded according to the "Content-Transfer-Encoding" header and stored
+   * according to the {@link AS4IncomingAttachmentStorage} created from the
+   * configuration in one pass.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The MIME part body. May not be <code>null</code>. Is read until the
+   *        end but not closed.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @return The newly created attachment. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is unsupported
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                              @Nonnull @WillNotClose final InputStream aBodyIS,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws MessagingException,
+                                                                                                           IOException
+  {
+    return createIncomingFileAttachment (aHeaders, aBodyIS, AS4IncomingAttachmentStorage.createFromConfiguration (), aResHelper);
+  }
+
+  /**
+   * Create an incoming attachment from the MIME part headers and the
+   * (undecoded) MIME part body, without buffering the whole MIME part. The body
+   * is decoded according to the "Content-Transfer-Encoding" header and stored
+   * with the provided storage strategy in one pass.
+   *
+   * @param aHeaders
+   *        The MIME part headers. May not be <code>null</code>.
+   * @param aBodyIS
+   *        The MIME part body. May not be <code>null</code>. Is read until the
+   *        end but not closed.
+   * @param aStorage
+   *        The storage strategy for the decoded content. May not be
+   *        <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @return The newly created attachment. Never <code>null</code>.
+   * @throws MessagingException
+   *         In case the Content-Transfer-Encoding is unsupported
+   * @throws IOException
+   *         In case of IO error
+   * @since 1.3.2
+   */
+  @Nonnull
+  public static WSS4JAttachment createIncomingFileAttachment (@Nonnull final InternetHeaders aHeaders,
+                                                              @Nonnull @WillNotClose final InputStream aBodyIS,
+                                                              @Nonnull final IAS4IncomingAttachmentStorage aStorage,
+                                                              @Nonnull final AS4ResourceHelper aResHelper) throws MessagingException,
+                                                                                                           IOException
+  {
+    ValueEnforcer.notNull (aHeaders, "Headers");
+    ValueEnforcer.notNull (aBodyIS, "BodyIS");
+    ValueEnforcer.notNull (aStorage, "Storage");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    final String sContentType = aHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null);
+    final WSS4JAttachment ret = new WSS4JAttachment (aResHelper, sContentType != null ? sContentType : CMimeType.TEXT_PLAIN.getAsString ());
+
+    {
+      // Reference in Content-ID header is: "<ID>"
+      final String sRealContentID = StringHelper.trimStartAndEnd (aHeaders.getHeader (CHttpHeader.CONTENT_ID, null), '<', '>');
+      ret.setId (sRealContentID);
+    }
+
+    // Decode on the fly
+    final String sCTE = aHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+    final InputStream aDecodedIS = StringHelper.hasText (sCTE) ? MimeUtility.decode (aBodyIS, sCTE.trim ()) : aBodyIS;
+    ret.setSourceStreamProvider (aStorage.store (aDecodedIS, aResHelper));
+
+    // Read all MIME part headers
+    final Enumeration <Header> aEnum = aHeaders.getAllHeaders ();
+    while (aEnum.hasMoreElements ())
+    {
+      final Header aHeader = aEnum.nextElement ();
+      ret.addHeader (aHeader.getName (), aHeader.getValue ());
+    }
+
+    // These headers are mandatory and overwrite headers from the MIME body part
+    ret.addHeader (CHttpHeader.CONTENT_DESCRIPTION, CONTENT_DESCRIPTION_ATTACHMENT);
+    ret.addHeader (CHttpHeader.CONTENT_ID, CONTENT_ID_PREFIX + ret.getId () + CONTENT_ID_SUFFIX);
+    ret.addHeader (CHttpHeader.CONTENT_TYPE, ret.getMimeType ());
+
+    return ret;
+  }
 }
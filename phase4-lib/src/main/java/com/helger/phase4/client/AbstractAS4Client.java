@@ -19,6 +19,9 @@ package com.helger.phase4.client;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
@@ -36,6 +39,7 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.traits.IGenericImplTrait;
 import com.helger.commons.wrapper.Wrapper;
@@ -46,6 +50,7 @@ import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
 import com.helger.phase4.http.AS4HttpDebug;
+import com.helger.phase4.http.AS4RetryScheduler;
 import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.http.IHttpPoster;
@@ -491,6 +496,168 @@ public abstract class AbstractAS4Client <IMPLTYPE extends AbstractAS4Client <IMP
     return new AS4ClientSentMessage <> (aBuiltMsg, aStatusLineKeeper.get (), aResponseHeaders, aResponseContent);
   }
 
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageWithRetries(String, ResponseHandler, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4RetryCallback)}
+   * that runs on the provided executor. This client must not be modified until
+   * the returned future is completed.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain
+   *        object. May not be <code>null</code>.
+   * @param aCallback
+   *        An optional callback for the different stages of building the
+   *        document. May be <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If
+   *        <code>null</code> the global outgoing dumper from
+   *        {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level.
+   *        May be <code>null</code>.
+   * @param aExecutor
+   *        The executor to run the sending on. May not be <code>null</code>.
+   * @return The future with the sent message. Never <code>null</code>. Any
+   *         exception is propagated as the cause of the exceptional
+   *         completion.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final <T> CompletableFuture <AS4ClientSentMessage <T>> sendMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                                             @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+                                                                                             @Nullable final IAS4ClientBuildMessageCallback aCallback,
+                                                                                             @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                             @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                                             @Nonnull final Executor aExecutor)
+  {
+    ValueEnforcer.notNull (aExecutor, "Executor");
+    return CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return sendMessageWithRetries (sURL, aResponseHandler, aCallback, aOutgoingDumper, aRetryCallback);
+      }
+      catch (final IOException | WSSecurityException | MessagingException ex)
+      {
+        throw new CompletionException (ex);
+      }
+    }, aExecutor);
+  }
+
+  /**
+   * Asynchronous version of
+   * {@link #sendMessageWithRetries(String, ResponseHandler, IAS4ClientBuildMessageCallback, IAS4OutgoingDumper, IAS4RetryCallback)}
+   * that builds the message in the calling thread and uses the provided retry
+   * scheduler for the HTTP transmission. No thread is blocked while waiting
+   * for a retry.<br>
+   * A repeatable built message is sent as is. Only if retries or dumping are
+   * enabled and the built message is not repeatable, it is copied to a
+   * temporary file that is owned by the transmission and deleted when the
+   * returned future is completed. As the built message may still reference
+   * attachments, the {@link AS4ResourceHelper} of this client may only be
+   * closed after the returned future is completed.
+   *
+   * @param <T>
+   *        The response data type
+   * @param sURL
+   *        The URL to send the HTTP POST to
+   * @param aResponseHandler
+   *        The response handler that converts the HTTP response to a domain
+   *        object. May not be <code>null</code>.
+   * @param aCallback
+   *        An optional callback for the different stages of building the
+   *        document. May be <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If
+   *        <code>null</code> the global outgoing dumper from
+   *        {@link AS4DumpManager} is used.
+   * @param aRetryCallback
+   *        An optional callback to be invoked if a retry happens on HTTP level.
+   *        May be <code>null</code>.
+   * @param aRetryScheduler
+   *        The retry scheduler to be used. May not be <code>null</code>.
+   * @return The future with the sent message. Never <code>null</code>.
+   * @throws IOException
+   *         in case of error when building the message
+   * @throws WSSecurityException
+   *         In case there is an issue with signing/encryption
+   * @throws MessagingException
+   *         in case something happens in MIME wrapping
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final <T> CompletableFuture <AS4ClientSentMessage <T>> sendMessageWithRetriesAsync (@Nonnull final String sURL,
+                                                                                             @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+                                                                                             @Nullable final IAS4ClientBuildMessageCallback aCallback,
+                                                                                             @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                                             @Nullable final IAS4RetryCallback aRetryCallback,
+                                                                                             @Nonnull final AS4RetryScheduler aRetryScheduler) throws IOException,
+                                                                                                                                               WSSecurityException,
+                                                                                                                                               MessagingException
+  {
+    ValueEnforcer.notNull (aRetryScheduler, "RetryScheduler");
+
+    // Create a new message ID for each build!
+    final String sMessageID = createMessageID ();
+    final AS4ClientBuiltMessage aBuiltMsg = buildMessage (sMessageID, aCallback);
+    HttpEntity aBuiltEntity = aBuiltMsg.getHttpEntity ();
+    final HttpHeaderMap aBuiltHttpHeaders = aBuiltMsg.getCustomHeaders ();
+
+    // Temporary files created here are owned by the transmission, as it
+    // outlives this call
+    final AS4ResourceHelper aTransmissionResHelper;
+    if (!aBuiltEntity.isRepeatable () &&
+        (m_aHttpRetrySettings.isRetryEnabled () || aOutgoingDumper != null || AS4DumpManager.getOutgoingDumper () != null))
+    {
+      aTransmissionResHelper = new AS4ResourceHelper ();
+      try
+      {
+        // Ensure a repeatable entity is provided
+        aBuiltEntity = aTransmissionResHelper.createRepeatableHttpEntity (aBuiltEntity);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        aTransmissionResHelper.close ();
+        throw ex;
+      }
+    }
+    else
+      aTransmissionResHelper = null;
+
+    // Keep the HTTP response status line for external evaluation
+    final Wrapper <StatusLine> aStatusLineKeeper = new Wrapper <> ();
+    // Keep the HTTP response headers for external evaluation
+    final HttpHeaderMap aResponseHeaders = new HttpHeaderMap ();
+
+    final ResponseHandler <T> aRealResponseHandler = x -> {
+      // Remember the HTTP response data
+      aStatusLineKeeper.set (x.getStatusLine ());
+      final Header [] aHeaders = x.getAllHeaders ();
+      if (aHeaders != null)
+        for (final Header aHeader : aHeaders)
+          aResponseHeaders.addHeader (aHeader.getName (), aHeader.getValue ());
+      // Call the original handler
+      return aResponseHandler.handleResponse (x);
+    };
+    return aRetryScheduler.sendGenericMessageWithRetriesAsync (m_aHttpPoster,
+                                                               sURL,
+                                                               aBuiltHttpHeaders,
+                                                               aBuiltEntity,
+                                                               sMessageID,
+                                                               m_aHttpRetrySettings,
+                                                               aRealResponseHandler,
+                                                               aOutgoingDumper,
+                                                               aRetryCallback)
+                          .whenComplete ( (x, ex) -> StreamHelper.close (aTransmissionResHelper))
+                          .thenApply (aResponseContent -> new AS4ClientSentMessage <> (aBuiltMsg,
+                                                                                       aStatusLineKeeper.get (),
+                                                                                       aResponseHeaders,
+                                                                                       aResponseContent));
+  }
+
   @Nullable
   public IMicroDocument sendMessageAndGetMicroDocument (@Nonnull final String sURL) throws WSSecurityException,
                                                                                     IOException,
@@ -25,6 +25,7 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.equals.EqualsHelper;
@@ -63,7 +64,38 @@ public final class AS4Configuration
   public static final String PROPERTY_PHASE4_WSS4J_SYNCSECURITY = "phase4.wss4j.syncsecurity";
   public static final boolean DEFAULT_PHASE4_WSS4J_SYNCSECURITY = false;
 
+  /**
+   * The boolean property to enable lock-free concurrent sign/verify and
+   * encrypt/decrypt with pre-initialized WSS4J objects. Only effective if
+   * {@link #PROPERTY_PHASE4_WSS4J_SYNCSECURITY} is disabled.
+   *
+   * @since 1.3.2
+   */
+  public static final String PROPERTY_PHASE4_WSS4J_CONCURRENTSECURITY = "phase4.wss4j.concurrentsecurity";
+  public static final boolean DEFAULT_PHASE4_WSS4J_CONCURRENTSECURITY = false;
+
   public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES = 10;
+  public static final long DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_EXPECTEDINSERTIONS = 1_000_000;
+  public static final double DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_FPP = 0.01;
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_THRESHOLD = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_THRESHOLD = CGlobal.BYTES_PER_MEGABYTE;
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_POOLSIZE = 32 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final long DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_MAXSIZE = 128 * CGlobal.BYTES_PER_MEGABYTE;
+  public static final boolean DEFAULT_PHASE4_INCOMING_ATTACHMENT_MMAP = false;
+  public static final boolean DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED = false;
+  public static final long DEFAULT_PHASE4_INCOMING_SOAPBODY_SPOOL_THRESHOLD = -1;
+  public static final long DEFAULT_PHASE4_OUTGOING_COMPRESSION_PARALLEL_THRESHOLD = CGlobal.BYTES_PER_MEGABYTE;
+  // Let the codec decide
+  public static final int DEFAULT_PHASE4_OUTGOING_COMPRESSION_LEVEL = -1;
+  public static final boolean DEFAULT_PHASE4_OUTGOING_COMPRESSION_SKIPCOMPRESSED = false;
+  public static final int DEFAULT_PHASE4_OUTGOING_ASYNC_MAXTHREADS = 16;
+  public static final int DEFAULT_PHASE4_OUTGOING_ASYNC_QUEUESIZE = 1_000;
+  public static final int DEFAULT_PHASE4_SMP_ENDPOINTCACHE_MAXSIZE = 10_000;
+  public static final long DEFAULT_PHASE4_SMP_ENDPOINTCACHE_TTL_MINUTES = 60;
+  public static final long DEFAULT_PHASE4_SMP_ENDPOINTCACHE_NEGATIVETTL_MINUTES = 5;
+  public static final int DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_MAXSIZE = 0;
+  public static final long DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_TTL_MINUTES = 60;
+  public static final long DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_REVOCATION_TTL_MINUTES = 10;
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4Configuration.class);
 
@@ -219,6 +251,20 @@ public final class AS4Configuration
     return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_SYNCSECURITY);
   }
 
+  /**
+   * @return <code>true</code> if WSS4J security should be executed
+   *         concurrently with pooled, pre-initialized objects. If
+   *         {@link #isWSS4JSynchronizedSecurity()} is enabled, it takes
+   *         precedence. Defaults to <code>false</code>.
+   * @since 1.3.2
+   */
+  public static boolean isWSS4JConcurrentSecurity ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString (PROPERTY_PHASE4_WSS4J_CONCURRENTSECURITY);
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_WSS4J_CONCURRENTSECURITY);
+  }
+
   @Nullable
   public static String getAS4ProfileID ()
   {
@@ -236,6 +282,280 @@ public final class AS4Configuration
     return getConfig ().getAsLong ("phase4.incoming.duplicatedisposal.minutes", DEFAULT_PHASE4_INCOMING_DUPLICATEDISPOSAL_MINUTES);
   }
 
+  /**
+   * @return <code>true</code> if a probabilistic filter should be put in front
+   *         of the incoming duplicate manager. Defaults to <code>false</code>.
+   * @since 1.3.2
+   */
+  public static boolean isIncomingDuplicateFilterEnabled ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString ("phase4.incoming.duplicatefilter.enabled");
+    return StringParser.parseBool (sValue, false);
+  }
+
+  /**
+   * @return The expected number of incoming message IDs per disposal window,
+   *         used to size the duplicate filter. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_EXPECTEDINSERTIONS}.
+   * @since 1.3.2
+   */
+  public static long getIncomingDuplicateFilterExpectedInsertions ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.duplicatefilter.expectedinsertions",
+                                   DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_EXPECTEDINSERTIONS);
+  }
+
+  /**
+   * @return The desired false positive probability of the duplicate filter.
+   *         Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_FPP}.
+   * @since 1.3.2
+   */
+  public static double getIncomingDuplicateFilterFalsePositiveProbability ()
+  {
+    return getConfig ().getAsDouble ("phase4.incoming.duplicatefilter.fpp", DEFAULT_PHASE4_INCOMING_DUPLICATEFILTER_FPP);
+  }
+
+  /**
+   * @return The maximum number of bytes of an incoming attachment that is kept
+   *         on the heap. Larger attachments are stored in direct buffers or
+   *         in temporary files.
+   *         Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_THRESHOLD}.
+   * @since 1.3.2
+   */
+  public static long getIncomingAttachmentInMemoryThreshold ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.attachment.inmemory.threshold",
+                                   DEFAULT_PHASE4_INCOMING_ATTACHMENT_INMEMORY_THRESHOLD);
+  }
+
+  /**
+   * @return The maximum number of bytes of an incoming attachment that is kept
+   *         in pooled direct buffers, if it is larger than
+   *         {@link #getIncomingAttachmentInMemoryThreshold()}. Larger
+   *         attachments are stored in temporary files. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_THRESHOLD}.
+   * @since 1.3.2
+   */
+  public static long getIncomingAttachmentDirectBufferThreshold ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.attachment.directbuffer.threshold",
+                                   DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_THRESHOLD);
+  }
+
+  /**
+   * @return The maximum number of bytes of released direct buffers that are
+   *         kept for reuse. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_POOLSIZE}.
+   * @since 1.3.2
+   */
+  public static long getIncomingAttachmentDirectBufferPoolSize ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.attachment.directbuffer.poolsize",
+                                   DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_POOLSIZE);
+  }
+
+  /**
+   * @return The maximum number of bytes of direct buffers that are in use or
+   *         pooled at the same time. If it is reached, incoming attachments
+   *         are stored in temporary files. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_MAXSIZE}.
+   * @since 1.3.2
+   */
+  public static long getIncomingAttachmentDirectBufferMaxSize ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.attachment.directbuffer.maxsize",
+                                   DEFAULT_PHASE4_INCOMING_ATTACHMENT_DIRECTBUFFER_MAXSIZE);
+  }
+
+  /**
+   * @return <code>true</code> if incoming attachments stored in temporary
+   *         files should be read via memory mapping. Memory mapped files are
+   *         only unmapped by the garbage collector, so this may keep deleted
+   *         temporary files on disk for a while. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_ATTACHMENT_MMAP}.
+   * @since 1.3.2
+   */
+  public static boolean isIncomingAttachmentMemoryMapped ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString ("phase4.incoming.attachment.mmap");
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_ATTACHMENT_MMAP);
+  }
+
+  /**
+   * @return <code>true</code> if the <code>eb:Messaging</code> header of
+   *         incoming messages should be pre-scanned with StAX, so that
+   *         duplicates and messages without a matching PMode can be rejected
+   *         before the full DOM is built. Defaults to
+   *         {@value #DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED}.
+   * @since 1.3.2
+   */
+  public static boolean isIncomingPreScanEnabled ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString ("phase4.incoming.prescan.enabled");
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_INCOMING_PRESCAN_ENABLED);
+  }
+
+  /**
+   * @return The number of bytes of a plain (non-MIME) SOAP request from which
+   *         on the SOAP Body payload is spooled to a temporary file instead of
+   *         being parsed into the DOM. Values &le; 0 disable spooling. Defaults
+   *         to {@value #DEFAULT_PHASE4_INCOMING_SOAPBODY_SPOOL_THRESHOLD}.
+   * @since 1.3.2
+   */
+  public static long getIncomingSoapBodySpoolThreshold ()
+  {
+    return getConfig ().getAsLong ("phase4.incoming.soapbody.spool.threshold", DEFAULT_PHASE4_INCOMING_SOAPBODY_SPOOL_THRESHOLD);
+  }
+
+  /**
+   * @return The number of bytes of an outgoing attachment from which on GZIP
+   *         compression is performed block-wise in parallel. Values &le; 0
+   *         disable the parallel compression. Defaults to
+   *         {@value #DEFAULT_PHASE4_OUTGOING_COMPRESSION_PARALLEL_THRESHOLD}.
+   * @since 1.3.2
+   */
+  public static long getOutgoingCompressionParallelThreshold ()
+  {
+    return getConfig ().getAsLong ("phase4.outgoing.compression.parallel.threshold",
+                                   DEFAULT_PHASE4_OUTGOING_COMPRESSION_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * @return The compression level used for outgoing attachments. From 0 (no
+   *         compression) to 9 (best compression) or -1 for the codec default.
+   *         Invalid values are replaced with the default. Defaults to
+   *         {@value #DEFAULT_PHASE4_OUTGOING_COMPRESSION_LEVEL}.
+   * @since 1.3.2
+   */
+  public static int getOutgoingCompressionLevel ()
+  {
+    final int ret = getConfig ().getAsInt ("phase4.outgoing.compression.level", DEFAULT_PHASE4_OUTGOING_COMPRESSION_LEVEL);
+    if (ret < -1 || ret > 9)
+    {
+      LOGGER.warn ("The configured outgoing compression level " + ret + " is invalid - using the default");
+      return DEFAULT_PHASE4_OUTGOING_COMPRESSION_LEVEL;
+    }
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if outgoing attachments without an explicitly
+   *         specified compression mode are GZIP compressed, unless their MIME
+   *         type denotes already compressed content (like PDF, ZIP or JPEG).
+   *         An explicitly specified compression mode is always used. Defaults
+   *         to
+   *         {@value #DEFAULT_PHASE4_OUTGOING_COMPRESSION_SKIPCOMPRESSED}.
+   * @see com.helger.phase4.attachment.EAS4CompressionMode#isAlreadyCompressedMimeType(com.helger.commons.mime.IMimeType)
+   * @since 1.3.2
+   */
+  public static boolean isOutgoingCompressionSkipCompressed ()
+  {
+    // Parse manually
+    final String sValue = getConfig ().getAsString ("phase4.outgoing.compression.skipcompressed");
+    return StringParser.parseBool (sValue, DEFAULT_PHASE4_OUTGOING_COMPRESSION_SKIPCOMPRESSED);
+  }
+
+  /**
+   * @return The maximum number of threads of the default executor used for
+   *         asynchronous sending. Values &le; 0 are replaced with the default.
+   *         Defaults to {@value #DEFAULT_PHASE4_OUTGOING_ASYNC_MAXTHREADS}.
+   * @since 1.3.2
+   */
+  public static int getOutgoingAsyncMaxThreads ()
+  {
+    final int ret = getConfig ().getAsInt ("phase4.outgoing.async.maxthreads", DEFAULT_PHASE4_OUTGOING_ASYNC_MAXTHREADS);
+    return ret > 0 ? ret : DEFAULT_PHASE4_OUTGOING_ASYNC_MAXTHREADS;
+  }
+
+  /**
+   * @return The maximum number of asynchronous transmissions waiting for a
+   *         thread of the default executor. Values &le; 0 are replaced with the
+   *         default. Defaults to
+   *         {@value #DEFAULT_PHASE4_OUTGOING_ASYNC_QUEUESIZE}.
+   * @since 1.3.2
+   */
+  public static int getOutgoingAsyncQueueSize ()
+  {
+    final int ret = getConfig ().getAsInt ("phase4.outgoing.async.queuesize", DEFAULT_PHASE4_OUTGOING_ASYNC_QUEUESIZE);
+    return ret > 0 ? ret : DEFAULT_PHASE4_OUTGOING_ASYNC_QUEUESIZE;
+  }
+
+  /**
+   * @return The maximum number of SMP endpoint lookup results that are cached
+   *         by the endpoint detail providers. Values &le; 0 disable the cache.
+   *         Defaults to {@value #DEFAULT_PHASE4_SMP_ENDPOINTCACHE_MAXSIZE}.
+   * @since 1.3.2
+   */
+  public static int getSMPEndpointCacheMaxSize ()
+  {
+    return getConfig ().getAsInt ("phase4.smp.endpointcache.maxsize", DEFAULT_PHASE4_SMP_ENDPOINTCACHE_MAXSIZE);
+  }
+
+  /**
+   * @return The number of minutes a successfully resolved SMP endpoint is
+   *         cached. Defaults to
+   *         {@value #DEFAULT_PHASE4_SMP_ENDPOINTCACHE_TTL_MINUTES}.
+   * @since 1.3.2
+   */
+  public static long getSMPEndpointCacheTTLMinutes ()
+  {
+    return getConfig ().getAsLong ("phase4.smp.endpointcache.ttl.minutes", DEFAULT_PHASE4_SMP_ENDPOINTCACHE_TTL_MINUTES);
+  }
+
+  /**
+   * @return The number of minutes an SMP lookup that found no endpoint is
+   *         cached. Defaults to
+   *         {@value #DEFAULT_PHASE4_SMP_ENDPOINTCACHE_NEGATIVETTL_MINUTES}.
+   * @since 1.3.2
+   */
+  public static long getSMPEndpointCacheNegativeTTLMinutes ()
+  {
+    return getConfig ().getAsLong ("phase4.smp.endpointcache.negativettl.minutes",
+                                   DEFAULT_PHASE4_SMP_ENDPOINTCACHE_NEGATIVETTL_MINUTES);
+  }
+
+  /**
+   * @return The maximum number of successful trust validations of incoming
+   *         signing certificates that are cached. Values &le; 0 disable the
+   *         cache. Defaults to
+   *         {@value #DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_MAXSIZE}, so the cache
+   *         must be enabled explicitly.
+   * @since 1.3.2
+   */
+  public static int getCryptoTrustCacheMaxSize ()
+  {
+    return getConfig ().getAsInt ("phase4.crypto.trustcache.maxsize", DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_MAXSIZE);
+  }
+
+  /**
+   * @return The number of minutes a successful trust validation without
+   *         revocation check is cached. Defaults to
+   *         {@value #DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_TTL_MINUTES}.
+   * @since 1.3.2
+   */
+  public static long getCryptoTrustCacheTTLMinutes ()
+  {
+    return getConfig ().getAsLong ("phase4.crypto.trustcache.ttl.minutes", DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_TTL_MINUTES);
+  }
+
+  /**
+   * @return The number of minutes a successful trust validation including the
+   *         revocation check is cached. This defines how current the
+   *         revocation status must be. Defaults to
+   *         {@value #DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_REVOCATION_TTL_MINUTES}.
+   * @since 1.3.2
+   */
+  public static long getCryptoTrustCacheRevocationTTLMinutes ()
+  {
+    return getConfig ().getAsLong ("phase4.crypto.trustcache.revocation.ttl.minutes",
+                                   DEFAULT_PHASE4_CRYPTO_TRUSTCACHE_REVOCATION_TTL_MINUTES);
+  }
+
   @Nonnull
   public static String getDumpBasePath ()
   {
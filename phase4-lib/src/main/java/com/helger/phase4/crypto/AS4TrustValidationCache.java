@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ExpiringCache;
+
+/**
+ * A bounded cache for successful trust validations (PKIX path building incl.
+ * the optional revocation check) of certificate chains, as performed by
+ * {@link org.apache.wss4j.common.crypto.Crypto#verifyTrust(X509Certificate[], boolean, Collection, Collection)}.
+ * The key consists of the SHA-256 fingerprints of the certificate chain, the
+ * revocation flag, the certificate constraints and the version of the trust
+ * store. Failed validations are never cached.<br>
+ * Validations including the revocation check use a separate (usually shorter)
+ * TTL, so that the revocation status has a bounded age. Certificate chains
+ * that are not currently valid are never looked up in the cache.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4TrustValidationCache
+{
+  /**
+   * Callback interface for the real trust validation.
+   *
+   * @author Philip Helger
+   */
+  @FunctionalInterface
+  public interface ITrustVerifier
+  {
+    /**
+     * Perform the trust validation.
+     *
+     * @throws WSSecurityException
+     *         if the certificates are not trusted
+     */
+    void verifyTrust () throws WSSecurityException;
+  }
+
+  @Immutable
+  private static final class Key
+  {
+    private final String m_sFingerprint;
+    private final boolean m_bEnableRevocation;
+    private final String m_sConstraints;
+    private final String m_sTrustStoreVersion;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (@Nonnull final String sFingerprint,
+         final boolean bEnableRevocation,
+         @Nonnull final String sConstraints,
+         @Nonnull final String sTrustStoreVersion)
+    {
+      m_sFingerprint = sFingerprint;
+      m_bEnableRevocation = bEnableRevocation;
+      m_sConstraints = sConstraints;
+      m_sTrustStoreVersion = sTrustStoreVersion;
+      m_nHashCode = new HashCodeGenerator (this).append (sFingerprint)
+                                                .append (bEnableRevocation)
+                                                .append (sConstraints)
+                                                .append (sTrustStoreVersion)
+                                                .getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sFingerprint.equals (rhs.m_sFingerprint) &&
+             m_bEnableRevocation == rhs.m_bEnableRevocation &&
+             m_sConstraints.equals (rhs.m_sConstraints) &&
+             m_sTrustStoreVersion.equals (rhs.m_sTrustStoreVersion);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Fingerprint", m_sFingerprint)
+                                         .append ("EnableRevocation", m_bEnableRevocation)
+                                         .append ("TrustStoreVersion", m_sTrustStoreVersion)
+                                         .getToString ();
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aRevocationTTL;
+  private final AS4ExpiringCache <Key, Boolean> m_aCache;
+  private final AtomicLong m_aClearCount = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached validations. If more entries are
+   *        added, the least recently used ones are removed. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum age of a cached validation without revocation check.
+   *        May not be <code>null</code> and must be positive.
+   * @param aRevocationTTL
+   *        The maximum age of a cached validation including the revocation
+   *        check. May not be <code>null</code> and must be positive.
+   */
+  public AS4TrustValidationCache (@Nonnegative final int nMaxSize, @Nonnull final Duration aTTL, @Nonnull final Duration aRevocationTTL)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aRevocationTTL, "RevocationTTL");
+    ValueEnforcer.isFalse (aRevocationTTL.isNegative () || aRevocationTTL.isZero (), "RevocationTTL must be positive");
+    m_aTTL = aTTL;
+    m_aRevocationTTL = aRevocationTTL;
+    m_aCache = new AS4ExpiringCache <> (nMaxSize, this::getCurrentNanoTime);
+  }
+
+  /**
+   * @return The maximum number of cached validations. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return The maximum age of a cached validation without revocation check.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The maximum age of a cached validation including the revocation
+   *         check. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getRevocationTTL ()
+  {
+    return m_aRevocationTTL;
+  }
+
+  /**
+   * @return The current time in nanoseconds, used to determine the age of the
+   *         entries.
+   */
+  protected long getCurrentNanoTime ()
+  {
+    return System.nanoTime ();
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nonnull final X509Certificate [] aCerts)
+  {
+    try
+    {
+      final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+      final StringBuilder aSB = new StringBuilder ();
+      for (final X509Certificate aCert : aCerts)
+      {
+        if (aSB.length () > 0)
+          aSB.append (',');
+        aSB.append (StringHelper.getHexEncoded (aMD.digest (aCert.getEncoded ())));
+      }
+      return aSB.toString ();
+    }
+    catch (final NoSuchAlgorithmException | CertificateEncodingException ex)
+    {
+      throw new IllegalStateException ("Failed to create the fingerprint of the certificates", ex);
+    }
+  }
+
+  private static void _appendPatterns (@Nonnull final StringBuilder aSB, @Nullable final Collection <Pattern> aPatterns)
+  {
+    // Length prefixes, so that no pattern text can be mistaken for a separator
+    if (aPatterns == null)
+      aSB.append ("null;");
+    else
+    {
+      aSB.append (aPatterns.size ()).append (';');
+      for (final Pattern aPattern : aPatterns)
+      {
+        final String sPattern = aPattern.pattern ();
+        aSB.append (aPattern.flags ()).append (':').append (sPattern.length ()).append (':').append (sPattern).append (';');
+      }
+    }
+  }
+
+  private static boolean _areAllCurrentlyValid (@Nonnull final X509Certificate [] aCerts)
+  {
+    try
+    {
+      for (final X509Certificate aCert : aCerts)
+        aCert.checkValidity ();
+      return true;
+    }
+    catch (final CertificateException ex)
+    {
+      return false;
+    }
+  }
+
+  @Nonnull
+  private static Boolean _verify (@Nonnull final ITrustVerifier aVerifier) throws WSSecurityException
+  {
+    // Throws an exception if not trusted
+    aVerifier.verifyTrust ();
+    return Boolean.TRUE;
+  }
+
+  /**
+   * Verify the trust of the provided certificate chain, using a cached
+   * successful validation if possible.
+   *
+   * @param aCerts
+   *        The certificate chain to verify. May be <code>null</code>.
+   * @param bEnableRevocation
+   *        <code>true</code> if the revocation check is enabled.
+   * @param aSubjectCertConstraints
+   *        The subject certificate constraints. May be <code>null</code>.
+   * @param aIssuerCertConstraints
+   *        The issuer certificate constraints. May be <code>null</code>.
+   * @param sTrustStoreVersion
+   *        The version of the trust store, the validation is performed
+   *        against. Whenever the trust store changes, the version must change
+   *        as well. May not be <code>null</code>.
+   * @param aVerifier
+   *        The real trust validation. May not be <code>null</code>.
+   * @throws WSSecurityException
+   *         if the certificates are not trusted
+   */
+  public void verifyTrust (@Nullable final X509Certificate [] aCerts,
+                           final boolean bEnableRevocation,
+                           @Nullable final Collection <Pattern> aSubjectCertConstraints,
+                           @Nullable final Collection <Pattern> aIssuerCertConstraints,
+                           @Nonnull final String sTrustStoreVersion,
+                           @Nonnull final ITrustVerifier aVerifier) throws WSSecurityException
+  {
+    ValueEnforcer.notNull (sTrustStoreVersion, "TrustStoreVersion");
+    ValueEnforcer.notNull (aVerifier, "Verifier");
+
+    if (aCerts == null || aCerts.length == 0)
+    {
+      // Nothing to cache - let the verifier decide
+      aVerifier.verifyTrust ();
+      return;
+    }
+
+    if (!_areAllCurrentlyValid (aCerts))
+    {
+      // Let the verifier report the problem
+      m_aCache.loadUncached ( () -> _verify (aVerifier));
+      return;
+    }
+
+    final StringBuilder aConstraints = new StringBuilder ();
+    _appendPatterns (aConstraints, aSubjectCertConstraints);
+    _appendPatterns (aConstraints, aIssuerCertConstraints);
+    final Key aKey = new Key (_getFingerprint (aCerts), bEnableRevocation, aConstraints.toString (), sTrustStoreVersion);
+    m_aCache.getOrLoad (aKey, () -> _verify (aVerifier), x -> bEnableRevocation ? m_aRevocationTTL : m_aTTL);
+  }
+
+  /**
+   * Remove all cached entries. This should be called if the content of a trust
+   * store was modified without changing its version.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    m_aClearCount.incrementAndGet ();
+    return m_aCache.clearCache ();
+  }
+
+  /**
+   * @return The number of times {@link #clearCache()} was called. Can be used
+   *         to detect explicit invalidations.
+   */
+  @Nonnegative
+  public long getClearCount ()
+  {
+    return m_aClearCount.get ();
+  }
+
+  /**
+   * @return The number of currently cached validations.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The number of validations that were answered from the cache or by
+   *         waiting for a concurrent validation.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount () + m_aCache.getJoinedCount ();
+  }
+
+  /**
+   * @return The number of validations that were performed for real.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("RevocationTTL", m_aRevocationTTL)
+                                       .append ("Cache", m_aCache)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new cache with the settings from {@link AS4Configuration}.
+   *
+   * @return <code>null</code> if the cache is disabled in the configuration.
+   * @see AS4Configuration#getCryptoTrustCacheMaxSize()
+   * @see AS4Configuration#getCryptoTrustCacheTTLMinutes()
+   * @see AS4Configuration#getCryptoTrustCacheRevocationTTLMinutes()
+   */
+  @Nullable
+  public static AS4TrustValidationCache createFromConfiguration ()
+  {
+    final int nMaxSize = AS4Configuration.getCryptoTrustCacheMaxSize ();
+    if (nMaxSize <= 0)
+      return null;
+    return new AS4TrustValidationCache (nMaxSize,
+                                        Duration.ofMinutes (Math.max (1, AS4Configuration.getCryptoTrustCacheTTLMinutes ())),
+                                        Duration.ofMinutes (Math.max (1, AS4Configuration.getCryptoTrustCacheRevocationTTLMinutes ())));
+  }
+}
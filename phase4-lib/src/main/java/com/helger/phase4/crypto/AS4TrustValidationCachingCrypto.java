@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.crypto;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.security.auth.callback.CallbackHandler;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSSecurityException;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A {@link Crypto} implementation that delegates all calls to another
+ * {@link Crypto} instance, but uses an {@link AS4TrustValidationCache} for
+ * {@link #verifyTrust(X509Certificate[], boolean, Collection, Collection)}. If
+ * the delegate is a {@link Merlin} instance, a digest of the aliases and
+ * certificates of its trust store and key store is used as the trust store
+ * version. The digest is only recalculated if another key store instance is
+ * used, if the number of entries of a key store changed or if
+ * {@link AS4TrustValidationCache#clearCache()} was called. So if a certificate
+ * is replaced in place, or if the delegate is no {@link Merlin} instance,
+ * {@link AS4TrustValidationCache#clearCache()} must be called, if the trusted
+ * certificates change.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4TrustValidationCachingCrypto implements Crypto
+{
+  private static final SimpleLock LOCK = new SimpleLock ();
+  // The trust caches per Crypto instance, without preventing garbage
+  // collection of the Crypto instances
+  @GuardedBy ("LOCK")
+  private static final Map <Crypto, CacheEntry> CACHES = new WeakHashMap <> ();
+
+  /**
+   * The cache and the last calculated trust store version shared by all
+   * wrappers of the same crypto instance. It may not reference the crypto
+   * instance itself.
+   */
+  private static final class CacheEntry
+  {
+    private final AS4TrustValidationCache m_aCache;
+    private final AtomicReference <TrustStoreVersion> m_aVersion = new AtomicReference <> ();
+
+    CacheEntry (@Nonnull final AS4TrustValidationCache aCache)
+    {
+      m_aCache = aCache;
+    }
+  }
+
+  /**
+   * The calculated trust store version together with the cheap signals that
+   * are used to decide whether it must be recalculated.
+   */
+  @Immutable
+  private static final class TrustStoreVersion
+  {
+    private final KeyStore m_aTrustStore;
+    private final int m_nTrustStoreSize;
+    private final KeyStore m_aKeyStore;
+    private final int m_nKeyStoreSize;
+    private final long m_nClearCount;
+    private final String m_sVersion;
+
+    TrustStoreVersion (@Nullable final KeyStore aTrustStore,
+                       final int nTrustStoreSize,
+                       @Nullable final KeyStore aKeyStore,
+                       final int nKeyStoreSize,
+                       final long nClearCount,
+                       @Nonnull final String sVersion)
+    {
+      m_aTrustStore = aTrustStore;
+      m_nTrustStoreSize = nTrustStoreSize;
+      m_aKeyStore = aKeyStore;
+      m_nKeyStoreSize = nKeyStoreSize;
+      m_nClearCount = nClearCount;
+      m_sVersion = sVersion;
+    }
+
+    boolean isUpToDate (@Nullable final KeyStore aTrustStore,
+                        final int nTrustStoreSize,
+                        @Nullable final KeyStore aKeyStore,
+                        final int nKeyStoreSize,
+                        final long nClearCount)
+    {
+      // Identity comparison of the key stores on purpose
+      return m_aTrustStore == aTrustStore &&
+             m_nTrustStoreSize == nTrustStoreSize &&
+             m_aKeyStore == aKeyStore &&
+             m_nKeyStoreSize == nKeyStoreSize &&
+             m_nClearCount == nClearCount;
+    }
+  }
+
+  private final Crypto m_aDelegate;
+  private final AS4TrustValidationCache m_aCache;
+  private final AtomicReference <TrustStoreVersion> m_aVersion;
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The crypto instance to delegate to. May not be <code>null</code>.
+   * @param aCache
+   *        The trust validation cache to use. May not be <code>null</code>.
+   */
+  public AS4TrustValidationCachingCrypto (@Nonnull final Crypto aDelegate, @Nonnull final AS4TrustValidationCache aCache)
+  {
+    this (aDelegate, aCache, new AtomicReference <> ());
+  }
+
+  private AS4TrustValidationCachingCrypto (@Nonnull final Crypto aDelegate,
+                                           @Nonnull final AS4TrustValidationCache aCache,
+                                           @Nonnull final AtomicReference <TrustStoreVersion> aVersion)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    ValueEnforcer.notNull (aCache, "Cache");
+    m_aDelegate = aDelegate;
+    m_aCache = aCache;
+    m_aVersion = aVersion;
+  }
+
+  /**
+   * @return The crypto instance all calls are delegated to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Crypto getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  /**
+   * @return The trust validation cache in use. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4TrustValidationCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  private static void _appendVersion (@Nonnull final StringBuilder aSB, @Nullable final KeyStore aKeyStore)
+  {
+    if (aKeyStore == null)
+      aSB.append ("null");
+    else
+    {
+      try
+      {
+        final MessageDigest aMD = MessageDigest.getInstance ("SHA-256");
+        final List <String> aAliases = Collections.list (aKeyStore.aliases ());
+        Collections.sort (aAliases);
+        for (final String sAlias : aAliases)
+        {
+          // Length prefixes, so that the entries cannot be shifted
+          final byte [] aAliasBytes = sAlias.getBytes (StandardCharsets.UTF_8);
+          aMD.update (Integer.toString (aAliasBytes.length).getBytes (StandardCharsets.US_ASCII));
+          aMD.update ((byte) ':');
+          aMD.update (aAliasBytes);
+          final Certificate aCert = aKeyStore.getCertificate (sAlias);
+          final byte [] aCertBytes = aCert == null ? new byte [0] : aCert.getEncoded ();
+          aMD.update (Integer.toString (aCertBytes.length).getBytes (StandardCharsets.US_ASCII));
+          aMD.update ((byte) ':');
+          aMD.update (aCertBytes);
+        }
+        aSB.append (StringHelper.getHexEncoded (aMD.digest ()));
+      }
+      catch (final GeneralSecurityException ex)
+      {
+        // E.g. not initialized
+        aSB.append ('-');
+      }
+    }
+  }
+
+  private static int _getSize (@Nullable final KeyStore aKeyStore)
+  {
+    if (aKeyStore == null)
+      return -1;
+    try
+    {
+      return aKeyStore.size ();
+    }
+    catch (final KeyStoreException ex)
+    {
+      // Not initialized
+      return -2;
+    }
+  }
+
+  /**
+   * @return The version of the trust store used by the delegate. It must
+   *         change whenever the trusted certificates change. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  protected String getTrustStoreVersion ()
+  {
+    if (m_aDelegate instanceof Merlin)
+    {
+      final Merlin aMerlin = (Merlin) m_aDelegate;
+      final KeyStore aTrustStore = aMerlin.getTrustStore ();
+      final int nTrustStoreSize = _getSize (aTrustStore);
+      final KeyStore aKeyStore = aMerlin.getKeyStore ();
+      final int nKeyStoreSize = _getSize (aKeyStore);
+      final long nClearCount = m_aCache.getClearCount ();
+
+      final TrustStoreVersion aVersion = m_aVersion.get ();
+      if (aVersion != null && aVersion.isUpToDate (aTrustStore, nTrustStoreSize, aKeyStore, nKeyStoreSize, nClearCount))
+        return aVersion.m_sVersion;
+
+      // (Re)calculate the digest
+      final StringBuilder aSB = new StringBuilder ();
+      _appendVersion (aSB, aTrustStore);
+      aSB.append (';');
+      _appendVersion (aSB, aKeyStore);
+      final String ret = aSB.toString ();
+      m_aVersion.set (new TrustStoreVersion (aTrustStore, nTrustStoreSize, aKeyStore, nKeyStoreSize, nClearCount, ret));
+      return ret;
+    }
+    return "";
+  }
+
+  public String getCryptoProvider ()
+  {
+    return m_aDelegate.getCryptoProvider ();
+  }
+
+  public void setCryptoProvider (final String sProvider)
+  {
+    m_aDelegate.setCryptoProvider (sProvider);
+  }
+
+  public String getTrustProvider ()
+  {
+    return m_aDelegate.getTrustProvider ();
+  }
+
+  public void setTrustProvider (final String sProvider)
+  {
+    m_aDelegate.setTrustProvider (sProvider);
+  }
+
+  public String getDefaultX509Identifier () throws WSSecurityException
+  {
+    return m_aDelegate.getDefaultX509Identifier ();
+  }
+
+  public void setDefaultX509Identifier (final String sIdentifier)
+  {
+    m_aDelegate.setDefaultX509Identifier (sIdentifier);
+  }
+
+  public void setCertificateFactory (final CertificateFactory aCertFactory)
+  {
+    m_aDelegate.setCertificateFactory (aCertFactory);
+  }
+
+  public CertificateFactory getCertificateFactory () throws WSSecurityException
+  {
+    return m_aDelegate.getCertificateFactory ();
+  }
+
+  public X509Certificate loadCertificate (final InputStream aIS) throws WSSecurityException
+  {
+    return m_aDelegate.loadCertificate (aIS);
+  }
+
+  public byte [] getSKIBytesFromCert (final X509Certificate aCert) throws WSSecurityException
+  {
+    return m_aDelegate.getSKIBytesFromCert (aCert);
+  }
+
+  public byte [] getBytesFromCertificates (final X509Certificate [] aCerts) throws WSSecurityException
+  {
+    return m_aDelegate.getBytesFromCertificates (aCerts);
+  }
+
+  public X509Certificate [] getCertificatesFromBytes (final byte [] aData) throws WSSecurityException
+  {
+    return m_aDelegate.getCertificatesFromBytes (aData);
+  }
+
+  public X509Certificate [] getX509Certificates (final CryptoType aCryptoType) throws WSSecurityException
+  {
+    return m_aDelegate.getX509Certificates (aCryptoType);
+  }
+
+  public String getX509Identifier (final X509Certificate aCert) throws WSSecurityException
+  {
+    return m_aDelegate.getX509Identifier (aCert);
+  }
+
+  public PrivateKey getPrivateKey (final X509Certificate aCert, final CallbackHandler aCallbackHandler) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (aCert, aCallbackHandler);
+  }
+
+  public PrivateKey getPrivateKey (final PublicKey aPublicKey, final CallbackHandler aCallbackHandler) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (aPublicKey, aCallbackHandler);
+  }
+
+  public PrivateKey getPrivateKey (final String sIdentifier, final String sPassword) throws WSSecurityException
+  {
+    return m_aDelegate.getPrivateKey (sIdentifier, sPassword);
+  }
+
+  public void verifyTrust (final X509Certificate [] aCerts,
+                           final boolean bEnableRevocation,
+                           final Collection <Pattern> aSubjectCertConstraints,
+                           final Collection <Pattern> aIssuerCertConstraints) throws WSSecurityException
+  {
+    m_aCache.verifyTrust (aCerts,
+                          bEnableRevocation,
+                          aSubjectCertConstraints,
+                          aIssuerCertConstraints,
+                          getTrustStoreVersion (),
+                          () -> m_aDelegate.verifyTrust (aCerts, bEnableRevocation, aSubjectCertConstraints, aIssuerCertConstraints));
+  }
+
+  public void verifyTrust (final PublicKey aPublicKey) throws WSSecurityException
+  {
+    m_aDelegate.verifyTrust (aPublicKey);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate).append ("Cache", m_aCache).getToString ();
+  }
+
+  /**
+   * Get the provided crypto instance wrapped with the trust validation cache
+   * configured in {@link com.helger.phase4.config.AS4Configuration}. The same
+   * cache is used for all calls with the same crypto instance.
+   *
+   * @param aCrypto
+   *        The crypto instance to wrap. May not be <code>null</code>.
+   * @return The wrapped crypto instance, or the provided instance if the cache
+   *         is disabled. Never <code>null</code>.
+   * @see AS4TrustValidationCache#createFromConfiguration()
+   */
+  @Nonnull
+  public static Crypto getWrappedFromConfiguration (@Nonnull final Crypto aCrypto)
+  {
+    ValueEnforcer.notNull (aCrypto, "Crypto");
+    if (aCrypto instanceof AS4TrustValidationCachingCrypto)
+      return aCrypto;
+
+    final CacheEntry aEntry = LOCK.lockedGet ( () -> {
+      CacheEntry ret = CACHES.get (aCrypto);
+      if (ret == null)
+      {
+        final AS4TrustValidationCache aCache = AS4TrustValidationCache.createFromConfiguration ();
+        if (aCache != null)
+        {
+          ret = new CacheEntry (aCache);
+          CACHES.put (aCrypto, ret);
+        }
+      }
+      return ret;
+    });
+    if (aEntry == null)
+    {
+      // Disabled
+      return aCrypto;
+    }
+    return new AS4TrustValidationCachingCrypto (aCrypto, aEntry.m_aCache, aEntry.m_aVersion);
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A simple, thread-safe Bloom filter for strings with a fixed memory
+ * footprint. It may report false positives but never false negatives.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4BloomFilter
+{
+  private final AtomicLongArray m_aBits;
+  private final long m_nBitCount;
+  private final int m_nHashCount;
+
+  /**
+   * Constructor
+   *
+   * @param nExpectedInsertions
+   *        The expected number of insertions. Must be &gt; 0.
+   * @param dFalsePositiveProbability
+   *        The desired false positive probability if the expected number of
+   *        insertions is reached. Must be &gt; 0 and &lt; 1.
+   */
+  public AS4BloomFilter (@Nonnegative final long nExpectedInsertions, final double dFalsePositiveProbability)
+  {
+    ValueEnforcer.isGT0 (nExpectedInsertions, "ExpectedInsertions");
+    ValueEnforcer.isTrue (dFalsePositiveProbability > 0 && dFalsePositiveProbability < 1,
+                          "FalsePositiveProbability must be between 0 and 1");
+
+    // Standard formulas: m = -n*ln(p)/ln(2)^2 and k = m/n*ln(2)
+    final double dLn2 = Math.log (2);
+    final long nBits = Math.max (64, (long) Math.ceil (-nExpectedInsertions * Math.log (dFalsePositiveProbability) / (dLn2 * dLn2)));
+    final int nWords = (int) Math.min (Integer.MAX_VALUE - 8, (nBits + 63) / 64);
+    m_aBits = new AtomicLongArray (nWords);
+    m_nBitCount = nWords * 64L;
+    m_nHashCount = Math.max (1, (int) Math.round ((double) m_nBitCount / nExpectedInsertions * dLn2));
+  }
+
+  /**
+   * @return The number of bits used. Always &gt; 0.
+   */
+  @Nonnegative
+  public final long getBitCount ()
+  {
+    return m_nBitCount;
+  }
+
+  /**
+   * @return The number of hash functions used. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getHashCount ()
+  {
+    return m_nHashCount;
+  }
+
+  /**
+   * @return The approximate memory used by the bit array in bytes.
+   */
+  @Nonnegative
+  public final long getMemoryBytes ()
+  {
+    return m_nBitCount / 8;
+  }
+
+  private static long _fmix64 (final long n)
+  {
+    long k = n;
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  private static long _hash64 (@Nonnull final String s)
+  {
+    // FNV-1a
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length (); ++i)
+    {
+      h ^= s.charAt (i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  private long _getBitIndex (final long nHash1, final long nHash2, final int nIndex)
+  {
+    // Double hashing
+    return Math.floorMod (nHash1 + nIndex * nHash2, m_nBitCount);
+  }
+
+  /**
+   * Check if the passed value might be contained.
+   *
+   * @param sValue
+   *        The value to check. May not be <code>null</code>.
+   * @return <code>false</code> if the value is definitely not contained,
+   *         <code>true</code> if it might be contained.
+   */
+  public boolean mightContain (@Nonnull final String sValue)
+  {
+    final long nHash = _hash64 (sValue);
+    final long nHash1 = _fmix64 (nHash);
+    final long nHash2 = _fmix64 (nHash ^ 0x9e3779b97f4a7c15L) | 1;
+    for (int i = 0; i < m_nHashCount; ++i)
+    {
+      final long nBit = _getBitIndex (nHash1, nHash2, i);
+      if ((m_aBits.get ((int) (nBit >>> 6)) & (1L << nBit)) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Add the passed value to the filter.
+   *
+   * @param sValue
+   *        The value to add. May not be <code>null</code>.
+   */
+  public void put (@Nonnull final String sValue)
+  {
+    final long nHash = _hash64 (sValue);
+    final long nHash1 = _fmix64 (nHash);
+    final long nHash2 = _fmix64 (nHash ^ 0x9e3779b97f4a7c15L) | 1;
+    for (int i = 0; i < m_nHashCount; ++i)
+    {
+      final long nBit = _getBitIndex (nHash1, nHash2, i);
+      final int nWord = (int) (nBit >>> 6);
+      final long nMask = 1L << nBit;
+      long nOld;
+      while (((nOld = m_aBits.get (nWord)) & nMask) == 0)
+        if (m_aBits.compareAndSet (nWord, nOld, nOld | nMask))
+          break;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BitCount", m_nBitCount).append ("HashCount", m_nHashCount).getToString ();
+  }
+}
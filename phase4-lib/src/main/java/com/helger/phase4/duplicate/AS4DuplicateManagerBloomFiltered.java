@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * A decorator for an {@link IAS4DuplicateManager} that puts a probabilistic
+ * {@link AS4BloomFilter} in front of
+ * {@link #registerAndCheck(String, String, String)}. Every message ID is
+ * written through to the authoritative store immediately, so nothing is lost
+ * on a crash. If the filter says that a message ID was definitely not seen
+ * before, it is added to the authoritative store via
+ * {@link IAS4DuplicateManager#registerWithoutCheck(String, String, String)}
+ * without an exact lookup. Only if the filter says "possible duplicate" the
+ * authoritative store is asked. Concurrent checks of the same message ID are
+ * serialized via lock striping.<br>
+ * Note: the authoritative store must not be modified other than via this
+ * class, as the filter would otherwise miss message IDs.<br>
+ * Two filters are kept: the current one and the previous one. They are
+ * rotated in {@link #evictAllItemsBefore(OffsetDateTime)} (triggered by the
+ * duplicate cleanup job) as soon as all message IDs of the previous filter
+ * were evicted from the authoritative store, so that every message ID that is
+ * still relevant for duplicate detection is contained in one of them.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4DuplicateManagerBloomFiltered implements IAS4DuplicateManager, AutoCloseable
+{
+  public static final long DEFAULT_EXPECTED_INSERTIONS = 1_000_000;
+  public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerBloomFiltered.class);
+  private static final int STRIPE_COUNT = 256;
+
+  /**
+   * The current and the previous filter
+   */
+  private static final class FilterGeneration
+  {
+    private final AS4BloomFilter m_aCurrent;
+    private final AS4BloomFilter m_aPrevious;
+    // All IDs of the previous filter were registered before this point in time
+    private final long m_nCurrentStart;
+
+    FilterGeneration (@Nonnull final AS4BloomFilter aCurrent, @Nullable final AS4BloomFilter aPrevious, final long nCurrentStart)
+    {
+      m_aCurrent = aCurrent;
+      m_aPrevious = aPrevious;
+      m_nCurrentStart = nCurrentStart;
+    }
+
+    boolean mightContain (@Nonnull final String sValue)
+    {
+      return m_aCurrent.mightContain (sValue) || (m_aPrevious != null && m_aPrevious.mightContain (sValue));
+    }
+  }
+
+  private final IAS4DuplicateManager m_aDelegate;
+  private final long m_nExpectedInsertions;
+  private final double m_dFalsePositiveProbability;
+  private final AtomicReference <FilterGeneration> m_aFilters = new AtomicReference <> ();
+  private final Object [] m_aStripes = new Object [STRIPE_COUNT];
+
+  // Statistics
+  private final AtomicLong m_aCheckCount = new AtomicLong (0);
+  private final AtomicLong m_aFilterNegativeCount = new AtomicLong (0);
+  private final AtomicLong m_aFilterPositiveCount = new AtomicLong (0);
+  private final AtomicLong m_aFalsePositiveCount = new AtomicLong (0);
+
+  /**
+   * Constructor
+   *
+   * @param aDelegate
+   *        The authoritative duplicate manager. May not be <code>null</code>.
+   * @param nExpectedInsertions
+   *        The expected number of message IDs per duplicate disposal window.
+   *        Must be &gt; 0.
+   * @param dFalsePositiveProbability
+   *        The desired false positive probability. Must be &gt; 0 and &lt; 1.
+   */
+  public AS4DuplicateManagerBloomFiltered (@Nonnull final IAS4DuplicateManager aDelegate,
+                                           @Nonnegative final long nExpectedInsertions,
+                                           final double dFalsePositiveProbability)
+  {
+    ValueEnforcer.notNull (aDelegate, "Delegate");
+    m_aDelegate = aDelegate;
+    m_nExpectedInsertions = nExpectedInsertions;
+    m_dFalsePositiveProbability = dFalsePositiveProbability;
+    for (int i = 0; i < STRIPE_COUNT; ++i)
+      m_aStripes[i] = new Object ();
+
+    final AS4BloomFilter aFilter = _createFilter ();
+    m_aFilters.set (new FilterGeneration (aFilter, null, _now ()));
+
+    // Seed with all existing entries (e.g. from a persistent store)
+    for (final IAS4DuplicateItem aItem : aDelegate.getAll ())
+      aFilter.put (aItem.getMessageID ());
+  }
+
+  @Nonnull
+  private AS4BloomFilter _createFilter ()
+  {
+    return new AS4BloomFilter (m_nExpectedInsertions, m_dFalsePositiveProbability);
+  }
+
+  private static long _now ()
+  {
+    return MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().toInstant ().toEpochMilli ();
+  }
+
+  /**
+   * @return The decorated authoritative duplicate manager. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final IAS4DuplicateManager getDelegate ()
+  {
+    return m_aDelegate;
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    m_aCheckCount.incrementAndGet ();
+
+    // Same message ID always uses the same stripe
+    synchronized (m_aStripes[Math.floorMod (sMessageID.hashCode (), STRIPE_COUNT)])
+    {
+      final FilterGeneration aFilters = m_aFilters.get ();
+      if (!aFilters.mightContain (sMessageID))
+      {
+        // Definitely new - no need for an exact lookup
+        m_aFilterNegativeCount.incrementAndGet ();
+        m_aDelegate.registerWithoutCheck (sMessageID, sProfileID, sPModeID);
+        aFilters.m_aCurrent.put (sMessageID);
+        return EContinue.CONTINUE;
+      }
+
+      // Possible duplicate - ask the authoritative store
+      m_aFilterPositiveCount.incrementAndGet ();
+      final EContinue eRet = m_aDelegate.registerAndCheck (sMessageID, sProfileID, sPModeID);
+      if (eRet.isContinue ())
+      {
+        m_aFalsePositiveCount.incrementAndGet ();
+        aFilters.m_aCurrent.put (sMessageID);
+      }
+      return eRet;
+    }
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    m_aFilters.set (new FilterGeneration (_createFilter (), null, _now ()));
+    return m_aDelegate.clearCache ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    final ICommonsList <String> ret = m_aDelegate.evictAllItemsBefore (aRefDT);
+
+    final FilterGeneration aGen = m_aFilters.get ();
+    if (aGen.m_nCurrentStart <= aRefDT.toInstant ().toEpochMilli ())
+    {
+      // All IDs of the previous filter are evicted now - the current one
+      // becomes the previous one
+      if (m_aFilters.compareAndSet (aGen, new FilterGeneration (_createFilter (), aGen.m_aCurrent, _now ())))
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Rotated the duplicate Bloom filters");
+    }
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aDelegate.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aDelegate.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    return m_aDelegate.getItemOfMessageID (sMessageID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return m_aDelegate.getAll ();
+  }
+
+  /**
+   * @return The total number of checked message IDs.
+   */
+  @Nonnegative
+  public long getCheckCount ()
+  {
+    return m_aCheckCount.get ();
+  }
+
+  /**
+   * @return The number of checks, where the filter said "definitely new" and
+   *         the message ID was added to the authoritative store without an
+   *         exact lookup.
+   */
+  @Nonnegative
+  public long getFilterNegativeCount ()
+  {
+    return m_aFilterNegativeCount.get ();
+  }
+
+  /**
+   * @return The number of checks, where the filter said "possible duplicate".
+   */
+  @Nonnegative
+  public long getFilterPositiveCount ()
+  {
+    return m_aFilterPositiveCount.get ();
+  }
+
+  /**
+   * @return The number of checks, where the filter said "possible duplicate"
+   *         but the authoritative store did not contain the message ID.
+   */
+  @Nonnegative
+  public long getFalsePositiveCount ()
+  {
+    return m_aFalsePositiveCount.get ();
+  }
+
+  /**
+   * @return The observed false positive rate in relation to all messages that
+   *         are not real duplicates. Between 0 and 1.
+   */
+  public double getFalsePositiveRate ()
+  {
+    final long nFP = m_aFalsePositiveCount.get ();
+    final long nNonDuplicates = m_aFilterNegativeCount.get () + nFP;
+    return nNonDuplicates == 0 ? 0 : (double) nFP / nNonDuplicates;
+  }
+
+  /**
+   * @return The approximate memory in bytes used by the filters.
+   */
+  @Nonnegative
+  public long getFilterMemoryBytes ()
+  {
+    final FilterGeneration aGen = m_aFilters.get ();
+    return aGen.m_aCurrent.getMemoryBytes () + (aGen.m_aPrevious == null ? 0 : aGen.m_aPrevious.getMemoryBytes ());
+  }
+
+  public void close () throws Exception
+  {
+    if (m_aDelegate instanceof AutoCloseable)
+      ((AutoCloseable) m_aDelegate).close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Delegate", m_aDelegate)
+                                       .append ("ExpectedInsertions", m_nExpectedInsertions)
+                                       .append ("FalsePositiveProbability", m_dFalsePositiveProbability)
+                                       .getToString ();
+  }
+}
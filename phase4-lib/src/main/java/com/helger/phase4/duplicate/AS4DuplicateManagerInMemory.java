@@ -79,6 +79,18 @@ public class AS4DuplicateManagerInMemory implements IAS4DuplicateManager
     return EContinue.CONTINUE;
   }
 
+  @Override
+  public void registerWithoutCheck (@Nullable final String sMessageID,
+                                    @Nullable final String sProfileID,
+                                    @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasText (sMessageID))
+    {
+      final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+      m_aRWLock.writeLocked ( () -> m_aMap.put (aItem.getID (), aItem));
+    }
+  }
+
   @Nonnull
   public EChange clearCache ()
   {
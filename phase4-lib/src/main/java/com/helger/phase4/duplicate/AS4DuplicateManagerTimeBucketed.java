@@ -0,0 +1,548 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.EAppend;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileIOError;
+import com.helger.commons.io.stream.NonBlockingBufferedInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4IOHelper;
+
+/**
+ * This is a duplicate checker for avoiding duplicate messages that is
+ * optimized for high message volumes. All message IDs are contained in a
+ * single concurrent hash map, so that {@link #registerAndCheck(String, String, String)}
+ * is a lock-free O(1) operation. Additionally every item is assigned to a time
+ * bucket of a fixed duration (e.g. one minute). On
+ * {@link #evictAllItemsBefore(OffsetDateTime)} all buckets that are completely
+ * outdated are dropped as a whole and only the single bucket overlapping the
+ * reference date time is scanned.<br>
+ * If a directory is provided, every bucket is persisted in its own append-only
+ * binary log file. Dropping a bucket simply deletes its log file. Upon
+ * construction all existing log files are replayed and a partially written
+ * last record (e.g. after a crash) is truncated.<br>
+ * Note: the log records are flushed to the operating system after every write,
+ * but they are not synced to the disk. If the process crashes, no records are
+ * lost, but after a power failure or an operating system crash the most
+ * recently registered message IDs may be missing.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4DuplicateManagerTimeBucketed implements IAS4DuplicateManager, AutoCloseable
+{
+  public static final long DEFAULT_BUCKET_MINUTES = 1;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4DuplicateManagerTimeBucketed.class);
+  private static final String FILENAME_PREFIX = "bucket-";
+  private static final String FILENAME_SUFFIX = ".log";
+  // Upper limit for a single record to detect garbage when reading
+  private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  /**
+   * A single time bucket with the IDs of all items in that bucket and the
+   * optional log file.
+   */
+  private static final class Bucket
+  {
+    private final Queue <String> m_aMessageIDs = new ConcurrentLinkedQueue <> ();
+    private final File m_aFile;
+    @GuardedBy ("this")
+    private DataOutputStream m_aLogOS;
+    private volatile boolean m_bClosed = false;
+
+    Bucket (@Nullable final File aFile)
+    {
+      m_aFile = aFile;
+    }
+
+    synchronized void appendToLog (@Nonnull final byte [] aRecord)
+    {
+      if (m_aFile == null || m_bClosed)
+        return;
+      try
+      {
+        if (m_aLogOS == null)
+        {
+          final OutputStream aOS = FileHelper.getBufferedOutputStream (m_aFile, EAppend.APPEND);
+          if (aOS == null)
+            throw new IOException ("Failed to open " + m_aFile.getAbsolutePath () + " for appending");
+          m_aLogOS = new DataOutputStream (aOS);
+        }
+        m_aLogOS.write (aRecord);
+        m_aLogOS.flush ();
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to append to duplicate log " + m_aFile.getAbsolutePath (), ex);
+      }
+    }
+
+    synchronized void closeLog ()
+    {
+      m_bClosed = true;
+      StreamHelper.close (m_aLogOS);
+      m_aLogOS = null;
+    }
+  }
+
+  private final File m_aDirectory;
+  private final long m_nBucketMillis;
+  private final Map <String, AS4DuplicateItem> m_aMap = new ConcurrentHashMap <> ();
+  private final ConcurrentNavigableMap <Long, Bucket> m_aBuckets = new ConcurrentSkipListMap <> ();
+
+  /**
+   * Constructor for an in-memory only version with the default bucket
+   * duration.
+   */
+  public AS4DuplicateManagerTimeBucketed ()
+  {
+    this (null, DEFAULT_BUCKET_MINUTES);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory, in which the log files should be stored. May be
+   *        <code>null</code> to not persist anything. The directory is
+   *        created if it does not exist.
+   * @param nBucketMinutes
+   *        The duration of a single time bucket in minutes. Must be &gt; 0.
+   *        Smaller buckets mean less scanning upon eviction, but more log
+   *        files.
+   */
+  public AS4DuplicateManagerTimeBucketed (@Nullable final File aDirectory, @Nonnegative final long nBucketMinutes)
+  {
+    ValueEnforcer.isGT0 (nBucketMinutes, "BucketMinutes");
+    m_aDirectory = aDirectory;
+    m_nBucketMillis = nBucketMinutes * 60_000L;
+    if (aDirectory != null)
+    {
+      final FileIOError aError = AS4IOHelper.getFileOperationManager ().createDirRecursiveIfNotExisting (aDirectory);
+      if (aError.isFailure ())
+        throw new IllegalStateException ("Failed to create duplicate log directory " + aDirectory.getAbsolutePath ());
+      _recover ();
+    }
+  }
+
+  /**
+   * @return The directory where the log files are stored. May be
+   *         <code>null</code> if this is an in-memory instance.
+   */
+  @Nullable
+  public final File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  /**
+   * @return The duration of a single time bucket in milliseconds.
+   */
+  @Nonnegative
+  public final long getBucketMillis ()
+  {
+    return m_nBucketMillis;
+  }
+
+  /**
+   * @return The number of time buckets currently in use.
+   */
+  @Nonnegative
+  public int getBucketCount ()
+  {
+    return m_aBuckets.size ();
+  }
+
+  private long _getBucketKey (@Nonnull final OffsetDateTime aDT)
+  {
+    return Math.floorDiv (aDT.toInstant ().toEpochMilli (), m_nBucketMillis);
+  }
+
+  @Nullable
+  private File _getBucketFile (final long nKey)
+  {
+    return m_aDirectory == null ? null : new File (m_aDirectory, FILENAME_PREFIX + nKey + FILENAME_SUFFIX);
+  }
+
+  @Nonnull
+  private Bucket _getOrCreateBucket (final long nKey)
+  {
+    return m_aBuckets.computeIfAbsent (Long.valueOf (nKey), k -> new Bucket (_getBucketFile (nKey)));
+  }
+
+  private static void _writeString (@Nonnull final DataOutputStream aDOS, @Nullable final String s) throws IOException
+  {
+    // Not using writeUTF, as it is limited to 65535 bytes
+    if (s == null)
+      aDOS.writeInt (-1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDOS.writeInt (aBytes.length);
+      aDOS.write (aBytes);
+    }
+  }
+
+  @Nullable
+  private static String _readString (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final int nLen = aDIS.readInt ();
+    if (nLen == -1)
+      return null;
+    if (nLen < 0 || nLen > aDIS.available ())
+      throw new IOException ("Invalid string length " + nLen);
+    final byte [] aBytes = new byte [nLen];
+    aDIS.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Create a single log record. The layout is: payload length (int), payload,
+   * CRC32 of the payload (int). Strings in the payload are written as length
+   * (int, -1 for <code>null</code>) followed by the UTF-8 bytes.
+   */
+  @Nonnull
+  private static byte [] _createRecord (@Nonnull final AS4DuplicateItem aItem)
+  {
+    try
+    {
+      final NonBlockingByteArrayOutputStream aPayloadBAOS = new NonBlockingByteArrayOutputStream (128);
+      try (final DataOutputStream aDOS = new DataOutputStream (aPayloadBAOS))
+      {
+        aDOS.writeLong (aItem.getDateTime ().toInstant ().toEpochMilli ());
+        aDOS.writeInt (aItem.getDateTime ().getOffset ().getTotalSeconds ());
+        _writeString (aDOS, aItem.getMessageID ());
+        _writeString (aDOS, aItem.getProfileID ());
+        _writeString (aDOS, aItem.getPModeID ());
+      }
+      final byte [] aPayload = aPayloadBAOS.toByteArray ();
+      final CRC32 aCRC = new CRC32 ();
+      aCRC.update (aPayload);
+
+      final NonBlockingByteArrayOutputStream aRecordBAOS = new NonBlockingByteArrayOutputStream (aPayload.length + 8);
+      try (final DataOutputStream aDOS = new DataOutputStream (aRecordBAOS))
+      {
+        aDOS.writeInt (aPayload.length);
+        aDOS.write (aPayload);
+        aDOS.writeInt ((int) aCRC.getValue ());
+      }
+      return aRecordBAOS.toByteArray ();
+    }
+    catch (final IOException ex)
+    {
+      // Cannot happen with in-memory streams
+      throw new UncheckedIOException (ex);
+    }
+  }
+
+  private void _addToBucket (@Nonnull final AS4DuplicateItem aItem, @Nullable final byte [] aRecord)
+  {
+    final Bucket aBucket = _getOrCreateBucket (_getBucketKey (aItem.getDateTime ()));
+    aBucket.m_aMessageIDs.add (aItem.getMessageID ());
+    if (aRecord != null)
+      aBucket.appendToLog (aRecord);
+    if (aBucket.m_bClosed)
+    {
+      // The bucket was evicted concurrently - don't leave a dangling entry
+      m_aMap.remove (aItem.getMessageID (), aItem);
+    }
+  }
+
+  private void _recover ()
+  {
+    final File [] aFiles = m_aDirectory.listFiles ( (d, n) -> n.startsWith (FILENAME_PREFIX) && n.endsWith (FILENAME_SUFFIX));
+    if (aFiles == null)
+      return;
+
+    int nRecovered = 0;
+    for (final File aFile : aFiles)
+    {
+      long nValidLength = 0;
+      try (final DataInputStream aDIS = new DataInputStream (new NonBlockingBufferedInputStream (FileHelper.getInputStream (aFile))))
+      {
+        while (true)
+        {
+          final int nPayloadLen;
+          try
+          {
+            nPayloadLen = aDIS.readInt ();
+          }
+          catch (final EOFException ex)
+          {
+            // Regular end of file
+            break;
+          }
+          if (nPayloadLen <= 0 || nPayloadLen > MAX_RECORD_LENGTH)
+            throw new IOException ("Invalid record length " + nPayloadLen);
+          final byte [] aPayload = new byte [nPayloadLen];
+          aDIS.readFully (aPayload);
+          final int nCRC = aDIS.readInt ();
+          final CRC32 aCRC = new CRC32 ();
+          aCRC.update (aPayload);
+          if ((int) aCRC.getValue () != nCRC)
+            throw new IOException ("CRC mismatch");
+
+          final DataInputStream aPayloadDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aPayload));
+          final long nEpochMillis = aPayloadDIS.readLong ();
+          final int nOffsetSecs = aPayloadDIS.readInt ();
+          final String sMessageID = _readString (aPayloadDIS);
+          if (StringHelper.hasNoText (sMessageID))
+            throw new IOException ("Record without message ID");
+          final String sProfileID = _readString (aPayloadDIS);
+          final String sPModeID = _readString (aPayloadDIS);
+          final OffsetDateTime aDT = OffsetDateTime.ofInstant (Instant.ofEpochMilli (nEpochMillis), ZoneOffset.ofTotalSeconds (nOffsetSecs));
+          nValidLength += 4 + nPayloadLen + 4;
+
+          final AS4DuplicateItem aItem = new AS4DuplicateItem (aDT, sMessageID, sProfileID, sPModeID);
+          if (m_aMap.putIfAbsent (sMessageID, aItem) == null)
+          {
+            // Already in the log - don't write again
+            _addToBucket (aItem, null);
+            nRecovered++;
+          }
+        }
+      }
+      catch (final IOException ex)
+      {
+        // Partial or corrupt record - cut it off
+        LOGGER.warn ("Duplicate log file '" +
+                     aFile.getAbsolutePath () +
+                     "' is corrupt after " +
+                     nValidLength +
+                     " bytes (" +
+                     ex.getMessage () +
+                     ") - truncating it");
+        try (final RandomAccessFile aRAF = new RandomAccessFile (aFile, "rw"))
+        {
+          aRAF.setLength (nValidLength);
+        }
+        catch (final IOException ex2)
+        {
+          LOGGER.error ("Failed to truncate duplicate log file '" + aFile.getAbsolutePath () + "'", ex2);
+        }
+      }
+    }
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info ("Recovered " + nRecovered + " incoming duplicate message IDs from " + aFiles.length + " log file(s)");
+  }
+
+  @Nonnull
+  public EContinue registerAndCheck (@Nullable final String sMessageID, @Nullable final String sProfileID, @Nullable final String sPModeID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+    {
+      // No message ID present - don't check for duplication
+      return EContinue.CONTINUE;
+    }
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (sMessageID, sProfileID, sPModeID);
+    if (m_aMap.putIfAbsent (sMessageID, aItem) != null)
+    {
+      // ID already in use
+      return EContinue.BREAK;
+    }
+
+    _addToBucket (aItem, m_aDirectory == null ? null : _createRecord (aItem));
+    return EContinue.CONTINUE;
+  }
+
+  /**
+   * Import an existing item, e.g. from another duplicate manager, keeping its
+   * original date time. This is used to migrate from the XML based
+   * {@link AS4DuplicateManager}.
+   *
+   * @param aSrcItem
+   *        The item to import. May not be <code>null</code>.
+   * @return {@link EChange#CHANGED} if the item was added,
+   *         {@link EChange#UNCHANGED} if the message ID is already contained.
+   */
+  @Nonnull
+  public EChange importItem (@Nonnull final IAS4DuplicateItem aSrcItem)
+  {
+    ValueEnforcer.notNull (aSrcItem, "SrcItem");
+
+    final AS4DuplicateItem aItem = new AS4DuplicateItem (aSrcItem.getDateTime (),
+                                                         aSrcItem.getMessageID (),
+                                                         aSrcItem.getProfileID (),
+                                                         aSrcItem.getPModeID ());
+    if (m_aMap.putIfAbsent (aItem.getMessageID (), aItem) != null)
+      return EChange.UNCHANGED;
+
+    _addToBucket (aItem, m_aDirectory == null ? null : _createRecord (aItem));
+    return EChange.CHANGED;
+  }
+
+  private void _dropBucket (@Nonnull final Bucket aBucket, @Nonnull final ICommonsList <String> aEvicted)
+  {
+    aBucket.closeLog ();
+    for (final String sMessageID : aBucket.m_aMessageIDs)
+      if (m_aMap.remove (sMessageID) != null)
+        aEvicted.add (sMessageID);
+    if (aBucket.m_aFile != null)
+      AS4IOHelper.getFileOperationManager ().deleteFileIfExisting (aBucket.m_aFile);
+  }
+
+  @Nonnull
+  public EChange clearCache ()
+  {
+    if (m_aMap.isEmpty () && m_aBuckets.isEmpty ())
+      return EChange.UNCHANGED;
+
+    final ICommonsList <String> aEvicted = new CommonsArrayList <> ();
+    for (final Long aKey : m_aBuckets.keySet ())
+    {
+      final Bucket aBucket = m_aBuckets.remove (aKey);
+      if (aBucket != null)
+        _dropBucket (aBucket, aEvicted);
+    }
+    m_aMap.clear ();
+    return EChange.CHANGED;
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> evictAllItemsBefore (@Nonnull final OffsetDateTime aRefDT)
+  {
+    ValueEnforcer.notNull (aRefDT, "RefDT");
+
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final long nRefKey = _getBucketKey (aRefDT);
+
+    // Drop all buckets that are completely before the reference date time
+    for (final Long aKey : m_aBuckets.headMap (Long.valueOf (nRefKey), false).keySet ())
+    {
+      final Bucket aBucket = m_aBuckets.remove (aKey);
+      if (aBucket != null)
+        _dropBucket (aBucket, ret);
+    }
+
+    // Scan only the bucket that overlaps the reference date time. The
+    // evicted entries stay in the log file and are re-evicted after a
+    // recovery.
+    final Bucket aRefBucket = m_aBuckets.get (Long.valueOf (nRefKey));
+    if (aRefBucket != null)
+    {
+      final Iterator <String> it = aRefBucket.m_aMessageIDs.iterator ();
+      while (it.hasNext ())
+      {
+        final String sMessageID = it.next ();
+        final AS4DuplicateItem aItem = m_aMap.get (sMessageID);
+        if (aItem != null && aItem.getDateTime ().isBefore (aRefDT) && m_aMap.remove (sMessageID, aItem))
+        {
+          it.remove ();
+          ret.add (sMessageID);
+        }
+      }
+    }
+    return ret;
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aMap.isEmpty ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Nullable
+  public IAS4DuplicateItem getItemOfMessageID (@Nullable final String sMessageID)
+  {
+    if (StringHelper.hasNoText (sMessageID))
+      return null;
+
+    return m_aMap.get (sMessageID);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IAS4DuplicateItem> getAll ()
+  {
+    return new CommonsArrayList <> (m_aMap.values ());
+  }
+
+  /**
+   * Close all open log files. The manager can still be used afterwards - the
+   * files are re-opened on demand.
+   */
+  public void close ()
+  {
+    for (final Bucket aBucket : m_aBuckets.values ())
+      synchronized (aBucket)
+      {
+        StreamHelper.close (aBucket.m_aLogOS);
+        aBucket.m_aLogOS = null;
+      }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Directory", m_aDirectory)
+                                       .append ("BucketMillis", m_nBucketMillis)
+                                       .append ("Size", m_aMap.size ())
+                                       .append ("BucketCount", m_aBuckets.size ())
+                                       .getToString ();
+  }
+}
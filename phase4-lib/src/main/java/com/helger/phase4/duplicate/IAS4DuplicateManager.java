@@ -80,6 +80,28 @@ public interface IAS4DuplicateManager
   @Nonnull
   EContinue registerAndCheck (@Nullable String sMessageID, @Nullable String sProfileID, @Nullable String sPModeID);
 
+  /**
+   * Register a message ID that is known to be new, without checking whether it
+   * was already handled. This is e.g. used by
+   * {@link AS4DuplicateManagerBloomFiltered} if the filter says that the message
+   * ID was definitely not seen before. By default this calls
+   * {@link #registerAndCheck(String, String, String)} and ignores the result.
+   *
+   * @param sMessageID
+   *        Message ID to register. May be <code>null</code>.
+   * @param sProfileID
+   *        Active AS4 profile ID. May be <code>null</code>.
+   * @param sPModeID
+   *        Active AS4 PMode ID. May be <code>null</code>.
+   * @since 1.3.2
+   */
+  default void registerWithoutCheck (@Nullable final String sMessageID,
+                                     @Nullable final String sProfileID,
+                                     @Nullable final String sPModeID)
+  {
+    registerAndCheck (sMessageID, sProfileID, sPModeID);
+  }
+
   /**
    * Remove all entries in the cache.
    *
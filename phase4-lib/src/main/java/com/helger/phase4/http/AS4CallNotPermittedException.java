@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Exception thrown if an {@link AS4CircuitBreaker} does not permit an outgoing
+ * call, either because the circuit is open or because the maximum number of
+ * concurrent calls to the destination is reached. It is an
+ * {@link IOException} so that it is handled like any other transmission
+ * error.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public class AS4CallNotPermittedException extends IOException
+{
+  private final String m_sDestination;
+
+  public AS4CallNotPermittedException (@Nonnull final String sDestination, @Nonnull final String sMessage)
+  {
+    super (sMessage);
+    m_sDestination = sDestination;
+  }
+
+  /**
+   * @return The destination the call was not permitted to. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final String getDestination ()
+  {
+    return m_sDestination;
+  }
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A circuit breaker and bulkhead for outgoing HTTP transmissions, keyed by the
+ * destination (scheme, host and port of the URL):
+ * <ul>
+ * <li>The outcomes of the most recent calls to each destination are recorded.
+ * If the failure rate or the slow call rate reaches the configured threshold,
+ * the circuit is opened and all calls to that destination fail immediately
+ * with an {@link AS4CallNotPermittedException}.</li>
+ * <li>After the configured waiting time, the circuit is half-open and a
+ * limited number of probe calls is permitted. If they all succeed, the circuit
+ * is closed again, otherwise it is re-opened.</li>
+ * <li>Independent of the state, the number of concurrent calls per destination
+ * is limited, so that slow destinations cannot use up all sender threads.</li>
+ * </ul>
+ * Every exception thrown by a call is considered a failure.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4CircuitBreaker
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4CircuitBreaker.class);
+
+  /**
+   * The state of a single destination.
+   */
+  private final class Destination
+  {
+    private final String m_sKey;
+    private final Semaphore m_aBulkhead;
+    private final SimpleLock m_aLock = new SimpleLock ();
+    @GuardedBy ("m_aLock")
+    private EAS4CircuitBreakerState m_eState = EAS4CircuitBreakerState.CLOSED;
+    // Ring buffer of the most recent outcomes
+    @GuardedBy ("m_aLock")
+    private final boolean [] m_aFailed;
+    @GuardedBy ("m_aLock")
+    private final boolean [] m_aSlow;
+    @GuardedBy ("m_aLock")
+    private int m_nPos;
+    @GuardedBy ("m_aLock")
+    private int m_nRecorded;
+    @GuardedBy ("m_aLock")
+    private int m_nFailed;
+    @GuardedBy ("m_aLock")
+    private int m_nSlow;
+    @GuardedBy ("m_aLock")
+    private long m_nOpenedAt;
+    @GuardedBy ("m_aLock")
+    private int m_nHalfOpenPermits;
+    @GuardedBy ("m_aLock")
+    private int m_nHalfOpenSuccesses;
+
+    Destination (@Nonnull final String sKey)
+    {
+      m_sKey = sKey;
+      m_aBulkhead = new Semaphore (m_aSettings.getMaxConcurrentCallsPerDestination ());
+      m_aFailed = new boolean [m_aSettings.getSlidingWindowSize ()];
+      m_aSlow = new boolean [m_aSettings.getSlidingWindowSize ()];
+    }
+
+    @GuardedBy ("m_aLock")
+    private void _resetWindow ()
+    {
+      m_nPos = 0;
+      m_nRecorded = 0;
+      m_nFailed = 0;
+      m_nSlow = 0;
+    }
+
+    /**
+     * @return The previous state, if the state changed, <code>null</code>
+     *         otherwise.
+     */
+    @GuardedBy ("m_aLock")
+    @Nullable
+    private EAS4CircuitBreakerState _setState (@Nonnull final EAS4CircuitBreakerState eNewState)
+    {
+      final EAS4CircuitBreakerState eOld = m_eState;
+      if (eOld == eNewState)
+        return null;
+      m_eState = eNewState;
+      switch (eNewState)
+      {
+        case OPEN:
+          m_nOpenedAt = System.nanoTime ();
+          break;
+        case HALF_OPEN:
+          m_nHalfOpenPermits = m_aSettings.getPermittedCallsInHalfOpenState ();
+          m_nHalfOpenSuccesses = 0;
+          break;
+        case CLOSED:
+          _resetWindow ();
+          break;
+      }
+      return eOld;
+    }
+
+    /**
+     * Try to get the permission for a call.
+     *
+     * @return <code>null</code> if the call is permitted, the error message
+     *         otherwise.
+     */
+    @Nullable
+    String tryAcquire ()
+    {
+      final EAS4CircuitBreakerState [] aTransition = new EAS4CircuitBreakerState [1];
+      final String ret = m_aLock.lockedGet ( () -> {
+        if (m_eState == EAS4CircuitBreakerState.OPEN &&
+            System.nanoTime () - m_nOpenedAt >= m_aSettings.getWaitDurationInOpenState ().toNanos ())
+        {
+          aTransition[0] = _setState (EAS4CircuitBreakerState.HALF_OPEN);
+        }
+
+        switch (m_eState)
+        {
+          case OPEN:
+            return "The circuit breaker for '" + m_sKey + "' is open";
+          case HALF_OPEN:
+            if (m_nHalfOpenPermits <= 0)
+              return "The circuit breaker for '" + m_sKey + "' is half-open and no more probe calls are permitted";
+            m_nHalfOpenPermits--;
+            break;
+          default:
+            break;
+        }
+        if (!m_aBulkhead.tryAcquire ())
+        {
+          // Return the probe permit
+          if (m_eState == EAS4CircuitBreakerState.HALF_OPEN)
+            m_nHalfOpenPermits++;
+          return "The maximum number of " + m_aSettings.getMaxConcurrentCallsPerDestination () + " concurrent calls to '" + m_sKey + "' is reached";
+        }
+        return null;
+      });
+      if (aTransition[0] != null)
+        _onStateChange (m_sKey, aTransition[0], EAS4CircuitBreakerState.HALF_OPEN);
+      return ret;
+    }
+
+    void onCallFinished (final boolean bFailed, final boolean bSlow)
+    {
+      m_aBulkhead.release ();
+
+      final EAS4CircuitBreakerState [] aTransition = new EAS4CircuitBreakerState [2];
+      m_aLock.locked ( () -> {
+        switch (m_eState)
+        {
+          case HALF_OPEN:
+            if (bFailed || bSlow)
+              aTransition[0] = _setState (EAS4CircuitBreakerState.OPEN);
+            else
+              if (++m_nHalfOpenSuccesses >= m_aSettings.getPermittedCallsInHalfOpenState ())
+                aTransition[0] = _setState (EAS4CircuitBreakerState.CLOSED);
+            break;
+          case CLOSED:
+          {
+            // Record in the ring buffer
+            final int nSize = m_aFailed.length;
+            if (m_nRecorded == nSize)
+            {
+              // Remove the oldest entry
+              if (m_aFailed[m_nPos])
+                m_nFailed--;
+              if (m_aSlow[m_nPos])
+                m_nSlow--;
+            }
+            else
+              m_nRecorded++;
+            m_aFailed[m_nPos] = bFailed;
+            m_aSlow[m_nPos] = bSlow;
+            if (bFailed)
+              m_nFailed++;
+            if (bSlow)
+              m_nSlow++;
+            m_nPos = (m_nPos + 1) % nSize;
+
+            if (m_nRecorded >= m_aSettings.getMinimumNumberOfCalls ())
+            {
+              final boolean bFailureRateExceeded = m_nFailed * 100 >= m_aSettings.getFailureRateThresholdPercent () * m_nRecorded;
+              final boolean bSlowRateExceeded = m_nSlow * 100 >= m_aSettings.getSlowCallRateThresholdPercent () * m_nRecorded;
+              if (bFailureRateExceeded || bSlowRateExceeded)
+                aTransition[0] = _setState (EAS4CircuitBreakerState.OPEN);
+            }
+            break;
+          }
+          default:
+            // Calls that were started before the circuit was opened
+            break;
+        }
+        aTransition[1] = m_eState;
+      });
+      if (aTransition[0] != null)
+        _onStateChange (m_sKey, aTransition[0], aTransition[1]);
+    }
+
+    @Nonnull
+    EAS4CircuitBreakerState getState ()
+    {
+      return m_aLock.lockedGet ( () -> m_eState);
+    }
+  }
+
+  private final AS4CircuitBreakerSettings m_aSettings;
+  private final ConcurrentHashMap <String, Destination> m_aDestinations = new ConcurrentHashMap <> ();
+  private volatile IAS4CircuitBreakerListener m_aStateChangeListener;
+
+  /**
+   * Constructor with default settings.
+   */
+  public AS4CircuitBreaker ()
+  {
+    this (new AS4CircuitBreakerSettings ());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aSettings
+   *        The settings to use. May not be <code>null</code>. The settings are
+   *        copied, so later modifications are not considered.
+   */
+  public AS4CircuitBreaker (@Nonnull final AS4CircuitBreakerSettings aSettings)
+  {
+    ValueEnforcer.notNull (aSettings, "Settings");
+    m_aSettings = new AS4CircuitBreakerSettings ();
+    m_aSettings.assignFrom (aSettings);
+  }
+
+  /**
+   * @return A copy of the settings used. Never <code>null</code>.
+   */
+  @Nonnull
+  public final AS4CircuitBreakerSettings getSettings ()
+  {
+    final AS4CircuitBreakerSettings ret = new AS4CircuitBreakerSettings ();
+    ret.assignFrom (m_aSettings);
+    return ret;
+  }
+
+  /**
+   * @return The listener to be invoked on state changes. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final IAS4CircuitBreakerListener getStateChangeListener ()
+  {
+    return m_aStateChangeListener;
+  }
+
+  /**
+   * Set the listener to be invoked on state changes.
+   *
+   * @param aStateChangeListener
+   *        The listener to use. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final AS4CircuitBreaker setStateChangeListener (@Nullable final IAS4CircuitBreakerListener aStateChangeListener)
+  {
+    m_aStateChangeListener = aStateChangeListener;
+    return this;
+  }
+
+  private void _onStateChange (@Nonnull final String sDestination,
+                               @Nonnull final EAS4CircuitBreakerState eOldState,
+                               @Nonnull final EAS4CircuitBreakerState eNewState)
+  {
+    if (eNewState == EAS4CircuitBreakerState.OPEN)
+      LOGGER.warn ("The circuit breaker for '" + sDestination + "' changed from " + eOldState + " to " + eNewState);
+    else
+      LOGGER.info ("The circuit breaker for '" + sDestination + "' changed from " + eOldState + " to " + eNewState);
+
+    final IAS4CircuitBreakerListener aListener = m_aStateChangeListener;
+    if (aListener != null)
+      try
+      {
+        aListener.onStateChange (sDestination, eOldState, eNewState);
+      }
+      catch (final RuntimeException ex)
+      {
+        LOGGER.error ("Error in circuit breaker state change listener " + aListener, ex);
+      }
+  }
+
+  @Nonnull
+  private Destination _getDestination (@Nonnull final String sURL)
+  {
+    return m_aDestinations.computeIfAbsent (AS4RetryScheduler.getDestinationKey (sURL), Destination::new);
+  }
+
+  /**
+   * Get the current state for the destination of the provided URL.
+   *
+   * @param sURL
+   *        The URL to check. May not be <code>null</code>.
+   * @return The current state. Never <code>null</code>. An open circuit whose
+   *         waiting time elapsed is only switched to half-open with the next
+   *         call.
+   */
+  @Nonnull
+  public EAS4CircuitBreakerState getState (@Nonnull final String sURL)
+  {
+    ValueEnforcer.notNull (sURL, "URL");
+    final Destination aDest = m_aDestinations.get (AS4RetryScheduler.getDestinationKey (sURL));
+    return aDest == null ? EAS4CircuitBreakerState.CLOSED : aDest.getState ();
+  }
+
+  /**
+   * @return The number of destinations with state.
+   */
+  @Nonnegative
+  public int getDestinationCount ()
+  {
+    return m_aDestinations.size ();
+  }
+
+  /**
+   * Execute the provided call to the provided URL, if the circuit breaker and
+   * the bulkhead permit it.
+   *
+   * @param <T>
+   *        Return type
+   * @param sURL
+   *        The destination URL. May not be <code>null</code>.
+   * @param aCall
+   *        The call to be executed. May not be <code>null</code>.
+   * @return The result of the call.
+   * @throws AS4CallNotPermittedException
+   *         If the call is not permitted
+   * @throws IOException
+   *         If the call failed
+   */
+  @Nullable
+  public <T> T execute (@Nonnull final String sURL, @Nonnull final IThrowingSupplier <T, IOException> aCall) throws IOException
+  {
+    ValueEnforcer.notNull (sURL, "URL");
+    ValueEnforcer.notNull (aCall, "Call");
+
+    final Destination aDest = _getDestination (sURL);
+    final String sError = aDest.tryAcquire ();
+    if (sError != null)
+      throw new AS4CallNotPermittedException (aDest.m_sKey, sError);
+
+    final long nStart = System.nanoTime ();
+    boolean bFailed = true;
+    try
+    {
+      final T ret = aCall.get ();
+      bFailed = false;
+      return ret;
+    }
+    finally
+    {
+      final boolean bSlow = System.nanoTime () - nStart >= m_aSettings.getSlowCallDuration ().toNanos ();
+      aDest.onCallFinished (bFailed, bSlow);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Settings", m_aSettings)
+                                       .append ("DestinationCount", getDestinationCount ())
+                                       .getToString ();
+  }
+}
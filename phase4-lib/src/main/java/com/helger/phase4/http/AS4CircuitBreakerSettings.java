@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An object encapsulating the settings of an {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public class AS4CircuitBreakerSettings
+{
+  public static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+  public static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 10;
+  public static final int DEFAULT_FAILURE_RATE_THRESHOLD_PERCENT = 50;
+  public static final Duration DEFAULT_SLOW_CALL_DURATION = Duration.ofSeconds (30);
+  public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD_PERCENT = 80;
+  public static final Duration DEFAULT_WAIT_DURATION_IN_OPEN_STATE = Duration.ofSeconds (30);
+  public static final int DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE = 2;
+  public static final int DEFAULT_MAX_CONCURRENT_CALLS_PER_DESTINATION = 50;
+
+  private int m_nSlidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+  private int m_nMinimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+  private int m_nFailureRateThresholdPercent = DEFAULT_FAILURE_RATE_THRESHOLD_PERCENT;
+  private Duration m_aSlowCallDuration = DEFAULT_SLOW_CALL_DURATION;
+  private int m_nSlowCallRateThresholdPercent = DEFAULT_SLOW_CALL_RATE_THRESHOLD_PERCENT;
+  private Duration m_aWaitDurationInOpenState = DEFAULT_WAIT_DURATION_IN_OPEN_STATE;
+  private int m_nPermittedCallsInHalfOpenState = DEFAULT_PERMITTED_CALLS_IN_HALF_OPEN_STATE;
+  private int m_nMaxConcurrentCallsPerDestination = DEFAULT_MAX_CONCURRENT_CALLS_PER_DESTINATION;
+
+  public AS4CircuitBreakerSettings ()
+  {}
+
+  /**
+   * @return The number of the most recent calls per destination that are
+   *         considered to calculate the failure and slow call rates. Always
+   *         &gt; 0.
+   */
+  @Nonnegative
+  public final int getSlidingWindowSize ()
+  {
+    return m_nSlidingWindowSize;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setSlidingWindowSize (@Nonnegative final int nSlidingWindowSize)
+  {
+    ValueEnforcer.isGT0 (nSlidingWindowSize, "SlidingWindowSize");
+    m_nSlidingWindowSize = nSlidingWindowSize;
+    return this;
+  }
+
+  /**
+   * @return The minimum number of recorded calls per destination, before the
+   *         rates are evaluated. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMinimumNumberOfCalls ()
+  {
+    return m_nMinimumNumberOfCalls;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setMinimumNumberOfCalls (@Nonnegative final int nMinimumNumberOfCalls)
+  {
+    ValueEnforcer.isGT0 (nMinimumNumberOfCalls, "MinimumNumberOfCalls");
+    m_nMinimumNumberOfCalls = nMinimumNumberOfCalls;
+    return this;
+  }
+
+  /**
+   * @return The failure rate in percent, at which the circuit is opened. Value
+   *         between 1 and 100.
+   */
+  @Nonnegative
+  public final int getFailureRateThresholdPercent ()
+  {
+    return m_nFailureRateThresholdPercent;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setFailureRateThresholdPercent (@Nonnegative final int nFailureRateThresholdPercent)
+  {
+    ValueEnforcer.isBetweenInclusive (nFailureRateThresholdPercent, "FailureRateThresholdPercent", 1, 100);
+    m_nFailureRateThresholdPercent = nFailureRateThresholdPercent;
+    return this;
+  }
+
+  /**
+   * @return The duration after which a call is considered slow. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getSlowCallDuration ()
+  {
+    return m_aSlowCallDuration;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setSlowCallDuration (@Nonnull final Duration aSlowCallDuration)
+  {
+    ValueEnforcer.notNull (aSlowCallDuration, "SlowCallDuration");
+    m_aSlowCallDuration = aSlowCallDuration;
+    return this;
+  }
+
+  /**
+   * @return The slow call rate in percent, at which the circuit is opened.
+   *         Value between 1 and 100.
+   */
+  @Nonnegative
+  public final int getSlowCallRateThresholdPercent ()
+  {
+    return m_nSlowCallRateThresholdPercent;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setSlowCallRateThresholdPercent (@Nonnegative final int nSlowCallRateThresholdPercent)
+  {
+    ValueEnforcer.isBetweenInclusive (nSlowCallRateThresholdPercent, "SlowCallRateThresholdPercent", 1, 100);
+    m_nSlowCallRateThresholdPercent = nSlowCallRateThresholdPercent;
+    return this;
+  }
+
+  /**
+   * @return The duration the circuit stays open, before probe calls are
+   *         permitted. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getWaitDurationInOpenState ()
+  {
+    return m_aWaitDurationInOpenState;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setWaitDurationInOpenState (@Nonnull final Duration aWaitDurationInOpenState)
+  {
+    ValueEnforcer.notNull (aWaitDurationInOpenState, "WaitDurationInOpenState");
+    m_aWaitDurationInOpenState = aWaitDurationInOpenState;
+    return this;
+  }
+
+  /**
+   * @return The number of successful probe calls needed in the half-open state
+   *         to close the circuit again. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getPermittedCallsInHalfOpenState ()
+  {
+    return m_nPermittedCallsInHalfOpenState;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setPermittedCallsInHalfOpenState (@Nonnegative final int nPermittedCallsInHalfOpenState)
+  {
+    ValueEnforcer.isGT0 (nPermittedCallsInHalfOpenState, "PermittedCallsInHalfOpenState");
+    m_nPermittedCallsInHalfOpenState = nPermittedCallsInHalfOpenState;
+    return this;
+  }
+
+  /**
+   * @return The maximum number of concurrent calls per destination (bulkhead).
+   *         Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxConcurrentCallsPerDestination ()
+  {
+    return m_nMaxConcurrentCallsPerDestination;
+  }
+
+  @Nonnull
+  public final AS4CircuitBreakerSettings setMaxConcurrentCallsPerDestination (@Nonnegative final int nMaxConcurrentCallsPerDestination)
+  {
+    ValueEnforcer.isGT0 (nMaxConcurrentCallsPerDestination, "MaxConcurrentCallsPerDestination");
+    m_nMaxConcurrentCallsPerDestination = nMaxConcurrentCallsPerDestination;
+    return this;
+  }
+
+  public final void assignFrom (@Nonnull final AS4CircuitBreakerSettings aOther)
+  {
+    ValueEnforcer.notNull (aOther, "Other");
+    setSlidingWindowSize (aOther.getSlidingWindowSize ());
+    setMinimumNumberOfCalls (aOther.getMinimumNumberOfCalls ());
+    setFailureRateThresholdPercent (aOther.getFailureRateThresholdPercent ());
+    setSlowCallDuration (aOther.getSlowCallDuration ());
+    setSlowCallRateThresholdPercent (aOther.getSlowCallRateThresholdPercent ());
+    setWaitDurationInOpenState (aOther.getWaitDurationInOpenState ());
+    setPermittedCallsInHalfOpenState (aOther.getPermittedCallsInHalfOpenState ());
+    setMaxConcurrentCallsPerDestination (aOther.getMaxConcurrentCallsPerDestination ());
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final AS4CircuitBreakerSettings rhs = (AS4CircuitBreakerSettings) o;
+    return m_nSlidingWindowSize == rhs.m_nSlidingWindowSize &&
+           m_nMinimumNumberOfCalls == rhs.m_nMinimumNumberOfCalls &&
+           m_nFailureRateThresholdPercent == rhs.m_nFailureRateThresholdPercent &&
+           m_aSlowCallDuration.equals (rhs.m_aSlowCallDuration) &&
+           m_nSlowCallRateThresholdPercent == rhs.m_nSlowCallRateThresholdPercent &&
+           m_aWaitDurationInOpenState.equals (rhs.m_aWaitDurationInOpenState) &&
+           m_nPermittedCallsInHalfOpenState == rhs.m_nPermittedCallsInHalfOpenState &&
+           m_nMaxConcurrentCallsPerDestination == rhs.m_nMaxConcurrentCallsPerDestination;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_nSlidingWindowSize)
+                                       .append (m_nMinimumNumberOfCalls)
+                                       .append (m_nFailureRateThresholdPercent)
+                                       .append (m_aSlowCallDuration)
+                                       .append (m_nSlowCallRateThresholdPercent)
+                                       .append (m_aWaitDurationInOpenState)
+                                       .append (m_nPermittedCallsInHalfOpenState)
+                                       .append (m_nMaxConcurrentCallsPerDestination)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SlidingWindowSize", m_nSlidingWindowSize)
+                                       .append ("MinimumNumberOfCalls", m_nMinimumNumberOfCalls)
+                                       .append ("FailureRateThresholdPercent", m_nFailureRateThresholdPercent)
+                                       .append ("SlowCallDuration", m_aSlowCallDuration)
+                                       .append ("SlowCallRateThresholdPercent", m_nSlowCallRateThresholdPercent)
+                                       .append ("WaitDurationInOpenState", m_aWaitDurationInOpenState)
+                                       .append ("PermittedCallsInHalfOpenState", m_nPermittedCallsInHalfOpenState)
+                                       .append ("MaxConcurrentCallsPerDestination", m_nMaxConcurrentCallsPerDestination)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.httpclient.HttpClientFactory;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+
+/**
+ * A long-lived, thread-safe HTTP client with a connection pool. In contrast to
+ * creating a new {@link HttpClientManager} for every transmission, connections
+ * (including the TLS sessions) to the same route are kept alive and reused.
+ * One instance can be shared between multiple {@link BasicHttpPoster}s, AS4
+ * clients, sender builders and the {@link com.helger.phase4.servlet.AS4RequestHandler}
+ * for asynchronous responses. The instance must be closed when it is no longer
+ * needed.<br>
+ * The client is built from a single {@link HttpClientFactory}, so all pooled
+ * connections share the same TLS context, proxy and timeout settings. A
+ * {@link BasicHttpPoster} only uses the pooled client, if its own HTTP client
+ * factory is the one the pooled client was built from. The connection state
+ * (e.g. the TLS client principal) is tracked, so that a connection is only
+ * reused for requests with the same state.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4PooledHttpClient implements AutoCloseable
+{
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+  public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+  public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofMinutes (1);
+  public static final Duration DEFAULT_MAX_IDLE = Duration.ofSeconds (30);
+
+  private final int m_nMaxConnectionsPerRoute;
+  private final int m_nMaxConnectionsTotal;
+  private final Duration m_aKeepAlive;
+  private final Duration m_aMaxIdle;
+  private final HttpClientFactory m_aHttpClientFactory;
+  private final PoolingHttpClientConnectionManager m_aConnectionMgr;
+  private final HttpClientManager m_aHttpClientMgr;
+
+  /**
+   * Constructor with default pool settings.
+   *
+   * @param aHttpClientSettings
+   *        The HTTP client settings (e.g. SSL context, proxy, timeouts) to be
+   *        used. May not be <code>null</code>.
+   */
+  public AS4PooledHttpClient (@Nonnull final HttpClientSettings aHttpClientSettings)
+  {
+    this (new HttpClientFactory (aHttpClientSettings));
+  }
+
+  /**
+   * Constructor with default pool settings.
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory (e.g. with SSL context, proxy, timeouts) to
+   *        build the client from. May not be <code>null</code>.
+   */
+  public AS4PooledHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory)
+  {
+    this (aHttpClientFactory, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_KEEP_ALIVE, DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aHttpClientFactory
+   *        The HTTP client factory (e.g. with SSL context, proxy, timeouts) to
+   *        build the client from. May not be <code>null</code>.
+   * @param nMaxConnectionsPerRoute
+   *        The maximum number of connections per route (target host). Must be
+   *        &gt; 0.
+   * @param nMaxConnectionsTotal
+   *        The maximum number of connections in total. Must be &gt; 0.
+   * @param aKeepAlive
+   *        The duration a connection is kept alive, if the server does not
+   *        send a "Keep-Alive" header. May not be <code>null</code>.
+   * @param aMaxIdle
+   *        The duration after which idle connections are evicted. May not be
+   *        <code>null</code>.
+   */
+  public AS4PooledHttpClient (@Nonnull final HttpClientFactory aHttpClientFactory,
+                              @Nonnegative final int nMaxConnectionsPerRoute,
+                              @Nonnegative final int nMaxConnectionsTotal,
+                              @Nonnull final Duration aKeepAlive,
+                              @Nonnull final Duration aMaxIdle)
+  {
+    ValueEnforcer.notNull (aHttpClientFactory, "HttpClientFactory");
+    ValueEnforcer.isGT0 (nMaxConnectionsPerRoute, "MaxConnectionsPerRoute");
+    ValueEnforcer.isGT0 (nMaxConnectionsTotal, "MaxConnectionsTotal");
+    ValueEnforcer.notNull (aKeepAlive, "KeepAlive");
+    ValueEnforcer.isFalse (aKeepAlive.isNegative (), "KeepAlive may not be negative");
+    ValueEnforcer.notNull (aMaxIdle, "MaxIdle");
+    ValueEnforcer.isFalse (aMaxIdle.isNegative (), "MaxIdle may not be negative");
+
+    m_nMaxConnectionsPerRoute = nMaxConnectionsPerRoute;
+    m_nMaxConnectionsTotal = nMaxConnectionsTotal;
+    m_aKeepAlive = aKeepAlive;
+    m_aMaxIdle = aMaxIdle;
+
+    m_aHttpClientFactory = aHttpClientFactory;
+
+    final HttpClientConnectionManager aConnectionMgr = aHttpClientFactory.createConnectionManager (aHttpClientFactory.createSSLFactory ());
+    if (aConnectionMgr instanceof PoolingHttpClientConnectionManager)
+    {
+      m_aConnectionMgr = (PoolingHttpClientConnectionManager) aConnectionMgr;
+      m_aConnectionMgr.setDefaultMaxPerRoute (nMaxConnectionsPerRoute);
+      m_aConnectionMgr.setMaxTotal (nMaxConnectionsTotal);
+    }
+    else
+      m_aConnectionMgr = null;
+
+    final long nKeepAliveMS = aKeepAlive.toMillis ();
+    final HttpClientBuilder aBuilder = aHttpClientFactory.createHttpClientBuilder ()
+                                                         .setConnectionManager (aConnectionMgr)
+                                                         .setKeepAliveStrategy ( (aResponse, aContext) -> {
+                                                           // Use the server provided value if present
+                                                           final long nServerMS = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration (aResponse,
+                                                                                                                                                   aContext);
+                                                           return nServerMS > 0 ? Math.min (nServerMS, nKeepAliveMS) : nKeepAliveMS;
+                                                         })
+                                                         .evictExpiredConnections ()
+                                                         .evictIdleConnections (aMaxIdle.toMillis (), TimeUnit.MILLISECONDS);
+    m_aHttpClientMgr = new HttpClientManager (aBuilder::build);
+  }
+
+  /**
+   * @return The HTTP client factory this client was built from. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final HttpClientFactory getHttpClientFactory ()
+  {
+    return m_aHttpClientFactory;
+  }
+
+  @Nonnegative
+  public final int getMaxConnectionsPerRoute ()
+  {
+    return m_nMaxConnectionsPerRoute;
+  }
+
+  @Nonnegative
+  public final int getMaxConnectionsTotal ()
+  {
+    return m_nMaxConnectionsTotal;
+  }
+
+  @Nonnull
+  public final Duration getKeepAlive ()
+  {
+    return m_aKeepAlive;
+  }
+
+  @Nonnull
+  public final Duration getMaxIdle ()
+  {
+    return m_aMaxIdle;
+  }
+
+  /**
+   * @return The current statistics of the connection pool. May be
+   *         <code>null</code> if no pooling connection manager is used.
+   */
+  @Nullable
+  public PoolStats getTotalPoolStats ()
+  {
+    return m_aConnectionMgr == null ? null : m_aConnectionMgr.getTotalStats ();
+  }
+
+  /**
+   * Execute the provided request with the pooled client.
+   *
+   * @param <T>
+   *        Response data type
+   * @param aRequest
+   *        The request to be executed. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The response handler to be used. May not be <code>null</code>.
+   * @return The result of the response handler.
+   * @throws IOException
+   *         In case of IO error
+   * @throws IllegalStateException
+   *         If this client was already closed
+   */
+  @Nullable
+  public <T> T execute (@Nonnull final HttpUriRequest aRequest,
+                       @Nonnull final ResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
+    return m_aHttpClientMgr.execute (aRequest, aResponseHandler);
+  }
+
+  public boolean isClosed ()
+  {
+    return m_aHttpClientMgr.isClosed ();
+  }
+
+  /**
+   * Close the client and all pooled connections.
+   */
+  public void close ()
+  {
+    m_aHttpClientMgr.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxConnectionsPerRoute", m_nMaxConnectionsPerRoute)
+                                       .append ("MaxConnectionsTotal", m_nMaxConnectionsTotal)
+                                       .append ("KeepAlive", m_aKeepAlive)
+                                       .append ("MaxIdle", m_aMaxIdle)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,637 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.ResponseHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.http.HttpHeaderMap;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.dump.AS4DumpManager;
+import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.messaging.EAS4MessageMode;
+import com.helger.phase4.util.AS4ExecutorHelper;
+
+/**
+ * A retry engine for outgoing HTTP transmissions that does not block a thread
+ * while waiting for the next retry. In contrast to
+ * {@link IHttpPoster#sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, ResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}
+ * each try is run on an executor and the next try is scheduled with a timer.
+ * Additionally:
+ * <ul>
+ * <li>A random jitter is applied to every waiting time, so that many messages
+ * failing at the same time do not retry at the same time.</li>
+ * <li>Each destination (scheme, host and port of the URL) has a retry budget,
+ * that limits the number of retries within a time window. If the budget is
+ * exhausted, the transmission fails immediately with the last exception.</li>
+ * </ul>
+ * The {@link IAS4RetryCallback} is invoked with the same semantics as in the
+ * synchronous version, with the effective (jittered) waiting time. The tries
+ * are run on a bounded executor, that is either provided in the constructor or
+ * created from the {@link AS4Configuration} settings for asynchronous sending.
+ * If it is exhausted, the transmission fails with a
+ * {@link java.util.concurrent.RejectedExecutionException}. An instance must be
+ * closed if it is no longer needed.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4RetryScheduler implements AutoCloseable
+{
+  public static final double DEFAULT_JITTER_FACTOR = 0.2;
+  public static final int DEFAULT_RETRY_BUDGET_PER_DESTINATION = 1000;
+  public static final Duration DEFAULT_RETRY_BUDGET_WINDOW = Duration.ofMinutes (1);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4RetryScheduler.class);
+
+  /**
+   * The retry budget of a single destination, using a fixed time window.
+   */
+  private static final class RetryBudget
+  {
+    private long m_nWindowStart;
+    private int m_nUsed;
+  }
+
+  private final ScheduledExecutorService m_aTimer;
+  private final ExecutorService m_aSendExecutor;
+  private final boolean m_bOwnsSendExecutor;
+  private final double m_dJitterFactor;
+  private final int m_nRetryBudgetPerDestination;
+  private final Duration m_aRetryBudgetWindow;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsMap <String, RetryBudget> m_aBudgets = new CommonsHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private long m_nLastBudgetPurge;
+  private final Set <Attempt <?>> m_aPending = ConcurrentHashMap.newKeySet ();
+
+  /**
+   * Constructor with default settings.
+   */
+  public AS4RetryScheduler ()
+  {
+    this (DEFAULT_JITTER_FACTOR, DEFAULT_RETRY_BUDGET_PER_DESTINATION, DEFAULT_RETRY_BUDGET_WINDOW);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param dJitterFactor
+   *        The jitter factor to be applied to each waiting time. 0 means no
+   *        jitter, 0.2 means the waiting time is randomly changed by up to
+   *        &plusmn;20%. Must be between 0 and 1.
+   * @param nRetryBudgetPerDestination
+   *        The maximum number of retries per destination within the budget
+   *        window. Must be &gt; 0.
+   * @param aRetryBudgetWindow
+   *        The budget window. May not be <code>null</code>.
+   */
+  public AS4RetryScheduler (final double dJitterFactor,
+                            @Nonnegative final int nRetryBudgetPerDestination,
+                            @Nonnull final Duration aRetryBudgetWindow)
+  {
+    this (dJitterFactor, nRetryBudgetPerDestination, aRetryBudgetWindow, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param dJitterFactor
+   *        The jitter factor to be applied to each waiting time. 0 means no
+   *        jitter, 0.2 means the waiting time is randomly changed by up to
+   *        &plusmn;20%. Must be between 0 and 1.
+   * @param nRetryBudgetPerDestination
+   *        The maximum number of retries per destination within the budget
+   *        window. Must be &gt; 0.
+   * @param aRetryBudgetWindow
+   *        The budget window. May not be <code>null</code>.
+   * @param aSendExecutor
+   *        The executor to run the tries on. It should be bounded and it is not
+   *        shut down by {@link #close()}. May be <code>null</code> in which
+   *        case a bounded executor is created according to
+   *        {@link AS4Configuration#getOutgoingAsyncMaxThreads()} and
+   *        {@link AS4Configuration#getOutgoingAsyncQueueSize()}.
+   */
+  public AS4RetryScheduler (final double dJitterFactor,
+                            @Nonnegative final int nRetryBudgetPerDestination,
+                            @Nonnull final Duration aRetryBudgetWindow,
+                            @Nullable final ExecutorService aSendExecutor)
+  {
+    ValueEnforcer.isBetweenInclusive (dJitterFactor, "JitterFactor", 0d, 1d);
+    ValueEnforcer.isGT0 (nRetryBudgetPerDestination, "RetryBudgetPerDestination");
+    ValueEnforcer.notNull (aRetryBudgetWindow, "RetryBudgetWindow");
+    ValueEnforcer.isFalse (aRetryBudgetWindow.isNegative () || aRetryBudgetWindow.isZero (), "RetryBudgetWindow must be positive");
+
+    m_dJitterFactor = dJitterFactor;
+    m_nRetryBudgetPerDestination = nRetryBudgetPerDestination;
+    m_aRetryBudgetWindow = aRetryBudgetWindow;
+    m_aTimer = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("phase4-retry-timer-%d")
+                                                                                            .daemon (true)
+                                                                                            .build ());
+    if (aSendExecutor != null)
+    {
+      m_aSendExecutor = aSendExecutor;
+      m_bOwnsSendExecutor = false;
+    }
+    else
+    {
+      // The timer thread submits the retries, so it must never block
+      m_aSendExecutor = AS4ExecutorHelper.createBoundedExecutor ("phase4-retry-send-%d",
+                                                                 AS4Configuration.getOutgoingAsyncMaxThreads (),
+                                                                 AS4Configuration.getOutgoingAsyncQueueSize (),
+                                                                 new ThreadPoolExecutor.AbortPolicy ());
+      m_bOwnsSendExecutor = true;
+    }
+  }
+
+  public final double getJitterFactor ()
+  {
+    return m_dJitterFactor;
+  }
+
+  @Nonnegative
+  public final int getRetryBudgetPerDestination ()
+  {
+    return m_nRetryBudgetPerDestination;
+  }
+
+  @Nonnull
+  public final Duration getRetryBudgetWindow ()
+  {
+    return m_aRetryBudgetWindow;
+  }
+
+  /**
+   * Get the destination key of the provided URL. This is the base for the
+   * retry budget.
+   *
+   * @param sURL
+   *        The URL to get the destination from. May not be <code>null</code>.
+   * @return The scheme, host and port of the URL, or the URL itself if it
+   *         cannot be parsed.
+   */
+  @Nonnull
+  public static String getDestinationKey (@Nonnull final String sURL)
+  {
+    try
+    {
+      final URI aURI = new URI (sURL);
+      if (StringHelper.hasText (aURI.getHost ()))
+        return aURI.getScheme () + "://" + aURI.getHost () + ":" + aURI.getPort ();
+    }
+    catch (final Exception ex)
+    {
+      // Fall through
+    }
+    return sURL;
+  }
+
+  /**
+   * @return The current time in nanoseconds, as used for the retry budget
+   *         windows.
+   */
+  protected long getCurrentNanoTime ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Try to acquire one retry from the budget of the provided destination.
+   * Budgets whose window has passed are removed, so that the number of
+   * remembered destinations does not grow without limit.
+   *
+   * @param sDestinationKey
+   *        Destination key. May not be <code>null</code>.
+   * @return <code>true</code> if a retry may happen, <code>false</code> if the
+   *         budget is exhausted.
+   */
+  protected boolean tryAcquireRetry (@Nonnull final String sDestinationKey)
+  {
+    final long nNow = getCurrentNanoTime ();
+    final long nWindowNanos = m_aRetryBudgetWindow.toNanos ();
+    return m_aLock.lockedBoolean ( () -> {
+      if (m_aBudgets.isEmpty ())
+        m_nLastBudgetPurge = nNow;
+      else
+        if (nNow - m_nLastBudgetPurge >= nWindowNanos)
+        {
+          // At most once per window
+          m_aBudgets.entrySet ().removeIf (x -> nNow - x.getValue ().m_nWindowStart >= nWindowNanos);
+          m_nLastBudgetPurge = nNow;
+        }
+
+      final RetryBudget aBudget = m_aBudgets.computeIfAbsent (sDestinationKey, k -> new RetryBudget ());
+      if (aBudget.m_nUsed == 0 || nNow - aBudget.m_nWindowStart >= nWindowNanos)
+      {
+        // Start a new window
+        aBudget.m_nWindowStart = nNow;
+        aBudget.m_nUsed = 0;
+      }
+      if (aBudget.m_nUsed >= m_nRetryBudgetPerDestination)
+        return false;
+      aBudget.m_nUsed++;
+      return true;
+    });
+  }
+
+  /**
+   * Get the waiting time with the jitter applied.
+   *
+   * @param aDuration
+   *        The original waiting time. May not be <code>null</code>.
+   * @return The waiting time with jitter. Never negative.
+   */
+  @Nonnegative
+  protected long getJitteredMillis (@Nonnull final Duration aDuration)
+  {
+    final long nMillis = aDuration.toMillis ();
+    if (m_dJitterFactor <= 0 || nMillis <= 0)
+      return nMillis;
+    final double dJitter = ThreadLocalRandom.current ().nextDouble (-m_dJitterFactor, m_dJitterFactor);
+    return Math.max (0, Math.round (nMillis * (1 + dJitter)));
+  }
+
+  /**
+   * Send an arbitrary HTTP POST message to the provided URL, with the retries
+   * defined in the provided settings. No thread is blocked between the
+   * tries.<br>
+   * Note: the provided entity must be repeatable, if retries are enabled or if
+   * an outgoing dumper is used.
+   *
+   * @param <T>
+   *        Response type
+   * @param aHttpPoster
+   *        The HTTP poster to be used for each try. May not be
+   *        <code>null</code>.
+   * @param sURL
+   *        The URL to send to. May neither be <code>null</code> nor empty.
+   * @param aCustomHttpHeaders
+   *        An optional HTTP header map that should be applied. May be
+   *        <code>null</code>.
+   * @param aHttpEntity
+   *        The HTTP entity to be send. May not be <code>null</code>.
+   * @param sMessageID
+   *        The AS4 message ID. May not be <code>null</code>.
+   * @param aRetrySettings
+   *        The retry settings to use. May not be <code>null</code>.
+   * @param aResponseHandler
+   *        The HTTP response handler that should be used to convert the HTTP
+   *        response to a domain object. May not be <code>null</code>.
+   * @param aOutgoingDumper
+   *        An outgoing dumper to be used. Maybe <code>null</code>. If
+   *        <code>null</code> the global outgoing dumper is used.
+   * @param aRetryCallback
+   *        An optional retry callback that is invoked, before a retry is
+   *        scheduled. May be <code>null</code>.
+   * @return The future with the HTTP response. Never <code>null</code>. In
+   *         case of an error it is completed exceptionally.
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> sendGenericMessageWithRetriesAsync (@Nonnull final IHttpPoster aHttpPoster,
+                                                                      @Nonnull final String sURL,
+                                                                      @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                                                      @Nonnull final HttpEntity aHttpEntity,
+                                                                      @Nonnull final String sMessageID,
+                                                                      @Nonnull final HttpRetrySettings aRetrySettings,
+                                                                      @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+                                                                      @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+                                                                      @Nullable final IAS4RetryCallback aRetryCallback)
+  {
+    ValueEnforcer.notNull (aHttpPoster, "HttpPoster");
+    ValueEnforcer.notEmpty (sURL, "URL");
+    ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
+    ValueEnforcer.notNull (sMessageID, "MessageID");
+    ValueEnforcer.notNull (aRetrySettings, "RetrySettings");
+    ValueEnforcer.notNull (aResponseHandler, "ResponseHandler");
+
+    if (aRetrySettings.isRetryEnabled () && !aHttpEntity.isRepeatable ())
+      throw new IllegalStateException ("If retry is enabled, a repeatable entity must be provided");
+
+    // Parameter or global one - may still be null
+    final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper : AS4DumpManager.getOutgoingDumper ();
+
+    // Copy, so that later modifications are not considered
+    final HttpRetrySettings aRealRetrySettings = new HttpRetrySettings ();
+    aRealRetrySettings.assignFrom (aRetrySettings);
+
+    final CompletableFuture <T> ret = new CompletableFuture <> ();
+    final Attempt <T> aAttempt = new Attempt <> (aHttpPoster,
+                                                 sURL,
+                                                 aCustomHttpHeaders,
+                                                 aHttpEntity,
+                                                 sMessageID,
+                                                 aRealRetrySettings,
+                                                 aResponseHandler,
+                                                 aRealOutgoingDumper,
+                                                 aRetryCallback,
+                                                 ret);
+    m_aPending.add (aAttempt);
+    _submit (aAttempt, 0);
+    return ret;
+  }
+
+  private void _submit (@Nonnull final Attempt <?> aAttempt, @Nonnegative final int nTry)
+  {
+    try
+    {
+      m_aSendExecutor.execute ( () -> aAttempt.run (nTry));
+    }
+    catch (final RuntimeException ex)
+    {
+      // E.g. rejected because closed
+      aAttempt._fail (ex);
+    }
+  }
+
+  /**
+   * The state of a single transmission over all tries.
+   *
+   * @param <T>
+   *        Response type
+   */
+  private final class Attempt <T>
+  {
+    private final IHttpPoster m_aHttpPoster;
+    private final String m_sURL;
+    private final HttpHeaderMap m_aCustomHttpHeaders;
+    private final HttpEntity m_aHttpEntity;
+    private final String m_sMessageID;
+    private final HttpRetrySettings m_aRetrySettings;
+    private final ResponseHandler <? extends T> m_aResponseHandler;
+    private final IAS4OutgoingDumper m_aOutgoingDumper;
+    private final IAS4RetryCallback m_aRetryCallback;
+    private final CompletableFuture <T> m_aResult;
+    // Only accessed by one try at a time
+    private Duration m_aDurationBeforeRetry;
+    private boolean m_bDumped = false;
+
+    Attempt (@Nonnull final IHttpPoster aHttpPoster,
+             @Nonnull final String sURL,
+             @Nullable final HttpHeaderMap aCustomHttpHeaders,
+             @Nonnull final HttpEntity aHttpEntity,
+             @Nonnull final String sMessageID,
+             @Nonnull final HttpRetrySettings aRetrySettings,
+             @Nonnull final ResponseHandler <? extends T> aResponseHandler,
+             @Nullable final IAS4OutgoingDumper aOutgoingDumper,
+             @Nullable final IAS4RetryCallback aRetryCallback,
+             @Nonnull final CompletableFuture <T> aResult)
+    {
+      m_aHttpPoster = aHttpPoster;
+      m_sURL = sURL;
+      m_aCustomHttpHeaders = aCustomHttpHeaders;
+      m_aHttpEntity = aHttpEntity;
+      m_sMessageID = sMessageID;
+      m_aRetrySettings = aRetrySettings;
+      m_aResponseHandler = aResponseHandler;
+      m_aOutgoingDumper = aOutgoingDumper;
+      m_aRetryCallback = aRetryCallback;
+      m_aResult = aResult;
+      m_aDurationBeforeRetry = aRetrySettings.getDurationBeforeRetry ();
+    }
+
+    void run (@Nonnegative final int nTry)
+    {
+      if (m_aResult.isDone ())
+      {
+        // E.g. cancelled
+        return;
+      }
+
+      final int nMaxRetries = m_aRetrySettings.isRetryEnabled () ? m_aRetrySettings.getMaxRetries () : 0;
+      final int nMaxTries = 1 + nMaxRetries;
+      if (nTry > 0)
+        LOGGER.info ("Retry #" + nTry + "/" + nMaxRetries + " for sending message with ID '" + m_sMessageID + "'");
+
+      final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
+      T aResponse = null;
+      IOException aIOEx = null;
+      RuntimeException aRTEx = null;
+      try
+      {
+        // Create a new one every time (for new filename, new timestamp, etc.)
+        final HttpEntity aDumpingEntity = BasicHttpPoster.createDumpingHttpEntity (m_aOutgoingDumper,
+                                                                                   m_aHttpEntity,
+                                                                                   m_sMessageID,
+                                                                                   m_aCustomHttpHeaders,
+                                                                                   nTry,
+                                                                                   aDumpOSHolder);
+        aResponse = m_aHttpPoster.sendGenericMessage (m_sURL, m_aCustomHttpHeaders, aDumpingEntity, m_aResponseHandler);
+      }
+      catch (final IOException ex)
+      {
+        aIOEx = ex;
+      }
+      catch (final RuntimeException ex)
+      {
+        aRTEx = ex;
+      }
+      finally
+      {
+        // Flush and close the dump output stream (if any)
+        StreamHelper.close (aDumpOSHolder.get ());
+        if (aDumpOSHolder.isSet ())
+          m_bDumped = true;
+      }
+
+      if (aIOEx != null)
+        _onError (nTry, nMaxTries, aIOEx);
+      else
+        if (aRTEx != null)
+          _fail (aRTEx);
+        else
+        {
+          _onEnd ();
+          m_aResult.complete (aResponse);
+        }
+    }
+
+    private void _fail (@Nonnull final Throwable t)
+    {
+      _onEnd ();
+      m_aResult.completeExceptionally (t);
+    }
+
+    private void _onEnd ()
+    {
+      // Only once
+      if (!m_aPending.remove (this))
+        return;
+
+      // Add the possibility to close open resources
+      if (m_aOutgoingDumper != null && m_bDumped)
+        try
+        {
+          m_aOutgoingDumper.onEndRequest (EAS4MessageMode.REQUEST, null, null, m_sMessageID);
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("OutgoingDumper.onEndRequest failed. Dumper=" + m_aOutgoingDumper + "; MessageID=" + m_sMessageID, ex);
+        }
+    }
+
+    private void _onError (@Nonnegative final int nTry, @Nonnegative final int nMaxTries, @Nonnull final IOException ex)
+    {
+      // Last try? -> propagate exception
+      if (nTry == nMaxTries - 1)
+      {
+        _fail (ex);
+        return;
+      }
+
+      // After the first retry, increase the waiting time
+      if (nTry > 1)
+        m_aDurationBeforeRetry = HttpRetrySettings.getIncreased (m_aDurationBeforeRetry, m_aRetrySettings.getRetryIncreaseFactor ());
+
+      final String sDestinationKey = getDestinationKey (m_sURL);
+      if (!tryAcquireRetry (sDestinationKey))
+      {
+        LOGGER.warn ("Error sending message '" +
+                     m_sMessageID +
+                     "' to '" +
+                     m_sURL +
+                     "': " +
+                     ex.getClass ().getSimpleName () +
+                     " - " +
+                     ex.getMessage () +
+                     " - the retry budget for '" +
+                     sDestinationKey +
+                     "' is exhausted");
+        _fail (ex);
+        return;
+      }
+
+      final long nWaitMS = getJitteredMillis (m_aDurationBeforeRetry);
+      if (m_aRetryCallback != null)
+        if (m_aRetryCallback.onBeforeRetry (m_sMessageID, m_sURL, nTry, nMaxTries, nWaitMS, ex).isBreak ())
+        {
+          // Explicitly interrupt retry
+          LOGGER.warn ("Error sending message '" +
+                       m_sMessageID +
+                       "' to '" +
+                       m_sURL +
+                       ": " +
+                       ex.getClass ().getSimpleName () +
+                       " - " +
+                       ex.getMessage () +
+                       " - retrying was explicitly stopped by the RetryCallback");
+
+          // Propagate Exception as if it would be the last retry
+          _fail (ex);
+          return;
+        }
+
+      LOGGER.warn ("Error sending message '" +
+                   m_sMessageID +
+                   "' to '" +
+                   m_sURL +
+                   "': " +
+                   ex.getClass ().getSimpleName () +
+                   " - " +
+                   ex.getMessage () +
+                   " - scheduling retry in " +
+                   nWaitMS +
+                   " ms");
+
+      try
+      {
+        // No thread is blocked while waiting
+        m_aTimer.schedule ( () -> _submit (this, nTry + 1), nWaitMS, TimeUnit.MILLISECONDS);
+      }
+      catch (final RuntimeException ex2)
+      {
+        // E.g. rejected because closed
+        _fail (ex);
+      }
+    }
+  }
+
+  /**
+   * @return The number of transmissions that are not yet completed.
+   */
+  @Nonnegative
+  public int getPendingCount ()
+  {
+    return m_aPending.size ();
+  }
+
+  /**
+   * @return The number of destinations for which a retry budget is currently
+   *         remembered.
+   */
+  @Nonnegative
+  public int getBudgetDestinationCount ()
+  {
+    return m_aLock.lockedInt (m_aBudgets::size);
+  }
+
+  /**
+   * Stop the scheduler. Pending retries are not executed anymore and the
+   * respective futures are completed exceptionally. An executor provided in
+   * the constructor is not shut down.
+   */
+  public void close ()
+  {
+    m_aTimer.shutdownNow ();
+    if (m_bOwnsSendExecutor)
+      m_aSendExecutor.shutdown ();
+    for (final Attempt <?> aAttempt : m_aPending)
+      aAttempt._fail (new IllegalStateException ("The retry scheduler was closed"));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("JitterFactor", m_dJitterFactor)
+                                       .append ("RetryBudgetPerDestination", m_nRetryBudgetPerDestination)
+                                       .append ("RetryBudgetWindow", m_aRetryBudgetWindow)
+                                       .getToString ();
+  }
+}
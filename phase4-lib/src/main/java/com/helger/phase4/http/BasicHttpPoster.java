@@ -17,8 +17,11 @@
 package com.helger.phase4.http;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnegative;
@@ -80,6 +83,9 @@ public class BasicHttpPoster implements IHttpPoster
   private HttpClientFactory m_aHttpClientFactory = createDefaultHttpClientFactory ();
   private Consumer <? super HttpPost> m_aHttpCustomizer;
   private boolean m_bQuoteHttpHeaders = DEFAULT_QUOTE_HTTP_HEADERS;
+  private AS4PooledHttpClient m_aPooledHttpClient;
+  private AS4CircuitBreaker m_aCircuitBreaker;
+  private AS4RetryScheduler m_aRetryScheduler;
 
   public BasicHttpPoster ()
   {}
@@ -111,6 +117,45 @@ public class BasicHttpPoster implements IHttpPoster
     return this;
   }
 
+  @Nullable
+  public final AS4PooledHttpClient getPooledHttpClient ()
+  {
+    return m_aPooledHttpClient;
+  }
+
+  @Nonnull
+  public final BasicHttpPoster setPooledHttpClient (@Nullable final AS4PooledHttpClient aPooledHttpClient)
+  {
+    m_aPooledHttpClient = aPooledHttpClient;
+    return this;
+  }
+
+  @Nullable
+  public final AS4CircuitBreaker getCircuitBreaker ()
+  {
+    return m_aCircuitBreaker;
+  }
+
+  @Nonnull
+  public final BasicHttpPoster setCircuitBreaker (@Nullable final AS4CircuitBreaker aCircuitBreaker)
+  {
+    m_aCircuitBreaker = aCircuitBreaker;
+    return this;
+  }
+
+  @Nullable
+  public final AS4RetryScheduler getRetryScheduler ()
+  {
+    return m_aRetryScheduler;
+  }
+
+  @Nonnull
+  public final BasicHttpPoster setRetryScheduler (@Nullable final AS4RetryScheduler aRetryScheduler)
+  {
+    m_aRetryScheduler = aRetryScheduler;
+    return this;
+  }
+
   public final boolean isQuoteHttpHeaders ()
   {
     return m_bQuoteHttpHeaders;
@@ -125,8 +170,9 @@ public class BasicHttpPoster implements IHttpPoster
 
   /**
    * Send an arbitrary HTTP POST message to the provided URL, using the
-   * contained HttpClientFactory as well as the customizer. Additionally the AS4
-   * HTTP debugging is invoked in here.<br>
+   * contained HttpClientFactory (or the pooled HTTP client if present) as well
+   * as the customizer. Additionally the AS4 HTTP debugging is invoked in
+   * here. If a circuit breaker is present, it guards this call.<br>
    * This method does NOT retry
    *
    * @param <T>
@@ -154,11 +200,26 @@ public class BasicHttpPoster implements IHttpPoster
     ValueEnforcer.notEmpty (sURL, "URL");
     ValueEnforcer.notNull (aHttpEntity, "HttpEntity");
 
+    final AS4CircuitBreaker aCircuitBreaker = m_aCircuitBreaker;
+    if (aCircuitBreaker != null)
+    {
+      // Fail fast, if the destination is not available
+      return aCircuitBreaker.execute (sURL, () -> _sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, aResponseHandler));
+    }
+    return _sendGenericMessage (sURL, aCustomHttpHeaders, aHttpEntity, aResponseHandler);
+  }
+
+  @Nullable
+  private <T> T _sendGenericMessage (@Nonnull @Nonempty final String sURL,
+                                     @Nullable final HttpHeaderMap aCustomHttpHeaders,
+                                     @Nonnull final HttpEntity aHttpEntity,
+                                     @Nonnull final ResponseHandler <? extends T> aResponseHandler) throws IOException
+  {
     final StopWatch aSW = StopWatch.createdStarted ();
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Starting to transmit AS4 Message to '" + sURL + "'");
 
-    try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+    try
     {
       final HttpPost aPost = new HttpPost (sURL);
 
@@ -196,7 +257,21 @@ public class BasicHttpPoster implements IHttpPoster
         return ret.toString ();
       });
 
-      return aClientMgr.execute (aPost, aResponseHandler);
+      final AS4PooledHttpClient aPooledHttpClient = m_aPooledHttpClient;
+      if (aPooledHttpClient != null)
+      {
+        // Only reuse pooled connections that were created with the same
+        // settings
+        if (aPooledHttpClient.getHttpClientFactory () == m_aHttpClientFactory)
+          return aPooledHttpClient.execute (aPost, aResponseHandler);
+
+        LOGGER.warn ("Not using the pooled HTTP client, because it was built from a different HttpClientFactory");
+      }
+
+      try (final HttpClientManager aClientMgr = new HttpClientManager (m_aHttpClientFactory))
+      {
+        return aClientMgr.execute (aPost, aResponseHandler);
+      }
     }
     finally
     {
@@ -264,6 +339,21 @@ public class BasicHttpPoster implements IHttpPoster
                                               @Nullable final IAS4OutgoingDumper aOutgoingDumper,
                                               @Nullable final IAS4RetryCallback aRetryCallback) throws IOException
   {
+    final AS4RetryScheduler aRetryScheduler = m_aRetryScheduler;
+    if (aRetryScheduler != null && aRetrySettings.isRetryEnabled ())
+    {
+      // Let the scheduler handle the retries, and wait for the result
+      return _getResult (aRetryScheduler.sendGenericMessageWithRetriesAsync (this,
+                                                                            sURL,
+                                                                            aCustomHttpHeaders,
+                                                                            aHttpEntity,
+                                                                            sMessageID,
+                                                                            aRetrySettings,
+                                                                            aResponseHandler,
+                                                                            aOutgoingDumper,
+                                                                            aRetryCallback));
+    }
+
     // Parameter or global one - may still be null
     final IAS4OutgoingDumper aRealOutgoingDumper = aOutgoingDumper != null ? aOutgoingDumper : AS4DumpManager.getOutgoingDumper ();
 
@@ -386,12 +476,38 @@ public class BasicHttpPoster implements IHttpPoster
     }
   }
 
+  private static <T> T _getResult (@Nonnull final CompletableFuture <T> aFuture) throws IOException
+  {
+    try
+    {
+      return aFuture.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      aFuture.cancel (false);
+      throw new InterruptedIOException ("Interrupted while waiting for the retry scheduler");
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof IOException)
+        throw (IOException) aCause;
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      throw new IOException ("Error sending message", aCause);
+    }
+  }
+
   @Override
   public String toString ()
   {
     return new ToStringGenerator (this).append ("HttpClientFactory", m_aHttpClientFactory)
                                        .append ("HttpCustomizer", m_aHttpCustomizer)
                                        .append ("QuoteHttpHeaders", m_bQuoteHttpHeaders)
+                                       .append ("PooledHttpClient", m_aPooledHttpClient)
+                                       .append ("CircuitBreaker", m_aCircuitBreaker)
+                                       .append ("RetryScheduler", m_aRetryScheduler)
                                        .getToString ();
   }
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+/**
+ * The states of an {@link AS4CircuitBreaker} for a single destination.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+public enum EAS4CircuitBreakerState
+{
+  /** All calls are permitted and the outcomes are recorded */
+  CLOSED,
+  /** No calls are permitted until the waiting time elapsed */
+  OPEN,
+  /** A limited number of probe calls are permitted */
+  HALF_OPEN;
+}
@@ -25,24 +25,61 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
 import org.apache.http.entity.AbstractHttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.CountingOutputStream;
+import com.helger.commons.io.stream.NullOutputStream;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.phase4.messaging.mime.AS4MimeMessage;
 
 /**
- * Special HTTP entity that reads and writes to a {@link MimeMessage}.
+ * Special HTTP entity that reads and writes to a {@link MimeMessage}.<br>
+ * Since v1.3.2 the exact Content-Length of repeatable messages is calculated,
+ * so that no chunked encoding is used. The MIME message must not be modified
+ * after the Content-Length was determined.
  *
  * @author Philip Helger
  * @author bayerlma
  */
 public class HttpMimeMessageEntity extends AbstractHttpEntity
 {
+  /**
+   * By default the Content-Length of repeatable messages is calculated, so
+   * that no chunked encoding is used.
+   *
+   * @since 1.3.2
+   */
+  public static final boolean DEFAULT_CALCULATE_CONTENT_LENGTH = true;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (HttpMimeMessageEntity.class);
+
   private final AS4MimeMessage m_aMsg;
+  private final boolean m_bCalculateContentLength;
+  // Status vars
+  private volatile long m_nContentLength = -1;
 
   public HttpMimeMessageEntity (@Nonnull final AS4MimeMessage aMsg)
+  {
+    this (aMsg, DEFAULT_CALCULATE_CONTENT_LENGTH);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aMsg
+   *        The MIME message to be sent. May not be <code>null</code>.
+   * @param bCalculateContentLength
+   *        <code>true</code> to calculate the Content-Length once if the
+   *        message is repeatable (requires an additional write pass, but no
+   *        memory), <code>false</code> to use chunked encoding.
+   * @since 1.3.2
+   */
+  public HttpMimeMessageEntity (@Nonnull final AS4MimeMessage aMsg, final boolean bCalculateContentLength)
   {
     m_aMsg = ValueEnforcer.notNull (aMsg, "Msg");
+    m_bCalculateContentLength = bCalculateContentLength;
   }
 
   /**
@@ -55,6 +92,17 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
     return m_aMsg;
   }
 
+  /**
+   * @return <code>true</code> if the Content-Length is calculated for
+   *         repeatable messages, <code>false</code> if chunked encoding is
+   *         used.
+   * @since 1.3.2
+   */
+  public final boolean isCalculateContentLength ()
+  {
+    return m_bCalculateContentLength;
+  }
+
   public boolean isRepeatable ()
   {
     return m_aMsg.isRepeatable ();
@@ -62,8 +110,30 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
 
   public long getContentLength ()
   {
-    // length unknown - negative number
-    return -1;
+    // A non-repeatable message cannot be written twice
+    if (!m_bCalculateContentLength || !m_aMsg.isRepeatable ())
+    {
+      // length unknown - negative number
+      return -1;
+    }
+
+    long ret = m_nContentLength;
+    if (ret < 0)
+    {
+      // Calculate only once, so that it is reused for retries
+      try (final CountingOutputStream aCOS = new CountingOutputStream (new NullOutputStream ()))
+      {
+        m_aMsg.writeTo (aCOS);
+        ret = aCOS.getBytesWritten ();
+        m_nContentLength = ret;
+      }
+      catch (final IOException | MessagingException ex)
+      {
+        LOGGER.error ("Failed to determine length of MIME message", ex);
+        return -1;
+      }
+    }
+    return ret;
   }
 
   public boolean isStreaming ()
@@ -99,6 +169,9 @@ public class HttpMimeMessageEntity extends AbstractHttpEntity
   @Override
   public String toString ()
   {
-    return ToStringGenerator.getDerived (super.toString ()).append ("MimeMsg", m_aMsg).getToString ();
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("MimeMsg", m_aMsg)
+                            .append ("CalculateContentLength", m_bCalculateContentLength)
+                            .getToString ();
   }
 }
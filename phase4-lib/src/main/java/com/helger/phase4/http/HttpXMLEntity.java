@@ -16,26 +16,159 @@
  */
 package com.helger.phase4.http;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import javax.annotation.Nonnull;
 
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Node;
 
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.CountingOutputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.NullOutputStream;
 import com.helger.commons.mime.IMimeType;
-import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.util.AS4XMLRuntime;
 
 /**
- * Special HttpClient HTTP POST entity that contains a DOM Node as a serialized
- * String. This entity is repeatable.
+ * Special HttpClient HTTP POST entity that contains a DOM Node. The node is
+ * serialized directly to the target stream in UTF-8 without creating an
+ * intermediate String. This entity is repeatable.<br>
+ * Since v1.3.2 the node is no longer serialized in the constructor, so it must
+ * not be modified while the entity is in use.
  *
  * @author Philip Helger
  */
-public class HttpXMLEntity extends StringEntity
+public class HttpXMLEntity extends AbstractHttpEntity
 {
+  /**
+   * By default the Content-Length is calculated, so that no chunked encoding
+   * is used.
+   *
+   * @since 1.3.2
+   */
+  public static final boolean DEFAULT_CALCULATE_CONTENT_LENGTH = true;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (HttpXMLEntity.class);
+
+  private final Node m_aNode;
+  private final boolean m_bCalculateContentLength;
+  // Status vars
+  private volatile long m_nContentLength = -1;
+
   public HttpXMLEntity (@Nonnull final Node aNode, @Nonnull final IMimeType aMimeType)
   {
-    super (AS4XMLHelper.serializeXML (aNode), AS4XMLHelper.XWS.getCharset ());
+    this (aNode, aMimeType, DEFAULT_CALCULATE_CONTENT_LENGTH);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aNode
+   *        The node to be sent. May not be <code>null</code>.
+   * @param aMimeType
+   *        The MIME type to use. May not be <code>null</code>.
+   * @param bCalculateContentLength
+   *        <code>true</code> to calculate the Content-Length once (requires an
+   *        additional serialization pass, but no memory),
+   *        <code>false</code> to use chunked encoding.
+   * @since 1.3.2
+   */
+  public HttpXMLEntity (@Nonnull final Node aNode, @Nonnull final IMimeType aMimeType, final boolean bCalculateContentLength)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aMimeType, "MimeType");
+    m_aNode = aNode;
+    m_bCalculateContentLength = bCalculateContentLength;
     // Required for AS4.NET
     setContentType (aMimeType.getAsString ());
   }
+
+  /**
+   * @return The node passed in the constructor. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Node getNode ()
+  {
+    return m_aNode;
+  }
+
+  /**
+   * @return <code>true</code> if the Content-Length is calculated,
+   *         <code>false</code> if chunked encoding is used.
+   * @since 1.3.2
+   */
+  public final boolean isCalculateContentLength ()
+  {
+    return m_bCalculateContentLength;
+  }
+
+  public boolean isRepeatable ()
+  {
+    return true;
+  }
+
+  public long getContentLength ()
+  {
+    if (!m_bCalculateContentLength)
+      return -1;
+
+    long ret = m_nContentLength;
+    if (ret < 0)
+    {
+      // Calculate only once, so that it is reused for retries
+      try (final CountingOutputStream aCOS = new CountingOutputStream (new NullOutputStream ()))
+      {
+        AS4XMLRuntime.serializeToStream (m_aNode, aCOS);
+        ret = aCOS.getBytesWritten ();
+        m_nContentLength = ret;
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to determine length of XML content", ex);
+        return -1;
+      }
+    }
+    return ret;
+  }
+
+  public boolean isStreaming ()
+  {
+    return false;
+  }
+
+  public InputStream getContent () throws IOException
+  {
+    final long nContentLength = m_nContentLength;
+    final int nInitialSize = nContentLength > 0 && nContentLength <= Integer.MAX_VALUE ? (int) nContentLength
+                                                                                       : 16 * CGlobal.BYTES_PER_KILOBYTE;
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream (nInitialSize))
+    {
+      AS4XMLRuntime.serializeToStream (m_aNode, aBAOS);
+      return new NonBlockingByteArrayInputStream (aBAOS.directGetBuffer (), 0, aBAOS.size ());
+    }
+  }
+
+  public void writeTo (@Nonnull final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OutputStream");
+    AS4XMLRuntime.serializeToStream (m_aNode, aOS);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("Node", m_aNode)
+                            .append ("CalculateContentLength", m_bCalculateContentLength)
+                            .getToString ();
+  }
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Callback to be informed on state changes of an {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@FunctionalInterface
+public interface IAS4CircuitBreakerListener
+{
+  /**
+   * Invoked after the state of the circuit breaker of a destination changed.
+   *
+   * @param sDestination
+   *        The destination (scheme, host and port) whose state changed. May not
+   *        be <code>null</code>.
+   * @param eOldState
+   *        The previous state. May not be <code>null</code>.
+   * @param eNewState
+   *        The new state. May not be <code>null</code>.
+   */
+  void onStateChange (@Nonnull String sDestination,
+                      @Nonnull EAS4CircuitBreakerState eOldState,
+                      @Nonnull EAS4CircuitBreakerState eNewState);
+}
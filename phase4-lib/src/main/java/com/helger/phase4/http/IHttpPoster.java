@@ -25,6 +25,7 @@ import javax.annotation.Nullable;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpPost;
+import org.slf4j.LoggerFactory;
 
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.http.HttpHeaderMap;
@@ -62,6 +63,114 @@ public interface IHttpPoster
   @Nonnull
   IHttpPoster setHttpClientFactory (@Nonnull HttpClientFactory aHttpClientFactory);
 
+  /**
+   * @return The pooled HTTP client to be used instead of creating a new HTTP
+   *         client for every transmission. May be <code>null</code>. The
+   *         default implementation always returns <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  default AS4PooledHttpClient getPooledHttpClient ()
+  {
+    return null;
+  }
+
+  /**
+   * Set a long-lived pooled HTTP client to be used. Connections are reused
+   * across transmissions, if the pooled client was built from the same HTTP
+   * client factory as the one of this poster (see
+   * {@link AS4PooledHttpClient#getHttpClientFactory()}). Otherwise or if
+   * <code>null</code> a new HTTP client is created from the HTTP client factory
+   * for every transmission. The default implementation ignores it and logs a
+   * warning.
+   *
+   * @param aPooledHttpClient
+   *        The pooled HTTP client to be used. May be <code>null</code>. It is
+   *        not closed by this poster.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IHttpPoster setPooledHttpClient (@Nullable final AS4PooledHttpClient aPooledHttpClient)
+  {
+    if (aPooledHttpClient != null)
+      LoggerFactory.getLogger (IHttpPoster.class)
+                   .warn ("The pooled HTTP client is ignored, because " + getClass ().getName () + " does not support it");
+    return this;
+  }
+
+  /**
+   * @return The retry scheduler to be used for
+   *         {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, ResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   *         May be <code>null</code>. The default implementation always
+   *         returns <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  default AS4RetryScheduler getRetryScheduler ()
+  {
+    return null;
+  }
+
+  /**
+   * Set the retry scheduler to be used for
+   * {@link #sendGenericMessageWithRetries(String, HttpHeaderMap, HttpEntity, String, HttpRetrySettings, ResponseHandler, IAS4OutgoingDumper, IAS4RetryCallback)}.
+   * If set and retries are enabled, the waiting times are jittered and the
+   * retry budgets of the scheduler apply. The calling thread still waits for
+   * the final result. The default implementation ignores it and logs a
+   * warning.
+   *
+   * @param aRetryScheduler
+   *        The retry scheduler to use. May be <code>null</code> to retry in
+   *        the calling thread. It is not closed by this poster.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IHttpPoster setRetryScheduler (@Nullable final AS4RetryScheduler aRetryScheduler)
+  {
+    if (aRetryScheduler != null)
+      LoggerFactory.getLogger (IHttpPoster.class)
+                   .warn ("The retry scheduler is ignored, because " + getClass ().getName () + " does not support it");
+    return this;
+  }
+
+  /**
+   * @return The circuit breaker to be used for each single try of
+   *         {@link #sendGenericMessage(String, HttpHeaderMap, HttpEntity, ResponseHandler)}.
+   *         May be <code>null</code>. The default implementation always
+   *         returns <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  default AS4CircuitBreaker getCircuitBreaker ()
+  {
+    return null;
+  }
+
+  /**
+   * Set the circuit breaker to be used for each single try of
+   * {@link #sendGenericMessage(String, HttpHeaderMap, HttpEntity, ResponseHandler)}.
+   * So the waiting time between retries is not counted as a call, and a
+   * rejected try can be retried like any other failed try. The same circuit
+   * breaker instance should be shared between all posters, so that the
+   * destination states are shared. The default implementation ignores it and
+   * logs a warning.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to use. May be <code>null</code> to disable it.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  default IHttpPoster setCircuitBreaker (@Nullable final AS4CircuitBreaker aCircuitBreaker)
+  {
+    if (aCircuitBreaker != null)
+      LoggerFactory.getLogger (IHttpPoster.class)
+                   .warn ("The circuit breaker is ignored, because " + getClass ().getName () + " does not support it");
+    return this;
+  }
+
   /**
    * @return The HTTP Post customizer to be used. May be <code>null</code>.
    */
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.crypto;
+
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.ext.WSSecurityException.ErrorCode;
+import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.apache.xml.security.algorithms.JCEMapper;
+import org.apache.xml.security.encryption.XMLCipherUtil;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.attachment.WSS4JAttachment;
+
+/**
+ * An {@link IHasInputStream} that creates the "Content" encryption of an
+ * outgoing attachment on the fly, each time the stream is opened. The
+ * initialization vector is chosen once per attachment, so every opened stream
+ * contains exactly the same bytes. Because the plain attachment is identical
+ * as well, this does not reveal anything that a single transmission would not
+ * reveal. This allows an encrypted MIME message to be written more than once
+ * (e.g. for dumping, Content-Length calculation or retries) without buffering
+ * the encrypted content in a temporary file.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4EncryptedAttachmentStreamProvider implements IHasInputStream
+{
+  private final WSS4JAttachment m_aSrcAttachment;
+  private final String m_sEncryptionAlgorithm;
+  private final SecretKey m_aSymmetricKey;
+  private final byte [] m_aIV;
+
+  /**
+   * Constructor
+   *
+   * @param aSrcAttachment
+   *        The unencrypted source attachment. May not be <code>null</code> and
+   *        must be repeatable.
+   * @param sEncryptionAlgorithm
+   *        The XML encryption algorithm URI. May neither be <code>null</code>
+   *        nor empty.
+   * @param aSymmetricKey
+   *        The symmetric key that is also contained in the
+   *        <code>EncryptedKey</code> element. May not be <code>null</code>.
+   * @throws WSSecurityException
+   *         If the algorithm is not supported
+   */
+  public AS4EncryptedAttachmentStreamProvider (@Nonnull final WSS4JAttachment aSrcAttachment,
+                                               @Nonnull @Nonempty final String sEncryptionAlgorithm,
+                                               @Nonnull final SecretKey aSymmetricKey) throws WSSecurityException
+  {
+    ValueEnforcer.notNull (aSrcAttachment, "SrcAttachment");
+    ValueEnforcer.isTrue (aSrcAttachment.isRepeatable (), "SrcAttachment must be repeatable");
+    ValueEnforcer.notEmpty (sEncryptionAlgorithm, "EncryptionAlgorithm");
+    ValueEnforcer.notNull (aSymmetricKey, "SymmetricKey");
+    m_aSrcAttachment = aSrcAttachment;
+    m_sEncryptionAlgorithm = sEncryptionAlgorithm;
+    m_aSymmetricKey = aSymmetricKey;
+    try
+    {
+      // Same as WSS4J Encryptor
+      m_aIV = XMLSecurityConstants.generateBytes (JCEMapper.getIVLengthFromURI (sEncryptionAlgorithm) / 8);
+    }
+    catch (final XMLSecurityException ex)
+    {
+      throw new WSSecurityException (ErrorCode.FAILED_ENCRYPTION, ex);
+    }
+  }
+
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    try
+    {
+      // Cipher objects are stateful - use a new one for each stream
+      final Cipher aCipher = KeyUtils.getCipherInstance (m_sEncryptionAlgorithm);
+      aCipher.init (Cipher.ENCRYPT_MODE,
+                    m_aSymmetricKey,
+                    XMLCipherUtil.constructBlockCipherParameters (m_sEncryptionAlgorithm, m_aIV));
+      // "Content" encryption does not use the headers
+      return AttachmentUtils.setupAttachmentEncryptionStream (aCipher, false, m_aSrcAttachment, new CommonsHashMap <> ());
+    }
+    catch (final WSSecurityException | GeneralSecurityException ex)
+    {
+      throw new IllegalStateException ("Failed to encrypt attachment '" + m_aSrcAttachment.getId () + "'", ex);
+    }
+  }
+
+  public boolean isReadMultiple ()
+  {
+    return true;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SrcAttachment", m_aSrcAttachment)
+                                       .append ("EncryptionAlgorithm", m_sEncryptionAlgorithm)
+                                       .getToString ();
+  }
+}
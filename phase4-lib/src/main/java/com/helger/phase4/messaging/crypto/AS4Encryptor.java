@@ -38,7 +38,9 @@ import org.w3c.dom.Document;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.collection.CollectionHelper;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.mime.CMimeType;
 import com.helger.mail.cte.EContentTransferEncoding;
 import com.helger.phase4.attachment.WSS4JAttachment;
@@ -51,6 +53,7 @@ import com.helger.phase4.messaging.mime.AS4MimeMessage;
 import com.helger.phase4.messaging.mime.MimeMessageCreator;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConcurrentSecurity;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 
@@ -159,6 +162,12 @@ public final class AS4Encryptor
       return WSSSynchronizer.call ( () -> _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams));
     }
 
+    if (AS4Configuration.isWSS4JConcurrentSecurity ())
+    {
+      // No lock
+      return WSSConcurrentSecurity.call ( () -> _encryptSoapBodyPayload (aCryptoFactory, eSoapVersion, aDoc, bMustUnderstand, aCryptParams));
+    }
+
     // Ensure WSSConfig is initialized
     WSSConfigManager.getInstance ();
 
@@ -186,8 +195,13 @@ public final class AS4Encryptor
     aBuilder.getParts ().add (new WSEncryptionPart (MessageHelperMethods.PREFIX_CID + "Attachments", "Content"));
 
     WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler = null;
+    final ICommonsMap <String, WSS4JAttachment> aSrcAttachments = new CommonsHashMap <> ();
     if (CollectionHelper.isNotEmpty (aAttachments))
     {
+      // Remember the source attachments, because the callback handler replaces
+      // them with the encrypted ones
+      for (final WSS4JAttachment aAttachment : aAttachments)
+        aSrcAttachments.put (aAttachment.getId (), aAttachment);
       aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments, aResHelper);
       aBuilder.setAttachmentCallbackHandler (aAttachmentCallbackHandler);
     }
@@ -206,7 +220,7 @@ public final class AS4Encryptor
     final Document aEncryptedDoc = aBuilder.build (aCryptoFactory.getCrypto (), aSymmetricKey);
 
     // The attachment callback handler contains the encrypted attachments
-    // Important: read the attachment stream only once!
+    // Important: non-repeatable attachment streams can be read only once!
     ICommonsList <WSS4JAttachment> aEncryptedAttachments = null;
     if (aAttachmentCallbackHandler != null)
     {
@@ -214,6 +228,14 @@ public final class AS4Encryptor
       // MIME Type and CTE must be set for encrypted attachments!
       for (final WSS4JAttachment aAttachment : aEncryptedAttachments)
       {
+        // If the source is repeatable, the encrypted attachment can be made
+        // repeatable as well, so that no temporary file is needed for retries
+        final WSS4JAttachment aSrcAttachment = aSrcAttachments.get (aAttachment.getId ());
+        if (aSrcAttachment != null && aSrcAttachment.isRepeatable ())
+          aAttachment.setSourceStreamProvider (new AS4EncryptedAttachmentStreamProvider (aSrcAttachment,
+                                                                                         aCryptParams.getAlgorithmCrypt ()
+                                                                                                     .getAlgorithmURI (),
+                                                                                         aSymmetricKey));
         aAttachment.overwriteMimeType (CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
         aAttachment.setContentTransferEncoding (EContentTransferEncoding.BINARY);
       }
@@ -257,6 +279,18 @@ public final class AS4Encryptor
                                                                aCryptParams));
     }
 
+    if (AS4Configuration.isWSS4JConcurrentSecurity ())
+    {
+      // No lock
+      return WSSConcurrentSecurity.call ( () -> _encryptMimeMessage (eSoapVersion,
+                                                                     aDoc,
+                                                                     aAttachments,
+                                                                     aCryptoFactory,
+                                                                     bMustUnderstand,
+                                                                     aResHelper,
+                                                                     aCryptParams));
+    }
+
     // Ensure WSSConfig is initialized
     WSSConfigManager.getInstance ();
 
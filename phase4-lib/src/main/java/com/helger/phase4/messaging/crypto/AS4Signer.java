@@ -42,6 +42,7 @@ import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.messaging.domain.MessageHelperMethods;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.wss.WSSConcurrentSecurity;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 
@@ -171,6 +172,19 @@ public final class AS4Signer
                                                                 aSigningParams));
     }
 
+    if (AS4Configuration.isWSS4JConcurrentSecurity ())
+    {
+      // No lock
+      return WSSConcurrentSecurity.call ( () -> _createSignedMessage (aCryptoFactory,
+                                                                      aPreSigningMessage,
+                                                                      eSoapVersion,
+                                                                      sMessagingID,
+                                                                      aAttachments,
+                                                                      aResHelper,
+                                                                      bMustUnderstand,
+                                                                      aSigningParams));
+    }
+
     // Ensure WSSConfig is initialized
     WSSConfigManager.getInstance ();
 
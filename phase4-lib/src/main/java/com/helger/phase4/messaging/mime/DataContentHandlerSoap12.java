@@ -24,14 +24,13 @@ import javax.activation.DataSource;
 import javax.annotation.Nonnull;
 import javax.annotation.WillNotClose;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4XMLRuntime;
 import com.sun.mail.handlers.text_plain;
 
 /**
@@ -72,18 +71,17 @@ public class DataContentHandlerSoap12 extends text_plain
   {
     try
     {
-      final Transformer transformer = TransformerFactory.newInstance ().newTransformer ();
       final StreamResult result = new StreamResult (aOS);
       if (aObj instanceof DataSource)
       {
         // Streaming transform applies only to
         // javax.xml.transform.StreamSource
-        transformer.transform (new StreamSource (((DataSource) aObj).getInputStream ()), result);
+        AS4XMLRuntime.transform (new StreamSource (((DataSource) aObj).getInputStream ()), result);
       }
       else
         if (aObj instanceof Source)
         {
-          transformer.transform ((Source) aObj, result);
+          AS4XMLRuntime.transform ((Source) aObj, result);
         }
         else
         {
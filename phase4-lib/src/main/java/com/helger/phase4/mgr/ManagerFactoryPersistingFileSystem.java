@@ -16,10 +16,19 @@
  */
 package com.helger.phase4.mgr;
 
+import java.io.File;
+import java.io.UncheckedIOException;
+
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.io.file.FileIOError;
 import com.helger.dao.DAOException;
 import com.helger.phase4.duplicate.AS4DuplicateManager;
+import com.helger.phase4.duplicate.AS4DuplicateManagerTimeBucketed;
+import com.helger.phase4.duplicate.IAS4DuplicateItem;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.mpc.MPCManager;
@@ -27,7 +36,9 @@ import com.helger.phase4.model.pmode.IPModeManager;
 import com.helger.phase4.model.pmode.PModeManager;
 import com.helger.phase4.profile.AS4ProfileManager;
 import com.helger.phase4.profile.IAS4ProfileManager;
+import com.helger.phase4.util.AS4IOHelper;
 import com.helger.phase4.util.Phase4Exception;
+import com.helger.photon.app.io.WebFileIO;
 
 /**
  * Implementation of {@link IManagerFactory} creating managers that are
@@ -40,8 +51,14 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
 {
   private static final String MPC_XML = "as4-mpc.xml";
   private static final String PMODE_XML = "as4-pmode.xml";
+  private static final String INCOMING_DUPLICATE_DIR = "as4-duplicate-incoming";
+  // The directory the legacy data is imported into before it is renamed
+  private static final String INCOMING_DUPLICATE_IMPORT_DIR = "as4-duplicate-incoming.import";
+  // The file name used by the XML based duplicate manager before 1.3.2
   private static final String INCOMING_DUPLICATE_XML = "as4-duplicate-incoming.xml";
 
+  private static final Logger LOGGER = LoggerFactory.getLogger (ManagerFactoryPersistingFileSystem.class);
+
   @Nonnull
   public IMPCManager createMPCManager () throws Phase4Exception
   {
@@ -68,16 +85,67 @@ public class ManagerFactoryPersistingFileSystem implements IManagerFactory
     }
   }
 
+  /**
+   * Import all message IDs of the XML based duplicate manager used before
+   * 1.3.2, so that no duplicates are accepted after an upgrade. The XML file
+   * itself is left untouched.<br>
+   * The import happens into a temporary directory that is only renamed to the
+   * target directory after the import succeeded. If the import fails, it is
+   * repeated from scratch upon the next start.
+   *
+   * @param aTargetDir
+   *        The target directory of the duplicate manager. May not be
+   *        <code>null</code> and must not yet exist.
+   * @throws DAOException
+   *         If the XML file could not be read
+   * @throws Phase4Exception
+   *         If the temporary directory could not be cleaned or renamed
+   */
+  private static void _importLegacyDuplicates (@Nonnull final File aTargetDir) throws DAOException, Phase4Exception
+  {
+    final File aImportDir = WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_IMPORT_DIR);
+
+    // Remainder of a previously failed import
+    FileIOError aError = AS4IOHelper.getFileOperationManager ().deleteDirRecursiveIfExisting (aImportDir);
+    if (aError.isFailure ())
+      throw new Phase4Exception ("Failed to delete the old import directory " + aError.toString ());
+
+    final AS4DuplicateManager aLegacyMgr = new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
+    int nImported = 0;
+    try (final AS4DuplicateManagerTimeBucketed aImportMgr = new AS4DuplicateManagerTimeBucketed (aImportDir,
+                                                                                               AS4DuplicateManagerTimeBucketed.DEFAULT_BUCKET_MINUTES))
+    {
+      for (final IAS4DuplicateItem aItem : aLegacyMgr.getAll ())
+        if (aImportMgr.importItem (aItem).isChanged ())
+          nImported++;
+    }
+
+    aError = AS4IOHelper.getFileOperationManager ().renameDir (aImportDir, aTargetDir);
+    if (aError.isFailure ())
+      throw new Phase4Exception ("Failed to rename the import directory " + aError.toString ());
+
+    LOGGER.info ("Imported " + nImported + " incoming duplicate message IDs from '" + INCOMING_DUPLICATE_XML + "'");
+  }
+
   @Nonnull
   public IAS4DuplicateManager createDuplicateManager () throws Phase4Exception
   {
     try
     {
-      return new AS4DuplicateManager (INCOMING_DUPLICATE_XML);
+      // Since 1.3.2 the time bucketed version with an append-only binary log
+      // is used instead of the XML based AS4DuplicateManager
+      final File aDir = WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_DIR);
+      if (!aDir.exists () && WebFileIO.getDataIO ().getFile (INCOMING_DUPLICATE_XML).isFile ())
+        _importLegacyDuplicates (aDir);
+      return new AS4DuplicateManagerTimeBucketed (aDir, AS4DuplicateManagerTimeBucketed.DEFAULT_BUCKET_MINUTES);
     }
     catch (final DAOException ex)
     {
-      throw new Phase4Exception ("Error creating AS4DuplicateManager", ex);
+      throw new Phase4Exception ("Error importing the existing AS4DuplicateManager data", ex);
+    }
+    catch (final IllegalStateException | UncheckedIOException ex)
+    {
+      throw new Phase4Exception ("Error creating AS4DuplicateManagerTimeBucketed", ex);
     }
   }
 
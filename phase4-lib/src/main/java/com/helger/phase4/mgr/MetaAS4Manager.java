@@ -26,6 +26,7 @@ import com.helger.commons.annotation.UsedViaReflection;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.lang.ClassHelper;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.duplicate.AS4DuplicateManagerBloomFiltered;
 import com.helger.phase4.duplicate.IAS4DuplicateManager;
 import com.helger.phase4.model.mpc.IMPCManager;
 import com.helger.phase4.model.pmode.IPModeManager;
@@ -105,6 +106,14 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
       m_aMPCMgr = s_aFactory.createMPCManager ();
       m_aPModeMgr = s_aFactory.createPModeManager ();
       m_aIncomingDuplicateMgr = s_aFactory.createDuplicateManager ();
+      if (AS4Configuration.isIncomingDuplicateFilterEnabled ())
+      {
+        // Put a probabilistic pre-filter in front
+        m_aIncomingDuplicateMgr = new AS4DuplicateManagerBloomFiltered (m_aIncomingDuplicateMgr,
+                                                                        AS4Configuration.getIncomingDuplicateFilterExpectedInsertions (),
+                                                                        AS4Configuration.getIncomingDuplicateFilterFalsePositiveProbability ());
+        LOGGER.info ("Using a Bloom filter in front of the incoming duplicate manager");
+      }
       m_aProfileMgr = s_aFactory.createProfileManager ();
 
       // Validate content
@@ -118,6 +127,14 @@ public final class MetaAS4Manager extends AbstractGlobalSingleton
     }
   }
 
+  @Override
+  protected void onBeforeDestroy (@Nonnull final IScope aScopeToBeDestroyed) throws Exception
+  {
+    // Close e.g. open log files
+    if (m_aIncomingDuplicateMgr instanceof AutoCloseable)
+      ((AutoCloseable) m_aIncomingDuplicateMgr).close ();
+  }
+
   @Nonnull
   public static MetaAS4Manager getInstance ()
   {
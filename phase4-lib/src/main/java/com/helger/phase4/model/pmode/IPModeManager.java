@@ -96,6 +96,21 @@ public interface IPModeManager
   @Nullable
   IPMode findFirst (@Nonnull Predicate <? super IPMode> aFilter);
 
+  /**
+   * Get the number of modifications of this manager. This value is increased
+   * every time a PMode is created, updated or deleted and can e.g. be used to
+   * invalidate caches that are based on the contained PModes.
+   *
+   * @return A value &ge; 0 if modifications are tracked, or a negative value if
+   *         this manager does not track modifications. In the latter case no
+   *         caching of resolved PModes is performed.
+   * @since 1.3.2
+   */
+  default long getModificationCount ()
+  {
+    return -1;
+  }
+
   /**
    * Find the first PMode that has the provided service and action.
    *
@@ -108,7 +123,39 @@ public interface IPModeManager
   @Nullable
   default IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
   {
-    return findFirst (x -> {
+    return findFirst (getPModeServiceActionFilter (sService, sAction));
+  }
+
+  /**
+   * Find the first PMode that has the provided initiator ID and responder ID.
+   *
+   * @param sInitiatorID
+   *        The initiator ID to be searched. May be <code>null</code>.
+   * @param sResponderID
+   *        The responder ID to be searched. May be <code>null</code>.
+   * @return <code>null</code> if no such PMode exists.
+   * @since 1.3.2
+   */
+  @Nullable
+  default IPMode getPModeOfInitiatorAndResponder (@Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    return findFirst (getPModePartyFilter (sInitiatorID, sResponderID));
+  }
+
+  /**
+   * Get a predicate that matches a PMode by the service and action of leg 1.
+   *
+   * @param sService
+   *        The service to search. May be <code>null</code>.
+   * @param sAction
+   *        The action to search. May be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  static Predicate <IPMode> getPModeServiceActionFilter (@Nullable final String sService, @Nullable final String sAction)
+  {
+    return x -> {
       final PModeLeg aLeg = x.getLeg1 ();
       if (aLeg != null)
       {
@@ -117,7 +164,23 @@ public interface IPModeManager
           return EqualsHelper.equals (aBI.getService (), sService) && EqualsHelper.equals (aBI.getAction (), sAction);
       }
       return false;
-    });
+    };
+  }
+
+  /**
+   * Get a predicate that matches a PMode by initiator ID and responder ID.
+   *
+   * @param sInitiatorID
+   *        Initiator ID to search. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID to search. May be <code>null</code>.
+   * @return Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  static Predicate <IPMode> getPModePartyFilter (@Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    return x -> x.hasInitiatorID (sInitiatorID) && x.hasResponderID (sResponderID);
   }
 
   /**
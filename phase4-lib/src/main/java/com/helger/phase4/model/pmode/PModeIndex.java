@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Secondary index for PModes, so that the lookups by leg 1 service and action
+ * and by initiator and responder ID don't need to scan all PModes. The index
+ * contains the values at the time the PMode was last added. The owning PMode
+ * manager re-indexes a PMode on every mutation it performs, but modifications
+ * of a PMode object that bypass the manager (e.g. calling setters on the
+ * result of {@link IPModeManager#getPModeOfID(String)}) are not reflected -
+ * use {@link IPModeManager#updatePMode(IPMode)} instead.<br>
+ * This class is not thread-safe and must be guarded by the lock of the owning
+ * PMode manager.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@NotThreadSafe
+final class PModeIndex
+{
+  @Immutable
+  private static final class Key
+  {
+    private final String m_sFirst;
+    private final String m_sSecond;
+
+    Key (@Nullable final String sFirst, @Nullable final String sSecond)
+    {
+      m_sFirst = sFirst;
+      m_sSecond = sSecond;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return EqualsHelper.equals (m_sFirst, rhs.m_sFirst) && EqualsHelper.equals (m_sSecond, rhs.m_sSecond);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return new HashCodeGenerator (this).append (m_sFirst).append (m_sSecond).getHashCode ();
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (null).append ("First", m_sFirst).append ("Second", m_sSecond).getToString ();
+    }
+  }
+
+  /**
+   * The keys under which a single PMode was indexed. Remembered to be able to
+   * remove a PMode, even if it was modified in the meantime.
+   */
+  private static final class IndexedKeys
+  {
+    private final Key m_aServiceActionKey;
+    private final Key m_aPartiesKey;
+
+    IndexedKeys (@Nullable final Key aServiceActionKey, @Nonnull final Key aPartiesKey)
+    {
+      m_aServiceActionKey = aServiceActionKey;
+      m_aPartiesKey = aPartiesKey;
+    }
+  }
+
+  private final ICommonsMap <Key, ICommonsList <IPMode>> m_aByServiceAndAction = new CommonsHashMap <> ();
+  private final ICommonsMap <Key, ICommonsList <IPMode>> m_aByParties = new CommonsHashMap <> ();
+  private final ICommonsMap <String, IndexedKeys> m_aKeysOfID = new CommonsHashMap <> ();
+
+  PModeIndex ()
+  {}
+
+  @Nullable
+  private static Key _getServiceActionKey (@Nonnull final IPMode aPMode)
+  {
+    final PModeLeg aLeg = aPMode.getLeg1 ();
+    if (aLeg != null)
+    {
+      final PModeLegBusinessInformation aBI = aLeg.getBusinessInfo ();
+      if (aBI != null)
+        return new Key (aBI.getService (), aBI.getAction ());
+    }
+    return null;
+  }
+
+  private static void _removeFrom (@Nonnull final ICommonsMap <Key, ICommonsList <IPMode>> aMap,
+                                   @Nonnull final Key aKey,
+                                   @Nonnull final String sID)
+  {
+    final ICommonsList <IPMode> aList = aMap.get (aKey);
+    if (aList != null)
+    {
+      aList.removeIf (x -> x.getID ().equals (sID));
+      if (aList.isEmpty ())
+        aMap.remove (aKey);
+    }
+  }
+
+  /**
+   * Add a new PMode to the index. If a PMode with the same ID is already
+   * indexed, it is replaced. So this must also be called after a PMode was
+   * modified.
+   *
+   * @param aPMode
+   *        The PMode to add. May not be <code>null</code>.
+   */
+  public void add (@Nonnull final IPMode aPMode)
+  {
+    final String sID = aPMode.getID ();
+    remove (sID);
+
+    final Key aServiceActionKey = _getServiceActionKey (aPMode);
+    if (aServiceActionKey != null)
+      m_aByServiceAndAction.computeIfAbsent (aServiceActionKey, k -> new CommonsArrayList <> ()).add (aPMode);
+
+    final Key aPartiesKey = new Key (aPMode.getInitiatorID (), aPMode.getResponderID ());
+    m_aByParties.computeIfAbsent (aPartiesKey, k -> new CommonsArrayList <> ()).add (aPMode);
+
+    m_aKeysOfID.put (sID, new IndexedKeys (aServiceActionKey, aPartiesKey));
+  }
+
+  /**
+   * Remove the PMode with the provided ID from the index.
+   *
+   * @param sID
+   *        The ID of the PMode to remove. May be <code>null</code>.
+   */
+  public void remove (@Nullable final String sID)
+  {
+    final IndexedKeys aKeys = m_aKeysOfID.remove (sID);
+    if (aKeys != null)
+    {
+      if (aKeys.m_aServiceActionKey != null)
+        _removeFrom (m_aByServiceAndAction, aKeys.m_aServiceActionKey, sID);
+      _removeFrom (m_aByParties, aKeys.m_aPartiesKey, sID);
+    }
+  }
+
+  /**
+   * Remove all entries and re-index the provided PModes.
+   *
+   * @param aPModes
+   *        The PModes to index. May not be <code>null</code>.
+   */
+  public void reindex (@Nonnull final Iterable <? extends IPMode> aPModes)
+  {
+    m_aByServiceAndAction.clear ();
+    m_aByParties.clear ();
+    m_aKeysOfID.clear ();
+    for (final IPMode aPMode : aPModes)
+      add (aPMode);
+  }
+
+  /**
+   * @return The number of indexed PModes.
+   */
+  public int size ()
+  {
+    return m_aKeysOfID.size ();
+  }
+
+  /**
+   * Find the first indexed PMode with the provided leg 1 service and action.
+   *
+   * @param sService
+   *        Service to search. May be <code>null</code>.
+   * @param sAction
+   *        Action to search. May be <code>null</code>.
+   * @param aFilter
+   *        The filter each candidate must fulfill as well. This is used to
+   *        verify that the candidate was not modified after indexing. May not
+   *        be <code>null</code>.
+   * @return <code>null</code> if no such PMode is indexed.
+   */
+  @Nullable
+  public IPMode getOfServiceAndAction (@Nullable final String sService,
+                                       @Nullable final String sAction,
+                                       @Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    final ICommonsList <IPMode> aList = m_aByServiceAndAction.get (new Key (sService, sAction));
+    return aList == null ? null : aList.findFirst (aFilter);
+  }
+
+  /**
+   * Find the first indexed PMode with the provided initiator and responder ID.
+   *
+   * @param sInitiatorID
+   *        Initiator ID to search. May be <code>null</code>.
+   * @param sResponderID
+   *        Responder ID to search. May be <code>null</code>.
+   * @param aFilter
+   *        The filter each candidate must fulfill as well. This is used to
+   *        verify that the candidate was not modified after indexing. May not
+   *        be <code>null</code>.
+   * @return <code>null</code> if no such PMode is indexed.
+   */
+  @Nullable
+  public IPMode getOfInitiatorAndResponder (@Nullable final String sInitiatorID,
+                                            @Nullable final String sResponderID,
+                                            @Nonnull final Predicate <? super IPMode> aFilter)
+  {
+    final ICommonsList <IPMode> aList = m_aByParties.get (new Key (sInitiatorID, sResponderID));
+    return aList == null ? null : aList.findFirst (aFilter);
+  }
+}
@@ -16,10 +16,12 @@
  */
 package com.helger.phase4.model.pmode;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -44,9 +46,31 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PModeManager.class);
 
+  // Cannot be filled in onRead, because that is called from the super
+  // constructor
+  @GuardedBy ("m_aRWLock")
+  private final PModeIndex m_aIndex = new PModeIndex ();
+  private final AtomicLong m_aModificationCount = new AtomicLong (0);
+
   public PModeManager (@Nullable final String sFilename) throws DAOException
   {
     super (PMode.class, sFilename);
+    _reindex ();
+  }
+
+  private void _reindex ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      m_aIndex.reindex (internalDirectGetAll ());
+      m_aModificationCount.incrementAndGet ();
+    });
+  }
+
+  @Override
+  public void reload () throws DAOException
+  {
+    super.reload ();
+    _reindex ();
   }
 
   private void _validatePMode (@Nonnull final IPMode aPMode)
@@ -65,6 +89,8 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   private void _createPModeLocked (@Nonnull final PMode aPMode)
   {
     internalCreateItem (aPMode);
+    m_aIndex.add (aPMode);
+    m_aModificationCount.incrementAndGet ();
     AuditHelper.onAuditCreateSuccess (PMode.OT, aPMode.getID ());
 
     if (LOGGER.isDebugEnabled ())
@@ -115,6 +141,8 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
       internalUpdateItem (aExistingPMode);
+      m_aIndex.add (aExistingPMode);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -128,6 +156,14 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     return EChange.CHANGED;
   }
 
+  @Nullable
+  private IPMode _getOfIDIfMatching (@Nonnull final String sID, @Nonnull final Predicate <IPMode> aFilter)
+  {
+    // The filter contains the ID - so no need to scan all PModes
+    final IPMode ret = getOfID (sID);
+    return ret != null && aFilter.test (ret) ? ret : null;
+  }
+
   @Nonnull
   public void createOrUpdatePMode (@Nonnull final PMode aPMode)
   {
@@ -136,14 +172,14 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
 
     // Try in read-lock
     final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    IPMode aExisting = _getOfIDIfMatching (aPMode.getID (), aFilter);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _getOfIDIfMatching (aPMode.getID (), aFilter);
         if (aExisting == null)
         {
           // Create a new one
@@ -180,6 +216,8 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
         return EChange.UNCHANGED;
       }
       internalMarkItemDeleted (aDeletedPMode);
+      m_aIndex.add (aDeletedPMode);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -207,6 +245,8 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
     try
     {
       internalDeleteItem (sPModeID);
+      m_aIndex.remove (sPModeID);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -222,4 +262,26 @@ public class PModeManager extends AbstractPhotonMapBasedWALDAO <IPMode, PMode> i
   {
     return getOfID (sID);
   }
+
+  @Override
+  public long getModificationCount ()
+  {
+    return m_aModificationCount.get ();
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    final Predicate <IPMode> aFilter = IPModeManager.getPModeServiceActionFilter (sService, sAction);
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfServiceAndAction (sService, sAction, aFilter));
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    final Predicate <IPMode> aFilter = IPModeManager.getPModePartyFilter (sInitiatorID, sResponderID);
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfInitiatorAndResponder (sInitiatorID, sResponderID, aFilter));
+  }
 }
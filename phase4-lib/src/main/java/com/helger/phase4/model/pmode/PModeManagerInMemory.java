@@ -16,6 +16,7 @@
  */
 package com.helger.phase4.model.pmode;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -54,6 +55,9 @@ public class PModeManagerInMemory implements IPModeManager
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   @GuardedBy ("m_aRWLock")
   private final ICommonsMap <String, PMode> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final PModeIndex m_aIndex = new PModeIndex ();
+  private final AtomicLong m_aModificationCount = new AtomicLong (0);
 
   public PModeManagerInMemory ()
   {}
@@ -77,6 +81,8 @@ public class PModeManagerInMemory implements IPModeManager
     if (m_aMap.containsKey (sID))
       throw new IllegalArgumentException ("An object with ID '" + sID + "' is already contained!");
     m_aMap.put (sID, aPMode);
+    m_aIndex.add (aPMode);
+    m_aModificationCount.incrementAndGet ();
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Created PMode with ID '" + aPMode.getID () + "'");
@@ -117,6 +123,8 @@ public class PModeManagerInMemory implements IPModeManager
         return EChange.UNCHANGED;
 
       BusinessObjectHelper.setLastModificationNow (aExistingPMode);
+      m_aIndex.add (aExistingPMode);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -129,6 +137,14 @@ public class PModeManagerInMemory implements IPModeManager
     return EChange.CHANGED;
   }
 
+  @Nullable
+  private IPMode _getOfIDIfMatching (@Nonnull final String sID, @Nonnull final Predicate <IPMode> aFilter)
+  {
+    // The filter contains the ID - so no need to scan all PModes
+    final IPMode ret = getOfID (sID);
+    return ret != null && aFilter.test (ret) ? ret : null;
+  }
+
   @Nonnull
   public void createOrUpdatePMode (@Nonnull final PMode aPMode)
   {
@@ -137,14 +153,14 @@ public class PModeManagerInMemory implements IPModeManager
 
     // Try in read-lock
     final Predicate <IPMode> aFilter = IPModeManager.getPModeFilter (aPMode.getID (), aPMode.getInitiatorID (), aPMode.getResponderID ());
-    IPMode aExisting = findFirst (aFilter);
+    IPMode aExisting = _getOfIDIfMatching (aPMode.getID (), aFilter);
     if (aExisting == null)
     {
       m_aRWLock.writeLock ().lock ();
       try
       {
         // Try again in write lock
-        aExisting = findFirst (aFilter);
+        aExisting = _getOfIDIfMatching (aPMode.getID (), aFilter);
         if (aExisting == null)
         {
           // Create a new one
@@ -174,6 +190,8 @@ public class PModeManagerInMemory implements IPModeManager
     {
       if (BusinessObjectHelper.setDeletionNow (aDeletedPMode).isUnchanged ())
         return EChange.UNCHANGED;
+      m_aIndex.add (aDeletedPMode);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -197,6 +215,8 @@ public class PModeManagerInMemory implements IPModeManager
     try
     {
       m_aMap.remove (sPModeID);
+      m_aIndex.remove (sPModeID);
+      m_aModificationCount.incrementAndGet ();
     }
     finally
     {
@@ -226,6 +246,28 @@ public class PModeManagerInMemory implements IPModeManager
     return m_aRWLock.readLockedGet ( () -> CollectionHelper.findFirst (m_aMap.values (), aFilter));
   }
 
+  @Override
+  public long getModificationCount ()
+  {
+    return m_aModificationCount.get ();
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfServiceAndAction (@Nullable final String sService, @Nullable final String sAction)
+  {
+    final Predicate <IPMode> aFilter = IPModeManager.getPModeServiceActionFilter (sService, sAction);
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfServiceAndAction (sService, sAction, aFilter));
+  }
+
+  @Override
+  @Nullable
+  public IPMode getPModeOfInitiatorAndResponder (@Nullable final String sInitiatorID, @Nullable final String sResponderID)
+  {
+    final Predicate <IPMode> aFilter = IPModeManager.getPModePartyFilter (sInitiatorID, sResponderID);
+    return m_aRWLock.readLockedGet ( () -> m_aIndex.getOfInitiatorAndResponder (sInitiatorID, sResponderID, aFilter));
+  }
+
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IPMode> getAll ()
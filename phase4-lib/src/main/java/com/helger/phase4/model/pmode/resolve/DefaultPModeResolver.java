@@ -16,9 +16,11 @@
  */
 package com.helger.phase4.model.pmode.resolve;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.mgr.MetaAS4Manager;
@@ -29,7 +31,11 @@ import com.helger.phase4.profile.IAS4Profile;
 
 /**
  * Default implementation of {@link IPModeResolver} using the fixed ID only. If
- * no ID is provided the default pmode is used.
+ * no ID is provided the default pmode is used.<br>
+ * Since v1.3.2 the PModes resolved by service and action from the PMode manager
+ * and the PModes created from the template of the default profile are cached
+ * in a {@link ResolvedPModeCache}. The returned PModes are shared and must be
+ * treated as read-only.
  *
  * @author bayerlma
  * @author Philip Helger
@@ -39,10 +45,29 @@ public class DefaultPModeResolver implements IPModeResolver
   public static final IPModeResolver DEFAULT_PMODE_RESOLVER = new DefaultPModeResolver (false);
 
   private final boolean m_bUseDefaultAsFallback;
+  private final ResolvedPModeCache m_aCache;
 
   public DefaultPModeResolver (final boolean bUseDefaultAsFallback)
   {
+    this (bUseDefaultAsFallback, ResolvedPModeCache.DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param bUseDefaultAsFallback
+   *        <code>true</code> to create and persist a default PMode if nothing
+   *        else can be resolved.
+   * @param nCacheMaxSize
+   *        The maximum number of resolved PModes to be cached. Use 0 to disable
+   *        caching.
+   * @since 1.3.2
+   */
+  public DefaultPModeResolver (final boolean bUseDefaultAsFallback, @Nonnegative final int nCacheMaxSize)
+  {
+    ValueEnforcer.isGE0 (nCacheMaxSize, "CacheMaxSize");
     m_bUseDefaultAsFallback = bUseDefaultAsFallback;
+    m_aCache = nCacheMaxSize > 0 ? new ResolvedPModeCache (nCacheMaxSize) : null;
   }
 
   public final boolean isUseDefaultAsFallback ()
@@ -50,6 +75,17 @@ public class DefaultPModeResolver implements IPModeResolver
     return m_bUseDefaultAsFallback;
   }
 
+  /**
+   * @return The cache for resolved PModes. May be <code>null</code> if caching
+   *         is disabled.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final ResolvedPModeCache getResolvedPModeCache ()
+  {
+    return m_aCache;
+  }
+
   @Nullable
   public IPMode getPModeOfID (@Nullable final String sPModeID,
                               @Nonnull final String sService,
@@ -71,14 +107,21 @@ public class DefaultPModeResolver implements IPModeResolver
 
     // the PMode id field is empty or null (or invalid)
     // try a combination of service and action
-    ret = aPModeMgr.getPModeOfServiceAndAction (sService, sAction);
+    if (m_aCache != null)
+      ret = m_aCache.getOrResolve (aPModeMgr, sService, sAction, () -> aPModeMgr.getPModeOfServiceAndAction (sService, sAction));
+    else
+      ret = aPModeMgr.getPModeOfServiceAndAction (sService, sAction);
     if (ret != null)
       return ret;
 
     // Use default pmode based on profile
     final IAS4Profile aProfile = MetaAS4Manager.getProfileMgr ().getDefaultProfileOrNull ();
     if (aProfile != null)
+    {
+      if (m_aCache != null)
+        return m_aCache.getOrCreateTemplate (aPModeMgr, aProfile, sInitiatorID, sResponderID, sAddress);
       return aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress);
+    }
 
     if (!m_bUseDefaultAsFallback)
     {
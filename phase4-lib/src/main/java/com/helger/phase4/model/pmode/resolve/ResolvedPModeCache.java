@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeManager;
+import com.helger.phase4.profile.IAS4Profile;
+import com.helger.phase4.util.AS4ExpiringCache;
+
+/**
+ * A bounded cache used by {@link DefaultPModeResolver} for the PModes resolved
+ * by service and action from the PMode manager, and for the PModes created from
+ * the template of a profile. The returned PModes are shared between all
+ * callers and must therefore be treated as read-only - just like the PModes
+ * returned by {@link IPModeManager#getPModeOfID(String)}.<br>
+ * The cache is implicitly cleared, if the PMode manager or its modification
+ * count changes. Each clearing starts a new generation that is part of the
+ * cache key, so that a resolution that started before the change never
+ * becomes visible afterwards. If the PMode manager does not track
+ * modifications (see {@link IPModeManager#getModificationCount()}) the cache
+ * is bypassed for the PModes resolved from the PMode manager.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class ResolvedPModeCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  @Immutable
+  private static final class Key
+  {
+    private final long m_nGeneration;
+    // Service and action, or profile ID, initiator, responder and address
+    private final String [] m_aParts;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (final long nGeneration, @Nonnull final String... aParts)
+    {
+      m_nGeneration = nGeneration;
+      m_aParts = aParts;
+      m_nHashCode = new HashCodeGenerator (this).append (nGeneration).append (aParts).getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_nGeneration == rhs.m_nGeneration && Arrays.equals (m_aParts, rhs.m_aParts);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Generation", m_nGeneration).append ("Parts", m_aParts).getToString ();
+    }
+  }
+
+  private final AS4ExpiringCache <Key, IPMode> m_aCache;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private IPModeManager m_aPModeMgr;
+  @GuardedBy ("m_aLock")
+  private long m_nPModeMgrModificationCount;
+  @GuardedBy ("m_aLock")
+  private long m_nGeneration;
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached PModes. If more entries are added, the
+   *        least recently used ones are removed. Must be &gt; 0.
+   */
+  public ResolvedPModeCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_aCache = new AS4ExpiringCache <> (nMaxSize, System::nanoTime);
+  }
+
+  /**
+   * @return The maximum number of cached PModes. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * Clear the cache if the PMode manager or its modification count changed.
+   *
+   * @return The generation to be used in the cache key.
+   */
+  private long _getGenerationAndClearIfStale (@Nonnull final IPModeManager aPModeMgr, final long nModificationCount)
+  {
+    m_aLock.lock ();
+    try
+    {
+      if (aPModeMgr != m_aPModeMgr || nModificationCount != m_nPModeMgrModificationCount)
+      {
+        m_aCache.clearCache ();
+        m_aPModeMgr = aPModeMgr;
+        m_nPModeMgrModificationCount = nModificationCount;
+        m_nGeneration++;
+      }
+      return m_nGeneration;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * Get the resolved PMode from the cache, or resolve and cache it.
+   *
+   * @param aPModeMgr
+   *        The PMode manager in use. May not be <code>null</code>.
+   * @param sService
+   *        Service. May be <code>null</code>.
+   * @param sAction
+   *        Action. May be <code>null</code>.
+   * @param aResolver
+   *        The resolver to be invoked on a cache miss. May not be
+   *        <code>null</code>. It must only return PModes owned by the PMode
+   *        manager. It may return <code>null</code>, in which case nothing is
+   *        cached.
+   * @return The resolved PMode or <code>null</code>.
+   */
+  @Nullable
+  public IPMode getOrResolve (@Nonnull final IPModeManager aPModeMgr,
+                              @Nullable final String sService,
+                              @Nullable final String sAction,
+                              @Nonnull final Supplier <? extends IPMode> aResolver)
+  {
+    ValueEnforcer.notNull (aPModeMgr, "PModeMgr");
+    ValueEnforcer.notNull (aResolver, "Resolver");
+
+    final long nModificationCount = aPModeMgr.getModificationCount ();
+    if (nModificationCount < 0)
+    {
+      // Changes cannot be detected - don't cache
+      return m_aCache.loadUncached (aResolver::get);
+    }
+
+    final long nGeneration = _getGenerationAndClearIfStale (aPModeMgr, nModificationCount);
+    return m_aCache.getOrLoad (new Key (nGeneration, sService, sAction),
+                               aResolver::get,
+                               x -> x != null ? AS4ExpiringCache.TTL_UNLIMITED : Duration.ZERO);
+  }
+
+  /**
+   * Get the PMode created from the template of the provided profile from the
+   * cache, or create and cache it.
+   *
+   * @param aPModeMgr
+   *        The PMode manager in use. May not be <code>null</code>.
+   * @param aProfile
+   *        The profile to create the PMode template from. May not be
+   *        <code>null</code>.
+   * @param sInitiatorID
+   *        Initiator ID. May neither be <code>null</code> nor empty.
+   * @param sResponderID
+   *        Responder ID. May neither be <code>null</code> nor empty.
+   * @param sAddress
+   *        Address. May be <code>null</code>.
+   * @return The PMode created from the template. Never <code>null</code>.
+   */
+  @Nonnull
+  public IPMode getOrCreateTemplate (@Nonnull final IPModeManager aPModeMgr,
+                                     @Nonnull final IAS4Profile aProfile,
+                                     @Nonnull @Nonempty final String sInitiatorID,
+                                     @Nonnull @Nonempty final String sResponderID,
+                                     @Nullable final String sAddress)
+  {
+    ValueEnforcer.notNull (aPModeMgr, "PModeMgr");
+    ValueEnforcer.notNull (aProfile, "Profile");
+
+    // The template does not depend on the PMode manager contents, but the
+    // generation is still used to get a consistent invalidation
+    final long nGeneration = _getGenerationAndClearIfStale (aPModeMgr, aPModeMgr.getModificationCount ());
+    return m_aCache.getOrLoad (new Key (nGeneration, aProfile.getID (), sInitiatorID, sResponderID, sAddress),
+                               () -> aProfile.createPModeTemplate (sInitiatorID, sResponderID, sAddress),
+                               x -> AS4ExpiringCache.TTL_UNLIMITED);
+  }
+
+  /**
+   * Remove all cached entries.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aCache.clearCache ();
+  }
+
+  /**
+   * @return The number of currently cached PModes.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The number of lookups that were answered from the cache or by
+   *         waiting for a concurrent resolution.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount () + m_aCache.getJoinedCount ();
+  }
+
+  /**
+   * @return The number of lookups that required a resolution.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Cache", m_aCache).getToString ();
+  }
+}
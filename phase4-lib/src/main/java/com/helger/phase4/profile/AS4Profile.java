@@ -43,6 +43,8 @@ public class AS4Profile implements IAS4Profile
   private final IAS4ProfilePModeProvider m_aDefaultPModeProvider;
   private final IPModeIDProvider m_aPModeIDProvider;
   private final boolean m_bDeprecated;
+  // Not serialized - lazily created
+  private transient volatile AS4ProfilePModeValidationCache m_aPModeValidationCache;
 
   /**
    * Constructor
@@ -97,6 +99,26 @@ public class AS4Profile implements IAS4Profile
     return m_aProfileValidatorProvider.get ();
   }
 
+  @Nonnull
+  public AS4ProfilePModeValidationCache getPModeValidationCache ()
+  {
+    AS4ProfilePModeValidationCache ret = m_aPModeValidationCache;
+    if (ret == null)
+    {
+      // Also after deserialization
+      synchronized (this)
+      {
+        ret = m_aPModeValidationCache;
+        if (ret == null)
+        {
+          ret = new AS4ProfilePModeValidationCache (AS4ProfilePModeValidationCache.DEFAULT_MAX_SIZE);
+          m_aPModeValidationCache = ret;
+        }
+      }
+    }
+    return ret;
+  }
+
   @Nonnull
   public PMode createPModeTemplate (@Nonnull @Nonempty final String sInitiatorID,
                                     @Nonnull @Nonempty final String sResponderID,
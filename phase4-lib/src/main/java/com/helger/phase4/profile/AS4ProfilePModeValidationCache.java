@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.error.IError;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.mgr.MetaAS4Manager;
+import com.helger.phase4.model.pmode.IPMode;
+
+/**
+ * A cache for the results of
+ * {@link IAS4ProfileValidator#validatePMode(IPMode, ErrorList)}, so that the
+ * same PMode is not validated again for every incoming message. Each profile
+ * owns its own cache and the results are kept per validator class, as profiles
+ * usually create a new validator instance for every message. An entry is only
+ * reused for the very same PMode object, if its last modification date
+ * time, its top-level attributes and the modification count of the PMode
+ * manager are unchanged. Modifications of nested PMode objects (like the
+ * security settings of a leg) are not detected - so such changes must be
+ * followed by an update via the PMode manager or by {@link #clearCache()}.<br>
+ * As the very same PMode object is required, this cache relies on the PMode
+ * resolver to return the same instance for every message. The
+ * {@link com.helger.phase4.model.pmode.resolve.DefaultPModeResolver} does this
+ * for managed PModes as well as for PModes created from a profile template.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4ProfilePModeValidationCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  @Immutable
+  private static final class Key
+  {
+    private final Class <?> m_aValidatorClass;
+    private final String m_sPModeID;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (@Nonnull final Class <?> aValidatorClass, @Nonnull final String sPModeID)
+    {
+      m_aValidatorClass = aValidatorClass;
+      m_sPModeID = sPModeID;
+      m_nHashCode = new HashCodeGenerator (this).append (aValidatorClass).append (sPModeID).getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_aValidatorClass.equals (rhs.m_aValidatorClass) && m_sPModeID.equals (rhs.m_sPModeID);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+  }
+
+  /**
+   * The version of a single PMode that was validated.
+   */
+  @Immutable
+  private static final class Entry
+  {
+    private final IPMode m_aPMode;
+    private final Object [] m_aAttrs;
+    private final LocalDateTime m_aLastModDT;
+    private final long m_nPModeMgrModificationCount;
+    private final ICommonsList <IError> m_aErrors;
+
+    Entry (@Nonnull final IPMode aPMode, final long nPModeMgrModificationCount, @Nonnull final ICommonsList <IError> aErrors)
+    {
+      m_aPMode = aPMode;
+      m_aAttrs = _getAttrs (aPMode);
+      m_aLastModDT = aPMode.getLastModificationDateTime ();
+      m_nPModeMgrModificationCount = nPModeMgrModificationCount;
+      m_aErrors = aErrors;
+    }
+
+    boolean isValidFor (@Nonnull final IPMode aPMode, final long nPModeMgrModificationCount)
+    {
+      if (aPMode != m_aPMode || nPModeMgrModificationCount != m_nPModeMgrModificationCount)
+        return false;
+      if (!EqualsHelper.equals (aPMode.getLastModificationDateTime (), m_aLastModDT))
+        return false;
+      final Object [] aAttrs = _getAttrs (aPMode);
+      for (int i = 0; i < aAttrs.length; ++i)
+        if (aAttrs[i] != m_aAttrs[i])
+          return false;
+      return true;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <Key, Entry> m_aMap;
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of PModes to cache the results for. Must be &gt;
+   *        0.
+   */
+  public AS4ProfilePModeValidationCache (@Nonnegative final int nMaxSize)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    m_nMaxSize = nMaxSize;
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  @Nonnull
+  private static Object [] _getAttrs (@Nonnull final IPMode aPMode)
+  {
+    // Setting any of these on the PMode replaces the reference
+    return new Object [] { aPMode.getInitiator (),
+                           aPMode.getResponder (),
+                           aPMode.getAgreement (),
+                           aPMode.getMEP (),
+                           aPMode.getMEPBinding (),
+                           aPMode.getLeg1 (),
+                           aPMode.getLeg2 (),
+                           aPMode.getPayloadService (),
+                           aPMode.getReceptionAwareness () };
+  }
+
+  /**
+   * @return The maximum number of cached validation results. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * Validate the provided PMode with the provided validator, or reuse the
+   * result of a previous validation of the same PMode.
+   *
+   * @param aValidator
+   *        The validator to use. May not be <code>null</code>.
+   * @param aPMode
+   *        The PMode to be validated. May not be <code>null</code>.
+   * @param aErrorList
+   *        The error list to be filled. May not be <code>null</code>.
+   */
+  public void validatePMode (@Nonnull final IAS4ProfileValidator aValidator,
+                             @Nonnull final IPMode aPMode,
+                             @Nonnull final ErrorList aErrorList)
+  {
+    ValueEnforcer.notNull (aValidator, "Validator");
+    ValueEnforcer.notNull (aPMode, "PMode");
+    ValueEnforcer.notNull (aErrorList, "ErrorList");
+
+    final long nModificationCount = MetaAS4Manager.getPModeMgr ().getModificationCount ();
+    final Key aKey = new Key (aValidator.getClass (), aPMode.getID ());
+    final Entry aEntry = m_aLock.lockedGet ( () -> m_aMap.get (aKey));
+    if (aEntry != null && aEntry.isValidFor (aPMode, nModificationCount))
+    {
+      m_aHits.increment ();
+      aErrorList.addAll (aEntry.m_aErrors);
+      return;
+    }
+
+    m_aMisses.increment ();
+    final ErrorList aOwnErrors = new ErrorList ();
+    aValidator.validatePMode (aPMode, aOwnErrors);
+    aErrorList.addAll (aOwnErrors);
+
+    if (nModificationCount >= 0)
+    {
+      final Entry aNewEntry = new Entry (aPMode, nModificationCount, new CommonsArrayList <> (aOwnErrors));
+      m_aLock.locked ( () -> m_aMap.put (aKey, aNewEntry));
+    }
+  }
+
+  /**
+   * Remove all cached validation results.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      if (m_aMap.isEmpty ())
+        return EChange.UNCHANGED;
+      m_aMap.clear ();
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * @return The number of currently cached validation results.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of validations that were answered from the cache.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /**
+   * @return The number of validations that were actually performed.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize)
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .getToString ();
+  }
+}
@@ -43,6 +43,18 @@ public interface IAS4Profile extends IHasID <String>, IHasDisplayName, Serializa
   @Nullable
   IAS4ProfileValidator getValidator ();
 
+  /**
+   * @return The cache for the PMode validation results of this profile. May be
+   *         <code>null</code> in which case PModes are validated for every
+   *         message.
+   * @since 1.3.2
+   */
+  @Nullable
+  default AS4ProfilePModeValidationCache getPModeValidationCache ()
+  {
+    return null;
+  }
+
   /**
    * @param sInitiatorID
    *        Initiator ID
@@ -18,6 +18,11 @@ package com.helger.phase4.sender;
 
 import java.time.OffsetDateTime;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -37,16 +42,21 @@ import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.client.IAS4ClientBuildMessageCallback;
 import com.helger.phase4.client.IAS4RawResponseConsumer;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.IAS4IncomingDumper;
 import com.helger.phase4.dump.IAS4OutgoingDumper;
+import com.helger.phase4.http.AS4CircuitBreaker;
+import com.helger.phase4.http.AS4PooledHttpClient;
+import com.helger.phase4.http.AS4RetryScheduler;
 import com.helger.phase4.http.HttpRetrySettings;
 import com.helger.phase4.model.pmode.resolve.DefaultPModeResolver;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
 import com.helger.phase4.servlet.AS4IncomingProfileSelectorFromGlobal;
 import com.helger.phase4.servlet.IAS4IncomingProfileSelector;
 import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ExecutorHelper;
 import com.helger.phase4.util.Phase4Exception;
 
 /**
@@ -65,7 +75,24 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
 
   private static final Logger LOGGER = LoggerFactory.getLogger (AbstractAS4MessageBuilder.class);
 
+  /**
+   * Lazy holder for the default executor of asynchronous sending. It uses a
+   * bounded number of daemon threads and a bounded queue, as configured in
+   * {@link AS4Configuration}. If the queue is full, the transmission is
+   * performed in the calling thread.
+   */
+  private static final class DefaultSendExecutorHolder
+  {
+    static final ExecutorService INSTANCE = AS4ExecutorHelper.createBoundedExecutor ("phase4-send-%d",
+                                                                                     AS4Configuration.getOutgoingAsyncMaxThreads (),
+                                                                                     AS4Configuration.getOutgoingAsyncQueueSize (),
+                                                                                     new ThreadPoolExecutor.CallerRunsPolicy ());
+  }
+
   protected HttpClientFactory m_aHttpClientFactory;
+  protected AS4PooledHttpClient m_aPooledHttpClient;
+  protected AS4CircuitBreaker m_aCircuitBreaker;
+  protected AS4RetryScheduler m_aRetryScheduler;
   protected IAS4CryptoFactory m_aCryptoFactory;
   protected String m_sMessageID;
   protected String m_sRefToMessageID;
@@ -84,6 +111,7 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
   protected IAS4IncomingDumper m_aIncomingDumper;
   protected IAS4RetryCallback m_aRetryCallback;
   protected IAS4RawResponseConsumer m_aResponseConsumer;
+  private Executor m_aSendExecutor;
 
   /**
    * Create a new builder, with the following fields already set:<br>
@@ -153,6 +181,137 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     return thisAsT ();
   }
 
+  /**
+   * @return The executor to be used for {@link #sendMessageAsync()}. May be
+   *         <code>null</code> in which case a shared default executor is used.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final Executor sendExecutor ()
+  {
+    return m_aSendExecutor;
+  }
+
+  /**
+   * Set the executor to be used for {@link #sendMessageAsync()}.
+   *
+   * @param aSendExecutor
+   *        The executor to be used. May be <code>null</code> in which case a
+   *        shared default executor with a bounded number of daemon threads is
+   *        used. If its queue is full, the message is sent in the calling
+   *        thread.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE sendExecutor (@Nullable final Executor aSendExecutor)
+  {
+    m_aSendExecutor = aSendExecutor;
+    return thisAsT ();
+  }
+
+  /**
+   * @return The executor that is effectively used for asynchronous sending.
+   *         Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  protected final Executor getEffectiveSendExecutor ()
+  {
+    final Executor ret = m_aSendExecutor;
+    return ret != null ? ret : DefaultSendExecutorHolder.INSTANCE;
+  }
+
+  /**
+   * @return The currently set {@link AS4PooledHttpClient}. May be
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4PooledHttpClient pooledHttpClient ()
+  {
+    return m_aPooledHttpClient;
+  }
+
+  /**
+   * Set a pooled HTTP client to be used. This allows to reuse connections
+   * across multiple transmissions and builders. If a pooled client is
+   * provided, the HTTP client factory it was built from is also used as the
+   * HTTP client factory of this builder. If a different HTTP client factory is
+   * set afterwards, the pooled client is not used. The pooled client is not
+   * closed by the builder.
+   *
+   * @param aPooledHttpClient
+   *        The pooled HTTP client to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE pooledHttpClient (@Nullable final AS4PooledHttpClient aPooledHttpClient)
+  {
+    m_aPooledHttpClient = aPooledHttpClient;
+    if (aPooledHttpClient != null)
+      m_aHttpClientFactory = aPooledHttpClient.getHttpClientFactory ();
+    return thisAsT ();
+  }
+
+  /**
+   * @return The currently set {@link AS4CircuitBreaker}. May be
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4CircuitBreaker circuitBreaker ()
+  {
+    return m_aCircuitBreaker;
+  }
+
+  /**
+   * Set the circuit breaker to be used for the HTTP transmission. The same
+   * instance should be shared between all builders, so that unavailable
+   * destinations are detected across transmissions.
+   *
+   * @param aCircuitBreaker
+   *        The circuit breaker to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE circuitBreaker (@Nullable final AS4CircuitBreaker aCircuitBreaker)
+  {
+    m_aCircuitBreaker = aCircuitBreaker;
+    return thisAsT ();
+  }
+
+  /**
+   * @return The currently set {@link AS4RetryScheduler}. May be
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4RetryScheduler retryScheduler ()
+  {
+    return m_aRetryScheduler;
+  }
+
+  /**
+   * Set the retry scheduler to be used for the HTTP retries. If set, the
+   * waiting times between retries are jittered and the retry budgets of the
+   * scheduler apply. The same instance should be shared between all builders.
+   * It is not closed by the builder.
+   *
+   * @param aRetryScheduler
+   *        The retry scheduler to be used. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final IMPLTYPE retryScheduler (@Nullable final AS4RetryScheduler aRetryScheduler)
+  {
+    m_aRetryScheduler = aRetryScheduler;
+    return thisAsT ();
+  }
+
   /**
    * @return The currently set {@link IAS4CryptoFactory}. May be
    *         <code>null</code>.
@@ -602,4 +761,33 @@ public abstract class AbstractAS4MessageBuilder <IMPLTYPE extends AbstractAS4Mes
     return ESuccess.SUCCESS;
   }
 
+  /**
+   * Asynchronously send the AS4 message. The complete processing of
+   * {@link #sendMessage()} (building, signing, encrypting, the HTTP round trip
+   * and the response handling) happens on the executor provided via
+   * {@link #sendExecutor(Executor)}, so the calling thread is not blocked. To
+   * reuse HTTP connections across many parallel transmissions, consider using
+   * {@link #pooledHttpClient(AS4PooledHttpClient)}.<br>
+   * Note: this builder must not be modified until the returned future is
+   * completed.
+   *
+   * @return The future with the result of {@link #sendMessage()}. Never
+   *         <code>null</code>. If a {@link Phase4Exception} is thrown, the
+   *         future is completed exceptionally with it.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final CompletableFuture <ESuccess> sendMessageAsync ()
+  {
+    return CompletableFuture.supplyAsync ( () -> {
+      try
+      {
+        return sendMessage ();
+      }
+      catch (final Phase4Exception ex)
+      {
+        throw new CompletionException (ex);
+      }
+    }, getEffectiveSendExecutor ());
+  }
 }
@@ -136,6 +136,9 @@ public abstract class AbstractAS4PullRequestBuilder <IMPLTYPE extends AbstractAS
       aPullRequestMsg.httpRetrySettings ().assignFrom (m_aHttpRetrySettings);
 
     aPullRequestMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
+    aPullRequestMsg.getHttpPoster ().setPooledHttpClient (m_aPooledHttpClient);
+    aPullRequestMsg.getHttpPoster ().setCircuitBreaker (m_aCircuitBreaker);
+    aPullRequestMsg.getHttpPoster ().setRetryScheduler (m_aRetryScheduler);
 
     // Otherwise Oxalis dies
     aPullRequestMsg.getHttpPoster ().setQuoteHttpHeaders (false);
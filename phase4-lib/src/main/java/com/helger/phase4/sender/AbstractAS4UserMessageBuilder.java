@@ -17,6 +17,7 @@
 package com.helger.phase4.sender;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -567,6 +568,9 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       aUserMsg.httpRetrySettings ().assignFrom (m_aHttpRetrySettings);
 
     aUserMsg.getHttpPoster ().setHttpClientFactory (m_aHttpClientFactory);
+    aUserMsg.getHttpPoster ().setPooledHttpClient (m_aPooledHttpClient);
+    aUserMsg.getHttpPoster ().setCircuitBreaker (m_aCircuitBreaker);
+    aUserMsg.getHttpPoster ().setRetryScheduler (m_aRetryScheduler);
     // Otherwise Oxalis dies
     aUserMsg.getHttpPoster ().setQuoteHttpHeaders (false);
 
@@ -763,4 +767,38 @@ public abstract class AbstractAS4UserMessageBuilder <IMPLTYPE extends AbstractAS
       m_aSignalMsgConsumer = aOld;
     }
   }
+
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt()} that runs
+   * on the executor provided via {@link #sendExecutor(java.util.concurrent.Executor)}.<br>
+   * Note: this builder must not be modified until the returned future is
+   * completed.
+   *
+   * @return The future with the send result. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAndCheckForReceiptAsync ()
+  {
+    return CompletableFuture.supplyAsync (this::sendMessageAndCheckForReceipt, getEffectiveSendExecutor ());
+  }
+
+  /**
+   * Asynchronous version of {@link #sendMessageAndCheckForReceipt(Consumer)}
+   * that runs on the executor provided via
+   * {@link #sendExecutor(java.util.concurrent.Executor)}.<br>
+   * Note: this builder must not be modified until the returned future is
+   * completed.
+   *
+   * @param aExceptionConsumer
+   *        An optional Consumer that takes an eventually thrown
+   *        {@link Phase4Exception}. May be <code>null</code>.
+   * @return The future with the send result. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final CompletableFuture <ESimpleUserMessageSendResult> sendMessageAndCheckForReceiptAsync (@Nullable final Consumer <? super Phase4Exception> aExceptionConsumer)
+  {
+    return CompletableFuture.supplyAsync ( () -> sendMessageAndCheckForReceipt (aExceptionConsumer), getEffectiveSendExecutor ());
+  }
 }
@@ -23,6 +23,8 @@ import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.phase4.attachment.Phase4OutgoingAttachment;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.AS4ClientUserMessage;
@@ -109,12 +111,12 @@ public abstract class AbstractAS4UserMessageBuilderMIMEPayload <IMPLTYPE extends
       // No payload - only one attachment
       aUserMsg.setPayload (null);
 
-      // Add main attachment
-      aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (m_aPayload, aResHelper));
-
-      // Add other attachments
-      for (final Phase4OutgoingAttachment aAttachment : m_aAttachments)
-        aUserMsg.addAttachment (WSS4JAttachment.createOutgoingFileAttachment (aAttachment, aResHelper));
+      // Add main attachment and other attachments
+      // Compression of multiple attachments happens in parallel
+      final ICommonsList <Phase4OutgoingAttachment> aAllAttachments = new CommonsArrayList <> (m_aPayload);
+      aAllAttachments.addAll (m_aAttachments);
+      for (final WSS4JAttachment aAttachment : WSS4JAttachment.createOutgoingFileAttachments (aAllAttachments, aResHelper))
+        aUserMsg.addAttachment (aAttachment);
 
       // Main sending
       AS4BidirectionalClientHelper.sendAS4UserMessageAndReceiveAS4SignalMessage (m_aCryptoFactory,
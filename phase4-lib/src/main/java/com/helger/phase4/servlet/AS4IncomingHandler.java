@@ -16,9 +16,11 @@
  */
 package com.helger.phase4.servlet;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Map;
@@ -28,7 +30,8 @@ import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import javax.mail.MessagingException;
-import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeUtility;
 import javax.xml.namespace.QName;
 
 import org.apache.http.Header;
@@ -52,14 +55,18 @@ import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.io.stream.HasInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.IMimeType;
 import com.helger.commons.mime.MimeTypeParser;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.string.StringHelper;
 import com.helger.commons.wrapper.Wrapper;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
 import com.helger.phase4.dump.AS4DumpManager;
 import com.helger.phase4.dump.IAS4IncomingDumper;
@@ -78,6 +85,7 @@ import com.helger.phase4.model.AS4Helper;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.model.pmode.resolve.IPModeResolver;
+import com.helger.phase4.profile.AS4ProfilePModeValidationCache;
 import com.helger.phase4.profile.IAS4Profile;
 import com.helger.phase4.profile.IAS4ProfileValidator;
 import com.helger.phase4.servlet.soap.AS4SingleSOAPHeader;
@@ -86,13 +94,13 @@ import com.helger.phase4.servlet.soap.SOAPHeaderElementProcessorRegistry;
 import com.helger.phase4.soap.ESoapVersion;
 import com.helger.phase4.util.AS4ResourceHelper;
 import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.phase4.util.AS4XMLRuntime;
 import com.helger.phase4.util.Phase4Exception;
 import com.helger.web.multipart.MultipartProgressNotifier;
 import com.helger.web.multipart.MultipartStream;
 import com.helger.web.multipart.MultipartStream.MultipartItemInputStream;
 import com.helger.xml.ChildElementIterator;
 import com.helger.xml.XMLHelper;
-import com.helger.xml.serialize.read.DOMReader;
 
 /**
  * Utility methods for incoming AS4 messages.
@@ -140,6 +148,129 @@ public class AS4IncomingHandler
                                                                                Phase4Exception;
   }
 
+  /**
+   * Callback interface for handling the result of the streaming pre-scan of
+   * an incoming message.
+   *
+   * @author Philip Helger
+   * @since 1.3.2
+   */
+  @FunctionalInterface
+  public interface IAS4PreScanCallback
+  {
+    /**
+     * Callback method. It is invoked before the SOAP document is parsed into a
+     * DOM.<br>
+     * Note: the values of the pre-scan result are taken from the message
+     * header before the signature was verified. A rejection based on them must
+     * not have any other side effects.
+     *
+     * @param aHttpHeaders
+     *        Incoming HTTP headers. Never <code>null</code> but maybe empty.
+     * @param aPreScanResult
+     *        The pre-scan result. Never <code>null</code>.
+     * @return {@link EContinue#CONTINUE} to continue with the full parsing or
+     *         {@link EContinue#BREAK} if the message was completely handled
+     *         (e.g. rejected) by the callback.
+     * @throws Phase4Exception
+     *         In case of a processing error
+     */
+    @Nonnull
+    EContinue handle (@Nonnull HttpHeaderMap aHttpHeaders, @Nonnull AS4IncomingPreScanResult aPreScanResult) throws Phase4Exception;
+  }
+
+  /**
+   * An input stream that records all bytes read, so that they can be replayed
+   * afterwards.
+   */
+  private static final class RecordingInputStream extends FilterInputStream
+  {
+    private final NonBlockingByteArrayOutputStream m_aRecorded = new NonBlockingByteArrayOutputStream ();
+
+    RecordingInputStream (@Nonnull final InputStream aIS)
+    {
+      super (aIS);
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final int ret = super.read ();
+      if (ret >= 0)
+        m_aRecorded.write (ret);
+      return ret;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      final int ret = super.read (aBuf, nOfs, nLen);
+      if (ret > 0)
+        m_aRecorded.write (aBuf, nOfs, ret);
+      return ret;
+    }
+
+    @Override
+    public long skip (final long nBytes) throws IOException
+    {
+      // Skipped bytes must be recorded as well
+      final byte [] aBuf = new byte [(int) Math.min (nBytes, 4096)];
+      final int nRead = read (aBuf, 0, aBuf.length);
+      return nRead < 0 ? 0 : nRead;
+    }
+
+    @Override
+    public boolean markSupported ()
+    {
+      return false;
+    }
+
+    @Override
+    public void close ()
+    {
+      // The underlying stream is closed via the replay stream
+    }
+
+    /**
+     * @return A stream that first returns all recorded bytes and than the rest
+     *         of the underlying stream.
+     */
+    @Nonnull
+    InputStream getReplayStream ()
+    {
+      return new SequenceInputStream (new NonBlockingByteArrayInputStream (m_aRecorded.directGetBuffer (), 0, m_aRecorded.size ()), in);
+    }
+  }
+
+  /**
+   * Run the streaming pre-scan on the provided SOAP document stream, if a
+   * callback is provided and the pre-scan is enabled.
+   *
+   * @return <code>null</code> if the message was completely handled by the
+   *         callback, the stream to be used for the full parsing otherwise.
+   */
+  @Nullable
+  private static InputStream _preScan (@Nonnull final InputStream aSoapIS,
+                                       @Nonnull final HttpHeaderMap aHttpHeaders,
+                                       @Nullable final IAS4PreScanCallback aPreScanCallback) throws Phase4Exception
+  {
+    if (aPreScanCallback == null || !AS4Configuration.isIncomingPreScanEnabled ())
+      return aSoapIS;
+
+    final RecordingInputStream aRecordingIS = new RecordingInputStream (aSoapIS);
+    final AS4IncomingPreScanResult aPreScanResult = AS4IncomingPreScanner.scan (aRecordingIS);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Pre-scan result: " + aPreScanResult);
+
+    if (aPreScanResult != null && aPreScanCallback.handle (aHttpHeaders, aPreScanResult).isBreak ())
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Incoming message was handled by the pre-scan callback");
+      return null;
+    }
+    return aRecordingIS.getReplayStream ();
+  }
+
   public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
                                       @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
                                       @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
@@ -150,6 +281,54 @@ public class AS4IncomingHandler
                                                                                           IOException,
                                                                                           MessagingException,
                                                                                           WSSecurityException
+  {
+    parseAS4Message (aIAF, aResHelper, aMessageMetadata, aPayloadIS, aHttpHeaders, aCallback, aIncomingDumper, null);
+  }
+
+  /**
+   * Parse an incoming AS4 message.
+   *
+   * @param aIAF
+   *        The attachment factory to use. May not be <code>null</code>.
+   * @param aResHelper
+   *        The resource helper to use. May not be <code>null</code>.
+   * @param aMessageMetadata
+   *        The incoming message metadata. May not be <code>null</code>.
+   * @param aPayloadIS
+   *        The payload input stream. May not be <code>null</code>.
+   * @param aHttpHeaders
+   *        The incoming HTTP headers. May not be <code>null</code>.
+   * @param aCallback
+   *        The callback for the parsed SOAP document. May not be
+   *        <code>null</code>.
+   * @param aIncomingDumper
+   *        The incoming dumper. May be <code>null</code>.
+   * @param aPreScanCallback
+   *        The optional callback for the streaming pre-scan of the
+   *        <code>eb:Messaging</code> header. If it returns
+   *        {@link EContinue#BREAK} the SOAP document is not parsed and
+   *        <code>aCallback</code> is not invoked. May be <code>null</code>.
+   * @throws Phase4Exception
+   *         In case of processing errors
+   * @throws IOException
+   *         In case of IO errors
+   * @throws MessagingException
+   *         In case of MIME errors
+   * @throws WSSecurityException
+   *         In case of WSS4J errors
+   * @since 1.3.2
+   */
+  public static void parseAS4Message (@Nonnull final IAS4IncomingAttachmentFactory aIAF,
+                                      @Nonnull @WillNotClose final AS4ResourceHelper aResHelper,
+                                      @Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
+                                      @Nonnull @WillClose final InputStream aPayloadIS,
+                                      @Nonnull final HttpHeaderMap aHttpHeaders,
+                                      @Nonnull final IAS4ParsedMessageCallback aCallback,
+                                      @Nullable final IAS4IncomingDumper aIncomingDumper,
+                                      @Nullable final IAS4PreScanCallback aPreScanCallback) throws Phase4Exception,
+                                                                                            IOException,
+                                                                                            MessagingException,
+                                                                                            WSSecurityException
   {
     // Determine content type
     final String sContentType = aHttpHeaders.getFirstHeaderValue (CHttpHeader.CONTENT_TYPE);
@@ -172,6 +351,7 @@ public class AS4IncomingHandler
     ESoapVersion eSoapVersion = null;
     final ICommonsList <WSS4JAttachment> aIncomingAttachments = new CommonsArrayList <> ();
     final Wrapper <OutputStream> aDumpOSHolder = new Wrapper <> ();
+    boolean bHandledByPreScan = false;
 
     if (aPlainContentType.equals (AS4RequestHandler.MT_MULTIPART_RELATED))
     {
@@ -210,8 +390,8 @@ public class AS4IncomingHandler
 
           try (final MultipartItemInputStream aBodyPartIS = aMulti.createInputStream ())
           {
-            // Read headers AND content
-            final MimeBodyPart aBodyPart = new MimeBodyPart (aBodyPartIS);
+            // Read only the headers - the content is streamed
+            final InternetHeaders aPartHeaders = new InternetHeaders (aBodyPartIS);
 
             if (nIndex == 0)
             {
@@ -220,9 +400,20 @@ public class AS4IncomingHandler
                 LOGGER.debug ("Parsing first MIME part as SOAP document");
 
               // Read SOAP document
-              aSoapDocument = DOMReader.readXMLDOM (aBodyPart.getInputStream ());
+              final String sCTE = aPartHeaders.getHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, null);
+              final InputStream aSoapIS = _preScan (StringHelper.hasText (sCTE) ? MimeUtility.decode (aBodyPartIS, sCTE.trim ())
+                                                                                : aBodyPartIS,
+                                                    aHttpHeaders,
+                                                    aPreScanCallback);
+              if (aSoapIS == null)
+              {
+                // Don't read the attachments
+                bHandledByPreScan = true;
+                break;
+              }
+              aSoapDocument = AS4XMLRuntime.readXMLDOM (aSoapIS);
 
-              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aBodyPart.getContentType ());
+              IMimeType aPlainPartMT = MimeTypeParser.safeParseMimeType (aPartHeaders.getHeader (CHttpHeader.CONTENT_TYPE, null));
               if (aPlainPartMT != null)
                 aPlainPartMT = aPlainPartMT.getCopyWithoutParameters ();
 
@@ -245,12 +436,19 @@ public class AS4IncomingHandler
               if (LOGGER.isDebugEnabled ())
                 LOGGER.debug ("Parsing MIME part #" + nIndex + " as attachment");
 
-              final WSS4JAttachment aAttachment = aIAF.createAttachment (aBodyPart, aResHelper);
+              final WSS4JAttachment aAttachment = aIAF.createAttachment (aPartHeaders, aBodyPartIS, aResHelper);
               aIncomingAttachments.add (aAttachment);
             }
           }
           nIndex++;
         }
+
+        if (bHandledByPreScan)
+        {
+          // Consume the rest of the request so that the incoming dump is
+          // complete
+          StreamHelper.readUntilEOF (aRequestIS, (aBuf, nLen) -> {});
+        }
       }
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Read MIME message with " + aIncomingAttachments.size () + " attachment(s)");
@@ -260,15 +458,38 @@ public class AS4IncomingHandler
       if (LOGGER.isDebugEnabled ())
         LOGGER.debug ("Received plain message");
 
-      // Expect plain SOAP - read whole request to DOM
-      // Note: this may require a huge amount of memory for large requests
-      aSoapDocument = DOMReader.readXMLDOM (AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
-                                                                                            aPayloadIS,
-                                                                                            aMessageMetadata,
-                                                                                            aHttpHeaders,
-                                                                                            aDumpOSHolder));
+      // Ensure the stream gets closed correctly
+      try (final InputStream aRequestIS = AS4DumpManager.getIncomingDumpAwareInputStream (aRealIncomingDumper,
+                                                                                          aPayloadIS,
+                                                                                          aMessageMetadata,
+                                                                                          aHttpHeaders,
+                                                                                          aDumpOSHolder))
+      {
+        final InputStream aSoapIS = _preScan (aRequestIS, aHttpHeaders, aPreScanCallback);
+        if (aSoapIS == null)
+        {
+          // Consume the request so that the incoming dump is complete
+          bHandledByPreScan = true;
+          StreamHelper.readUntilEOF (aRequestIS, (aBuf, nLen) -> {});
+        }
+        else
+        {
+          final long nSpoolThreshold = AS4Configuration.getIncomingSoapBodySpoolThreshold ();
+          if (nSpoolThreshold > 0)
+          {
+            // Bounded memory - large SOAP Body payloads are spooled
+            aSoapDocument = AS4IncomingSoapBodySpooler.readSoapDocument (aSoapIS, nSpoolThreshold, aResHelper);
+          }
+          else
+          {
+            // Expect plain SOAP - read whole request to DOM
+            // Note: this may require a huge amount of memory for large requests
+            aSoapDocument = AS4XMLRuntime.readXMLDOM (aSoapIS);
+          }
+        }
+      }
 
-      if (LOGGER.isDebugEnabled ())
+      if (LOGGER.isDebugEnabled () && !bHandledByPreScan)
         if (aSoapDocument != null)
           LOGGER.debug ("Successfully parsed payload as XML");
         else
@@ -293,6 +514,12 @@ public class AS4IncomingHandler
 
     try
     {
+      if (bHandledByPreScan)
+      {
+        // Nothing more to do
+        return;
+      }
+
       if (aSoapDocument == null)
       {
         // We don't have a SOAP document
@@ -615,7 +842,12 @@ public class AS4IncomingHandler
             if (aAS4ProfileSelector.validateAgainstProfile ())
             {
               final ErrorList aErrorList = new ErrorList ();
-              aValidator.validatePMode (aPMode, aErrorList);
+              // The PMode usually doesn't change between messages
+              final AS4ProfilePModeValidationCache aPModeValidationCache = aProfile.getPModeValidationCache ();
+              if (aPModeValidationCache != null)
+                aPModeValidationCache.validatePMode (aValidator, aPMode, aErrorList);
+              else
+                aValidator.validatePMode (aPMode, aErrorList);
               aValidator.validateUserMessage (aEbmsUserMessage, aErrorList);
               if (aErrorList.isNotEmpty ())
               {
@@ -667,6 +899,7 @@ public class AS4IncomingHandler
       if (aBodyNode == null)
         throw new Phase4Exception ((bUseDecryptedSOAP ? "Decrypted" : "Original") + " SOAP document is missing a Body element");
       aState.setSoapBodyPayloadNode (aBodyNode.getFirstChild ());
+      aState.setSoapBodyPayloadStreamProvider (AS4IncomingSoapBodySpooler.getSpooledPayload (aBodyNode));
 
       final boolean bIsPingMessage = AS4Helper.isPingMessage (aPMode);
       aState.setPingMessage (bIsPingMessage);
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.phase4.soap.ESoapVersion;
+
+/**
+ * The result of {@link AS4IncomingPreScanner}. It contains the most important
+ * values of the <code>eb:Messaging</code> SOAP header, as they are present in
+ * the incoming message. None of the values is validated or verified in any
+ * way.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public class AS4IncomingPreScanResult
+{
+  private final ESoapVersion m_eSoapVersion;
+  private int m_nUserMessageCount = 0;
+  private int m_nSignalMessageCount = 0;
+  private String m_sMessageID;
+  private String m_sRefToMessageID;
+  private final ICommonsList <String> m_aFromPartyIDs = new CommonsArrayList <> ();
+  private final ICommonsList <String> m_aToPartyIDs = new CommonsArrayList <> ();
+  private String m_sAgreementRef;
+  private String m_sPModeID;
+  private String m_sService;
+  private String m_sAction;
+  private String m_sConversationID;
+
+  public AS4IncomingPreScanResult (@Nonnull final ESoapVersion eSoapVersion)
+  {
+    ValueEnforcer.notNull (eSoapVersion, "SoapVersion");
+    m_eSoapVersion = eSoapVersion;
+  }
+
+  /**
+   * @return The SOAP version determined from the root element. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final ESoapVersion getSoapVersion ()
+  {
+    return m_eSoapVersion;
+  }
+
+  /**
+   * @return The number of <code>eb:UserMessage</code> elements found.
+   */
+  @Nonnegative
+  public final int getUserMessageCount ()
+  {
+    return m_nUserMessageCount;
+  }
+
+  void incUserMessageCount ()
+  {
+    m_nUserMessageCount++;
+  }
+
+  /**
+   * @return The number of <code>eb:SignalMessage</code> elements found.
+   */
+  @Nonnegative
+  public final int getSignalMessageCount ()
+  {
+    return m_nSignalMessageCount;
+  }
+
+  void incSignalMessageCount ()
+  {
+    m_nSignalMessageCount++;
+  }
+
+  /**
+   * @return <code>true</code> if exactly one user message and no signal
+   *         message was found.
+   */
+  public final boolean isSingleUserMessage ()
+  {
+    return m_nUserMessageCount == 1 && m_nSignalMessageCount == 0;
+  }
+
+  /**
+   * @return The first message ID found. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getMessageID ()
+  {
+    return m_sMessageID;
+  }
+
+  public final boolean hasMessageID ()
+  {
+    return StringHelper.hasText (m_sMessageID);
+  }
+
+  void setMessageID (@Nullable final String sMessageID)
+  {
+    m_sMessageID = sMessageID;
+  }
+
+  /**
+   * @return The first reference to message ID found. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getRefToMessageID ()
+  {
+    return m_sRefToMessageID;
+  }
+
+  void setRefToMessageID (@Nullable final String sRefToMessageID)
+  {
+    m_sRefToMessageID = sRefToMessageID;
+  }
+
+  /**
+   * @return All party IDs of the sender. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <String> getAllFromPartyIDs ()
+  {
+    return m_aFromPartyIDs.getClone ();
+  }
+
+  void addFromPartyID (@Nullable final String sPartyID)
+  {
+    m_aFromPartyIDs.add (sPartyID);
+  }
+
+  /**
+   * @return All party IDs of the receiver. Never <code>null</code> but maybe
+   *         empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public final ICommonsList <String> getAllToPartyIDs ()
+  {
+    return m_aToPartyIDs.getClone ();
+  }
+
+  void addToPartyID (@Nullable final String sPartyID)
+  {
+    m_aToPartyIDs.add (sPartyID);
+  }
+
+  /**
+   * @return The value of the agreement reference. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getAgreementRef ()
+  {
+    return m_sAgreementRef;
+  }
+
+  void setAgreementRef (@Nullable final String sAgreementRef)
+  {
+    m_sAgreementRef = sAgreementRef;
+  }
+
+  /**
+   * @return The "pmode" attribute of the agreement reference. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public final String getPModeID ()
+  {
+    return m_sPModeID;
+  }
+
+  void setPModeID (@Nullable final String sPModeID)
+  {
+    m_sPModeID = sPModeID;
+  }
+
+  /**
+   * @return The service value. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getService ()
+  {
+    return m_sService;
+  }
+
+  void setService (@Nullable final String sService)
+  {
+    m_sService = sService;
+  }
+
+  /**
+   * @return The action. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getAction ()
+  {
+    return m_sAction;
+  }
+
+  void setAction (@Nullable final String sAction)
+  {
+    m_sAction = sAction;
+  }
+
+  /**
+   * @return The conversation ID. May be <code>null</code>.
+   */
+  @Nullable
+  public final String getConversationID ()
+  {
+    return m_sConversationID;
+  }
+
+  void setConversationID (@Nullable final String sConversationID)
+  {
+    m_sConversationID = sConversationID;
+  }
+
+  /**
+   * @return <code>true</code> if this is a single user message with exactly
+   *         one non-empty sender and receiver party ID, a service and an
+   *         action. That is the prerequisite for resolving the PMode.
+   */
+  public final boolean isPModeResolvable ()
+  {
+    return isSingleUserMessage () &&
+           m_aFromPartyIDs.size () == 1 &&
+           StringHelper.hasText (m_aFromPartyIDs.getFirst ()) &&
+           m_aToPartyIDs.size () == 1 &&
+           StringHelper.hasText (m_aToPartyIDs.getFirst ()) &&
+           StringHelper.hasText (m_sService) &&
+           StringHelper.hasText (m_sAction);
+  }
+
+  /**
+   * @return <code>true</code> if the effective PMode leg is leg 1, based on
+   *         the message ID and the reference to message ID.
+   */
+  public final boolean isUseLeg1 ()
+  {
+    return StringHelper.hasNoText (m_sRefToMessageID) || m_sRefToMessageID.equals (m_sMessageID);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("SoapVersion", m_eSoapVersion)
+                                       .append ("UserMessageCount", m_nUserMessageCount)
+                                       .append ("SignalMessageCount", m_nSignalMessageCount)
+                                       .append ("MessageID", m_sMessageID)
+                                       .append ("RefToMessageID", m_sRefToMessageID)
+                                       .append ("FromPartyIDs", m_aFromPartyIDs)
+                                       .append ("ToPartyIDs", m_aToPartyIDs)
+                                       .append ("AgreementRef", m_sAgreementRef)
+                                       .append ("PModeID", m_sPModeID)
+                                       .append ("Service", m_sService)
+                                       .append ("Action", m_sAction)
+                                       .append ("ConversationID", m_sConversationID)
+                                       .getToString ();
+  }
+}
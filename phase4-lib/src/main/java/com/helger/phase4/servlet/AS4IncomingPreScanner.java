@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.phase4.CAS4;
+import com.helger.phase4.soap.ESoapVersion;
+
+/**
+ * A streaming pre-scanner for incoming SOAP messages. It uses StAX to extract
+ * the most important values of the <code>eb:Messaging</code> header without
+ * building a DOM. Scanning stops at the end of the <code>eb:Messaging</code>
+ * element or at the start of the SOAP Body, whatever comes first. This allows
+ * for cheap rejections (e.g. of duplicates or messages without a matching
+ * PMode) before the expensive DOM building and signature verification takes
+ * place.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4IncomingPreScanner
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingPreScanner.class);
+
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance ();
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+  }
+
+  private AS4IncomingPreScanner ()
+  {}
+
+  @Nullable
+  private static AS4IncomingPreScanResult _scan (@Nonnull final XMLStreamReader aReader) throws XMLStreamException
+  {
+    // Root element
+    if (aReader.nextTag () != XMLStreamConstants.START_ELEMENT)
+      return null;
+    final ESoapVersion eSoapVersion = ESoapVersion.getFromNamespaceURIOrNull (aReader.getNamespaceURI ());
+    if (eSoapVersion == null || !"Envelope".equals (aReader.getLocalName ()))
+      return null;
+
+    final AS4IncomingPreScanResult ret = new AS4IncomingPreScanResult (eSoapVersion);
+    final String sSoapNS = eSoapVersion.getNamespaceURI ();
+    boolean bInFrom = false;
+    boolean bInTo = false;
+    while (aReader.hasNext ())
+    {
+      final int nEvent = aReader.next ();
+      if (nEvent == XMLStreamConstants.START_ELEMENT)
+      {
+        final String sNS = aReader.getNamespaceURI ();
+        final String sLocalName = aReader.getLocalName ();
+        if (sSoapNS.equals (sNS) && "Body".equals (sLocalName))
+          break;
+        if (CAS4.EBMS_NS.equals (sNS))
+          switch (sLocalName)
+          {
+            case "UserMessage":
+              ret.incUserMessageCount ();
+              break;
+            case "SignalMessage":
+              ret.incSignalMessageCount ();
+              break;
+            case "MessageId":
+              if (ret.getMessageID () == null)
+                ret.setMessageID (aReader.getElementText ());
+              break;
+            case "RefToMessageId":
+              if (ret.getRefToMessageID () == null)
+                ret.setRefToMessageID (aReader.getElementText ());
+              break;
+            case "From":
+              bInFrom = true;
+              break;
+            case "To":
+              bInTo = true;
+              break;
+            case "PartyId":
+              if (bInFrom)
+                ret.addFromPartyID (aReader.getElementText ());
+              else
+                if (bInTo)
+                  ret.addToPartyID (aReader.getElementText ());
+              break;
+            case "AgreementRef":
+              ret.setPModeID (aReader.getAttributeValue (null, "pmode"));
+              ret.setAgreementRef (aReader.getElementText ());
+              break;
+            case "Service":
+              ret.setService (aReader.getElementText ());
+              break;
+            case "Action":
+              ret.setAction (aReader.getElementText ());
+              break;
+            case "ConversationId":
+              ret.setConversationID (aReader.getElementText ());
+              break;
+          }
+      }
+      else
+        if (nEvent == XMLStreamConstants.END_ELEMENT)
+        {
+          final String sNS = aReader.getNamespaceURI ();
+          final String sLocalName = aReader.getLocalName ();
+          if (CAS4.EBMS_NS.equals (sNS))
+          {
+            if ("Messaging".equals (sLocalName))
+              break;
+            if ("From".equals (sLocalName))
+              bInFrom = false;
+            else
+              if ("To".equals (sLocalName))
+                bInTo = false;
+          }
+          else
+            if (sSoapNS.equals (sNS) && "Header".equals (sLocalName))
+              break;
+        }
+    }
+    return ret;
+  }
+
+  /**
+   * Scan the beginning of the provided SOAP document.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is
+   *        only read partially and not closed.
+   * @return <code>null</code> if the input is not a SOAP document or if it
+   *         could not be scanned.
+   */
+  @Nullable
+  public static AS4IncomingPreScanResult scan (@Nonnull @WillNotClose final InputStream aIS)
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+
+    try
+    {
+      final XMLStreamReader aReader = XML_INPUT_FACTORY.createXMLStreamReader (aIS);
+      try
+      {
+        return _scan (aReader);
+      }
+      finally
+      {
+        aReader.close ();
+      }
+    }
+    catch (final XMLStreamException ex)
+    {
+      // Let the full parsing handle the error
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Failed to pre-scan incoming SOAP document: " + ex.getMessage ());
+      return null;
+    }
+  }
+}
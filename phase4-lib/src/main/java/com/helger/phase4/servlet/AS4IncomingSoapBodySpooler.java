@@ -0,0 +1,444 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.wss4j.common.WSS4JConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.HasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLRuntime;
+
+/**
+ * Bounded memory reading of large plain (non-MIME) SOAP documents. If the
+ * request exceeds the provided threshold, it is spooled to a temporary file.
+ * If the SOAP Body is neither signed nor encrypted, the DOM is only built for
+ * the SOAP Header and the SOAP Body payload element is copied to a separate
+ * temporary file. In the DOM the payload element is only present as an empty
+ * element with the original name, namespace declarations and attributes. The
+ * complete payload is available via {@link #getSpooledPayload(Node)} and
+ * {@link IAS4MessageState#getSoapBodyPayloadStreamProvider()}.<br>
+ * If the SOAP Body is referenced from the security header, the full DOM is
+ * required for signature verification or decryption and the request is read
+ * as usual (but from the temporary file).
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4IncomingSoapBodySpooler
+{
+  /** The DOM user data key of the SOAP Body element */
+  public static final String USER_DATA_KEY_SPOOLED_PAYLOAD = "phase4.soap.body.spooled.payload";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4IncomingSoapBodySpooler.class);
+
+  private static final XMLInputFactory XML_INPUT_FACTORY;
+  private static final XMLOutputFactory XML_OUTPUT_FACTORY;
+  static
+  {
+    XML_INPUT_FACTORY = XMLInputFactory.newInstance ();
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    XML_INPUT_FACTORY.setProperty (XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance ();
+  }
+
+  private AS4IncomingSoapBodySpooler ()
+  {}
+
+  /**
+   * Get the spooled SOAP Body payload of a document read by this class.
+   *
+   * @param aBodyNode
+   *        The SOAP Body element. May be <code>null</code>.
+   * @return <code>null</code> if the payload of the provided SOAP Body was not
+   *         spooled.
+   */
+  @Nullable
+  public static IHasInputStream getSpooledPayload (@Nullable final Node aBodyNode)
+  {
+    if (aBodyNode == null)
+      return null;
+    final Object aUserData = aBodyNode.getUserData (USER_DATA_KEY_SPOOLED_PAYLOAD);
+    return aUserData instanceof IHasInputStream ? (IHasInputStream) aUserData : null;
+  }
+
+  @Nonnull
+  private static Element _createElement (@Nonnull final Document aDoc, @Nonnull final XMLStreamReader aReader)
+  {
+    final String sPrefix = aReader.getPrefix ();
+    final String sLocalName = aReader.getLocalName ();
+    final Element ret = aDoc.createElementNS (StringHelper.getNotEmpty (aReader.getNamespaceURI (), (String) null),
+                                              StringHelper.hasText (sPrefix) ? sPrefix + ":" + sLocalName : sLocalName);
+    for (int i = 0; i < aReader.getNamespaceCount (); ++i)
+    {
+      final String sNSPrefix = aReader.getNamespacePrefix (i);
+      ret.setAttributeNS (XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                          StringHelper.hasText (sNSPrefix) ? XMLConstants.XMLNS_ATTRIBUTE + ":" + sNSPrefix
+                                                           : XMLConstants.XMLNS_ATTRIBUTE,
+                          StringHelper.getNotNull (aReader.getNamespaceURI (i)));
+    }
+    for (int i = 0; i < aReader.getAttributeCount (); ++i)
+    {
+      final String sAttrPrefix = aReader.getAttributePrefix (i);
+      final String sAttrLocalName = aReader.getAttributeLocalName (i);
+      ret.setAttributeNS (StringHelper.getNotEmpty (aReader.getAttributeNamespace (i), (String) null),
+                          StringHelper.hasText (sAttrPrefix) ? sAttrPrefix + ":" + sAttrLocalName : sAttrLocalName,
+                          aReader.getAttributeValue (i));
+    }
+    return ret;
+  }
+
+  private static void _writeStartElement (@Nonnull final XMLStreamReader aReader,
+                                          @Nonnull final XMLStreamWriter aWriter,
+                                          @Nullable final ICommonsOrderedMap <String, String> aInheritedNamespaces) throws XMLStreamException
+  {
+    aWriter.writeStartElement (StringHelper.getNotNull (aReader.getPrefix ()),
+                               aReader.getLocalName (),
+                               StringHelper.getNotNull (aReader.getNamespaceURI ()));
+
+    final ICommonsOrderedMap <String, String> aNamespaces = new CommonsLinkedHashMap <> ();
+    if (aInheritedNamespaces != null)
+      aNamespaces.putAll (aInheritedNamespaces);
+    for (int i = 0; i < aReader.getNamespaceCount (); ++i)
+      aNamespaces.put (StringHelper.getNotNull (aReader.getNamespacePrefix (i)), StringHelper.getNotNull (aReader.getNamespaceURI (i)));
+    for (final Map.Entry <String, String> aEntry : aNamespaces.entrySet ())
+      if (aEntry.getKey ().isEmpty ())
+        aWriter.writeDefaultNamespace (aEntry.getValue ());
+      else
+        aWriter.writeNamespace (aEntry.getKey (), aEntry.getValue ());
+
+    for (int i = 0; i < aReader.getAttributeCount (); ++i)
+    {
+      final String sAttrNS = aReader.getAttributeNamespace (i);
+      if (StringHelper.hasText (sAttrNS))
+        aWriter.writeAttribute (StringHelper.getNotNull (aReader.getAttributePrefix (i)),
+                                sAttrNS,
+                                aReader.getAttributeLocalName (i),
+                                aReader.getAttributeValue (i));
+      else
+        aWriter.writeAttribute (aReader.getAttributeLocalName (i), aReader.getAttributeValue (i));
+    }
+  }
+
+  private static boolean _isIDAttribute (@Nonnull final XMLStreamReader aReader, final int nIndex)
+  {
+    return "id".equalsIgnoreCase (aReader.getAttributeLocalName (nIndex));
+  }
+
+  /**
+   * Build the DOM of the provided SOAP document without the SOAP Body
+   * payload. The payload is written to a separate temporary file.
+   *
+   * @return <code>null</code> if the SOAP Body is referenced from the header
+   *         or has an unexpected layout, so that the full DOM is required.
+   */
+  @Nullable
+  private static Document _readWithSpooledPayload (@Nonnull final XMLStreamReader aReader,
+                                                   @Nonnull final AS4ResourceHelper aResHelper) throws XMLStreamException,
+                                                                                                IOException
+  {
+    final Document aDoc = AS4XMLRuntime.newDocument ();
+    final ICommonsSet <String> aHeaderIDs = new CommonsHashSet <> ();
+    final ICommonsSet <String> aReferencedURIs = new CommonsHashSet <> ();
+    final ICommonsOrderedMap <String, String> aBodyNamespaces = new CommonsLinkedHashMap <> ();
+    boolean bHasEncryptedData = false;
+    ESoapVersion eSoapVersion = null;
+    Element aBodyElement = null;
+    File aPayloadFile = null;
+    OutputStream aPayloadOS = null;
+    XMLStreamWriter aPayloadWriter = null;
+    Node aCurNode = aDoc;
+    int nDepth = 0;
+
+    try
+    {
+      while (aReader.hasNext ())
+      {
+        final int nEvent = aReader.next ();
+        if (aPayloadWriter != null)
+        {
+          // Inside the SOAP Body payload element
+          switch (nEvent)
+          {
+            case XMLStreamConstants.START_ELEMENT:
+              nDepth++;
+              _writeStartElement (aReader, aPayloadWriter, null);
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              nDepth--;
+              aPayloadWriter.writeEndElement ();
+              if (nDepth == 2)
+              {
+                // End of payload element
+                aPayloadWriter.writeEndDocument ();
+                aPayloadWriter.close ();
+                aPayloadWriter = null;
+                StreamHelper.close (aPayloadOS);
+                aPayloadOS = null;
+              }
+              break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+              aPayloadWriter.writeCharacters (aReader.getText ());
+              break;
+            case XMLStreamConstants.CDATA:
+              aPayloadWriter.writeCData (aReader.getText ());
+              break;
+            case XMLStreamConstants.COMMENT:
+              aPayloadWriter.writeComment (aReader.getText ());
+              break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+              aPayloadWriter.writeProcessingInstruction (aReader.getPITarget (), aReader.getPIData ());
+              break;
+          }
+          continue;
+        }
+
+        switch (nEvent)
+        {
+          case XMLStreamConstants.START_ELEMENT:
+          {
+            nDepth++;
+            final String sNS = aReader.getNamespaceURI ();
+            final String sLocalName = aReader.getLocalName ();
+            if (nDepth == 1)
+            {
+              eSoapVersion = ESoapVersion.getFromNamespaceURIOrNull (sNS);
+              if (eSoapVersion == null)
+                return null;
+            }
+            if (aBodyElement == null)
+            {
+              if (nDepth == 2 && eSoapVersion.getNamespaceURI ().equals (sNS) && eSoapVersion.getBodyElementName ().equals (sLocalName))
+              {
+                // All header elements are known - check if the Body or
+                // anything inside it is referenced
+                if (bHasEncryptedData)
+                  return null;
+                for (final String sURI : aReferencedURIs)
+                  if (!sURI.startsWith ("cid:") && !(sURI.startsWith ("#") && aHeaderIDs.contains (sURI.substring (1))))
+                  {
+                    if (LOGGER.isDebugEnabled ())
+                      LOGGER.debug ("SOAP Body may be referenced via '" + sURI + "' - reading the full DOM");
+                    return null;
+                  }
+              }
+              else
+              {
+                // Remember all IDs and references of the header
+                for (int i = 0; i < aReader.getAttributeCount (); ++i)
+                  if (_isIDAttribute (aReader, i))
+                    aHeaderIDs.add (aReader.getAttributeValue (i));
+                if (WSS4JConstants.SIG_NS.equals (sNS) && "Reference".equals (sLocalName))
+                  aReferencedURIs.add (StringHelper.getNotNull (aReader.getAttributeValue (null, "URI")));
+                if (WSS4JConstants.ENC_NS.equals (sNS) &&
+                    ("DataReference".equals (sLocalName) || "EncryptedData".equals (sLocalName)))
+                  bHasEncryptedData = true;
+              }
+            }
+
+            final Element aElement = _createElement (aDoc, aReader);
+            aCurNode.appendChild (aElement);
+
+            if (nDepth <= 2)
+            {
+              // Namespaces in scope of the SOAP Body payload
+              for (int i = 0; i < aReader.getNamespaceCount (); ++i)
+                aBodyNamespaces.put (StringHelper.getNotNull (aReader.getNamespacePrefix (i)),
+                                     StringHelper.getNotNull (aReader.getNamespaceURI (i)));
+              if (nDepth == 2 && eSoapVersion.getNamespaceURI ().equals (sNS) && eSoapVersion.getBodyElementName ().equals (sLocalName))
+                aBodyElement = aElement;
+              aCurNode = aElement;
+            }
+            else
+              if (nDepth == 3 && aBodyElement != null)
+              {
+                // The SOAP Body payload
+                if (aPayloadFile != null || WSS4JConstants.ENC_NS.equals (sNS))
+                {
+                  // More than one payload element or an encrypted payload
+                  return null;
+                }
+                aPayloadFile = aResHelper.createTempFile ();
+                aPayloadOS = FileHelper.getBufferedOutputStream (aPayloadFile);
+                if (aPayloadOS == null)
+                  throw new IOException ("Failed to open temporary file " + aPayloadFile.getAbsolutePath ());
+                aPayloadWriter = XML_OUTPUT_FACTORY.createXMLStreamWriter (aPayloadOS, StandardCharsets.UTF_8.name ());
+                aPayloadWriter.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+                _writeStartElement (aReader, aPayloadWriter, aBodyNamespaces);
+                // Don't descend - the element stays empty in the DOM
+              }
+              else
+                aCurNode = aElement;
+            break;
+          }
+          case XMLStreamConstants.END_ELEMENT:
+            nDepth--;
+            aCurNode = aCurNode.getParentNode ();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.SPACE:
+            // No text on document level
+            if (nDepth > 0)
+              aCurNode.appendChild (aDoc.createTextNode (aReader.getText ()));
+            break;
+          case XMLStreamConstants.CDATA:
+            aCurNode.appendChild (aDoc.createCDATASection (aReader.getText ()));
+            break;
+          case XMLStreamConstants.COMMENT:
+            aCurNode.appendChild (aDoc.createComment (aReader.getText ()));
+            break;
+          case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            aCurNode.appendChild (aDoc.createProcessingInstruction (aReader.getPITarget (), aReader.getPIData ()));
+            break;
+        }
+      }
+    }
+    finally
+    {
+      if (aPayloadWriter != null)
+        aPayloadWriter.close ();
+      StreamHelper.close (aPayloadOS);
+    }
+
+    if (aBodyElement != null && aPayloadFile != null)
+    {
+      final File aFinalPayloadFile = aPayloadFile;
+      aBodyElement.setUserData (USER_DATA_KEY_SPOOLED_PAYLOAD,
+                                HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aFinalPayloadFile)),
+                                null);
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Spooled SOAP Body payload with " + aFinalPayloadFile.length () + " bytes to temporary file");
+    }
+    return aDoc;
+  }
+
+  /**
+   * Read a plain SOAP document with bounded memory usage.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is read
+   *        until the end but not closed.
+   * @param nThreshold
+   *        The number of bytes up to which the document is read into memory
+   *        and parsed completely. Must be &gt; 0.
+   * @param aResHelper
+   *        The resource helper that manages the temporary files. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if the document could not be parsed.
+   * @throws IOException
+   *         In case of IO error
+   */
+  @Nullable
+  public static Document readSoapDocument (@Nonnull @WillNotClose final InputStream aIS,
+                                           @Nonnegative final long nThreshold,
+                                           @Nonnull final AS4ResourceHelper aResHelper) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+    ValueEnforcer.isGT0 (nThreshold, "Threshold");
+    ValueEnforcer.notNull (aResHelper, "ResHelper");
+
+    // Read up to the threshold into memory
+    final int nMaxInMemory = (int) Math.min (nThreshold, Integer.MAX_VALUE - 8);
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      StreamHelper.copyByteStream ().from (aIS).closeFrom (false).to (aBAOS).closeTo (false).limit (nMaxInMemory).build ();
+      final int nNextByte = aIS.read ();
+      if (nNextByte < 0)
+      {
+        // Small enough - parse as usual
+        return AS4XMLRuntime.readXMLDOM (new NonBlockingByteArrayInputStream (aBAOS.directGetBuffer (), 0, aBAOS.size ()));
+      }
+
+      // Spool everything to a temporary file
+      final File aFile = aResHelper.createTempFile ();
+      try (final OutputStream aOS = FileHelper.getBufferedOutputStream (aFile))
+      {
+        if (aOS == null)
+          throw new IOException ("Failed to open temporary file " + aFile.getAbsolutePath ());
+        aBAOS.writeTo (aOS);
+        aOS.write (nNextByte);
+        StreamHelper.copyByteStream ().from (aIS).closeFrom (false).to (aOS).closeTo (false).build ();
+      }
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Spooled plain SOAP request with " + aFile.length () + " bytes to temporary file");
+
+      try (final InputStream aFileIS = FileHelper.getBufferedInputStream (aFile))
+      {
+        final XMLStreamReader aReader = XML_INPUT_FACTORY.createXMLStreamReader (aFileIS);
+        try
+        {
+          final Document ret = _readWithSpooledPayload (aReader, aResHelper);
+          if (ret != null)
+            return ret;
+        }
+        finally
+        {
+          aReader.close ();
+        }
+      }
+      catch (final XMLStreamException ex)
+      {
+        // Let the full parsing handle the error
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug ("Failed to read SOAP document with spooled payload: " + ex.getMessage ());
+      }
+
+      // The full DOM is required
+      return AS4XMLRuntime.readXMLDOM (aFile);
+    }
+  }
+}
@@ -38,6 +38,7 @@ import com.helger.commons.collection.attr.AttributeContainerAny;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.ebms3header.Ebms3Messaging;
@@ -83,6 +84,7 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
   private static final String KEY_AS4_MESSAGE_TIMESTAMP = "phase4.message.timestamp";
   private static final String KEY_IS_PING_MESSAGE = "phase4.is.ping.message";
   private static final String KEY_SOAP_BODY_PAYLOAD_NODE = "phase4.soap.body.first.child";
+  private static final String KEY_SOAP_BODY_PAYLOAD_STREAM_PROVIDER = "phase4.soap.body.payload.stream.provider";
   private static final String KEY_SOEAP_HEADER_ELEMENT_PROCESSING_SUCCESSFUL = "phase4.soap.header.element.processing.successful";
 
   private final OffsetDateTime m_aReceiptDT;
@@ -399,6 +401,23 @@ public final class AS4MessageState extends AttributeContainerAny <String> implem
     putIn (KEY_SOAP_BODY_PAYLOAD_NODE, aPayloadNode);
   }
 
+  @Nullable
+  public IHasInputStream getSoapBodyPayloadStreamProvider ()
+  {
+    return getCastedValue (KEY_SOAP_BODY_PAYLOAD_STREAM_PROVIDER);
+  }
+
+  /**
+   * @param aPayloadStreamProvider
+   *        The provider for the spooled SOAP Body payload. May be
+   *        <code>null</code>.
+   * @since 1.3.2
+   */
+  public void setSoapBodyPayloadStreamProvider (@Nullable final IHasInputStream aPayloadStreamProvider)
+  {
+    putIn (KEY_SOAP_BODY_PAYLOAD_STREAM_PROVIDER, aPayloadStreamProvider);
+  }
+
   public boolean isSoapHeaderElementProcessingSuccessful ()
   {
     return getAsBoolean (KEY_SOEAP_HEADER_ELEMENT_PROCESSING_SUCCESSFUL, false);
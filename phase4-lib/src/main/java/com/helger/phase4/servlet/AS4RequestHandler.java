@@ -43,6 +43,7 @@ import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.equals.EqualsHelper;
 import com.helger.commons.http.CHttp;
 import com.helger.commons.http.HttpHeaderMap;
 import com.helger.commons.io.IHasInputStream;
@@ -51,14 +52,17 @@ import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.EMimeContentType;
 import com.helger.commons.mime.IMimeType;
+import com.helger.commons.state.EContinue;
 import com.helger.commons.state.ISuccessIndicator;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.wrapper.Wrapper;
 import com.helger.httpclient.response.ResponseHandlerXml;
 import com.helger.phase4.CAS4;
 import com.helger.phase4.attachment.AS4DecompressException;
 import com.helger.phase4.attachment.IAS4IncomingAttachmentFactory;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.client.IAS4RetryCallback;
+import com.helger.phase4.config.AS4Configuration;
 import com.helger.phase4.crypto.AS4CryptParams;
 import com.helger.phase4.crypto.AS4SigningParams;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
@@ -76,6 +80,7 @@ import com.helger.phase4.ebms3header.Ebms3SignalMessage;
 import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.http.AS4HttpDebug;
+import com.helger.phase4.http.AS4PooledHttpClient;
 import com.helger.phase4.http.BasicHttpPoster;
 import com.helger.phase4.http.HttpMimeMessageEntity;
 import com.helger.phase4.http.HttpRetrySettings;
@@ -345,6 +350,50 @@ public class AS4RequestHandler implements AutoCloseable
     }
   }
 
+  /**
+   * A PMode resolver that returns the PMode resolved during the pre-scan, if
+   * the full processing asks for exactly the same parameters. Otherwise the
+   * original resolver is invoked.
+   */
+  private static final class PreScanPModeResolver implements IPModeResolver
+  {
+    private final IPModeResolver m_aDelegate;
+    private final AS4IncomingPreScanResult m_aPreScanResult;
+    private final String m_sAddress;
+    private final IPMode m_aPMode;
+
+    PreScanPModeResolver (@Nonnull final IPModeResolver aDelegate,
+                          @Nonnull final AS4IncomingPreScanResult aPreScanResult,
+                          @Nullable final String sAddress,
+                          @Nonnull final IPMode aPMode)
+    {
+      m_aDelegate = aDelegate;
+      m_aPreScanResult = aPreScanResult;
+      m_sAddress = sAddress;
+      m_aPMode = aPMode;
+    }
+
+    @Nullable
+    public IPMode getPModeOfID (@Nullable final String sPModeID,
+                                @Nonnull final String sService,
+                                @Nonnull final String sAction,
+                                @Nonnull @Nonempty final String sInitiatorID,
+                                @Nonnull @Nonempty final String sResponderID,
+                                @Nullable final String sAgreementRef,
+                                @Nullable final String sAddress)
+    {
+      if (EqualsHelper.equals (sPModeID, m_aPreScanResult.getPModeID ()) &&
+          EqualsHelper.equals (sService, m_aPreScanResult.getService ()) &&
+          EqualsHelper.equals (sAction, m_aPreScanResult.getAction ()) &&
+          EqualsHelper.equals (sInitiatorID, m_aPreScanResult.getAllFromPartyIDs ().getFirst ()) &&
+          EqualsHelper.equals (sResponderID, m_aPreScanResult.getAllToPartyIDs ().getFirst ()) &&
+          EqualsHelper.equals (sAgreementRef, m_aPreScanResult.getAgreementRef ()) &&
+          EqualsHelper.equals (sAddress, m_sAddress))
+        return m_aPMode;
+      return m_aDelegate.getPModeOfID (sPModeID, sService, sAction, sInitiatorID, sResponderID, sAgreementRef, sAddress);
+    }
+  }
+
   public static final IMimeType MT_MULTIPART_RELATED = EMimeContentType.MULTIPART.buildMimeType ("related");
   private static final Logger LOGGER = LoggerFactory.getLogger (AS4RequestHandler.class);
 
@@ -358,6 +407,7 @@ public class AS4RequestHandler implements AutoCloseable
   private IAS4IncomingDumper m_aIncomingDumper;
   private IAS4OutgoingDumper m_aOutgoingDumper;
   private IAS4RetryCallback m_aRetryCallback;
+  private AS4PooledHttpClient m_aPooledHttpClient;
   private ISoapProcessingFinalizedCallback m_aSoapProcessingFinalizedCB;
 
   /** By default get all message processors from the global SPI registry */
@@ -518,6 +568,35 @@ public class AS4RequestHandler implements AutoCloseable
     return this;
   }
 
+  /**
+   * @return The pooled HTTP client for asynchronous responses. May be
+   *         <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final AS4PooledHttpClient getPooledHttpClient ()
+  {
+    return m_aPooledHttpClient;
+  }
+
+  /**
+   * Set the pooled HTTP client to be used for sending asynchronous responses.
+   * If none is set, a new HTTP client is created for every asynchronous
+   * response.
+   *
+   * @param aPooledHttpClient
+   *        The pooled HTTP client. May be <code>null</code>. It is not closed
+   *        by this handler.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final AS4RequestHandler setPooledHttpClient (@Nullable final AS4PooledHttpClient aPooledHttpClient)
+  {
+    m_aPooledHttpClient = aPooledHttpClient;
+    return this;
+  }
+
   /**
    * @return The supplier used to get all SPIs. By default this is
    *         {@link AS4ServletMessageProcessorManager#getAllProcessors()}.
@@ -1239,11 +1318,12 @@ public class AS4RequestHandler implements AutoCloseable
                                                   @Nonnull final Document aSoapDocument,
                                                   @Nonnull final ESoapVersion eSoapVersion,
                                                   @Nonnull final ICommonsList <WSS4JAttachment> aIncomingAttachments,
+                                                  @Nonnull final IPModeResolver aPModeResolver,
                                                   @Nonnull final ICommonsList <Ebms3Error> aErrorMessagesTarget) throws WSSecurityException,
                                                                                                                  MessagingException,
                                                                                                                  Phase4Exception
   {
-    final SOAPHeaderElementProcessorRegistry aRegistry = SOAPHeaderElementProcessorRegistry.createDefault (m_aPModeResolver,
+    final SOAPHeaderElementProcessorRegistry aRegistry = SOAPHeaderElementProcessorRegistry.createDefault (aPModeResolver,
                                                                                                            m_aCryptoFactory,
                                                                                                            (IPMode) null);
     final IAS4MessageState aState = AS4IncomingHandler.processEbmsMessage (m_aResHelper,
@@ -1422,6 +1502,8 @@ public class AS4RequestHandler implements AutoCloseable
 
           // invoke client with new document
           final BasicHttpPoster aSender = new BasicHttpPoster ();
+          if (m_aPooledHttpClient != null)
+            aSender.setHttpClientFactory (m_aPooledHttpClient.getHttpClientFactory ()).setPooledHttpClient (m_aPooledHttpClient);
           final Document aAsyncResponse;
           if (true)
           {
@@ -1607,6 +1689,132 @@ public class AS4RequestHandler implements AutoCloseable
     return ret;
   }
 
+  /**
+   * Handle the result of the streaming pre-scan of an incoming message. Cheap
+   * rejections of duplicate messages and of user messages without a matching
+   * PMode happen here, before the SOAP document is parsed into a DOM and before
+   * the signature is verified.<br>
+   * Note: all values of the pre-scan result are taken from the unverified
+   * message header. Only cheap rejections are based on them.
+   *
+   * @param aPreScanResult
+   *        The pre-scan result. May not be <code>null</code>.
+   * @param aHttpResponse
+   *        The HTTP response to be filled. May not be <code>null</code>.
+   * @param aPModeResolverHolder
+   *        The holder for the PMode resolver to be used by the full
+   *        processing. If a PMode was resolved, it is replaced by a resolver
+   *        reusing that PMode. May not be <code>null</code>.
+   * @return {@link EContinue#BREAK} if the message was rejected.
+   */
+  @Nonnull
+  private EContinue _handlePreScan (@Nonnull final AS4IncomingPreScanResult aPreScanResult,
+                                    @Nonnull final IAS4ResponseAbstraction aHttpResponse,
+                                    @Nonnull final Wrapper <IPModeResolver> aPModeResolverHolder)
+  {
+    final ESoapVersion eSoapVersion = aPreScanResult.getSoapVersion ();
+    final String sMessageID = aPreScanResult.getMessageID ();
+
+    final String sAddress = AS4Configuration.getThisEndpointAddress ();
+    IPMode aPMode = null;
+    if (aPreScanResult.isPModeResolvable ())
+    {
+      try
+      {
+        aPMode = m_aPModeResolver.getPModeOfID (aPreScanResult.getPModeID (),
+                                                aPreScanResult.getService (),
+                                                aPreScanResult.getAction (),
+                                                aPreScanResult.getAllFromPartyIDs ().getFirst (),
+                                                aPreScanResult.getAllToPartyIDs ().getFirst (),
+                                                aPreScanResult.getAgreementRef (),
+                                                sAddress);
+      }
+      catch (final RuntimeException ex)
+      {
+        // Leave it to the full processing to report the problem
+        LOGGER.warn ("Failed to resolve PMode in pre-scan - continuing with full processing: " + ex.getMessage ());
+        return EContinue.CONTINUE;
+      }
+    }
+
+    final ICommonsList <Ebms3Error> aErrorMessages = new CommonsArrayList <> ();
+    if (aPreScanResult.hasMessageID () && MetaAS4Manager.getIncomingDuplicateMgr ().getItemOfMessageID (sMessageID) != null)
+    {
+      LOGGER.error ("Rejecting message with Message ID '" + sMessageID + "' in pre-scan, because it was already handled!");
+      aErrorMessages.add (EEbmsError.EBMS_OTHER.getAsEbms3Error (m_aLocale,
+                                                                 sMessageID,
+                                                                 "Another message with the same Message ID '" +
+                                                                             sMessageID +
+                                                                             "' was already received!"));
+    }
+    else
+      if (aPreScanResult.isPModeResolvable () && aPMode == null)
+      {
+        LOGGER.error ("Rejecting message with Message ID '" +
+                      sMessageID +
+                      "' in pre-scan, because PMode '" +
+                      aPreScanResult.getPModeID () +
+                      "' could not be resolved using resolver " +
+                      m_aPModeResolver);
+        aErrorMessages.add (EEbmsError.EBMS_PROCESSING_MODE_MISMATCH.getAsEbms3Error (m_aLocale, sMessageID));
+      }
+
+    if (aErrorMessages.isEmpty ())
+    {
+      // Don't resolve the same PMode again in the full processing
+      if (aPMode != null)
+        aPModeResolverHolder.set (new PreScanPModeResolver (m_aPModeResolver, aPreScanResult, sAddress, aPMode));
+      return EContinue.CONTINUE;
+    }
+
+    final AS4MessageState aState = new AS4MessageState (eSoapVersion, m_aResHelper, m_aLocale);
+    aState.setMessageID (sMessageID);
+    aState.setPMode (aPMode);
+
+    final AS4ErrorMessage aResponseErrorMsg = AS4ErrorMessage.create (eSoapVersion, sMessageID, aErrorMessages);
+
+    // Call optional consumer
+    if (m_aErrorConsumer != null)
+      m_aErrorConsumer.onAS4ErrorMessage (aState, aErrorMessages, aResponseErrorMsg);
+
+    PModeLeg aEffectiveLeg = null;
+    if (aPMode != null)
+      aEffectiveLeg = aPreScanResult.isUseLeg1 () ? aPMode.getLeg1 () : aPMode.getLeg2 ();
+
+    final String sResponseMessageID;
+    final IAS4ResponseFactory aResponder;
+    if (_isSendErrorAsResponse (aEffectiveLeg))
+    {
+      sResponseMessageID = aResponseErrorMsg.getEbms3SignalMessage ().getMessageInfo ().getMessageId ();
+      aResponder = new AS4ResponseFactoryXML (m_aMessageMetadata,
+                                              aState,
+                                              sResponseMessageID,
+                                              aResponseErrorMsg.getAsSoapDocument (),
+                                              eSoapVersion.getMimeType ());
+    }
+    else
+    {
+      LOGGER.warn ("Not sending back the error, because sending error response is prohibited in PMode");
+      sResponseMessageID = null;
+      aResponder = null;
+    }
+
+    _invokeSPIsForResponse (aState, aResponder, null, eSoapVersion.getMimeType (), sResponseMessageID);
+
+    if (aResponder != null)
+    {
+      final IAS4OutgoingDumper aRealOutgoingDumper = m_aOutgoingDumper != null ? m_aOutgoingDumper : AS4DumpManager.getOutgoingDumper ();
+      aResponder.applyToResponse (aHttpResponse, aRealOutgoingDumper);
+    }
+    else
+    {
+      // HTTP No Content
+      aHttpResponse.setStatus (CHttp.HTTP_NO_CONTENT);
+    }
+    AS4HttpDebug.debug ( () -> "RECEIVE-END after pre-scan with " + (aResponder != null ? "EBMS message" : "no content"));
+    return EContinue.BREAK;
+  }
+
   /**
    * This is the main handling routine when called from an abstract
    * (non-Servlet) API
@@ -1636,6 +1844,8 @@ public class AS4RequestHandler implements AutoCloseable
                                                                                    MessagingException,
                                                                                    WSSecurityException
   {
+    // The pre-scan may provide an already resolved PMode
+    final Wrapper <IPModeResolver> aPModeResolverHolder = new Wrapper <> (m_aPModeResolver);
     final IAS4ParsedMessageCallback aCallback = (aHttpHeaders, aSoapDocument, eSoapVersion, aIncomingAttachments) -> {
       // SOAP document and SOAP version are determined
       // Collect all runtime errors
@@ -1644,6 +1854,7 @@ public class AS4RequestHandler implements AutoCloseable
                                                                  aSoapDocument,
                                                                  eSoapVersion,
                                                                  aIncomingAttachments,
+                                                                 aPModeResolverHolder.get (),
                                                                  aErrorMessages);
       if (aResponder != null)
       {
@@ -1664,7 +1875,10 @@ public class AS4RequestHandler implements AutoCloseable
                                         aServletRequestIS,
                                         aRequestHttpHeaders,
                                         aCallback,
-                                        m_aIncomingDumper);
+                                        m_aIncomingDumper,
+                                        (aHttpHeaders, aPreScanResult) -> _handlePreScan (aPreScanResult,
+                                                                                          aHttpResponse,
+                                                                                          aPModeResolverHolder));
   }
 
   /**
@@ -31,6 +31,7 @@ import org.w3c.dom.Node;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.datetime.XMLOffsetDateTime;
+import com.helger.commons.io.IHasInputStream;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.attachment.EAS4CompressionMode;
 import com.helger.phase4.attachment.WSS4JAttachment;
@@ -441,6 +442,29 @@ public interface IAS4MessageState
   @Nullable
   Node getSoapBodyPayloadNode ();
 
+  /**
+   * @return The provider for the complete SOAP Body payload, if it was spooled
+   *         to a temporary file because of its size. In that case
+   *         {@link #getSoapBodyPayloadNode()} only returns an empty element
+   *         with the name and the attributes of the payload element. May be
+   *         <code>null</code>.
+   * @see AS4IncomingSoapBodySpooler
+   * @since 1.3.2
+   */
+  @Nullable
+  IHasInputStream getSoapBodyPayloadStreamProvider ();
+
+  /**
+   * @return <code>true</code> if the SOAP Body payload was spooled,
+   *         <code>false</code> if not.
+   * @see #getSoapBodyPayloadStreamProvider()
+   * @since 1.3.2
+   */
+  default boolean hasSoapBodyPayloadStreamProvider ()
+  {
+    return getSoapBodyPayloadStreamProvider () != null;
+  }
+
   /**
    * @return <code>true</code> if SOAP header element processing was successful,
    *         <code>false</code> if not. If not, than many other values are also
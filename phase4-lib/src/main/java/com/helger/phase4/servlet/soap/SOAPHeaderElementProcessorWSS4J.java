@@ -16,13 +16,12 @@
  */
 package com.helger.phase4.servlet.soap;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,15 +45,15 @@ import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.error.list.ErrorList;
-import com.helger.commons.io.file.FileHelper;
-import com.helger.commons.io.stream.HasInputStream;
-import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.string.StringHelper;
 import com.helger.phase4.CAS4;
+import com.helger.phase4.attachment.AS4IncomingAttachmentStorage;
+import com.helger.phase4.attachment.IAS4IncomingAttachmentStorage;
 import com.helger.phase4.attachment.WSS4JAttachment;
 import com.helger.phase4.attachment.WSS4JAttachmentCallbackHandler;
 import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.AS4TrustValidationCachingCrypto;
 import com.helger.phase4.crypto.ECryptoAlgorithmSign;
 import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
 import com.helger.phase4.crypto.IAS4CryptoFactory;
@@ -63,6 +62,7 @@ import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.model.pmode.IPMode;
 import com.helger.phase4.model.pmode.leg.PModeLeg;
 import com.helger.phase4.servlet.AS4MessageState;
+import com.helger.phase4.wss.WSSConcurrentSecurity;
 import com.helger.phase4.wss.WSSConfigManager;
 import com.helger.phase4.wss.WSSSynchronizer;
 import com.helger.xml.XMLHelper;
@@ -90,12 +90,20 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
     m_aFallbackPMode = aFallbackPMode;
   }
 
+  @Nonnull
+  private static WSSecurityEngine _createSecurityEngine (@Nonnull final WSSConfig aWSSConfig)
+  {
+    final WSSecurityEngine ret = new WSSecurityEngine ();
+    ret.setWssConfig (aWSSConfig);
+    return ret;
+  }
+
   @Nonnull
   private ESuccess _verifyAndDecrypt (@Nonnull final Document aSOAPDoc,
                                       @Nonnull final ICommonsList <WSS4JAttachment> aAttachments,
                                       @Nonnull final AS4MessageState aState,
                                       @Nonnull final ErrorList aErrorList,
-                                      @Nonnull final Supplier <WSSConfig> aWSSConfigSupplier)
+                                      @Nonnull final WSSecurityEngine aSecurityEngine)
   {
     // Default is Leg 1, gets overwritten when a reference to a message id
     // exists and then uses leg2
@@ -109,22 +117,18 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       final WSS4JAttachmentCallbackHandler aAttachmentCallbackHandler = new WSS4JAttachmentCallbackHandler (aAttachments,
                                                                                                             aState.getResourceHelper ());
 
-      // Resolve the WSS config here to ensure the context matches
-      final WSSConfig aWSSConfig = aWSSConfigSupplier.get ();
-
       // Configure RequestData needed for the check / decrypt process!
       final RequestData aRequestData = new RequestData ();
       aRequestData.setCallbackHandler (aKeyStoreCallback);
       if (aAttachments.isNotEmpty ())
         aRequestData.setAttachmentCallbackHandler (aAttachmentCallbackHandler);
-      aRequestData.setSigVerCrypto (m_aCryptoFactory.getCrypto ());
+      // Trust validations of the signing certificates are cached
+      aRequestData.setSigVerCrypto (AS4TrustValidationCachingCrypto.getWrappedFromConfiguration (m_aCryptoFactory.getCrypto ()));
       aRequestData.setDecCrypto (m_aCryptoFactory.getCrypto ());
-      aRequestData.setWssConfig (aWSSConfig);
+      aRequestData.setWssConfig (aSecurityEngine.getWssConfig ());
 
       // Upon success, the SOAP document contains the decrypted content
       // afterwards!
-      final WSSecurityEngine aSecurityEngine = new WSSecurityEngine ();
-      aSecurityEngine.setWssConfig (aWSSConfig);
       final WSHandlerResult aHdlRes = aSecurityEngine.processSecurityHeader (aSOAPDoc, aRequestData);
       final List <WSSecurityEngineResult> aResults = aHdlRes.getResults ();
 
@@ -178,15 +182,17 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
 
       // Decrypting the Attachments
       final ICommonsList <WSS4JAttachment> aResponseAttachments = aAttachmentCallbackHandler.getAllResponseAttachments ();
-      for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
+      if (aResponseAttachments.isNotEmpty ())
       {
-        // Always copy to a temporary file, so that decrypted content can be
-        // read more than once. By default the stream can only be read once
-        // Not nice, but working :)
-        final File aTempFile = aState.getResourceHelper ().createTempFile ();
-        StreamHelper.copyInputStreamToOutputStreamAndCloseOS (aResponseAttachment.getSourceStream (),
-                                                              FileHelper.getBufferedOutputStream (aTempFile));
-        aResponseAttachment.setSourceStreamProvider (HasInputStream.multiple ( () -> FileHelper.getBufferedInputStream (aTempFile)));
+        // The decrypted stream can only be read once. Store it exactly once,
+        // so that small attachments stay in memory and large ones are
+        // written directly into their final temporary file
+        final IAS4IncomingAttachmentStorage aStorage = AS4IncomingAttachmentStorage.createFromConfiguration ();
+        for (final WSS4JAttachment aResponseAttachment : aResponseAttachments)
+          try (final InputStream aDecryptedIS = aResponseAttachment.getSourceStream ())
+          {
+            aResponseAttachment.setSourceStreamProvider (aStorage.store (aDecryptedIS, aState.getResourceHelper ()));
+          }
       }
 
       // Remember in State
@@ -398,17 +404,32 @@ public class SOAPHeaderElementProcessorWSS4J implements ISOAPHeaderElementProces
       if (AS4Configuration.isWSS4JSynchronizedSecurity ())
       {
         // Use static WSSConfig creation
+        // Resolve the WSS config inside the lock to ensure the context matches
         eSuccess = WSSSynchronizer.call ( () -> _verifyAndDecrypt (aSOAPDoc,
                                                                    aAttachments,
                                                                    aState,
                                                                    aErrorList,
-                                                                   WSSConfigManager::createStaticWSSConfig));
+                                                                   _createSecurityEngine (WSSConfigManager.createStaticWSSConfig ())));
       }
       else
-      {
-        // Use instance WSSConfig creation
-        eSuccess = _verifyAndDecrypt (aSOAPDoc, aAttachments, aState, aErrorList, WSSConfigManager.getInstance ()::createWSSConfig);
-      }
+        if (AS4Configuration.isWSS4JConcurrentSecurity ())
+        {
+          // Use a pooled, pre-initialized engine without a lock
+          eSuccess = WSSConcurrentSecurity.callWithSecurityEngine (aEngine -> _verifyAndDecrypt (aSOAPDoc,
+                                                                                                 aAttachments,
+                                                                                                 aState,
+                                                                                                 aErrorList,
+                                                                                                 aEngine));
+        }
+        else
+        {
+          // Use instance WSSConfig creation
+          eSuccess = _verifyAndDecrypt (aSOAPDoc,
+                                        aAttachments,
+                                        aState,
+                                        aErrorList,
+                                        _createSecurityEngine (WSSConfigManager.getInstance ().createWSSConfig ()));
+        }
       if (eSuccess.isFailure ())
         return ESuccess.FAILURE;
     }
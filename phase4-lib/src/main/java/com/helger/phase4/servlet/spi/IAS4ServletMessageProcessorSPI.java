@@ -58,7 +58,10 @@ public interface IAS4ServletMessageProcessorSPI extends Serializable
    *        Extracted, decrypted and verified payload node (e.g. SBDH). May be
    *        <code>null</code>. May also be <code>null</code> if a MIME message
    *        comes in - in that case the SOAP body MUST be empty and the main
-   *        payload can be found in aIncomingAttachments[0].
+   *        payload can be found in aIncomingAttachments[0]. If the payload
+   *        was spooled because of its size, this is only an empty element and
+   *        the content must be read via
+   *        {@link IAS4MessageState#getSoapBodyPayloadStreamProvider()}.
    * @param aIncomingAttachments
    *        Extracted, decrypted and verified attachments. May be
    *        <code>null</code> or empty if no attachments are present.
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A simple pool of direct {@link ByteBuffer} objects of a fixed chunk size.
+ * Allocating direct buffers is expensive, so released buffers are kept for
+ * reuse, up to a configurable maximum number of chunks. Additionally the total
+ * number of chunks that are in use or pooled is limited, so that the direct
+ * memory usage is bounded.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4DirectByteBufferPool
+{
+  public static final int DEFAULT_CHUNK_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private final int m_nChunkSize;
+  private final int m_nMaxPooledChunks;
+  private final int m_nMaxAllocatedChunks;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsList <ByteBuffer> m_aPool = new CommonsArrayList <> ();
+  @GuardedBy ("m_aLock")
+  private int m_nAllocatedChunks = 0;
+
+  /**
+   * Constructor without a limit of the allocated chunks.
+   *
+   * @param nChunkSize
+   *        The size of each buffer in bytes. Must be &gt; 0.
+   * @param nMaxPooledChunks
+   *        The maximum number of released buffers that are kept for reuse. Must
+   *        be &ge; 0.
+   */
+  public AS4DirectByteBufferPool (@Nonnegative final int nChunkSize, @Nonnegative final int nMaxPooledChunks)
+  {
+    this (nChunkSize, nMaxPooledChunks, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nChunkSize
+   *        The size of each buffer in bytes. Must be &gt; 0.
+   * @param nMaxPooledChunks
+   *        The maximum number of released buffers that are kept for reuse. Must
+   *        be &ge; 0.
+   * @param nMaxAllocatedChunks
+   *        The maximum number of buffers that are in use or pooled at the same
+   *        time. Must be &ge; 0.
+   */
+  public AS4DirectByteBufferPool (@Nonnegative final int nChunkSize,
+                                  @Nonnegative final int nMaxPooledChunks,
+                                  @Nonnegative final int nMaxAllocatedChunks)
+  {
+    ValueEnforcer.isGT0 (nChunkSize, "ChunkSize");
+    ValueEnforcer.isGE0 (nMaxPooledChunks, "MaxPooledChunks");
+    ValueEnforcer.isGE0 (nMaxAllocatedChunks, "MaxAllocatedChunks");
+    m_nChunkSize = nChunkSize;
+    m_nMaxPooledChunks = nMaxPooledChunks;
+    m_nMaxAllocatedChunks = nMaxAllocatedChunks;
+  }
+
+  /**
+   * @return The size of each buffer in bytes. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getChunkSize ()
+  {
+    return m_nChunkSize;
+  }
+
+  /**
+   * @return The maximum number of released buffers that are kept for reuse.
+   *         Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMaxPooledChunks ()
+  {
+    return m_nMaxPooledChunks;
+  }
+
+  /**
+   * @return The maximum number of buffers that are in use or pooled at the
+   *         same time. Always &ge; 0.
+   */
+  @Nonnegative
+  public final int getMaxAllocatedChunks ()
+  {
+    return m_nMaxAllocatedChunks;
+  }
+
+  /**
+   * @return The number of buffers currently in use or pooled. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getAllocatedChunkCount ()
+  {
+    return m_aLock.lockedInt ( () -> m_nAllocatedChunks);
+  }
+
+  /**
+   * @return The number of buffers currently available for reuse. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  public int getPooledChunkCount ()
+  {
+    return m_aLock.lockedInt (m_aPool::size);
+  }
+
+  /**
+   * Get a cleared buffer from the pool or allocate a new one.
+   *
+   * @return A direct buffer with a capacity of {@link #getChunkSize()}, or
+   *         <code>null</code> if no buffer is pooled and the maximum number of
+   *         allocated buffers is reached.
+   */
+  @Nullable
+  public ByteBuffer acquire ()
+  {
+    final ByteBuffer ret = m_aLock.lockedGet ( () -> {
+      if (m_aPool.isNotEmpty ())
+        return m_aPool.removeLast ();
+      if (m_nAllocatedChunks >= m_nMaxAllocatedChunks)
+        return null;
+      final ByteBuffer aNew = ByteBuffer.allocateDirect (m_nChunkSize);
+      m_nAllocatedChunks++;
+      return aNew;
+    });
+    if (ret != null)
+      ret.clear ();
+    return ret;
+  }
+
+  private static boolean _isChunk (@Nonnull final ByteBuffer aBuffer, final int nChunkSize)
+  {
+    return aBuffer.isDirect () && aBuffer.capacity () == nChunkSize;
+  }
+
+  /**
+   * Return a buffer acquired from this pool. If the maximum pool size is
+   * exceeded, the buffer is left to the garbage collector. The buffer may not
+   * be used by the caller afterwards.
+   *
+   * @param aBuffer
+   *        The buffer to be released. May not be <code>null</code>.
+   * @see #discard(ByteBuffer)
+   */
+  public void release (@Nonnull final ByteBuffer aBuffer)
+  {
+    ValueEnforcer.notNull (aBuffer, "Buffer");
+    if (_isChunk (aBuffer, m_nChunkSize))
+      m_aLock.locked ( () -> {
+        if (m_aPool.size () < m_nMaxPooledChunks)
+          m_aPool.add (aBuffer);
+        else
+          m_nAllocatedChunks--;
+      });
+  }
+
+  /**
+   * Hand over a buffer acquired from this pool to the garbage collector,
+   * because it may still be referenced elsewhere. It is no longer counted as
+   * allocated.
+   *
+   * @param aBuffer
+   *        The buffer to be discarded. May not be <code>null</code>.
+   * @see #release(ByteBuffer)
+   */
+  public void discard (@Nonnull final ByteBuffer aBuffer)
+  {
+    ValueEnforcer.notNull (aBuffer, "Buffer");
+    if (_isChunk (aBuffer, m_nChunkSize))
+      m_aLock.locked ( () -> m_nAllocatedChunks--);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ChunkSize", m_nChunkSize)
+                                       .append ("MaxPooledChunks", m_nMaxPooledChunks)
+                                       .append ("MaxAllocatedChunks", m_nMaxAllocatedChunks)
+                                       .getToString ();
+  }
+}
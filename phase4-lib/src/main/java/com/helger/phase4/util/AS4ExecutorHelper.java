@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.BasicThreadFactory;
+
+/**
+ * Helper class to create the executors used for background work inside of
+ * phase4.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@Immutable
+public final class AS4ExecutorHelper
+{
+  /** The time after which idle threads are stopped */
+  public static final long KEEP_ALIVE_SECONDS = 60;
+
+  private AS4ExecutorHelper ()
+  {}
+
+  /**
+   * Create a new executor with a bounded number of daemon threads and a
+   * bounded queue. Idle threads are stopped after
+   * {@value #KEEP_ALIVE_SECONDS} seconds.
+   *
+   * @param sNamingPattern
+   *        The thread naming pattern, containing a "%d" placeholder. May
+   *        neither be <code>null</code> nor empty.
+   * @param nMaxThreads
+   *        The maximum number of threads. Must be &gt; 0.
+   * @param nQueueSize
+   *        The maximum number of tasks waiting for a thread. Must be &gt; 0.
+   * @param aRejectedHandler
+   *        The handler to be invoked, if all threads are busy and the queue is
+   *        full. May not be <code>null</code>.
+   * @return A new executor. Never <code>null</code>.
+   */
+  @Nonnull
+  public static ThreadPoolExecutor createBoundedExecutor (@Nonnull @Nonempty final String sNamingPattern,
+                                                          @Nonnegative final int nMaxThreads,
+                                                          @Nonnegative final int nQueueSize,
+                                                          @Nonnull final RejectedExecutionHandler aRejectedHandler)
+  {
+    ValueEnforcer.notEmpty (sNamingPattern, "NamingPattern");
+    ValueEnforcer.isGT0 (nMaxThreads, "MaxThreads");
+    ValueEnforcer.isGT0 (nQueueSize, "QueueSize");
+    ValueEnforcer.notNull (aRejectedHandler, "RejectedHandler");
+
+    final ThreadPoolExecutor ret = new ThreadPoolExecutor (nMaxThreads,
+                                                           nMaxThreads,
+                                                           KEEP_ALIVE_SECONDS,
+                                                           TimeUnit.SECONDS,
+                                                           new ArrayBlockingQueue <> (nQueueSize),
+                                                           new BasicThreadFactory.Builder ().namingPattern (sNamingPattern)
+                                                                                            .daemon (true)
+                                                                                            .build (),
+                                                           aRejectedHandler);
+    // Don't keep idle threads forever
+    ret.allowCoreThreadTimeOut (true);
+    return ret;
+  }
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.map.LRUMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A bounded cache with a time to live per entry. This is the common base of
+ * the lookup caches inside of phase4.
+ * <ul>
+ * <li>If more than the maximum number of entries are cached, the least
+ * recently used ones are removed</li>
+ * <li>The TTL is determined per loaded value - values with a TTL of zero are
+ * not cached</li>
+ * <li>Concurrent loads of the same key are performed only once - all other
+ * callers wait for the result</li>
+ * <li>Optionally, values older than the refresh interval are still returned,
+ * but loaded again asynchronously</li>
+ * <li>Loads that fail with an exception are never cached</li>
+ * <li>Values loaded before the last call to {@link #clearCache()} are never
+ * cached</li>
+ * </ul>
+ *
+ * @author Philip Helger
+ * @param <K>
+ *        The key type. Must implement equals and hashCode.
+ * @param <V>
+ *        The value type
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class AS4ExpiringCache <K, V>
+{
+  /** A TTL for values that never expire */
+  public static final Duration TTL_UNLIMITED = ChronoUnit.FOREVER.getDuration ();
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (AS4ExpiringCache.class);
+
+  /**
+   * The callback loading a value that is not cached.
+   *
+   * @param <V>
+   *        The value type
+   * @param <EX>
+   *        The exception type that may be thrown
+   */
+  @FunctionalInterface
+  public interface ILoader <V, EX extends Exception>
+  {
+    /**
+     * @return The loaded value. May be <code>null</code>.
+     * @throws EX
+     *         If loading failed
+     */
+    @Nullable
+    V load () throws EX;
+  }
+
+  private static final class Entry <V>
+  {
+    private final V m_aValue;
+    private final long m_nCreationNanos;
+    private final long m_nTTLNanos;
+    private final AtomicBoolean m_aRefreshing = new AtomicBoolean (false);
+
+    Entry (@Nullable final V aValue, final long nCreationNanos, final long nTTLNanos)
+    {
+      m_aValue = aValue;
+      m_nCreationNanos = nCreationNanos;
+      m_nTTLNanos = nTTLNanos;
+    }
+
+    long getAgeNanos (final long nNowNanos)
+    {
+      return nNowNanos - m_nCreationNanos;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final Duration m_aRefreshAfter;
+  private final Executor m_aRefreshExecutor;
+  private final LongSupplier m_aNanoTimeProvider;
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final LRUMap <K, Entry <V>> m_aMap;
+  @GuardedBy ("m_aLock")
+  private long m_nGeneration;
+  private final ConcurrentHashMap <K, CompletableFuture <V>> m_aInFlight = new ConcurrentHashMap <> ();
+
+  private final LongAdder m_aHits = new LongAdder ();
+  private final LongAdder m_aMisses = new LongAdder ();
+  private final LongAdder m_aJoined = new LongAdder ();
+  private final LongAdder m_aRefreshes = new LongAdder ();
+
+  /**
+   * Constructor for a cache without asynchronous refreshing.
+   *
+   * @param nMaxSize
+   *        The maximum number of cached values. Must be &gt; 0.
+   * @param aNanoTimeProvider
+   *        The provider of the current time in nanoseconds, usually
+   *        <code>System::nanoTime</code>. May not be <code>null</code>.
+   */
+  public AS4ExpiringCache (@Nonnegative final int nMaxSize, @Nonnull final LongSupplier aNanoTimeProvider)
+  {
+    this (nMaxSize, null, null, aNanoTimeProvider);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached values. Must be &gt; 0.
+   * @param aRefreshAfter
+   *        The age from which on a cached value is loaded again
+   *        asynchronously. May be <code>null</code> to disable refreshing. If
+   *        not <code>null</code> it may not be negative.
+   * @param aRefreshExecutor
+   *        The executor to perform the asynchronous refreshes on. May only be
+   *        <code>null</code> if the refresh interval is <code>null</code>.
+   * @param aNanoTimeProvider
+   *        The provider of the current time in nanoseconds, usually
+   *        <code>System::nanoTime</code>. May not be <code>null</code>.
+   */
+  public AS4ExpiringCache (@Nonnegative final int nMaxSize,
+                           @Nullable final Duration aRefreshAfter,
+                           @Nullable final Executor aRefreshExecutor,
+                           @Nonnull final LongSupplier aNanoTimeProvider)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    if (aRefreshAfter != null)
+    {
+      ValueEnforcer.isFalse (aRefreshAfter.isNegative (), "RefreshAfter may not be negative");
+      ValueEnforcer.notNull (aRefreshExecutor, "RefreshExecutor");
+    }
+    ValueEnforcer.notNull (aNanoTimeProvider, "NanoTimeProvider");
+    m_nMaxSize = nMaxSize;
+    m_aRefreshAfter = aRefreshAfter;
+    m_aRefreshExecutor = aRefreshExecutor;
+    m_aNanoTimeProvider = aNanoTimeProvider;
+    m_aMap = new LRUMap <> (nMaxSize);
+  }
+
+  /**
+   * @return The maximum number of cached values. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return The age from which on a cached value is loaded again
+   *         asynchronously. May be <code>null</code> if refreshing is
+   *         disabled.
+   */
+  @Nullable
+  public final Duration getRefreshAfter ()
+  {
+    return m_aRefreshAfter;
+  }
+
+  private static long _getNanos (@Nonnull final Duration aDuration)
+  {
+    try
+    {
+      return aDuration.toNanos ();
+    }
+    catch (final ArithmeticException ex)
+    {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private void _put (@Nonnull final K aKey,
+                     @Nullable final V aValue,
+                     @Nonnull final Function <? super V, Duration> aTTLProvider,
+                     final long nGeneration)
+  {
+    final Duration aTTL = ValueEnforcer.notNull (aTTLProvider.apply (aValue), "TTL");
+    final long nTTLNanos = aTTL.isNegative () ? 0 : _getNanos (aTTL);
+    final Entry <V> aEntry = new Entry <> (aValue, m_aNanoTimeProvider.getAsLong (), nTTLNanos);
+    m_aLock.locked ( () -> {
+      if (nGeneration == m_nGeneration)
+      {
+        if (nTTLNanos > 0)
+          m_aMap.put (aKey, aEntry);
+        else
+          m_aMap.remove (aKey);
+      }
+    });
+  }
+
+  private <EX extends Exception> void _refreshAsync (@Nonnull final K aKey,
+                                                     @Nonnull final Entry <V> aEntry,
+                                                     @Nonnull final ILoader <? extends V, EX> aLoader,
+                                                     @Nonnull final Function <? super V, Duration> aTTLProvider,
+                                                     final long nGeneration)
+  {
+    if (!aEntry.m_aRefreshing.compareAndSet (false, true))
+    {
+      // Already refreshing
+      return;
+    }
+
+    m_aRefreshes.increment ();
+    try
+    {
+      m_aRefreshExecutor.execute ( () -> {
+        try
+        {
+          _put (aKey, aLoader.load (), aTTLProvider, nGeneration);
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.warn ("Failed to refresh the cached value of " + aKey + " - keeping the previous value", ex);
+          aEntry.m_aRefreshing.set (false);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      LOGGER.warn ("Failed to schedule the refresh of the cached value of " + aKey);
+      aEntry.m_aRefreshing.set (false);
+    }
+  }
+
+  @SuppressWarnings ("unchecked")
+  @Nullable
+  private static <V, EX extends Exception> V _join (@Nonnull final CompletableFuture <V> aFuture) throws EX
+  {
+    try
+    {
+      return aFuture.join ();
+    }
+    catch (final CompletionException ex)
+    {
+      final Throwable aCause = ex.getCause ();
+      if (aCause instanceof RuntimeException)
+        throw (RuntimeException) aCause;
+      if (aCause instanceof Error)
+        throw (Error) aCause;
+      if (aCause instanceof Exception)
+      {
+        // The loader of the other thread can only throw an EX
+        throw (EX) aCause;
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the value from the cache or load it. If the same key is currently
+   * loaded by another thread, the result of that load is awaited.
+   *
+   * @param <EX>
+   *        The exception type that may be thrown by the loader
+   * @param aKey
+   *        The cache key. May not be <code>null</code>.
+   * @param aLoader
+   *        The loader to be invoked if no current value is cached. If
+   *        refreshing is enabled, it may be invoked asynchronously. May not be
+   *        <code>null</code>.
+   * @param aTTLProvider
+   *        Determines the TTL of a loaded value. The value passed in may be
+   *        <code>null</code>. It must return a non-<code>null</code> duration.
+   *        If the duration is zero or negative, the value is not cached. May
+   *        not be <code>null</code>.
+   * @return The cached or loaded value. May be <code>null</code> if the loader
+   *         returned <code>null</code>.
+   * @throws EX
+   *         If the loader failed. Failures are not cached.
+   */
+  @Nullable
+  public <EX extends Exception> V getOrLoad (@Nonnull final K aKey,
+                                             @Nonnull final ILoader <? extends V, EX> aLoader,
+                                             @Nonnull final Function <? super V, Duration> aTTLProvider) throws EX
+  {
+    ValueEnforcer.notNull (aKey, "Key");
+    ValueEnforcer.notNull (aLoader, "Loader");
+    ValueEnforcer.notNull (aTTLProvider, "TTLProvider");
+
+    final long nNowNanos = m_aNanoTimeProvider.getAsLong ();
+    final long nGeneration;
+    Entry <V> aEntry;
+    m_aLock.lock ();
+    try
+    {
+      aEntry = m_aMap.get (aKey);
+      if (aEntry != null && aEntry.getAgeNanos (nNowNanos) >= aEntry.m_nTTLNanos)
+      {
+        m_aMap.remove (aKey);
+        aEntry = null;
+      }
+      nGeneration = m_nGeneration;
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    if (aEntry != null)
+    {
+      m_aHits.increment ();
+      if (m_aRefreshAfter != null && aEntry.getAgeNanos (nNowNanos) >= _getNanos (m_aRefreshAfter))
+        _refreshAsync (aKey, aEntry, aLoader, aTTLProvider, nGeneration);
+      return aEntry.m_aValue;
+    }
+
+    final CompletableFuture <V> aOwnFuture = new CompletableFuture <> ();
+    final CompletableFuture <V> aOtherFuture = m_aInFlight.putIfAbsent (aKey, aOwnFuture);
+    if (aOtherFuture != null)
+    {
+      // Another thread is loading the same key
+      m_aJoined.increment ();
+      return _join (aOtherFuture);
+    }
+
+    // Load outside of the lock
+    m_aMisses.increment ();
+    try
+    {
+      final V ret = aLoader.load ();
+      _put (aKey, ret, aTTLProvider, nGeneration);
+      aOwnFuture.complete (ret);
+      return ret;
+    }
+    catch (final Exception | Error ex)
+    {
+      aOwnFuture.completeExceptionally (ex);
+      throw ex;
+    }
+    finally
+    {
+      m_aInFlight.remove (aKey, aOwnFuture);
+    }
+  }
+
+  /**
+   * Load a value without using the cache, for requests whose result must not
+   * be cached. This is counted as a miss.
+   *
+   * @param <EX>
+   *        The exception type that may be thrown by the loader
+   * @param aLoader
+   *        The loader to be invoked. May not be <code>null</code>.
+   * @return The loaded value. May be <code>null</code>.
+   * @throws EX
+   *         If the loader failed
+   */
+  @Nullable
+  public <EX extends Exception> V loadUncached (@Nonnull final ILoader <? extends V, EX> aLoader) throws EX
+  {
+    ValueEnforcer.notNull (aLoader, "Loader");
+    m_aMisses.increment ();
+    return aLoader.load ();
+  }
+
+  /**
+   * Remove all cached entries. Loads that are currently in progress don't add
+   * their results to the cache.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      m_nGeneration++;
+      if (m_aMap.isEmpty ())
+        return EChange.UNCHANGED;
+      m_aMap.clear ();
+      return EChange.CHANGED;
+    });
+  }
+
+  /**
+   * @return The number of currently cached values, including the expired ones
+   *         that were not yet accessed.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aLock.lockedInt (m_aMap::size);
+  }
+
+  /**
+   * @return The number of requests that were answered from the cache.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aHits.sum ();
+  }
+
+  /**
+   * @return The number of requests that loaded the value synchronously.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aMisses.sum ();
+  }
+
+  /**
+   * @return The number of requests that waited for the load of another
+   *         thread.
+   */
+  @Nonnegative
+  public long getJoinedCount ()
+  {
+    return m_aJoined.sum ();
+  }
+
+  /**
+   * @return The number of asynchronous refreshes that were started.
+   */
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aRefreshes.sum ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxSize", m_nMaxSize)
+                                       .append ("RefreshAfter", m_aRefreshAfter)
+                                       .append ("Hits", getHitCount ())
+                                       .append ("Misses", getMissCount ())
+                                       .append ("Joined", getJoinedCount ())
+                                       .append ("Refreshes", getRefreshCount ())
+                                       .getToString ();
+  }
+}
@@ -223,8 +223,31 @@ public class AS4ResourceHelper implements Closeable
     if (aSrcEntity.isRepeatable ())
       return aSrcEntity;
 
-    // First serialize the content once to a file, so that a repeatable entity
-    // can be created
+    return createFileBasedHttpEntity (aSrcEntity);
+  }
+
+  /**
+   * Serialize the provided {@link HttpEntity} to a temporary file of this
+   * resource helper and create a new file-based Http Entity. In contrast to
+   * {@link #createRepeatableHttpEntity(HttpEntity)} this is also done for
+   * repeatable entities, so that the result does not depend on any resources
+   * of the source entity.
+   *
+   * @param aSrcEntity
+   *        The source Http entity. May not be <code>null</code>.
+   * @return A non-<code>null</code> Http entity that can be read more than
+   *         once.
+   * @throws IOException
+   *         on IO error
+   * @since 1.3.2
+   */
+  @Nonnull
+  public HttpEntity createFileBasedHttpEntity (@Nonnull final HttpEntity aSrcEntity) throws IOException
+  {
+    ValueEnforcer.notNull (aSrcEntity, "SrcEntity");
+
+    // Serialize the content once to a file, so that a repeatable entity can be
+    // created
     final File aTempFile = createTempFile ();
 
     LOGGER.info ("Converting " + aSrcEntity + " to a repeatable HTTP entity using file " + aTempFile.getAbsolutePath ());
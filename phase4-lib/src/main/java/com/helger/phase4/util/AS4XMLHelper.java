@@ -17,16 +17,10 @@
 package com.helger.phase4.util;
 
 import javax.annotation.Nonnull;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Node;
 
 import com.helger.commons.ValueEnforcer;
-import com.helger.commons.io.stream.NonBlockingStringWriter;
 import com.helger.phase4.marshaller.Ebms3NamespaceHandler;
 import com.helger.xml.serialize.write.EXMLSerializeIndent;
 import com.helger.xml.serialize.write.EXMLSerializeXMLDeclaration;
@@ -60,17 +54,7 @@ public final class AS4XMLHelper
   @Nonnull
   private static String _serializeRT (@Nonnull final Node aNode)
   {
-    try
-    {
-      final Transformer aTransformer = TransformerFactory.newInstance ().newTransformer ();
-      final NonBlockingStringWriter aSW = new NonBlockingStringWriter ();
-      aTransformer.transform (new DOMSource (aNode), new StreamResult (aSW));
-      return aSW.getAsString ();
-    }
-    catch (final TransformerException ex)
-    {
-      throw new IllegalStateException ("Failed to serialize XML", ex);
-    }
+    return AS4XMLRuntime.serializeToString (aNode);
   }
 
   @Nonnull
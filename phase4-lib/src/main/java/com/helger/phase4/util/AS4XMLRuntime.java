@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.io.stream.NonBlockingStringWriter;
+import com.helger.commons.pool.ObjectPool;
+import com.helger.xml.XMLFactory;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * The central XML runtime of phase4. The JAXP factories are looked up only
+ * once and the identity {@link Transformer} objects used for serialization are
+ * pooled, so that neither the factory lookup nor the transformer creation is
+ * part of the per-message processing. Parsing is delegated to
+ * {@link DOMReader} with the default settings, which uses a pool of
+ * pre-configured document builders.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class AS4XMLRuntime
+{
+  /** The maximum number of pooled transformers */
+  public static final int DEFAULT_TRANSFORMER_POOL_SIZE = 2 * Runtime.getRuntime ().availableProcessors ();
+
+  private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance ();
+  private static final ObjectPool <Transformer> TRANSFORMER_POOL = new ObjectPool <> (DEFAULT_TRANSFORMER_POOL_SIZE,
+                                                                                    AS4XMLRuntime::_createIdentityTransformer);
+
+  private AS4XMLRuntime ()
+  {}
+
+  @Nonnull
+  private static Transformer _createIdentityTransformer ()
+  {
+    try
+    {
+      // The factory itself is not guaranteed to be thread-safe
+      synchronized (TRANSFORMER_FACTORY)
+      {
+        return TRANSFORMER_FACTORY.newTransformer ();
+      }
+    }
+    catch (final TransformerConfigurationException ex)
+    {
+      throw new IllegalStateException ("Failed to create identity transformer", ex);
+    }
+  }
+
+  /**
+   * Copy the provided source to the provided result using a pooled identity
+   * transformer.
+   *
+   * @param aSource
+   *        The source to transform. May not be <code>null</code>.
+   * @param aResult
+   *        The result to write to. May not be <code>null</code>.
+   * @throws TransformerException
+   *         In case of transformation error
+   */
+  public static void transform (@Nonnull final Source aSource, @Nonnull final Result aResult) throws TransformerException
+  {
+    ValueEnforcer.notNull (aSource, "Source");
+    ValueEnforcer.notNull (aResult, "Result");
+
+    final Transformer aTransformer = TRANSFORMER_POOL.borrowObject ();
+    try
+    {
+      aTransformer.transform (aSource, aResult);
+    }
+    finally
+    {
+      // Remove all parameters and output properties before reuse
+      aTransformer.reset ();
+      TRANSFORMER_POOL.returnObject (aTransformer);
+    }
+  }
+
+  /**
+   * Serialize the provided node with the JAXP runtime serializer. This is the
+   * serialization that keeps XMLDsig signatures intact.
+   *
+   * @param aNode
+   *        The node to serialize. May not be <code>null</code>.
+   * @return The serialized XML string and never <code>null</code>.
+   * @throws IllegalStateException
+   *         If serialization fails
+   */
+  @Nonnull
+  public static String serializeToString (@Nonnull final Node aNode)
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+
+    try
+    {
+      final NonBlockingStringWriter aSW = new NonBlockingStringWriter ();
+      transform (new DOMSource (aNode), new StreamResult (aSW));
+      return aSW.getAsString ();
+    }
+    catch (final TransformerException ex)
+    {
+      throw new IllegalStateException ("Failed to serialize XML", ex);
+    }
+  }
+
+  /**
+   * Serialize the provided node with the JAXP runtime serializer directly to
+   * the provided output stream, using UTF-8.
+   *
+   * @param aNode
+   *        The node to serialize. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of IO or serialization error
+   */
+  public static void serializeToStream (@Nonnull final Node aNode, @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aNode, "Node");
+    ValueEnforcer.notNull (aOS, "OutputStream");
+
+    try
+    {
+      transform (new DOMSource (aNode), new StreamResult (aOS));
+    }
+    catch (final TransformerException ex)
+    {
+      if (ex.getCause () instanceof IOException)
+        throw (IOException) ex.getCause ();
+      throw new IOException ("Failed to serialize XML", ex);
+    }
+  }
+
+  /**
+   * Parse the provided input stream with a pooled document builder.
+   *
+   * @param aIS
+   *        The input stream to parse. May not be <code>null</code>.
+   * @return <code>null</code> if parsing failed.
+   */
+  @Nullable
+  public static Document readXMLDOM (@Nonnull @WillClose final InputStream aIS)
+  {
+    return DOMReader.readXMLDOM (aIS);
+  }
+
+  /**
+   * Parse the provided file with a pooled document builder.
+   *
+   * @param aFile
+   *        The file to parse. May not be <code>null</code>.
+   * @return <code>null</code> if parsing failed.
+   */
+  @Nullable
+  public static Document readXMLDOM (@Nonnull final File aFile)
+  {
+    return DOMReader.readXMLDOM (aFile);
+  }
+
+  /**
+   * @return A new empty document created with the shared document builder.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  public static Document newDocument ()
+  {
+    return XMLFactory.newDocument ();
+  }
+}
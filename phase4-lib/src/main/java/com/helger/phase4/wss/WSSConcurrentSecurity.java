@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.functional.IThrowingFunction;
+import com.helger.commons.functional.IThrowingSupplier;
+import com.helger.phase4.config.AS4Configuration;
+
+/**
+ * A helper class to run all WSS stuff concurrently without a global lock. In
+ * contrast to {@link WSSSynchronizer} {@link WSSConfig#init()} and
+ * {@link WSSConfig#cleanUp()} are not called for every invocation. Instead it
+ * is only ensured that the WSS4J security providers are installed, so that
+ * another WSS4J user in the same JVM calling {@link WSSConfig#cleanUp()} is
+ * healed on the next invocation. Incoming messages use a pre-initialized
+ * {@link WSSecurityEngine} from the {@link WSSSecurityEnginePool} of the
+ * {@link WSSConfigManager}.<br>
+ * Note: this class may only be invoked if
+ * {@link AS4Configuration#isWSS4JConcurrentSecurity()} returns
+ * <code>true</code>.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public final class WSSConcurrentSecurity
+{
+  private WSSConcurrentSecurity ()
+  {}
+
+  /**
+   * A wrapper around {@link #call(IThrowingSupplier)} swallowing the return
+   * value
+   *
+   * @param aRunnable
+   *        The runnable to be run. May not be <code>null</code>.
+   */
+  public static void run (@Nonnull final Runnable aRunnable)
+  {
+    ValueEnforcer.notNull (aRunnable, "Runnable");
+    call ( () -> {
+      aRunnable.run ();
+      return null;
+    });
+  }
+
+  @Nullable
+  public static <T, EX extends Exception> T call (@Nonnull final IThrowingSupplier <T, EX> aSupplier) throws EX
+  {
+    ValueEnforcer.notNull (aSupplier, "Supplier");
+
+    // Ensure WSSConfig is initialized and nobody removed the providers
+    WSSConfigManager.getInstance ().ensureSecurityProvidersInstalled ();
+
+    return aSupplier.get ();
+  }
+
+  @Nullable
+  public static <T, EX extends Exception> T callWithSecurityEngine (@Nonnull final IThrowingFunction <? super WSSecurityEngine, T, EX> aFunction) throws EX
+  {
+    ValueEnforcer.notNull (aFunction, "Function");
+
+    // Ensure WSSConfig is initialized and nobody removed the providers
+    final WSSConfigManager aMgr = WSSConfigManager.getInstance ();
+    aMgr.ensureSecurityProvidersInstalled ();
+
+    return aMgr.getSecurityEnginePool ().withSecurityEngine (aFunction);
+  }
+}
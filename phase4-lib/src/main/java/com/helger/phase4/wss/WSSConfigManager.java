@@ -19,6 +19,7 @@ package com.helger.phase4.wss;
 import javax.annotation.Nonnull;
 
 import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +39,8 @@ public class WSSConfigManager extends AbstractGlobalSingleton
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (WSSConfigManager.class);
 
+  private final WSSSecurityEnginePool m_aSecurityEnginePool = new WSSSecurityEnginePool ();
+
   @Deprecated
   @UsedViaReflection
   public WSSConfigManager ()
@@ -94,9 +97,40 @@ public class WSSConfigManager extends AbstractGlobalSingleton
       LOGGER.debug ("Finished initializing WSSConfig Security Providers");
   }
 
+  /**
+   * Check if the WSS4J security providers are still installed and re-install
+   * them if not. This is necessary, if another WSS4J user in the same JVM
+   * called {@link WSSConfig#cleanUp()}. This method does not lock if the
+   * providers are present.
+   *
+   * @since 1.3.2
+   */
+  public void ensureSecurityProvidersInstalled ()
+  {
+    if (WSSConfig.isAddJceProviders () && IPrivilegedAction.securityGetProvider ("STRTransform").invokeSafe () == null)
+    {
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn ("The WSSConfig Security Providers were removed by someone else - re-installing them");
+      WSSConfig.init ();
+    }
+  }
+
+  /**
+   * @return The pool of pre-initialized {@link WSSecurityEngine} objects, used
+   *         for concurrent security processing. Never <code>null</code>.
+   * @since 1.3.2
+   */
+  @Nonnull
+  public WSSSecurityEnginePool getSecurityEnginePool ()
+  {
+    return m_aSecurityEnginePool;
+  }
+
   @Override
   protected void onBeforeDestroy (final IScope aScopeToBeDestroyed) throws Exception
   {
+    m_aSecurityEnginePool.clear ();
+
     // Cleanup WSSConfig
     if (LOGGER.isInfoEnabled ())
       LOGGER.info ("Cleaning up WSSConfig." +
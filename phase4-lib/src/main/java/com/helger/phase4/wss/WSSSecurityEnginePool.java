@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.wss;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.wss4j.dom.engine.WSSConfig;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.functional.IThrowingFunction;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A lock-free pool of pre-initialized {@link WSSecurityEngine} objects. Each
+ * engine has its own isolated {@link WSSConfig} so that an engine can be used
+ * by exactly one thread at a time without any global synchronization. Engines
+ * are created on demand and at most {@link #getMaxIdle()} idle engines are
+ * kept.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class WSSSecurityEnginePool
+{
+  public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime ().availableProcessors () * 2;
+
+  private final Deque <WSSecurityEngine> m_aIdle = new ConcurrentLinkedDeque <> ();
+  private final AtomicInteger m_aIdleCount = new AtomicInteger (0);
+  private final AtomicInteger m_aCreatedCount = new AtomicInteger (0);
+  private final int m_nMaxIdle;
+
+  public WSSSecurityEnginePool ()
+  {
+    this (DEFAULT_MAX_IDLE);
+  }
+
+  public WSSSecurityEnginePool (@Nonnegative final int nMaxIdle)
+  {
+    ValueEnforcer.isGT0 (nMaxIdle, "MaxIdle");
+    m_nMaxIdle = nMaxIdle;
+  }
+
+  /**
+   * @return The maximum number of idle engines kept in the pool. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxIdle ()
+  {
+    return m_nMaxIdle;
+  }
+
+  /**
+   * @return The number of engines that were created by this pool so far.
+   */
+  @Nonnegative
+  public final int getCreatedCount ()
+  {
+    return m_aCreatedCount.get ();
+  }
+
+  /**
+   * @return The number of idle engines currently in the pool.
+   */
+  @Nonnegative
+  public final int getIdleCount ()
+  {
+    return m_aIdleCount.get ();
+  }
+
+  @Nonnull
+  protected WSSecurityEngine createSecurityEngine ()
+  {
+    final WSSecurityEngine ret = new WSSecurityEngine ();
+    ret.setWssConfig (WSSConfigManager.createStaticWSSConfig ());
+    return ret;
+  }
+
+  /**
+   * Borrow an engine from the pool, invoke the provided function with it and
+   * return it to the pool afterwards. The engine may not be used outside of
+   * the function.
+   *
+   * @param aFunction
+   *        The function to be invoked. May not be <code>null</code>.
+   * @return The return value of the function.
+   * @throws EX
+   *         if the function throws the exception
+   * @param <T>
+   *        return type
+   * @param <EX>
+   *        exception type
+   */
+  public <T, EX extends Exception> T withSecurityEngine (@Nonnull final IThrowingFunction <? super WSSecurityEngine, T, EX> aFunction) throws EX
+  {
+    ValueEnforcer.notNull (aFunction, "Function");
+
+    WSSecurityEngine aEngine = m_aIdle.pollFirst ();
+    if (aEngine == null)
+    {
+      aEngine = createSecurityEngine ();
+      m_aCreatedCount.incrementAndGet ();
+    }
+    else
+      m_aIdleCount.decrementAndGet ();
+
+    try
+    {
+      return aFunction.apply (aEngine);
+    }
+    finally
+    {
+      // Put back if there is space left
+      if (m_aIdleCount.incrementAndGet () <= m_nMaxIdle)
+        m_aIdle.offerFirst (aEngine);
+      else
+        m_aIdleCount.decrementAndGet ();
+    }
+  }
+
+  /**
+   * Remove all idle engines from the pool.
+   */
+  public void clear ()
+  {
+    while (m_aIdle.pollFirst () != null)
+      m_aIdleCount.decrementAndGet ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("MaxIdle", m_nMaxIdle)
+                                       .append ("IdleCount", m_aIdleCount.get ())
+                                       .append ("CreatedCount", m_aCreatedCount.get ())
+                                       .getToString ();
+  }
+}
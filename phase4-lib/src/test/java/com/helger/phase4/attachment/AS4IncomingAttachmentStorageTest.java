@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.util.AS4DirectByteBufferPool;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4IncomingAttachmentStorage}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingAttachmentStorageTest
+{
+  private static byte [] _createData (final int nSize)
+  {
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < nSize; ++i)
+      ret[i] = (byte) i;
+    return ret;
+  }
+
+  private static void _testTiers (final boolean bMemoryMapped) throws Exception
+  {
+    final AS4DirectByteBufferPool aPool = new AS4DirectByteBufferPool (64, 100);
+    final AS4IncomingAttachmentStorage aStorage = new AS4IncomingAttachmentStorage (10, 1000, aPool, bMemoryMapped);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Heap
+      byte [] aData = _createData (5);
+      IHasInputStream aHIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper);
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertEquals (0, aResHelper.getAllCloseables ().size ());
+      assertEquals (0, aResHelper.getAllTempFiles ().size ());
+
+      // Direct buffers
+      aData = _createData (300);
+      aHIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper);
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      // Repeatable
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertEquals (1, aResHelper.getAllCloseables ().size ());
+      assertEquals (0, aResHelper.getAllTempFiles ().size ());
+      assertEquals (0, aPool.getPooledChunkCount ());
+
+      // Temporary file
+      aData = _createData (5000);
+      aHIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper);
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertEquals (1, aResHelper.getAllTempFiles ().size ());
+      assertEquals (0, aPool.getPooledChunkCount ());
+    }
+    // 300 bytes in 5 chunks of 64 bytes are returned on close
+    assertEquals (5, aPool.getPooledChunkCount ());
+  }
+
+  @Test
+  public void testTiers () throws Exception
+  {
+    _testTiers (true);
+    _testTiers (false);
+  }
+
+  @Test
+  public void testOpenStreamIsNotRecycled () throws Exception
+  {
+    final AS4DirectByteBufferPool aPool = new AS4DirectByteBufferPool (64, 100);
+    final AS4IncomingAttachmentStorage aStorage = new AS4IncomingAttachmentStorage (10, 1000, aPool, false);
+    final byte [] aData = _createData (300);
+    final InputStream aIS;
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      aIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper).getInputStream ();
+    }
+    // Still in use - not pooled and not counted
+    assertEquals (0, aPool.getPooledChunkCount ());
+    assertEquals (0, aPool.getAllocatedChunkCount ());
+    assertArrayEquals (aData, StreamHelper.getAllBytes (aIS));
+  }
+
+  @Test
+  public void testDirectMemoryLimit () throws Exception
+  {
+    // Only 2 chunks of 64 bytes may be allocated
+    final AS4DirectByteBufferPool aPool = new AS4DirectByteBufferPool (64, 100, 2);
+    final AS4IncomingAttachmentStorage aStorage = new AS4IncomingAttachmentStorage (10, 1000, aPool, false);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      byte [] aData = _createData (100);
+      IHasInputStream aHIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper);
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertEquals (0, aResHelper.getAllTempFiles ().size ());
+      assertEquals (2, aPool.getAllocatedChunkCount ());
+
+      // Falls back to a temporary file
+      aData = _createData (300);
+      aHIS = aStorage.store (new NonBlockingByteArrayInputStream (aData), aResHelper);
+      assertArrayEquals (aData, StreamHelper.getAllBytes (aHIS));
+      assertEquals (1, aResHelper.getAllTempFiles ().size ());
+    }
+    assertEquals (2, aPool.getPooledChunkCount ());
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link AS4ParallelGZIPCompressor}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ParallelGZIPCompressorTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static byte [] _createData (final int nSize)
+  {
+    // Compressible but not trivial content
+    final Random aRandom = new Random (nSize);
+    final byte [] ret = new byte [nSize];
+    for (int i = 0; i < nSize; ++i)
+      ret[i] = (byte) ('a' + aRandom.nextInt (8));
+    return ret;
+  }
+
+  @Test
+  public void testCompress () throws Exception
+  {
+    final AS4ParallelGZIPCompressor aCompressor = new AS4ParallelGZIPCompressor (ForkJoinPool.commonPool (),
+                                                                                 AS4ParallelGZIPCompressor.DICTIONARY_SIZE,
+                                                                                 Deflater.DEFAULT_COMPRESSION);
+    final int nBlockSize = aCompressor.getBlockSize ();
+    for (final int nSize : new int [] { 0, 1, nBlockSize - 1, nBlockSize, 2 * nBlockSize, 10 * nBlockSize + 17 })
+    {
+      final byte [] aSrc = _createData (nSize);
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aCompressor.compress (new NonBlockingByteArrayInputStream (aSrc), aBAOS);
+        if (nSize > nBlockSize)
+          assertTrue (aBAOS.size () < nSize);
+
+        // Must be readable with the regular GZIP decompression
+        final byte [] aDecompressed = StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (aBAOS.getAsInputStream ()));
+        assertArrayEquals ("Size " + nSize, aSrc, aDecompressed);
+      }
+    }
+
+    // Incompressible content
+    final byte [] aRandom = new byte [5 * nBlockSize + 3];
+    new Random (4711).nextBytes (aRandom);
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      aCompressor.compress (new NonBlockingByteArrayInputStream (aRandom), aBAOS);
+      final byte [] aDecompressed = StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (aBAOS.getAsInputStream ()));
+      assertArrayEquals (aRandom, aDecompressed);
+    }
+  }
+
+  @Test
+  public void testCreateOutgoingFileAttachments () throws Exception
+  {
+    final ICommonsList <Phase4OutgoingAttachment> aAttachments = new CommonsArrayList <> ();
+    for (int i = 0; i < 4; ++i)
+      aAttachments.add (Phase4OutgoingAttachment.builder ()
+                                                .data (_createData ((i + 1) * 100_000))
+                                                .contentID ("id" + i)
+                                                .mimeType (CMimeType.TEXT_PLAIN)
+                                                .compressionGZIP ()
+                                                .build ());
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final ICommonsList <WSS4JAttachment> aCreated = WSS4JAttachment.createOutgoingFileAttachments (aAttachments, aResHelper);
+      assertEquals (aAttachments.size (), aCreated.size ());
+      for (int i = 0; i < aCreated.size (); ++i)
+      {
+        final WSS4JAttachment aAttachment = aCreated.get (i);
+        // Same order
+        assertEquals ("id" + i, aAttachment.getId ());
+        assertArrayEquals (aAttachments.get (i).getDataBytes ().bytes (),
+                           StreamHelper.getAllBytes (EAS4CompressionMode.GZIP.getDecompressStream (aAttachment.getSourceStream ())));
+      }
+    }
+  }
+}
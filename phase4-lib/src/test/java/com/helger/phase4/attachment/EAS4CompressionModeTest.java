@@ -17,7 +17,9 @@
 package com.helger.phase4.attachment;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -34,6 +36,7 @@ import com.helger.commons.io.resource.ClassPathResource;
 import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
 import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
 
 /**
  * Test class for class {@link EAS4CompressionMode}.
@@ -108,4 +111,42 @@ public final class EAS4CompressionModeTest
       assertArrayEquals (aSrc, aDecompressed);
     }
   }
+
+  @Test
+  public void testCompressionLevels () throws IOException
+  {
+    final byte [] aSrc = StreamHelper.getAllBytes (ClassPathResource.getInputStream ("SOAPBodyPayload.xml"));
+    assertNotNull (aSrc);
+
+    for (final EAS4CompressionMode eMode : EAS4CompressionMode.values ())
+      for (int nLevel = -1; nLevel <= 9; ++nLevel)
+      {
+        final NonBlockingByteArrayOutputStream aCompressedOS = new NonBlockingByteArrayOutputStream ();
+        try (final OutputStream aOS = eMode.getCompressStream (aCompressedOS, nLevel))
+        {
+          aOS.write (aSrc);
+        }
+        // Level 0 only stores
+        if (nLevel != 0)
+          assertTrue (aCompressedOS.size () < aSrc.length);
+
+        try (final InputStream aIS = eMode.getDecompressStream (aCompressedOS.getAsInputStream ()))
+        {
+          assertArrayEquals (aSrc, StreamHelper.getAllBytes (aIS));
+        }
+      }
+  }
+
+  @Test
+  public void testIsAlreadyCompressedMimeType ()
+  {
+    assertTrue (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.APPLICATION_PDF));
+    assertTrue (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.APPLICATION_ZIP));
+    assertTrue (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.IMAGE_JPG));
+    assertTrue (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.IMAGE_PNG));
+    assertTrue (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.APPLICATION_GZIP));
+    assertFalse (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.APPLICATION_XML));
+    assertFalse (EAS4CompressionMode.isAlreadyCompressedMimeType (CMimeType.TEXT_PLAIN));
+    assertFalse (EAS4CompressionMode.isAlreadyCompressedMimeType (null));
+  }
 }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.mail.internet.InternetHeaders;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.util.AS4ResourceHelper;
+
+/**
+ * Test class for class {@link WSS4JAttachment}.
+ *
+ * @author Philip Helger
+ */
+public final class WSS4JAttachmentTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testCreateIncomingStreaming () throws Exception
+  {
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      // Small, in memory
+      final InternetHeaders aHeaders = new InternetHeaders ();
+      aHeaders.addHeader (CHttpHeader.CONTENT_TYPE, "application/xml");
+      aHeaders.addHeader (CHttpHeader.CONTENT_ID, "<abc@phase4>");
+      final byte [] aSmall = "<a/>".getBytes (StandardCharsets.UTF_8);
+      WSS4JAttachment aAttachment = WSS4JAttachment.createIncomingFileAttachment (aHeaders,
+                                                                                  new NonBlockingByteArrayInputStream (aSmall),
+                                                                                  aResHelper);
+      assertEquals ("abc@phase4", aAttachment.getId ());
+      assertEquals ("application/xml", aAttachment.getMimeType ());
+      assertArrayEquals (aSmall, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      // Repeatable
+      assertArrayEquals (aSmall, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertEquals (0, aResHelper.getAllTempFiles ().size ());
+
+      // Large, spilled to a temporary file
+      final byte [] aLarge = new byte [2 * 1024 * 1024];
+      Arrays.fill (aLarge, (byte) 'x');
+      aAttachment = WSS4JAttachment.createIncomingFileAttachment (aHeaders, new NonBlockingByteArrayInputStream (aLarge), aResHelper);
+      assertArrayEquals (aLarge, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+      assertEquals (1, aResHelper.getAllTempFiles ().size ());
+
+      // Transfer encoding is decoded
+      aHeaders.addHeader (CHttpHeader.CONTENT_TRANSFER_ENCODING, "base64");
+      aAttachment = WSS4JAttachment.createIncomingFileAttachment (aHeaders,
+                                                                  new NonBlockingByteArrayInputStream (Base64.getMimeEncoder ()
+                                                                                                             .encode (aSmall)),
+                                                                  aResHelper);
+      assertArrayEquals (aSmall, StreamHelper.getAllBytes (aAttachment.getSourceStream ()));
+    }
+  }
+}
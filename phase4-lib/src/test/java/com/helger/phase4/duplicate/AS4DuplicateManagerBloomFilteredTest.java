@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.OffsetDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.state.EContinue;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerBloomFiltered}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerBloomFilteredTest
+{
+  @Test
+  public void testBloomFilter ()
+  {
+    final AS4BloomFilter aFilter = new AS4BloomFilter (1000, 0.01);
+    assertTrue (aFilter.getBitCount () > 1000);
+    assertTrue (aFilter.getHashCount () > 1);
+    for (int i = 0; i < 1000; ++i)
+      aFilter.put ("msg-" + i);
+    for (int i = 0; i < 1000; ++i)
+      assertTrue (aFilter.mightContain ("msg-" + i));
+
+    int nFP = 0;
+    for (int i = 1000; i < 11000; ++i)
+      if (aFilter.mightContain ("msg-" + i))
+        nFP++;
+    // Allow some tolerance
+    assertTrue ("Too many false positives: " + nFP, nFP < 300);
+  }
+
+  @Test
+  public void testBasic () throws Exception
+  {
+    final AS4DuplicateManagerInMemory aDelegate = new AS4DuplicateManagerInMemory ();
+    aDelegate.registerAndCheck ("existing", null, null);
+
+    try (final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (aDelegate, 10_000, 0.01))
+    {
+      // Seeded from delegate
+      assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("existing", null, null));
+
+      for (int i = 0; i < 1000; ++i)
+        assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id" + i, "profile", "pmode"));
+      // Written through immediately
+      assertEquals (1001, aDelegate.size ());
+      for (int i = 0; i < 1000; i += 10)
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id" + i, "profile", "pmode"));
+
+      assertEquals (1001, aMgr.size ());
+      assertNotNull (aMgr.getItemOfMessageID ("id999"));
+      assertEquals (1101, aMgr.getCheckCount ());
+      assertEquals (aMgr.getCheckCount (), aMgr.getFilterNegativeCount () + aMgr.getFilterPositiveCount ());
+      assertTrue (aMgr.getFalsePositiveRate () < 0.05);
+      assertTrue (aMgr.getFilterMemoryBytes () > 0);
+
+      assertTrue (aMgr.clearCache ().isChanged ());
+      assertTrue (aMgr.isEmpty ());
+      assertFalse (aMgr.getAll ().isNotEmpty ());
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id0", "profile", "pmode"));
+    }
+  }
+
+  @Test
+  public void testRotationOnEviction () throws Exception
+  {
+    try (final AS4DuplicateManagerBloomFiltered aMgr = new AS4DuplicateManagerBloomFiltered (new AS4DuplicateManagerInMemory (),
+                                                                                           10_000,
+                                                                                           0.01))
+    {
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", null, null));
+      final OffsetDateTime aFuture = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusMinutes (1);
+
+      // Evicted from the delegate, but still in the previous filter
+      assertEquals (1, aMgr.evictAllItemsBefore (aFuture).size ());
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", null, null));
+      assertEquals (1, aMgr.getFilterPositiveCount ());
+      assertEquals (1, aMgr.getFalsePositiveCount ());
+
+      // Rotated out of both filters
+      assertEquals (1, aMgr.evictAllItemsBefore (aFuture).size ());
+      aMgr.evictAllItemsBefore (aFuture);
+      assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", null, null));
+      assertEquals (1, aMgr.getFilterPositiveCount ());
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.duplicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.time.OffsetDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.io.EAppend;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.phase4.mgr.MetaAS4Manager;
+
+/**
+ * Test class for class {@link AS4DuplicateManagerTimeBucketed}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4DuplicateManagerTimeBucketedTest
+{
+  @Test
+  public void testInMemory ()
+  {
+    final AS4DuplicateManagerTimeBucketed aMgr = new AS4DuplicateManagerTimeBucketed ();
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck (null, "profile", "pmode"));
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", "profile", "pmode"));
+    assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("a", "profile", "pmode"));
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("b", null, null));
+    assertEquals (2, aMgr.size ());
+    assertEquals (1, aMgr.getBucketCount ());
+
+    final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("a");
+    assertNotNull (aItem);
+    assertEquals ("profile", aItem.getProfileID ());
+    assertNull (aMgr.getItemOfMessageID ("c"));
+
+    // Nothing older than one hour ago
+    final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
+    assertTrue (aMgr.evictAllItemsBefore (aNow.minusHours (1)).isEmpty ());
+    assertEquals (2, aMgr.size ());
+
+    // Evict all
+    assertEquals (2, aMgr.evictAllItemsBefore (aNow.plusHours (1)).size ());
+    assertTrue (aMgr.isEmpty ());
+    assertEquals (0, aMgr.getBucketCount ());
+    assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("a", "profile", "pmode"));
+  }
+
+  @Test
+  public void testImportItem ()
+  {
+    final AS4DuplicateManagerTimeBucketed aMgr = new AS4DuplicateManagerTimeBucketed ();
+    final OffsetDateTime aOld = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().minusDays (1);
+    assertTrue (aMgr.importItem (new AS4DuplicateItem (aOld, "a", "profile", null)).isChanged ());
+    assertTrue (aMgr.importItem (new AS4DuplicateItem (aOld, "a", "profile", null)).isUnchanged ());
+
+    // The original date time is kept
+    assertEquals (aOld, aMgr.getItemOfMessageID ("a").getDateTime ());
+    assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("a", "profile", "pmode"));
+    assertEquals (1, aMgr.evictAllItemsBefore (aOld.plusHours (1)).size ());
+  }
+
+  @Test
+  public void testPersistenceAndRecovery ()
+  {
+    // Longer than what DataOutput.writeUTF can handle
+    final String sLongID = StringHelper.getRepeated ('\u00e4', 40_000);
+    final File aDir = new File ("target/test-duplicate-bucketed");
+    final FileOperationManager aFOM = new FileOperationManager ();
+    aFOM.deleteDirRecursiveIfExisting (aDir);
+    try
+    {
+      try (final AS4DuplicateManagerTimeBucketed aMgr = new AS4DuplicateManagerTimeBucketed (aDir, 1))
+      {
+        for (int i = 0; i < 100; ++i)
+          assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id" + i, "profile", i % 2 == 0 ? "pmode" : null));
+        assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck (sLongID, null, null));
+      }
+
+      // Simulate a crash during writing
+      final File [] aFiles = aDir.listFiles ();
+      assertNotNull (aFiles);
+      assertTrue (aFiles.length > 0);
+      final OutputStream aOS = FileHelper.getOutputStream (aFiles[0], EAppend.APPEND);
+      assertNotNull (aOS);
+      try
+      {
+        aOS.write (new byte [] { 0, 0, 0, 20, 1, 2, 3 });
+      }
+      catch (final Exception ex)
+      {
+        throw new IllegalStateException (ex);
+      }
+      finally
+      {
+        StreamHelper.close (aOS);
+      }
+
+      try (final AS4DuplicateManagerTimeBucketed aMgr = new AS4DuplicateManagerTimeBucketed (aDir, 1))
+      {
+        assertEquals (101, aMgr.size ());
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck ("id5", "profile", null));
+        assertEquals (EContinue.BREAK, aMgr.registerAndCheck (sLongID, null, null));
+        final IAS4DuplicateItem aItem = aMgr.getItemOfMessageID ("id4");
+        assertNotNull (aItem);
+        assertEquals ("pmode", aItem.getPModeID ());
+        assertNull (aMgr.getItemOfMessageID ("id5").getPModeID ());
+
+        // Append after truncation
+        assertEquals (EContinue.CONTINUE, aMgr.registerAndCheck ("id100", null, null));
+      }
+
+      try (final AS4DuplicateManagerTimeBucketed aMgr = new AS4DuplicateManagerTimeBucketed (aDir, 1))
+      {
+        assertEquals (102, aMgr.size ());
+
+        // Dropping buckets deletes the files
+        aMgr.evictAllItemsBefore (MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ().plusHours (1));
+        assertTrue (aMgr.isEmpty ());
+        final File [] aRemaining = aDir.listFiles ();
+        assertNotNull (aRemaining);
+        assertEquals (0, aRemaining.length);
+      }
+    }
+    finally
+    {
+      aFOM.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
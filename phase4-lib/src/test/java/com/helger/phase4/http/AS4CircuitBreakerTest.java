@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.apache.http.entity.StringEntity;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+
+/**
+ * Test class for class {@link AS4CircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4CircuitBreakerTest
+{
+  private static final String URL = "http://localhost:8080/as4";
+
+  private static void _fail (final AS4CircuitBreaker aCB)
+  {
+    try
+    {
+      aCB.execute (URL, () -> {
+        throw new IOException ("Test");
+      });
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testStateChanges () throws Exception
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (new AS4CircuitBreakerSettings ().setSlidingWindowSize (4)
+                                                                                         .setMinimumNumberOfCalls (4)
+                                                                                         .setFailureRateThresholdPercent (50)
+                                                                                         .setWaitDurationInOpenState (Duration.ofMillis (50))
+                                                                                         .setPermittedCallsInHalfOpenState (1));
+    final ICommonsList <EAS4CircuitBreakerState> aStates = new CommonsArrayList <> ();
+    aCB.setStateChangeListener ( (sDest, eOld, eNew) -> {
+      assertEquals ("http://localhost:8080", sDest);
+      aStates.add (eNew);
+    });
+
+    assertEquals ("a", aCB.execute (URL, () -> "a"));
+    assertEquals ("b", aCB.execute (URL, () -> "b"));
+    _fail (aCB);
+    assertEquals (EAS4CircuitBreakerState.CLOSED, aCB.getState (URL));
+    _fail (aCB);
+    // 2 out of 4 failed
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState (URL));
+    try
+    {
+      aCB.execute (URL, () -> "c");
+      fail ();
+    }
+    catch (final AS4CallNotPermittedException ex)
+    {
+      assertEquals ("http://localhost:8080", ex.getDestination ());
+    }
+
+    // Other destinations are not affected
+    assertEquals ("d", aCB.execute ("http://localhost:8081/as4", () -> "d"));
+
+    // Failing probe
+    ThreadHelper.sleep (100);
+    _fail (aCB);
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState (URL));
+
+    // Succeeding probe
+    ThreadHelper.sleep (100);
+    assertEquals ("e", aCB.execute (URL, () -> "e"));
+    assertEquals (EAS4CircuitBreakerState.CLOSED, aCB.getState (URL));
+
+    assertEquals (new CommonsArrayList <> (EAS4CircuitBreakerState.OPEN,
+                                           EAS4CircuitBreakerState.HALF_OPEN,
+                                           EAS4CircuitBreakerState.OPEN,
+                                           EAS4CircuitBreakerState.HALF_OPEN,
+                                           EAS4CircuitBreakerState.CLOSED),
+                  aStates);
+  }
+
+  @Test
+  public void testBulkhead () throws Exception
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (new AS4CircuitBreakerSettings ().setMaxConcurrentCallsPerDestination (1));
+    final String ret = aCB.execute (URL, () -> {
+      try
+      {
+        aCB.execute (URL, () -> "inner");
+        fail ();
+      }
+      catch (final AS4CallNotPermittedException ex)
+      {
+        // expected
+      }
+      return "outer";
+    });
+    assertEquals ("outer", ret);
+    // Permit was released
+    assertEquals ("x", aCB.execute (URL, () -> "x"));
+  }
+
+  @Test
+  public void testEachTryIsGuarded ()
+  {
+    final AS4CircuitBreaker aCB = new AS4CircuitBreaker (new AS4CircuitBreakerSettings ().setSlidingWindowSize (3)
+                                                                                         .setMinimumNumberOfCalls (3)
+                                                                                         .setFailureRateThresholdPercent (100));
+    final BasicHttpPoster aPoster = new BasicHttpPoster ().setCircuitBreaker (aCB);
+    // Nothing listens on this port
+    final String sURL = "http://localhost:1/as4";
+    try
+    {
+      aPoster.sendGenericMessageWithRetries (sURL,
+                                             null,
+                                             new StringEntity ("abc", StandardCharsets.UTF_8),
+                                             "msgid",
+                                             new HttpRetrySettings ().setMaxRetries (2).setDurationBeforeRetry (Duration.ofMillis (1)),
+                                             new ResponseHandlerByteArray (),
+                                             null,
+                                             null);
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+    // All 3 tries were recorded
+    assertEquals (EAS4CircuitBreakerState.OPEN, aCB.getState (sURL));
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.entity.StringEntity;
+import org.junit.Test;
+
+import com.helger.commons.state.EContinue;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+
+/**
+ * Test class for class {@link AS4RetryScheduler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4RetrySchedulerTest
+{
+  // Nothing listens on this port
+  private static final String URL = "http://localhost:1/as4";
+
+  @Test
+  public void testGetDestinationKey ()
+  {
+    assertEquals ("http://localhost:8080", AS4RetryScheduler.getDestinationKey ("http://localhost:8080/as4"));
+    assertEquals ("https://example.org:-1", AS4RetryScheduler.getDestinationKey ("https://example.org/a/b?c"));
+    assertEquals ("bla", AS4RetryScheduler.getDestinationKey ("bla"));
+  }
+
+  @Test
+  public void testRetries () throws Exception
+  {
+    try (final AS4RetryScheduler aScheduler = new AS4RetryScheduler (0.5, 100, Duration.ofMinutes (1)))
+    {
+      final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (2)
+                                                                        .setDurationBeforeRetry (Duration.ofMillis (10));
+      final AtomicInteger aRetries = new AtomicInteger (0);
+      try
+      {
+        aScheduler.sendGenericMessageWithRetriesAsync (new BasicHttpPoster (),
+                                                       URL,
+                                                       null,
+                                                       new StringEntity ("abc", StandardCharsets.UTF_8),
+                                                       "msgid",
+                                                       aRetrySettings,
+                                                       new ResponseHandlerByteArray (),
+                                                       null,
+                                                       (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+                                                         assertEquals (3, nMaxTries);
+                                                         assertTrue (nRetryIntervalMS >= 5 && nRetryIntervalMS <= 15);
+                                                         aRetries.incrementAndGet ();
+                                                         return EContinue.CONTINUE;
+                                                       })
+                  .get ();
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof IOException);
+      }
+      assertEquals (2, aRetries.get ());
+      assertEquals (0, aScheduler.getPendingCount ());
+    }
+  }
+
+  @Test
+  public void testRetryBudget () throws Exception
+  {
+    try (final AS4RetryScheduler aScheduler = new AS4RetryScheduler (0, 1, Duration.ofMinutes (1)))
+    {
+      final HttpRetrySettings aRetrySettings = new HttpRetrySettings ().setMaxRetries (5)
+                                                                        .setDurationBeforeRetry (Duration.ofMillis (1));
+      final AtomicInteger aRetries = new AtomicInteger (0);
+      try
+      {
+        aScheduler.sendGenericMessageWithRetriesAsync (new BasicHttpPoster (),
+                                                       URL,
+                                                       null,
+                                                       new StringEntity ("abc", StandardCharsets.UTF_8),
+                                                       "msgid",
+                                                       aRetrySettings,
+                                                       new ResponseHandlerByteArray (),
+                                                       null,
+                                                       (sMessageID, sURL, nTry, nMaxTries, nRetryIntervalMS, ex) -> {
+                                                         aRetries.incrementAndGet ();
+                                                         return EContinue.CONTINUE;
+                                                       })
+                  .get ();
+        fail ();
+      }
+      catch (final ExecutionException ex)
+      {
+        assertTrue (ex.getCause () instanceof IOException);
+      }
+      // Only one retry is in the budget
+      assertEquals (1, aRetries.get ());
+    }
+  }
+
+  @Test
+  public void testBudgetEviction ()
+  {
+    final AtomicLong aNow = new AtomicLong (0);
+    try (final AS4RetryScheduler aScheduler = new AS4RetryScheduler (0, 1, Duration.ofMinutes (1))
+    {
+      @Override
+      protected long getCurrentNanoTime ()
+      {
+        return aNow.get ();
+      }
+    })
+    {
+      assertTrue (aScheduler.tryAcquireRetry ("a"));
+      assertFalse (aScheduler.tryAcquireRetry ("a"));
+      assertTrue (aScheduler.tryAcquireRetry ("b"));
+      assertEquals (2, aScheduler.getBudgetDestinationCount ());
+
+      // Finished windows are removed
+      aNow.addAndGet (Duration.ofMinutes (2).toNanos ());
+      assertTrue (aScheduler.tryAcquireRetry ("c"));
+      assertEquals (1, aScheduler.getBudgetDestinationCount ());
+      assertTrue (aScheduler.tryAcquireRetry ("a"));
+    }
+  }
+}
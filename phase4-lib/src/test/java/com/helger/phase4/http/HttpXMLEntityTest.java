@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4XMLHelper;
+import com.helger.phase4.util.AS4XMLRuntime;
+
+/**
+ * Test class for class {@link HttpXMLEntity}.
+ *
+ * @author Philip Helger
+ */
+public final class HttpXMLEntityTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final Document aDoc = AS4XMLRuntime.readXMLDOM (new NonBlockingByteArrayInputStream ("<root>Umlaut äöü</root>".getBytes (StandardCharsets.UTF_8)));
+    final byte [] aExpected = AS4XMLHelper.serializeXML (aDoc).getBytes (StandardCharsets.UTF_8);
+
+    final HttpXMLEntity aEntity = new HttpXMLEntity (aDoc, ESoapVersion.SOAP_12.getMimeType ());
+    assertTrue (aEntity.isRepeatable ());
+    assertEquals (ESoapVersion.SOAP_12.getMimeType ().getAsString (), aEntity.getContentType ().getValue ());
+    assertEquals (aExpected.length, aEntity.getContentLength ());
+
+    // Write more than once
+    for (int i = 0; i < 2; ++i)
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+      {
+        aEntity.writeTo (aBAOS);
+        assertArrayEquals (aExpected, aBAOS.toByteArray ());
+      }
+    try (final InputStream aIS = aEntity.getContent ())
+    {
+      assertArrayEquals (aExpected, StreamHelper.getAllBytes (aIS));
+    }
+
+    // Chunked
+    assertEquals (-1, new HttpXMLEntity (aDoc, ESoapVersion.SOAP_12.getMimeType (), false).getContentLength ());
+  }
+}
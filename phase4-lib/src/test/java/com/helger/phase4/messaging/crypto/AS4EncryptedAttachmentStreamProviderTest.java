@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.messaging.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import org.apache.wss4j.common.WSS4JConstants;
+import org.apache.wss4j.common.util.AttachmentUtils;
+import org.apache.wss4j.common.util.KeyUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.mime.CMimeType;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.attachment.WSS4JAttachment;
+import com.helger.phase4.crypto.ECryptoAlgorithmCrypt;
+import com.helger.phase4.http.HttpMimeMessageEntity;
+import com.helger.phase4.messaging.mime.AS4MimeMessage;
+import com.helger.phase4.messaging.mime.MimeMessageCreator;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.phase4.util.AS4XMLRuntime;
+import com.helger.phase4.wss.WSSConfigManager;
+
+/**
+ * Test class for class {@link AS4EncryptedAttachmentStreamProvider}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4EncryptedAttachmentStreamProviderTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testRepeatable () throws Exception
+  {
+    // Ensure WSS4J is initialized
+    WSSConfigManager.getInstance ();
+
+    final String sAlgorithm = ECryptoAlgorithmCrypt.AES_128_GCM.getAlgorithmURI ();
+    final SecretKey aKey = KeyUtils.getKeyGenerator (WSS4JConstants.AES_128).generateKey ();
+    final byte [] aPlain = new byte [100 * 1024];
+    Arrays.fill (aPlain, (byte) 'a');
+
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final WSS4JAttachment aSrc = WSS4JAttachment.createOutgoingFileAttachment (aPlain,
+                                                                                 "id1",
+                                                                                 "a.txt",
+                                                                                 CMimeType.TEXT_PLAIN,
+                                                                                 null,
+                                                                                 StandardCharsets.UTF_8,
+                                                                                 aResHelper);
+      final AS4EncryptedAttachmentStreamProvider aISP = new AS4EncryptedAttachmentStreamProvider (aSrc, sAlgorithm, aKey);
+      assertTrue (aISP.isReadMultiple ());
+
+      // Every read returns the same bytes
+      final byte [] aEncrypted = StreamHelper.getAllBytes (aISP.getInputStream ());
+      assertFalse (Arrays.equals (aPlain, aEncrypted));
+      assertArrayEquals (aEncrypted, StreamHelper.getAllBytes (aISP.getInputStream ()));
+
+      // And can be decrypted
+      final byte [] aDecrypted = StreamHelper.getAllBytes (AttachmentUtils.setupAttachmentDecryptionStream (sAlgorithm,
+                                                                                                            KeyUtils.getCipherInstance (sAlgorithm),
+                                                                                                            aKey,
+                                                                                                            new NonBlockingByteArrayInputStream (aEncrypted)));
+      assertArrayEquals (aPlain, aDecrypted);
+
+      // The MIME message containing it is repeatable with an exact length
+      final WSS4JAttachment aEncAttachment = new WSS4JAttachment (aResHelper, CMimeType.APPLICATION_OCTET_STREAM.getAsString ());
+      aEncAttachment.setId ("id1");
+      aEncAttachment.setSourceStreamProvider (aISP);
+      final Document aDoc = AS4XMLRuntime.readXMLDOM (new NonBlockingByteArrayInputStream ("<Envelope xmlns='http://www.w3.org/2003/05/soap-envelope'/>".getBytes (StandardCharsets.UTF_8)));
+      final AS4MimeMessage aMimeMsg = MimeMessageCreator.generateMimeMessage (ESoapVersion.SOAP_12,
+                                                                              aDoc,
+                                                                              new CommonsArrayList <> (aEncAttachment));
+      assertTrue (aMimeMsg.isRepeatable ());
+
+      final HttpMimeMessageEntity aEntity = new HttpMimeMessageEntity (aMimeMsg);
+      assertTrue (aEntity.isRepeatable ());
+      final long nContentLength = aEntity.getContentLength ();
+      assertTrue (nContentLength > aEncrypted.length);
+
+      byte [] aFirst = null;
+      for (int i = 0; i < 2; ++i)
+        try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+        {
+          aEntity.writeTo (aBAOS);
+          assertEquals (nContentLength, aBAOS.size ());
+          if (aFirst == null)
+            aFirst = aBAOS.toByteArray ();
+          else
+            assertArrayEquals (aFirst, aBAOS.toByteArray ());
+        }
+
+      // Chunked
+      assertEquals (-1, new HttpMimeMessageEntity (aMimeMsg, false).getContentLength ());
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.leg.PModeLeg;
+import com.helger.phase4.model.pmode.leg.PModeLegBusinessInformation;
+
+/**
+ * Test class for class {@link PModeManagerInMemory}.
+ *
+ * @author Philip Helger
+ */
+public final class PModeManagerInMemoryTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Nonnull
+  private static PMode _createPMode (@Nonnull final String sID,
+                                     @Nonnull final String sInitiatorID,
+                                     @Nonnull final String sService,
+                                     @Nonnull final String sAction)
+  {
+    return new PMode (sID,
+                      PModeParty.createSimple (sInitiatorID, "initiator-role"),
+                      PModeParty.createSimple ("responder", "responder-role"),
+                      "agreement",
+                      EMEP.ONE_WAY,
+                      EMEPBinding.PUSH,
+                      new PModeLeg (null, PModeLegBusinessInformation.create (sService, sAction, null, null), null, null, null),
+                      (PModeLeg) null,
+                      (PModePayloadService) null,
+                      (PModeReceptionAwareness) null);
+  }
+
+  @Test
+  public void testIndexedLookup ()
+  {
+    final PModeManagerInMemory aMgr = new PModeManagerInMemory ();
+    for (int i = 0; i < 100; ++i)
+      aMgr.createPMode (_createPMode ("pm" + i, "init" + (i % 10), "service" + i, "action"));
+    assertEquals (100, aMgr.getAll ().size ());
+
+    IPMode aPMode = aMgr.getPModeOfServiceAndAction ("service17", "action");
+    assertEquals ("pm17", aPMode.getID ());
+    assertNull (aMgr.getPModeOfServiceAndAction ("service17", "other"));
+    assertNull (aMgr.getPModeOfServiceAndAction (null, null));
+
+    aPMode = aMgr.getPModeOfInitiatorAndResponder ("init3", "responder");
+    assertEquals ("pm3", aPMode.getID ());
+    assertNull (aMgr.getPModeOfInitiatorAndResponder ("init3", null));
+
+    // Update - old keys must be gone
+    aMgr.updatePMode (_createPMode ("pm17", "init99", "service-new", "action"));
+    assertNull (aMgr.getPModeOfServiceAndAction ("service17", "action"));
+    assertEquals ("pm17", aMgr.getPModeOfServiceAndAction ("service-new", "action").getID ());
+    assertEquals ("pm17", aMgr.getPModeOfInitiatorAndResponder ("init99", "responder").getID ());
+
+    // Create or update
+    aMgr.createOrUpdatePMode (_createPMode ("pm-x", "init-x", "service-x", "action"));
+    assertSame (aMgr.getPModeOfID ("pm-x"), aMgr.getPModeOfServiceAndAction ("service-x", "action"));
+
+    // Delete
+    aMgr.deletePMode ("pm17");
+    assertNull (aMgr.getPModeOfServiceAndAction ("service-new", "action"));
+    assertNull (aMgr.getPModeOfInitiatorAndResponder ("init99", "responder"));
+
+    // Same result as the scanning default implementation
+    for (final IPMode aCur : aMgr.getAll ())
+    {
+      final String sService = aCur.getLeg1 ().getBusinessInfo ().getService ();
+      assertSame (aMgr.findFirst (IPModeManager.getPModeServiceActionFilter (sService, "action")),
+                  aMgr.getPModeOfServiceAndAction (sService, "action"));
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.model.pmode.resolve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEP;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.IPModeIDProvider;
+import com.helger.phase4.model.pmode.PMode;
+import com.helger.phase4.model.pmode.PModeManagerInMemory;
+import com.helger.phase4.model.pmode.PModeParty;
+import com.helger.phase4.profile.AS4Profile;
+
+/**
+ * Test class for class {@link ResolvedPModeCache}.
+ *
+ * @author Philip Helger
+ */
+public final class ResolvedPModeCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final ResolvedPModeCache aCache = new ResolvedPModeCache (2);
+    final PModeManagerInMemory aPModeMgr = new PModeManagerInMemory ();
+    final Supplier <IPMode> aResolver = () -> DefaultPMode.getOrCreateDefaultPMode ("i", "r", null, false);
+
+    final IPMode aPMode1 = aCache.getOrResolve (aPModeMgr, "s", "a", aResolver);
+    assertSame (aPMode1, aCache.getOrResolve (aPModeMgr, "s", "a", aResolver));
+    assertEquals (1, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // Different key
+    assertNotSame (aPMode1, aCache.getOrResolve (aPModeMgr, "s", "a2", aResolver));
+    assertEquals (2, aCache.size ());
+
+    // Bounded
+    aCache.getOrResolve (aPModeMgr, "s", "a3", aResolver);
+    assertEquals (2, aCache.size ());
+
+    // Null is not cached
+    assertNull (aCache.getOrResolve (aPModeMgr, "s", "x", () -> null));
+    assertEquals (2, aCache.size ());
+
+    // Modifying the PMode manager invalidates the cache
+    final IPMode aPMode2 = aCache.getOrResolve (aPModeMgr, "s", "a3", aResolver);
+    aPModeMgr.createPMode (new PMode ("id",
+                                      PModeParty.createSimple ("i", "role"),
+                                      null,
+                                      null,
+                                      EMEP.ONE_WAY,
+                                      EMEPBinding.PUSH,
+                                      null,
+                                      null,
+                                      null,
+                                      null));
+    assertNotSame (aPMode2, aCache.getOrResolve (aPModeMgr, "s", "a3", aResolver));
+    assertEquals (1, aCache.size ());
+
+    // Other PMode manager invalidates as well
+    assertNotSame (aPMode2, aCache.getOrResolve (new PModeManagerInMemory (), "s", "a3", aResolver));
+    assertEquals (1, aCache.size ());
+
+    aCache.clearCache ();
+    assertEquals (0, aCache.size ());
+  }
+
+  @Test
+  public void testTemplate ()
+  {
+    final ResolvedPModeCache aCache = new ResolvedPModeCache (10);
+    final PModeManagerInMemory aPModeMgr = new PModeManagerInMemory ();
+    final AS4Profile aProfile = new AS4Profile ("id",
+                                                "name",
+                                                () -> null,
+                                                (i, r, a) -> new PMode (i + "-" + r,
+                                                                        PModeParty.createSimple (i, "role"),
+                                                                        PModeParty.createSimple (r, "role"),
+                                                                        null,
+                                                                        EMEP.ONE_WAY,
+                                                                        EMEPBinding.PUSH,
+                                                                        null,
+                                                                        null,
+                                                                        null,
+                                                                        null),
+                                                IPModeIDProvider.DEFAULT_DYNAMIC,
+                                                false);
+
+    final IPMode aPMode1 = aCache.getOrCreateTemplate (aPModeMgr, aProfile, "i", "r", null);
+    assertSame (aPMode1, aCache.getOrCreateTemplate (aPModeMgr, aProfile, "i", "r", null));
+    assertNotSame (aPMode1, aCache.getOrCreateTemplate (aPModeMgr, aProfile, "i", "r", "http://address"));
+    assertNotSame (aPMode1, aCache.getOrCreateTemplate (aPModeMgr, aProfile, "i2", "r", null));
+    assertEquals (3, aCache.size ());
+  }
+}
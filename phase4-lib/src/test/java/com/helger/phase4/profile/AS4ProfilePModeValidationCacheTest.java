@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.profile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.error.SingleError;
+import com.helger.commons.error.list.ErrorList;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.model.EMEPBinding;
+import com.helger.phase4.model.pmode.DefaultPMode;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.model.pmode.PMode;
+
+/**
+ * Test class for class {@link AS4ProfilePModeValidationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4ProfilePModeValidationCacheTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testBasic ()
+  {
+    final AtomicInteger aCount = new AtomicInteger (0);
+    final IAS4ProfileValidator aValidator = new IAS4ProfileValidator ()
+    {
+      @Override
+      public void validatePMode (@Nonnull final IPMode aPMode, @Nonnull final ErrorList aErrorList)
+      {
+        aCount.incrementAndGet ();
+        if (aPMode.getMEPBinding () != EMEPBinding.PUSH)
+          aErrorList.add (SingleError.builderError ().errorText ("Push only").build ());
+      }
+    };
+
+    final AS4ProfilePModeValidationCache aCache = new AS4ProfilePModeValidationCache (10);
+    final PMode aPMode = (PMode) DefaultPMode.getOrCreateDefaultPMode ("i", "r", null, false);
+    for (int i = 0; i < 5; ++i)
+    {
+      final ErrorList aErrorList = new ErrorList ();
+      aCache.validatePMode (aValidator, aPMode, aErrorList);
+      assertTrue (aErrorList.isEmpty ());
+    }
+    assertEquals (1, aCount.get ());
+    assertEquals (4, aCache.getHitCount ());
+    assertEquals (1, aCache.getMissCount ());
+
+    // Changing the PMode requires a new validation
+    aPMode.setMEPBinding (EMEPBinding.PULL);
+    for (int i = 0; i < 5; ++i)
+    {
+      final ErrorList aErrorList = new ErrorList ();
+      aCache.validatePMode (aValidator, aPMode, aErrorList);
+      assertEquals (1, aErrorList.size ());
+    }
+    assertEquals (2, aCount.get ());
+
+    // Different object with the same ID
+    final IPMode aPMode2 = DefaultPMode.getOrCreateDefaultPMode ("i", "r", null, false);
+    final ErrorList aErrorList = new ErrorList ();
+    aCache.validatePMode (aValidator, aPMode2, aErrorList);
+    assertTrue (aErrorList.isEmpty ());
+    assertEquals (3, aCount.get ());
+    assertEquals (1, aCache.size ());
+
+    // Different validator for the same PMode
+    final IAS4ProfileValidator aOtherValidator = new IAS4ProfileValidator ()
+    {
+      @Override
+      public void validatePMode (@Nonnull final IPMode aPMode, @Nonnull final ErrorList aErrorList)
+      {
+        aErrorList.add (SingleError.builderError ().errorText ("Never").build ());
+      }
+    };
+    final ErrorList aOtherErrorList = new ErrorList ();
+    aCache.validatePMode (aOtherValidator, aPMode2, aOtherErrorList);
+    assertEquals (1, aOtherErrorList.size ());
+    assertEquals (2, aCache.size ());
+
+    aCache.clearCache ();
+    assertEquals (0, aCache.size ());
+  }
+}
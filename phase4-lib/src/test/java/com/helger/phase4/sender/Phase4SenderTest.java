@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.state.ESuccess;
+import com.helger.phase4.AS4TestRule;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+
+/**
+ * Test class for class {@link Phase4Sender}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4SenderTest
+{
+  @Rule
+  public final TestRule m_aTestRule = new AS4TestRule ();
+
+  @Test
+  public void testSendAsyncMissingFields () throws Exception
+  {
+    // Default executor
+    assertEquals (ESuccess.FAILURE, Phase4Sender.builderUserMessage ().sendMessageAsync ().get ());
+
+    // Custom executor
+    final ExecutorService aExecutor = Executors.newSingleThreadExecutor ();
+    try
+    {
+      final Phase4Sender.BuilderUserMessage aBuilder = Phase4Sender.builderUserMessage ().sendExecutor (aExecutor);
+      assertEquals (ESuccess.FAILURE, aBuilder.sendMessageAsync ().get ());
+      assertEquals (ESimpleUserMessageSendResult.INVALID_PARAMETERS, aBuilder.sendMessageAndCheckForReceiptAsync ().get ());
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+    }
+    assertTrue (aExecutor.isShutdown ());
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.phase4.soap.ESoapVersion;
+
+/**
+ * Test class for class {@link AS4IncomingPreScanner}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingPreScannerTest
+{
+  @Test
+  public void testUserMessage () throws Exception
+  {
+    try (final InputStream aIS = new ClassPathResource ("soap11test/UserMessage.xml").getInputStream ())
+    {
+      final AS4IncomingPreScanResult aResult = AS4IncomingPreScanner.scan (aIS);
+      assertNotNull (aResult);
+      assertEquals (ESoapVersion.SOAP_11, aResult.getSoapVersion ());
+      assertTrue (aResult.isSingleUserMessage ());
+      assertEquals ("UUID-1@requester.example.com", aResult.getMessageID ());
+      assertNull (aResult.getRefToMessageID ());
+      assertEquals ("uri:requester.example.com", aResult.getAllFromPartyIDs ().getFirst ());
+      assertEquals ("QRS543", aResult.getAllToPartyIDs ().getFirst ());
+      assertEquals ("QuoteToCollect", aResult.getService ());
+      assertEquals ("NewPurchaseOrder", aResult.getAction ());
+      assertEquals ("4321", aResult.getConversationID ());
+      assertNull (aResult.getPModeID ());
+      assertTrue (aResult.isPModeResolvable ());
+      assertTrue (aResult.isUseLeg1 ());
+    }
+  }
+
+  @Test
+  public void testReceipt () throws Exception
+  {
+    try (final InputStream aIS = new ClassPathResource ("soap11test/ReceiptMessage.xml").getInputStream ())
+    {
+      final AS4IncomingPreScanResult aResult = AS4IncomingPreScanner.scan (aIS);
+      assertNotNull (aResult);
+      assertEquals (1, aResult.getSignalMessageCount ());
+      assertEquals ("uiwtoruiopwr2543890@b.example.com", aResult.getMessageID ());
+      assertEquals ("uiopfdsmnf4898965563434@a.example.com", aResult.getRefToMessageID ());
+      assertFalse (aResult.isPModeResolvable ());
+    }
+  }
+
+  @Test
+  public void testInvalid ()
+  {
+    assertNull (AS4IncomingPreScanner.scan (new NonBlockingByteArrayInputStream ("<root/>".getBytes (StandardCharsets.UTF_8))));
+    assertNull (AS4IncomingPreScanner.scan (new NonBlockingByteArrayInputStream ("no xml".getBytes (StandardCharsets.UTF_8))));
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.phase4.soap.ESoapVersion;
+import com.helger.phase4.util.AS4ResourceHelper;
+import com.helger.xml.XMLHelper;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AS4IncomingSoapBodySpooler}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4IncomingSoapBodySpoolerTest
+{
+  private static final String SOAP_NS = ESoapVersion.SOAP_12.getNamespaceURI ();
+
+  @Nonnull
+  private static String _createSoap (final String sHeaderContent, final int nPayloadElements)
+  {
+    final StringBuilder aSB = new StringBuilder ();
+    aSB.append ("<S12:Envelope xmlns:S12='" + SOAP_NS + "' xmlns:p='urn:payload'>")
+       .append ("<S12:Header>")
+       .append (sHeaderContent)
+       .append ("</S12:Header>")
+       .append ("<S12:Body wsu:Id='body' xmlns:wsu='http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd'>")
+       .append ("<p:Root a='b'>");
+    for (int i = 0; i < nPayloadElements; ++i)
+      aSB.append ("<p:Item>Value ").append (i).append (" &amp; more</p:Item>");
+    aSB.append ("</p:Root></S12:Body></S12:Envelope>");
+    return aSB.toString ();
+  }
+
+  @Nonnull
+  private static Element _getPayload (@Nonnull final Document aDoc)
+  {
+    final Element aBody = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (), SOAP_NS, "Body");
+    assertNotNull (aBody);
+    final Element ret = XMLHelper.getFirstChildElement (aBody);
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @Test
+  public void testSmall () throws Exception
+  {
+    final String sSoap = _createSoap ("", 5);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Document aDoc = AS4IncomingSoapBodySpooler.readSoapDocument (new NonBlockingByteArrayInputStream (sSoap.getBytes (StandardCharsets.UTF_8)),
+                                                                           100_000,
+                                                                           aResHelper);
+      assertNotNull (aDoc);
+      final Element aPayload = _getPayload (aDoc);
+      assertEquals (5, XMLHelper.getDirectChildElementCount (aPayload));
+      assertNull (AS4IncomingSoapBodySpooler.getSpooledPayload (aPayload.getParentNode ()));
+    }
+  }
+
+  @Test
+  public void testSpooled () throws Exception
+  {
+    final String sSoap = _createSoap ("<x:Messaging xmlns:x='urn:x' wsu:Id='msg' xmlns:wsu='http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-utility-1.0.xsd'>" +
+                                      "<ds:Reference xmlns:ds='http://www.w3.org/2000/09/xmldsig#' URI='#msg'/>" +
+                                      "<ds:Reference xmlns:ds='http://www.w3.org/2000/09/xmldsig#' URI='cid:attachment'/>" +
+                                      "</x:Messaging>",
+                                      1000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Document aDoc = AS4IncomingSoapBodySpooler.readSoapDocument (new NonBlockingByteArrayInputStream (sSoap.getBytes (StandardCharsets.UTF_8)),
+                                                                           1000,
+                                                                           aResHelper);
+      assertNotNull (aDoc);
+
+      // The header is complete
+      final Element aHeader = XMLHelper.getFirstChildElementOfName (aDoc.getDocumentElement (), SOAP_NS, "Header");
+      assertNotNull (aHeader);
+      assertEquals (2, XMLHelper.getDirectChildElementCount (XMLHelper.getFirstChildElement (aHeader)));
+
+      // Only an empty payload element is present
+      final Element aPayload = _getPayload (aDoc);
+      assertEquals ("urn:payload", aPayload.getNamespaceURI ());
+      assertEquals ("Root", aPayload.getLocalName ());
+      assertEquals ("b", aPayload.getAttribute ("a"));
+      assertFalse (aPayload.hasChildNodes ());
+
+      // The full payload is spooled and can be read more than once
+      final IHasInputStream aSpooled = AS4IncomingSoapBodySpooler.getSpooledPayload (aPayload.getParentNode ());
+      assertNotNull (aSpooled);
+      for (int i = 0; i < 2; ++i)
+      {
+        final Document aPayloadDoc = DOMReader.readXMLDOM (aSpooled.getInputStream ());
+        assertNotNull (aPayloadDoc);
+        final Element aRoot = aPayloadDoc.getDocumentElement ();
+        assertEquals ("urn:payload", aRoot.getNamespaceURI ());
+        assertEquals ("b", aRoot.getAttribute ("a"));
+        assertEquals (1000, XMLHelper.getDirectChildElementCount (aRoot));
+        assertEquals ("Value 999 & more", aRoot.getLastChild ().getTextContent ());
+      }
+    }
+  }
+
+  @Test
+  public void testSignedBody () throws Exception
+  {
+    final String sSoap = _createSoap ("<ds:Reference xmlns:ds='http://www.w3.org/2000/09/xmldsig#' URI='#body'/>", 1000);
+    try (final AS4ResourceHelper aResHelper = new AS4ResourceHelper ())
+    {
+      final Document aDoc = AS4IncomingSoapBodySpooler.readSoapDocument (new NonBlockingByteArrayInputStream (sSoap.getBytes (StandardCharsets.UTF_8)),
+                                                                           1000,
+                                                                           aResHelper);
+      assertNotNull (aDoc);
+
+      // The full DOM is required
+      final Element aPayload = _getPayload (aDoc);
+      assertEquals (1000, XMLHelper.getDirectChildElementCount (aPayload));
+      assertNull (AS4IncomingSoapBodySpooler.getSpooledPayload (aPayload.getParentNode ()));
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+
+/**
+ * Test class for class {@link AS4XMLRuntime}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4XMLRuntimeTest
+{
+  @Nonnull
+  private static Document _read (@Nonnull final String sXML)
+  {
+    final Document ret = AS4XMLRuntime.readXMLDOM (new NonBlockingByteArrayInputStream (sXML.getBytes (StandardCharsets.UTF_8)));
+    assertNotNull (ret);
+    return ret;
+  }
+
+  @Test
+  public void testSerializeRoundtrip ()
+  {
+    final Document aDoc = _read ("<a:root xmlns:a='urn:a' x='y'><a:child>Text &amp; more</a:child></a:root>");
+    final String sXML = AS4XMLRuntime.serializeToString (aDoc);
+    assertNotNull (sXML);
+
+    // Same result when serialized again with a reused transformer
+    assertEquals (sXML, AS4XMLRuntime.serializeToString (_read (sXML)));
+    assertEquals (sXML, AS4XMLHelper.serializeXML (aDoc));
+  }
+
+  @Test
+  public void testConcurrentSerialization () throws Exception
+  {
+    final ExecutorService aES = Executors.newFixedThreadPool (AS4XMLRuntime.DEFAULT_TRANSFORMER_POOL_SIZE * 2);
+    try
+    {
+      final ICommonsList <Future <String>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < 200; ++i)
+      {
+        final String sValue = Integer.toString (i);
+        aFutures.add (aES.submit ( () -> AS4XMLRuntime.serializeToString (_read ("<root>" + sValue + "</root>"))));
+      }
+      for (int i = 0; i < aFutures.size (); ++i)
+        assertEquals (Integer.toString (i), _read (aFutures.get (i).get ()).getDocumentElement ().getTextContent ());
+    }
+    finally
+    {
+      aES.shutdownNow ();
+    }
+  }
+}
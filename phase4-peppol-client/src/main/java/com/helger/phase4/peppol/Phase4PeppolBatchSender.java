@@ -0,0 +1,438 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.dynamicdiscovery.IAS4EndpointDetailProvider;
+import com.helger.phase4.http.AS4PooledHttpClient;
+import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.sender.AbstractAS4UserMessageBuilder.ESimpleUserMessageSendResult;
+import com.helger.phase4.util.AS4ExecutorHelper;
+import com.helger.phase4.util.Phase4Exception;
+
+/**
+ * Send many Peppol messages from the same sender to the same receiver, using
+ * the same document type and process. The setup work is only done once per
+ * batch and shared by all messages:
+ * <ul>
+ * <li>the endpoint lookup (e.g. via SMP)</li>
+ * <li>the receiver AP certificate check</li>
+ * <li>the crypto factory</li>
+ * <li>the pooled HTTP connections</li>
+ * <li>the resolved PMode</li>
+ * </ul>
+ * The messages are sent in parallel with a configurable upper bound of
+ * concurrent transmissions.
+ *
+ * @author Philip Helger
+ * @param <BUILDERTYPE>
+ *        The Peppol builder type to be used
+ * @param <PAYLOADTYPE>
+ *        The type of the payloads to be sent
+ * @since 1.3.2
+ */
+@NotThreadSafe
+public class Phase4PeppolBatchSender <BUILDERTYPE extends Phase4PeppolSender.AbstractPeppolUserMessageBuilder <BUILDERTYPE>, PAYLOADTYPE>
+{
+  public static final int DEFAULT_PARALLELISM = 8;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolBatchSender.class);
+
+  /**
+   * Lazy holder for the default executor of the batch sending. It uses a
+   * bounded number of daemon threads and a bounded queue, as configured in
+   * {@link AS4Configuration}. If the queue is full, the message is sent in the
+   * calling thread.
+   */
+  private static final class DefaultSendExecutorHolder
+  {
+    static final ExecutorService INSTANCE = AS4ExecutorHelper.createBoundedExecutor ("phase4-peppol-batch-%d",
+                                                                                     AS4Configuration.getOutgoingAsyncMaxThreads (),
+                                                                                     AS4Configuration.getOutgoingAsyncQueueSize (),
+                                                                                     new ThreadPoolExecutor.CallerRunsPolicy ());
+  }
+
+  /**
+   * The result of sending a single message of a batch.
+   *
+   * @author Philip Helger
+   * @param <PAYLOADTYPE>
+   *        The type of the payload
+   */
+  @Immutable
+  public static final class SendResult <PAYLOADTYPE>
+  {
+    private final PAYLOADTYPE m_aPayload;
+    private final ESimpleUserMessageSendResult m_eSendResult;
+    private final Exception m_aException;
+
+    SendResult (@Nonnull final PAYLOADTYPE aPayload,
+                @Nonnull final ESimpleUserMessageSendResult eSendResult,
+                @Nullable final Exception aException)
+    {
+      m_aPayload = aPayload;
+      m_eSendResult = eSendResult;
+      m_aException = aException;
+    }
+
+    /**
+     * @return The payload that was sent. Never <code>null</code>.
+     */
+    @Nonnull
+    public PAYLOADTYPE getPayload ()
+    {
+      return m_aPayload;
+    }
+
+    /**
+     * @return The overall sending result. Never <code>null</code>.
+     */
+    @Nonnull
+    public ESimpleUserMessageSendResult getSendResult ()
+    {
+      return m_eSendResult;
+    }
+
+    /**
+     * @return <code>true</code> if the message was sent and a positive AS4
+     *         Receipt was received.
+     */
+    public boolean isSuccess ()
+    {
+      return m_eSendResult.isSuccess ();
+    }
+
+    /**
+     * @return The exception that occurred when sending the message. May be
+     *         <code>null</code>.
+     */
+    @Nullable
+    public Exception getException ()
+    {
+      return m_aException;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Payload", m_aPayload)
+                                         .append ("SendResult", m_eSendResult)
+                                         .appendIfNotNull ("Exception", m_aException)
+                                         .getToString ();
+    }
+  }
+
+  private final Supplier <? extends BUILDERTYPE> m_aBuilderFactory;
+  private final BiConsumer <? super BUILDERTYPE, ? super PAYLOADTYPE> m_aPayloadSetter;
+  private int m_nParallelism = DEFAULT_PARALLELISM;
+  private Executor m_aSendExecutor;
+  private HttpClientSettings m_aHttpClientSettings;
+
+  /**
+   * Constructor
+   *
+   * @param aBuilderFactory
+   *        The factory for the builders. Each created builder must be
+   *        configured with the sender, receiver, document type and process as
+   *        well as all other settings that are common to all messages of the
+   *        batch. It is invoked once for the shared setup and once for each
+   *        message, potentially from different threads. May not be
+   *        <code>null</code>.
+   * @param aPayloadSetter
+   *        The callback to set a single payload into a builder created by the
+   *        factory. May not be <code>null</code>.
+   */
+  public Phase4PeppolBatchSender (@Nonnull final Supplier <? extends BUILDERTYPE> aBuilderFactory,
+                                  @Nonnull final BiConsumer <? super BUILDERTYPE, ? super PAYLOADTYPE> aPayloadSetter)
+  {
+    ValueEnforcer.notNull (aBuilderFactory, "BuilderFactory");
+    ValueEnforcer.notNull (aPayloadSetter, "PayloadSetter");
+    m_aBuilderFactory = aBuilderFactory;
+    m_aPayloadSetter = aPayloadSetter;
+  }
+
+  /**
+   * @return The maximum number of messages that are sent concurrently. Always
+   *         &gt; 0.
+   */
+  @Nonnegative
+  public final int parallelism ()
+  {
+    return m_nParallelism;
+  }
+
+  /**
+   * Set the maximum number of messages that are sent concurrently.
+   *
+   * @param nParallelism
+   *        The maximum number of concurrent transmissions. Must be &gt; 0.
+   *        Defaults to {@value #DEFAULT_PARALLELISM}.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final Phase4PeppolBatchSender <BUILDERTYPE, PAYLOADTYPE> parallelism (@Nonnegative final int nParallelism)
+  {
+    ValueEnforcer.isGT0 (nParallelism, "Parallelism");
+    m_nParallelism = nParallelism;
+    return this;
+  }
+
+  /**
+   * @return The executor to send the messages on. May be <code>null</code> in
+   *         which case a shared default executor is used.
+   */
+  @Nullable
+  public final Executor sendExecutor ()
+  {
+    return m_aSendExecutor;
+  }
+
+  /**
+   * Set the executor to send the messages on.
+   *
+   * @param aSendExecutor
+   *        The executor to be used. May be <code>null</code> in which case a
+   *        shared bounded default executor with daemon threads is used.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final Phase4PeppolBatchSender <BUILDERTYPE, PAYLOADTYPE> sendExecutor (@Nullable final Executor aSendExecutor)
+  {
+    m_aSendExecutor = aSendExecutor;
+    return this;
+  }
+
+  /**
+   * @return The HTTP client settings for the pooled HTTP client of a batch.
+   *         May be <code>null</code>.
+   */
+  @Nullable
+  public final HttpClientSettings httpClientSettings ()
+  {
+    return m_aHttpClientSettings;
+  }
+
+  /**
+   * Set the HTTP client settings that are used to create the pooled HTTP
+   * client of a batch. This is only used, if the builders created by the
+   * factory don't have a pooled HTTP client set. If neither is provided, the
+   * HTTP client factory of the first builder is used and if that is missing as
+   * well, {@link Phase4PeppolHttpClientSettings} are used.
+   *
+   * @param aHttpClientSettings
+   *        The HTTP client settings to be used. May be <code>null</code>.
+   * @return this for chaining
+   */
+  @Nonnull
+  public final Phase4PeppolBatchSender <BUILDERTYPE, PAYLOADTYPE> httpClientSettings (@Nullable final HttpClientSettings aHttpClientSettings)
+  {
+    m_aHttpClientSettings = aHttpClientSettings;
+    return this;
+  }
+
+  @Nonnull
+  private SendResult <PAYLOADTYPE> _sendOne (@Nonnull final PAYLOADTYPE aPayload,
+                                             @Nonnull final X509Certificate aReceiverCert,
+                                             @Nonnull final String sReceiverURL,
+                                             @Nullable final IAS4CryptoFactory aCryptoFactory,
+                                             @Nullable final IPMode aPMode,
+                                             @Nonnull final AS4PooledHttpClient aPooledHttpClient)
+  {
+    try
+    {
+      final BUILDERTYPE aBuilder = m_aBuilderFactory.get ();
+      m_aPayloadSetter.accept (aBuilder, aPayload);
+      aBuilder.receiverEndpointDetails (aReceiverCert, sReceiverURL)
+              .cryptoFactory (aCryptoFactory)
+              .pooledHttpClient (aPooledHttpClient);
+      aBuilder.pmode (aPMode);
+
+      final Wrapper <Phase4Exception> aExceptionKeeper = new Wrapper <> ();
+      final ESimpleUserMessageSendResult eResult = aBuilder.sendMessageAndCheckForReceipt (aExceptionKeeper::set);
+      return new SendResult <> (aPayload, eResult, aExceptionKeeper.get ());
+    }
+    catch (final RuntimeException ex)
+    {
+      LOGGER.error ("Failed to prepare a Peppol message of the batch", ex);
+      return new SendResult <> (aPayload, ESimpleUserMessageSendResult.INVALID_PARAMETERS, ex);
+    }
+  }
+
+  /**
+   * Send all provided payloads. First the shared setup is performed
+   * synchronously. Afterwards the messages are sent, driven by the
+   * consumption of the returned stream: at most {@link #parallelism()}
+   * messages are in transmission at the same time. The results are returned
+   * in the order of the payloads.<br>
+   * The returned stream should be fully consumed or closed, so that a pooled
+   * HTTP client created for the batch is closed.
+   *
+   * @param aPayloads
+   *        The payloads to be sent. May not be <code>null</code>.
+   * @return The stream with one result per payload. Never <code>null</code>.
+   * @throws Phase4Exception
+   *         If the shared setup failed, e.g. because the endpoint lookup
+   *         failed or because the receiver AP certificate is not valid. In
+   *         this case no message is sent.
+   */
+  @Nonnull
+  public Stream <SendResult <PAYLOADTYPE>> sendMessages (@Nonnull final Stream <? extends PAYLOADTYPE> aPayloads) throws Phase4Exception
+  {
+    ValueEnforcer.notNull (aPayloads, "Payloads");
+
+    // Shared setup
+    final BUILDERTYPE aTemplate = m_aBuilderFactory.get ();
+    if (!aTemplate.isEndpointDetailProviderUsable ())
+      throw new Phase4PeppolException ("At least one mandatory field for endpoint discovery is not set in the batch builder");
+
+    // e.g. SMP lookup (may throw an exception)
+    final IAS4EndpointDetailProvider aEndpointDetailProvider = aTemplate.m_aEndpointDetailProvider;
+    aEndpointDetailProvider.init (aTemplate.m_aDocTypeID, aTemplate.m_aProcessID, aTemplate.m_aReceiverID);
+    final X509Certificate aReceiverCert = aEndpointDetailProvider.getReceiverAPCertificate ();
+    final String sReceiverURL = aEndpointDetailProvider.getReceiverAPEndpointURL ();
+
+    // Abort the whole batch, if the certificate is not usable. The result is
+    // cached for the single messages, if a cache is configured.
+    Phase4PeppolSender.checkReceiverAPCert (aReceiverCert, aTemplate.certificateCheckCache (), null);
+
+    final IAS4CryptoFactory aCryptoFactory = aTemplate.cryptoFactory ();
+    final IPMode aPMode = aTemplate.pmode ();
+
+    final AS4PooledHttpClient aPooledHttpClient;
+    final boolean bOwnPooledHttpClient;
+    if (aTemplate.pooledHttpClient () != null)
+    {
+      aPooledHttpClient = aTemplate.pooledHttpClient ();
+      bOwnPooledHttpClient = false;
+    }
+    else
+    {
+      if (m_aHttpClientSettings != null)
+        aPooledHttpClient = new AS4PooledHttpClient (m_aHttpClientSettings);
+      else
+        if (aTemplate.httpClientFactory () != null)
+          aPooledHttpClient = new AS4PooledHttpClient (aTemplate.httpClientFactory ());
+        else
+        {
+          try
+          {
+            aPooledHttpClient = new AS4PooledHttpClient (new Phase4PeppolHttpClientSettings ());
+          }
+          catch (final GeneralSecurityException ex)
+          {
+            throw new Phase4PeppolException ("Failed to create the HTTP client settings for the batch", ex);
+          }
+        }
+      bOwnPooledHttpClient = true;
+    }
+
+    final Executor aExecutor = m_aSendExecutor != null ? m_aSendExecutor : DefaultSendExecutorHolder.INSTANCE;
+    final int nParallelism = m_nParallelism;
+    final Iterator <? extends PAYLOADTYPE> aPayloadIt = aPayloads.iterator ();
+    // The messages currently in transmission, in the order of the payloads
+    final ArrayDeque <CompletableFuture <SendResult <PAYLOADTYPE>>> aInFlight = new ArrayDeque <> ();
+    final AtomicBoolean aClosed = new AtomicBoolean (false);
+
+    final Runnable aCloser = () -> {
+      if (aClosed.compareAndSet (false, true))
+      {
+        // Wait for the messages in transmission
+        for (final CompletableFuture <SendResult <PAYLOADTYPE>> aFuture : aInFlight)
+          aFuture.join ();
+        aInFlight.clear ();
+        aPayloads.close ();
+        if (bOwnPooledHttpClient)
+          aPooledHttpClient.close ();
+      }
+    };
+
+    final Iterator <SendResult <PAYLOADTYPE>> aResultIt = new Iterator <SendResult <PAYLOADTYPE>> ()
+    {
+      private void _fill ()
+      {
+        while (!aClosed.get () && aInFlight.size () < nParallelism && aPayloadIt.hasNext ())
+        {
+          final PAYLOADTYPE aPayload = aPayloadIt.next ();
+          ValueEnforcer.notNull (aPayload, "Payload");
+          aInFlight.add (CompletableFuture.supplyAsync ( () -> _sendOne (aPayload,
+                                                                          aReceiverCert,
+                                                                          sReceiverURL,
+                                                                          aCryptoFactory,
+                                                                          aPMode,
+                                                                          aPooledHttpClient),
+                                                         aExecutor));
+        }
+      }
+
+      public boolean hasNext ()
+      {
+        _fill ();
+        if (aInFlight.isEmpty ())
+        {
+          // All done
+          aCloser.run ();
+          return false;
+        }
+        return true;
+      }
+
+      public SendResult <PAYLOADTYPE> next ()
+      {
+        if (!hasNext ())
+          throw new NoSuchElementException ();
+        final SendResult <PAYLOADTYPE> ret = aInFlight.removeFirst ().join ();
+        // Start the next message
+        _fill ();
+        return ret;
+      }
+    };
+
+    return StreamSupport.stream (Spliterators.spliteratorUnknownSize (aResultIt, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                        .onClose (aCloser);
+  }
+}
@@ -0,0 +1,461 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.ETriState;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.utils.CertificateRevocationChecker;
+import com.helger.peppol.utils.EPeppolCertificateCheckResult;
+import com.helger.peppol.utils.ERevocationCheckMode;
+import com.helger.peppol.utils.PeppolCertificateChecker;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.util.AS4ExecutorHelper;
+import com.helger.phase4.util.AS4ExpiringCache;
+
+/**
+ * A bounded cache for the results of
+ * {@link PeppolCertificateChecker#checkPeppolAPCertificate(X509Certificate, OffsetDateTime, ETriState, ERevocationCheckMode)},
+ * used by {@link Phase4PeppolSender} for the receiver AP certificates. The key
+ * is the SHA-256 fingerprint of the certificate and the revocation check mode.
+ * <br>
+ * After the refresh interval, the cached result is still returned, but the
+ * certificate is checked again asynchronously, so that the revocation status
+ * stays current without delaying the sending. Only after the TTL, the check is
+ * performed synchronously again. {@link EPeppolCertificateCheckResult#VALID}
+ * results use a separate, shorter TTL, so that a revoked certificate is not
+ * considered valid for longer than that. A cached result is only used, if the
+ * check date is within the validity period of the certificate.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolCertificateCheckCache
+{
+  public static final int DEFAULT_MAX_SIZE = 1_000;
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (60);
+  public static final Duration DEFAULT_VALID_TTL = Duration.ofMinutes (15);
+  public static final Duration DEFAULT_REFRESH_AFTER = Duration.ofMinutes (10);
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (Phase4PeppolCertificateCheckCache.class);
+
+  /**
+   * Lazy holder for the default executor of the asynchronous refreshes. It
+   * uses a bounded number of daemon threads. Refreshes that don't fit into the
+   * queue are skipped and tried again with the next request.
+   */
+  private static final class DefaultRefreshExecutorHolder
+  {
+    static final ExecutorService INSTANCE = AS4ExecutorHelper.createBoundedExecutor ("phase4-peppol-certcheck-%d",
+                                                                                     AS4Configuration.getOutgoingAsyncMaxThreads (),
+                                                                                     AS4Configuration.getOutgoingAsyncQueueSize (),
+                                                                                     new ThreadPoolExecutor.AbortPolicy ());
+  }
+
+  /**
+   * The default instance with the default settings, that is used by
+   * {@link Phase4PeppolSender} unless specified otherwise.
+   */
+  public static final Phase4PeppolCertificateCheckCache DEFAULT_INSTANCE = new Phase4PeppolCertificateCheckCache ();
+
+  @Immutable
+  private static final class Key
+  {
+    private final String m_sFingerprint;
+    private final ERevocationCheckMode m_eRevocationCheckMode;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (@Nonnull final String sFingerprint, @Nonnull final ERevocationCheckMode eRevocationCheckMode)
+    {
+      m_sFingerprint = sFingerprint;
+      m_eRevocationCheckMode = eRevocationCheckMode;
+      m_nHashCode = new HashCodeGenerator (this).append (sFingerprint).append (eRevocationCheckMode).getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return m_sFingerprint.equals (rhs.m_sFingerprint) && m_eRevocationCheckMode.equals (rhs.m_eRevocationCheckMode);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("Fingerprint", m_sFingerprint)
+                                         .append ("RevocationCheckMode", m_eRevocationCheckMode)
+                                         .getToString ();
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aValidTTL;
+  private final AS4ExpiringCache <Key, EPeppolCertificateCheckResult> m_aCache;
+
+  private final LongAdder m_aChecks = new LongAdder ();
+  private final LongAdder m_aCheckNanos = new LongAdder ();
+  private final AtomicLong m_aMaxCheckNanos = new AtomicLong (0);
+
+  /**
+   * Constructor using the default values and a shared executor with daemon
+   * threads for refreshing.
+   */
+  public Phase4PeppolCertificateCheckCache ()
+  {
+    this (DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_VALID_TTL, DEFAULT_REFRESH_AFTER, DefaultRefreshExecutorHolder.INSTANCE);
+  }
+
+  /**
+   * Constructor using the same TTL for all results.
+   *
+   * @param nMaxSize
+   *        The maximum number of cached results. If more entries are added,
+   *        the least recently used ones are removed. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum age of a cached result. May not be <code>null</code>
+   *        and must be positive.
+   * @param aRefreshAfter
+   *        The age from which on a cached result is refreshed asynchronously.
+   *        May not be <code>null</code>, may not be negative and must be &le;
+   *        the TTL.
+   * @param aRefreshExecutor
+   *        The executor to perform the asynchronous refreshes on. May not be
+   *        <code>null</code>.
+   */
+  public Phase4PeppolCertificateCheckCache (@Nonnegative final int nMaxSize,
+                                            @Nonnull final Duration aTTL,
+                                            @Nonnull final Duration aRefreshAfter,
+                                            @Nonnull final Executor aRefreshExecutor)
+  {
+    this (nMaxSize, aTTL, aTTL, aRefreshAfter, aRefreshExecutor);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached results. If more entries are added,
+   *        the least recently used ones are removed. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum age of a cached result other than
+   *        {@link EPeppolCertificateCheckResult#VALID}. May not be
+   *        <code>null</code> and must be positive.
+   * @param aValidTTL
+   *        The maximum age of a cached
+   *        {@link EPeppolCertificateCheckResult#VALID} result. Should be
+   *        shorter than the interval in which revocations need to be
+   *        detected. May not be <code>null</code> and must be positive.
+   * @param aRefreshAfter
+   *        The age from which on a cached result is refreshed asynchronously.
+   *        May not be <code>null</code>, may not be negative and must be &le;
+   *        both TTLs.
+   * @param aRefreshExecutor
+   *        The executor to perform the asynchronous refreshes on. May not be
+   *        <code>null</code>.
+   */
+  public Phase4PeppolCertificateCheckCache (@Nonnegative final int nMaxSize,
+                                            @Nonnull final Duration aTTL,
+                                            @Nonnull final Duration aValidTTL,
+                                            @Nonnull final Duration aRefreshAfter,
+                                            @Nonnull final Executor aRefreshExecutor)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aValidTTL, "ValidTTL");
+    ValueEnforcer.isFalse (aValidTTL.isNegative () || aValidTTL.isZero (), "ValidTTL must be positive");
+    ValueEnforcer.notNull (aRefreshAfter, "RefreshAfter");
+    ValueEnforcer.isFalse (aRefreshAfter.isNegative (), "RefreshAfter may not be negative");
+    ValueEnforcer.isTrue (aRefreshAfter.compareTo (aTTL) <= 0, "RefreshAfter must be <= TTL");
+    ValueEnforcer.isTrue (aRefreshAfter.compareTo (aValidTTL) <= 0, "RefreshAfter must be <= ValidTTL");
+    ValueEnforcer.notNull (aRefreshExecutor, "RefreshExecutor");
+    m_aTTL = aTTL;
+    m_aValidTTL = aValidTTL;
+    m_aCache = new AS4ExpiringCache <> (nMaxSize, aRefreshAfter, aRefreshExecutor, this::getCurrentNanoTime);
+  }
+
+  /**
+   * @return The maximum number of cached results. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return The maximum age of a cached result other than
+   *         {@link EPeppolCertificateCheckResult#VALID}. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The maximum age of a cached
+   *         {@link EPeppolCertificateCheckResult#VALID} result. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getValidTTL ()
+  {
+    return m_aValidTTL;
+  }
+
+  /**
+   * @return The age from which on a cached result is refreshed
+   *         asynchronously. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getRefreshAfter ()
+  {
+    return m_aCache.getRefreshAfter ();
+  }
+
+  /**
+   * @return The current time in nanoseconds, used to determine the age of the
+   *         entries.
+   */
+  protected long getCurrentNanoTime ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Perform the real certificate check.
+   *
+   * @param aCert
+   *        The certificate to check. Never <code>null</code>.
+   * @param aCheckDT
+   *        The check date and time. Never <code>null</code>.
+   * @param eRevocationCheckMode
+   *        The revocation check mode to use. Never <code>null</code>.
+   * @return The check result. May not be <code>null</code>.
+   */
+  @Nonnull
+  protected EPeppolCertificateCheckResult performCheck (@Nonnull final X509Certificate aCert,
+                                                        @Nonnull final OffsetDateTime aCheckDT,
+                                                        @Nonnull final ERevocationCheckMode eRevocationCheckMode)
+  {
+    return PeppolCertificateChecker.checkPeppolAPCertificate (aCert, aCheckDT, ETriState.UNDEFINED, eRevocationCheckMode);
+  }
+
+  @Nonnull
+  private static String _getFingerprint (@Nonnull final X509Certificate aCert)
+  {
+    try
+    {
+      return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ()));
+    }
+    catch (final NoSuchAlgorithmException | CertificateEncodingException ex)
+    {
+      throw new IllegalStateException ("Failed to create the fingerprint of the certificate", ex);
+    }
+  }
+
+  private static boolean _isInValidityPeriod (@Nonnull final X509Certificate aCert, @Nonnull final OffsetDateTime aCheckDT)
+  {
+    final Date aCheckDate = Date.from (aCheckDT.toInstant ());
+    return !aCheckDate.before (aCert.getNotBefore ()) && !aCheckDate.after (aCert.getNotAfter ());
+  }
+
+  @Nonnull
+  private EPeppolCertificateCheckResult _check (@Nonnull final X509Certificate aCert,
+                                                @Nonnull final OffsetDateTime aCheckDT,
+                                                @Nonnull final ERevocationCheckMode eRevocationCheckMode)
+  {
+    final long nStart = System.nanoTime ();
+    final EPeppolCertificateCheckResult ret = performCheck (aCert, aCheckDT, eRevocationCheckMode);
+    final long nDuration = System.nanoTime () - nStart;
+    m_aChecks.increment ();
+    m_aCheckNanos.add (nDuration);
+    m_aMaxCheckNanos.accumulateAndGet (nDuration, Math::max);
+    if (LOGGER.isDebugEnabled ())
+      LOGGER.debug ("Checking the certificate with revocation check mode " +
+                    eRevocationCheckMode +
+                    " took " +
+                    Duration.ofNanos (nDuration).toMillis () +
+                    " milliseconds and resulted in " +
+                    ret);
+    return ValueEnforcer.notNull (ret, "CheckResult");
+  }
+
+  /**
+   * Get the cached check result of the provided certificate or perform the
+   * check.
+   *
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @param aCheckDT
+   *        The check date and time. May not be <code>null</code>.
+   * @param eRevocationCheckMode
+   *        The revocation check mode to use. May be <code>null</code> to use
+   *        the global default from {@link CertificateRevocationChecker}.
+   * @return The check result. Never <code>null</code>.
+   */
+  @Nonnull
+  public EPeppolCertificateCheckResult getOrCheck (@Nonnull final X509Certificate aCert,
+                                                   @Nonnull final OffsetDateTime aCheckDT,
+                                                   @Nullable final ERevocationCheckMode eRevocationCheckMode)
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+    ValueEnforcer.notNull (aCheckDT, "CheckDT");
+
+    final ERevocationCheckMode eRealRevocationCheckMode = eRevocationCheckMode != null ? eRevocationCheckMode
+                                                                                       : CertificateRevocationChecker.getRevocationCheckMode ();
+    if (!_isInValidityPeriod (aCert, aCheckDT))
+    {
+      // Not yet or no longer valid - nothing to cache
+      return m_aCache.loadUncached ( () -> _check (aCert, aCheckDT, eRealRevocationCheckMode));
+    }
+
+    final Key aKey = new Key (_getFingerprint (aCert), eRealRevocationCheckMode);
+    return m_aCache.getOrLoad (aKey,
+                               () -> _check (aCert, aCheckDT, eRealRevocationCheckMode),
+                               x -> x == EPeppolCertificateCheckResult.VALID ? m_aValidTTL : m_aTTL);
+  }
+
+  /**
+   * Remove all cached entries.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aCache.clearCache ();
+  }
+
+  /**
+   * @return The number of currently cached results.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The number of requests that were answered from the cache or by
+   *         waiting for a concurrent check.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount () + m_aCache.getJoinedCount ();
+  }
+
+  /**
+   * @return The number of requests that required a synchronous check.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  /**
+   * @return The number of asynchronous refreshes that were started.
+   */
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aCache.getRefreshCount ();
+  }
+
+  /**
+   * @return The number of certificate checks (incl. the revocation check)
+   *         that were performed, both synchronously and asynchronously.
+   */
+  @Nonnegative
+  public long getCheckCount ()
+  {
+    return m_aChecks.sum ();
+  }
+
+  /**
+   * @return The total duration of all certificate checks. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public Duration getTotalCheckDuration ()
+  {
+    return Duration.ofNanos (m_aCheckNanos.sum ());
+  }
+
+  /**
+   * @return The duration of the slowest certificate check. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public Duration getMaxCheckDuration ()
+  {
+    return Duration.ofNanos (m_aMaxCheckNanos.get ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("ValidTTL", m_aValidTTL)
+                                       .append ("Cache", m_aCache)
+                                       .append ("Checks", getCheckCount ())
+                                       .append ("TotalCheckDuration", getTotalCheckDuration ())
+                                       .append ("MaxCheckDuration", getMaxCheckDuration ())
+                                       .getToString ();
+  }
+}
@@ -219,6 +219,9 @@ public final class Phase4PeppolSender
    * @param aReceiverCert
    *        The determined receiver AP certificate to check. Never
    *        <code>null</code>.
+   * @param aCertificateCheckCache
+   *        The optional cache for the certificate check results. May be
+   *        <code>null</code> to check the certificate every time.
    * @param aCertificateConsumer
    *        An optional consumer that is invoked with the received AP
    *        certificate to be used for the transmission. The certification check
@@ -226,17 +229,19 @@ public final class Phase4PeppolSender
    * @throws Phase4PeppolException
    *         in case of error
    */
-  private static void _checkReceiverAPCert (@Nullable final X509Certificate aReceiverCert,
-                                            @Nullable final IPhase4PeppolCertificateCheckResultHandler aCertificateConsumer) throws Phase4PeppolException
+  static void checkReceiverAPCert (@Nullable final X509Certificate aReceiverCert,
+                                   @Nullable final Phase4PeppolCertificateCheckCache aCertificateCheckCache,
+                                   @Nullable final IPhase4PeppolCertificateCheckResultHandler aCertificateConsumer) throws Phase4PeppolException
   {
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Using the following receiver AP certificate from the SMP: " + aReceiverCert);
 
     final OffsetDateTime aNow = MetaAS4Manager.getTimestampMgr ().getCurrentDateTime ();
-    final EPeppolCertificateCheckResult eCertCheckResult = PeppolCertificateChecker.checkPeppolAPCertificate (aReceiverCert,
-                                                                                                              aNow,
-                                                                                                              ETriState.UNDEFINED,
-                                                                                                              null);
+    final EPeppolCertificateCheckResult eCertCheckResult;
+    if (aReceiverCert != null && aCertificateCheckCache != null)
+      eCertCheckResult = aCertificateCheckCache.getOrCheck (aReceiverCert, aNow, null);
+    else
+      eCertCheckResult = PeppolCertificateChecker.checkPeppolAPCertificate (aReceiverCert, aNow, ETriState.UNDEFINED, null);
 
     // Interested in the certificate?
     if (aCertificateConsumer != null)
@@ -295,6 +300,7 @@ public final class Phase4PeppolSender
     protected String m_sPayloadContentID;
 
     protected IAS4EndpointDetailProvider m_aEndpointDetailProvider;
+    private Phase4PeppolCertificateCheckCache m_aCertificateCheckCache = Phase4PeppolCertificateCheckCache.DEFAULT_INSTANCE;
     private IPhase4PeppolCertificateCheckResultHandler m_aCertificateConsumer;
     private Consumer <String> m_aAPEndointURLConsumer;
 
@@ -493,6 +499,35 @@ public final class Phase4PeppolSender
       return endpointDetailProvider (new AS4EndpointDetailProviderConstant (aCert, sDestURL));
     }
 
+    /**
+     * @return The cache for the results of the receiver AP certificate checks.
+     *         May be <code>null</code>.
+     * @since 1.3.2
+     */
+    @Nullable
+    public final Phase4PeppolCertificateCheckCache certificateCheckCache ()
+    {
+      return m_aCertificateCheckCache;
+    }
+
+    /**
+     * Set the cache for the results of the receiver AP certificate checks. By
+     * default {@link Phase4PeppolCertificateCheckCache#DEFAULT_INSTANCE} is
+     * used, which is shared between all senders.
+     *
+     * @param aCertificateCheckCache
+     *        The cache to be used. May be <code>null</code> to check the
+     *        certificate for every message.
+     * @return this for chaining
+     * @since 1.3.2
+     */
+    @Nonnull
+    public final IMPLTYPE certificateCheckCache (@Nullable final Phase4PeppolCertificateCheckCache aCertificateCheckCache)
+    {
+      m_aCertificateCheckCache = aCertificateCheckCache;
+      return thisAsT ();
+    }
+
     /**
      * Set an optional Consumer for the retrieved certificate from the endpoint
      * details provider, independent of its usability.
@@ -567,7 +602,7 @@ public final class Phase4PeppolSender
 
       // Certificate from e.g. SMP lookup (may throw an exception)
       final X509Certificate aReceiverCert = m_aEndpointDetailProvider.getReceiverAPCertificate ();
-      _checkReceiverAPCert (aReceiverCert, m_aCertificateConsumer);
+      checkReceiverAPCert (aReceiverCert, m_aCertificateCheckCache, m_aCertificateConsumer);
       receiverCertificate (aReceiverCert);
 
       // URL from e.g. SMP lookup (may throw an exception)
@@ -619,6 +654,7 @@ public final class Phase4PeppolSender
         LOGGER.warn ("The field 'endpointDetailProvider' is not set");
         return false;
       }
+      // m_aCertificateCheckCache may be null
       // m_aCertificateConsumer may be null
       // m_aAPEndointURLConsumer may be null
 
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.helger.peppol.utils.EPeppolCertificateCheckResult;
+import com.helger.peppol.utils.ERevocationCheckMode;
+import com.helger.peppol.utils.PeppolKeyStoreHelper;
+import com.helger.scope.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link Phase4PeppolBatchSender}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolBatchSenderTest
+{
+  @Rule
+  public final ScopeTestRule m_aRule = new ScopeTestRule ();
+
+  @Test
+  public void testInvalidCertificateAbortsBatch () throws Exception
+  {
+    final Phase4PeppolCertificateCheckCache aRevokedCache = new Phase4PeppolCertificateCheckCache (10,
+                                                                                                   Duration.ofMinutes (10),
+                                                                                                   Duration.ofMinutes (10),
+                                                                                                   Runnable::run)
+    {
+      @Override
+      protected EPeppolCertificateCheckResult performCheck (final X509Certificate aCert,
+                                                            final OffsetDateTime aCheckDT,
+                                                            final ERevocationCheckMode eRevocationCheckMode)
+      {
+        return EPeppolCertificateCheckResult.REVOKED;
+      }
+    };
+    final AtomicInteger aBuilders = new AtomicInteger (0);
+    final AtomicInteger aPayloads = new AtomicInteger (0);
+    final Phase4PeppolBatchSender <Phase4PeppolSender.Builder, String> aBatchSender = new Phase4PeppolBatchSender <> ( () -> {
+      aBuilders.incrementAndGet ();
+      return Phase4PeppolSender.builder ()
+                               .documentTypeID (Phase4PeppolSender.IF.createDocumentTypeIdentifierWithDefaultScheme ("doctype"))
+                               .processID (Phase4PeppolSender.IF.createProcessIdentifierWithDefaultScheme ("process"))
+                               .senderParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:sender"))
+                               .receiverParticipantID (Phase4PeppolSender.IF.createParticipantIdentifierWithDefaultScheme ("9915:receiver"))
+                               .receiverEndpointDetails (PeppolKeyStoreHelper.Config2018.CERTIFICATE_PILOT_AP, "http://localhost:1/as4")
+                               .certificateCheckCache (aRevokedCache);
+    }, (b, s) -> {
+      aPayloads.incrementAndGet ();
+      b.payload (s.getBytes ());
+    });
+
+    try
+    {
+      aBatchSender.sendMessages (Stream.of ("<a xmlns='urn:test'/>", "<b xmlns='urn:test'/>"));
+      fail ();
+    }
+    catch (final Phase4PeppolException ex)
+    {
+      // expected
+    }
+    // Only the shared setup was performed
+    assertEquals (1, aBuilders.get ());
+    assertEquals (0, aPayloads.get ());
+    assertEquals (1, aRevokedCache.getCheckCount ());
+  }
+}
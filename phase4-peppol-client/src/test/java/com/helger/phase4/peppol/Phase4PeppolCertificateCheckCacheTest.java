@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.peppol.utils.EPeppolCertificateCheckResult;
+import com.helger.peppol.utils.ERevocationCheckMode;
+import com.helger.peppol.utils.PeppolKeyStoreHelper;
+
+/**
+ * Test class for class {@link Phase4PeppolCertificateCheckCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolCertificateCheckCacheTest
+{
+  private static final X509Certificate CERT = PeppolKeyStoreHelper.Config2018.CERTIFICATE_PILOT_AP;
+
+  private static final class MockCache extends Phase4PeppolCertificateCheckCache
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+    private final AtomicInteger m_aChecks = new AtomicInteger (0);
+
+    MockCache ()
+    {
+      // Refresh synchronously
+      this (Duration.ofMinutes (10), Duration.ofMinutes (10), Duration.ofMinutes (8));
+    }
+
+    MockCache (final Duration aTTL, final Duration aValidTTL, final Duration aRefreshAfter)
+    {
+      super (10, aTTL, aValidTTL, aRefreshAfter, Runnable::run);
+    }
+
+    @Override
+    protected long getCurrentNanoTime ()
+    {
+      return m_aNow.get ();
+    }
+
+    @Override
+    protected EPeppolCertificateCheckResult performCheck (final X509Certificate aCert,
+                                                          final OffsetDateTime aCheckDT,
+                                                          final ERevocationCheckMode eRevocationCheckMode)
+    {
+      return m_aChecks.incrementAndGet () == 1 ? EPeppolCertificateCheckResult.VALID : EPeppolCertificateCheckResult.REVOKED;
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  @Test
+  public void testCaching ()
+  {
+    final MockCache aCache = new MockCache ();
+    final OffsetDateTime aCheckDT = CERT.getNotBefore ().toInstant ().atOffset (ZoneOffset.UTC).plusDays (1);
+
+    assertSame (EPeppolCertificateCheckResult.VALID, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertSame (EPeppolCertificateCheckResult.VALID, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertEquals (1, aCache.getCheckCount ());
+    assertEquals (1, aCache.getHitCount ());
+
+    // Different check mode is a different entry
+    assertSame (EPeppolCertificateCheckResult.REVOKED, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.OCSP));
+    assertEquals (2, aCache.size ());
+
+    // Within the refresh interval - old result is returned, refresh happens
+    aCache.advance (Duration.ofMinutes (9));
+    assertSame (EPeppolCertificateCheckResult.VALID, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertEquals (1, aCache.getRefreshCount ());
+    assertSame (EPeppolCertificateCheckResult.REVOKED, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertEquals (3, aCache.getCheckCount ());
+
+    // Outside of the validity period the cache is not used
+    final OffsetDateTime aExpiredDT = CERT.getNotAfter ().toInstant ().atOffset (ZoneOffset.UTC).plusDays (1);
+    aCache.getOrCheck (CERT, aExpiredDT, ERevocationCheckMode.NONE);
+    assertEquals (4, aCache.getCheckCount ());
+  }
+
+  @Test
+  public void testShorterValidTTL ()
+  {
+    final MockCache aCache = new MockCache (Duration.ofMinutes (60), Duration.ofMinutes (10), Duration.ofMinutes (10));
+    final OffsetDateTime aCheckDT = CERT.getNotBefore ().toInstant ().atOffset (ZoneOffset.UTC).plusDays (1);
+
+    assertSame (EPeppolCertificateCheckResult.VALID, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertSame (EPeppolCertificateCheckResult.REVOKED, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.OCSP));
+
+    // The valid result is checked again synchronously, the other one is kept
+    aCache.advance (Duration.ofMinutes (10));
+    assertSame (EPeppolCertificateCheckResult.REVOKED, aCache.getOrCheck (CERT, aCheckDT, ERevocationCheckMode.NONE));
+    assertEquals (3, aCache.getCheckCount ());
+    assertEquals (2, aCache.size ());
+  }
+}
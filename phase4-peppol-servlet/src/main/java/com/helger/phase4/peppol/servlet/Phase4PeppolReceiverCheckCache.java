@@ -0,0 +1,472 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.equals.EqualsHelper;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppol.smp.ISMPTransportProfile;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.phase4.config.AS4Configuration;
+import com.helger.phase4.dynamicdiscovery.AS4SMPEndpointCache;
+import com.helger.phase4.util.AS4ExecutorHelper;
+import com.helger.phase4.util.AS4ExpiringCache;
+
+/**
+ * A bounded cache for the results of the receiver checks of incoming Peppol
+ * messages, used by {@link Phase4PeppolServletMessageProcessorSPI}. The SMP
+ * lookup of the receiver and the comparison of the endpoint URL and the
+ * endpoint certificate with this AP are performed only once per receiver,
+ * document type and process. Negative results are only cached for the short
+ * negative TTL, so that a receiver that was just registered is accepted soon.
+ * <br>
+ * After the refresh interval, the cached result is still returned, but the
+ * check is performed again asynchronously, so that regular traffic never
+ * waits for the SMP. Only after the TTL, the check is performed synchronously
+ * again. Checks that fail with an exception (e.g. because the SMP is not
+ * reachable) are never cached.
+ *
+ * @author Philip Helger
+ * @since 1.3.2
+ */
+@ThreadSafe
+public class Phase4PeppolReceiverCheckCache
+{
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes (60);
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes (5);
+  public static final Duration DEFAULT_REFRESH_AFTER = Duration.ofMinutes (45);
+
+  /**
+   * Lazy holder for the default executor of the asynchronous refreshes. It
+   * uses a bounded number of daemon threads. Refreshes that don't fit into the
+   * queue are skipped and tried again with the next request.
+   */
+  private static final class DefaultRefreshExecutorHolder
+  {
+    static final ExecutorService INSTANCE = AS4ExecutorHelper.createBoundedExecutor ("phase4-peppol-receivercheck-%d",
+                                                                                     AS4Configuration.getOutgoingAsyncMaxThreads (),
+                                                                                     AS4Configuration.getOutgoingAsyncQueueSize (),
+                                                                                     new ThreadPoolExecutor.AbortPolicy ());
+  }
+
+  /**
+   * The result of a single receiver check.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  public static final class CheckResult
+  {
+    private static final CheckResult VERIFIED = new CheckResult (null);
+
+    private final String m_sErrorMessage;
+
+    private CheckResult (@Nullable final String sErrorMessage)
+    {
+      m_sErrorMessage = sErrorMessage;
+    }
+
+    /**
+     * @return <code>true</code> if the receiver is registered for this AP,
+     *         <code>false</code> if not.
+     */
+    public boolean isVerified ()
+    {
+      return m_sErrorMessage == null;
+    }
+
+    /**
+     * @return The reason why the receiver could not be verified.
+     *         <code>null</code> if it was verified.
+     */
+    @Nullable
+    public String getErrorMessage ()
+    {
+      return m_sErrorMessage;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("ErrorMessage", m_sErrorMessage).getToString ();
+    }
+
+    /**
+     * @return The successful result. Never <code>null</code>.
+     */
+    @Nonnull
+    public static CheckResult createVerified ()
+    {
+      return VERIFIED;
+    }
+
+    /**
+     * @param sErrorMessage
+     *        The reason why the receiver could not be verified. May neither be
+     *        <code>null</code> nor empty.
+     * @return The failure result. Never <code>null</code>.
+     */
+    @Nonnull
+    public static CheckResult createNotVerified (@Nonnull @Nonempty final String sErrorMessage)
+    {
+      ValueEnforcer.notEmpty (sErrorMessage, "ErrorMessage");
+      return new CheckResult (sErrorMessage);
+    }
+  }
+
+  /**
+   * The callback performing the real receiver check.
+   *
+   * @author Philip Helger
+   */
+  @FunctionalInterface
+  public interface IReceiverCheck
+  {
+    /**
+     * @return The check result. May not be <code>null</code>.
+     * @throws Phase4PeppolServletException
+     *         If the check could not be performed. Such results are not
+     *         cached.
+     */
+    @Nonnull
+    CheckResult check () throws Phase4PeppolServletException;
+  }
+
+  @Immutable
+  private static final class Key
+  {
+    private final Object m_aSMPScope;
+    private final String m_sAS4EndpointURL;
+    private final X509Certificate m_aAPCertificate;
+    private final String m_sTransportProfileID;
+    private final String m_sReceiverID;
+    private final String m_sDocTypeID;
+    private final String m_sProcessID;
+    // Status vars
+    private final int m_nHashCode;
+
+    Key (@Nonnull final Object aSMPScope,
+         @Nonnull final String sAS4EndpointURL,
+         @Nonnull final X509Certificate aAPCertificate,
+         @Nonnull final String sTransportProfileID,
+         @Nonnull final String sReceiverID,
+         @Nonnull final String sDocTypeID,
+         @Nonnull final String sProcessID)
+    {
+      m_aSMPScope = aSMPScope;
+      m_sAS4EndpointURL = sAS4EndpointURL;
+      m_aAPCertificate = aAPCertificate;
+      m_sTransportProfileID = sTransportProfileID;
+      m_sReceiverID = sReceiverID;
+      m_sDocTypeID = sDocTypeID;
+      m_sProcessID = sProcessID;
+      m_nHashCode = new HashCodeGenerator (this).append (aSMPScope)
+                                                .append (sAS4EndpointURL)
+                                                .append (aAPCertificate)
+                                                .append (sTransportProfileID)
+                                                .append (sReceiverID)
+                                                .append (sDocTypeID)
+                                                .append (sProcessID)
+                                                .getHashCode ();
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (o == null || !getClass ().equals (o.getClass ()))
+        return false;
+      final Key rhs = (Key) o;
+      return EqualsHelper.equals (m_aSMPScope, rhs.m_aSMPScope) &&
+             m_sAS4EndpointURL.equals (rhs.m_sAS4EndpointURL) &&
+             m_aAPCertificate.equals (rhs.m_aAPCertificate) &&
+             m_sTransportProfileID.equals (rhs.m_sTransportProfileID) &&
+             m_sReceiverID.equals (rhs.m_sReceiverID) &&
+             m_sDocTypeID.equals (rhs.m_sDocTypeID) &&
+             m_sProcessID.equals (rhs.m_sProcessID);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nHashCode;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return new ToStringGenerator (this).append ("SMPScope", m_aSMPScope)
+                                         .append ("TransportProfileID", m_sTransportProfileID)
+                                         .append ("ReceiverID", m_sReceiverID)
+                                         .append ("DocTypeID", m_sDocTypeID)
+                                         .append ("ProcessID", m_sProcessID)
+                                         .getToString ();
+    }
+  }
+
+  private final Duration m_aTTL;
+  private final Duration m_aNegativeTTL;
+  private final AS4ExpiringCache <Key, CheckResult> m_aCache;
+
+  /**
+   * Constructor using the default values and a shared executor with daemon
+   * threads for refreshing.
+   */
+  public Phase4PeppolReceiverCheckCache ()
+  {
+    this (DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_REFRESH_AFTER, DefaultRefreshExecutorHolder.INSTANCE);
+  }
+
+  /**
+   * Constructor using the default negative TTL.
+   *
+   * @param nMaxSize
+   *        The maximum number of cached results. If more entries are added,
+   *        the least recently used ones are removed. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum age of a cached positive result. May not be
+   *        <code>null</code> and must be positive.
+   * @param aRefreshAfter
+   *        The age from which on a cached result is refreshed asynchronously.
+   *        May not be <code>null</code>, may not be negative and must be &le;
+   *        the TTL.
+   * @param aRefreshExecutor
+   *        The executor to perform the asynchronous refreshes on. May not be
+   *        <code>null</code>.
+   * @see #DEFAULT_NEGATIVE_TTL
+   */
+  public Phase4PeppolReceiverCheckCache (@Nonnegative final int nMaxSize,
+                                         @Nonnull final Duration aTTL,
+                                         @Nonnull final Duration aRefreshAfter,
+                                         @Nonnull final Executor aRefreshExecutor)
+  {
+    this (nMaxSize, aTTL, DEFAULT_NEGATIVE_TTL, aRefreshAfter, aRefreshExecutor);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param nMaxSize
+   *        The maximum number of cached results. If more entries are added,
+   *        the least recently used ones are removed. Must be &gt; 0.
+   * @param aTTL
+   *        The maximum age of a cached positive result. May not be
+   *        <code>null</code> and must be positive.
+   * @param aNegativeTTL
+   *        The maximum age of a cached negative result. May not be
+   *        <code>null</code> nor negative. Use {@link Duration#ZERO} to
+   *        disable negative caching.
+   * @param aRefreshAfter
+   *        The age from which on a cached result is refreshed asynchronously.
+   *        May not be <code>null</code>, may not be negative and must be &le;
+   *        the TTL.
+   * @param aRefreshExecutor
+   *        The executor to perform the asynchronous refreshes on. May not be
+   *        <code>null</code>.
+   */
+  public Phase4PeppolReceiverCheckCache (@Nonnegative final int nMaxSize,
+                                         @Nonnull final Duration aTTL,
+                                         @Nonnull final Duration aNegativeTTL,
+                                         @Nonnull final Duration aRefreshAfter,
+                                         @Nonnull final Executor aRefreshExecutor)
+  {
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.notNull (aTTL, "TTL");
+    ValueEnforcer.isFalse (aTTL.isNegative () || aTTL.isZero (), "TTL must be positive");
+    ValueEnforcer.notNull (aNegativeTTL, "NegativeTTL");
+    ValueEnforcer.isFalse (aNegativeTTL.isNegative (), "NegativeTTL may not be negative");
+    ValueEnforcer.notNull (aRefreshAfter, "RefreshAfter");
+    ValueEnforcer.isFalse (aRefreshAfter.isNegative (), "RefreshAfter may not be negative");
+    ValueEnforcer.isTrue (aRefreshAfter.compareTo (aTTL) <= 0, "RefreshAfter must be <= TTL");
+    ValueEnforcer.notNull (aRefreshExecutor, "RefreshExecutor");
+    m_aTTL = aTTL;
+    m_aNegativeTTL = aNegativeTTL;
+    m_aCache = new AS4ExpiringCache <> (nMaxSize, aRefreshAfter, aRefreshExecutor, this::getCurrentNanoTime);
+  }
+
+  /**
+   * @return The maximum number of cached results. Always &gt; 0.
+   */
+  @Nonnegative
+  public final int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return The maximum age of a cached positive result. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getTTL ()
+  {
+    return m_aTTL;
+  }
+
+  /**
+   * @return The maximum age of a cached negative result. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getNegativeTTL ()
+  {
+    return m_aNegativeTTL;
+  }
+
+  /**
+   * @return The age from which on a cached result is refreshed
+   *         asynchronously. Never <code>null</code>.
+   */
+  @Nonnull
+  public final Duration getRefreshAfter ()
+  {
+    return m_aCache.getRefreshAfter ();
+  }
+
+  /**
+   * @return The current time in nanoseconds, used to determine the age of the
+   *         entries.
+   */
+  protected long getCurrentNanoTime ()
+  {
+    return System.nanoTime ();
+  }
+
+  /**
+   * Get the cached result of the receiver check or perform the check.
+   *
+   * @param aCheckData
+   *        The receiver check data in use. May not be <code>null</code>.
+   * @param aTP
+   *        The transport profile in use. May not be <code>null</code>.
+   * @param aReceiverID
+   *        Receiver ID. May not be <code>null</code>.
+   * @param aDocTypeID
+   *        Document type ID. May not be <code>null</code>.
+   * @param aProcessID
+   *        Process ID. May not be <code>null</code>.
+   * @param aCheck
+   *        The check to be performed if no or only an outdated result is
+   *        cached. It may be invoked asynchronously, so it should not refer
+   *        to message specific data. May not be <code>null</code>.
+   * @return The check result. Never <code>null</code>.
+   * @throws Phase4PeppolServletException
+   *         If the check failed
+   */
+  @Nonnull
+  public CheckResult getOrCheck (@Nonnull final Phase4PeppolReceiverCheckData aCheckData,
+                                 @Nonnull final ISMPTransportProfile aTP,
+                                 @Nonnull final IParticipantIdentifier aReceiverID,
+                                 @Nonnull final IDocumentTypeIdentifier aDocTypeID,
+                                 @Nonnull final IProcessIdentifier aProcessID,
+                                 @Nonnull final IReceiverCheck aCheck) throws Phase4PeppolServletException
+  {
+    ValueEnforcer.notNull (aCheckData, "CheckData");
+    ValueEnforcer.notNull (aTP, "TransportProfile");
+    ValueEnforcer.notNull (aReceiverID, "ReceiverID");
+    ValueEnforcer.notNull (aDocTypeID, "DocTypeID");
+    ValueEnforcer.notNull (aProcessID, "ProcessID");
+    ValueEnforcer.notNull (aCheck, "Check");
+
+    final Key aKey = new Key (AS4SMPEndpointCache.getSMPScope (aCheckData.getSMPClient ()),
+                              aCheckData.getAS4EndpointURL (),
+                              aCheckData.getAPCertificate (),
+                              aTP.getID (),
+                              aReceiverID.getURIEncoded (),
+                              aDocTypeID.getURIEncoded (),
+                              aProcessID.getURIEncoded ());
+    return m_aCache.getOrLoad (aKey,
+                               () -> ValueEnforcer.notNull (aCheck.check (), "Result"),
+                               x -> x.isVerified () ? m_aTTL : m_aNegativeTTL);
+  }
+
+  /**
+   * Remove all cached entries.
+   *
+   * @return {@link EChange#CHANGED} if at least one entry was removed.
+   */
+  @Nonnull
+  public EChange clearCache ()
+  {
+    return m_aCache.clearCache ();
+  }
+
+  /**
+   * @return The number of currently cached results.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * @return The number of checks that were answered from the cache or by
+   *         waiting for a concurrent check.
+   */
+  @Nonnegative
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount () + m_aCache.getJoinedCount ();
+  }
+
+  /**
+   * @return The number of checks that were performed synchronously.
+   */
+  @Nonnegative
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  /**
+   * @return The number of asynchronous refreshes that were started.
+   */
+  @Nonnegative
+  public long getRefreshCount ()
+  {
+    return m_aCache.getRefreshCount ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTL", m_aTTL)
+                                       .append ("NegativeTTL", m_aNegativeTTL)
+                                       .append ("Cache", m_aCache)
+                                       .getToString ();
+  }
+}
@@ -47,6 +47,7 @@ public final class Phase4PeppolServletConfiguration
   private static String s_sAS4EndpointURL;
   private static X509Certificate s_aAPCertificate;
   private static boolean s_bPerformSBDHValueChecks = PeppolSBDHDocumentReader.DEFAULT_PERFORM_VALUE_CHECKS;
+  private static Phase4PeppolReceiverCheckCache s_aReceiverCheckCache = new Phase4PeppolReceiverCheckCache ();
 
   private Phase4PeppolServletConfiguration ()
   {}
@@ -145,6 +146,31 @@ public final class Phase4PeppolServletConfiguration
     s_aAPCertificate = aAPCertificate;
   }
 
+  /**
+   * @return The cache for the results of the receiver checks. By default a
+   *         cache with the default settings is used. May be <code>null</code>
+   *         if the results should not be cached.
+   * @since 1.3.2
+   */
+  @Nullable
+  public static Phase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return s_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the cache for the results of the receiver checks.
+   *
+   * @param aReceiverCheckCache
+   *        The cache to be used. May be <code>null</code> to perform the SMP
+   *        lookup for every incoming message.
+   * @since 1.3.2
+   */
+  public static void setReceiverCheckCache (@Nullable final Phase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    s_aReceiverCheckCache = aReceiverCheckCache;
+  }
+
   /**
    * Get the statically configured data as a
    * {@link Phase4PeppolReceiverCheckData} instance. Returns <code>null</code>
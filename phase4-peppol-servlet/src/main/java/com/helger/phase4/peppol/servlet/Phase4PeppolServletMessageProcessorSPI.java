@@ -68,6 +68,7 @@ import com.helger.phase4.ebms3header.Ebms3UserMessage;
 import com.helger.phase4.error.EEbmsError;
 import com.helger.phase4.messaging.IAS4IncomingMessageMetadata;
 import com.helger.phase4.model.pmode.IPMode;
+import com.helger.phase4.peppol.servlet.Phase4PeppolReceiverCheckCache.CheckResult;
 import com.helger.phase4.servlet.IAS4MessageState;
 import com.helger.phase4.servlet.spi.AS4MessageProcessorResult;
 import com.helger.phase4.servlet.spi.AS4SignalMessageProcessorResult;
@@ -154,6 +155,7 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
   private ICommonsList <IPhase4PeppolIncomingSBDHandlerSPI> m_aHandlers;
   private ISMPTransportProfile m_aTransportProfile = DEFAULT_TRANSPORT_PROFILE;
   private Phase4PeppolReceiverCheckData m_aReceiverCheckData;
+  private Phase4PeppolReceiverCheckCache m_aReceiverCheckCache;
 
   /**
    * Constructor. Uses all SPI implementations of
@@ -247,6 +249,32 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
     return this;
   }
 
+  /**
+   * @return The receiver check cache to be used. <code>null</code> by default.
+   * @since 1.3.2
+   */
+  @Nullable
+  public final Phase4PeppolReceiverCheckCache getReceiverCheckCache ()
+  {
+    return m_aReceiverCheckCache;
+  }
+
+  /**
+   * Set the receiver check cache to be used. If set, it overrides the global
+   * one defined by {@link Phase4PeppolServletConfiguration}.
+   *
+   * @param aReceiverCheckCache
+   *        The receiver check cache to use. May be <code>null</code>.
+   * @return this for chaining
+   * @since 1.3.2
+   */
+  @Nonnull
+  public final Phase4PeppolServletMessageProcessorSPI setReceiverCheckCache (@Nullable final Phase4PeppolReceiverCheckCache aReceiverCheckCache)
+  {
+    m_aReceiverCheckCache = aReceiverCheckCache;
+    return this;
+  }
+
   @Nullable
   private EndpointType _getReceiverEndpoint (@Nonnull final String sLogPrefix,
                                              @Nonnull final ISMPServiceMetadataProvider aSMPClient,
@@ -365,6 +393,56 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
       LOGGER.debug (sLogPrefix + "The certificate of the SMP lookup matches our certificate");
   }
 
+  @Nonnull
+  private static String _getNotVerifiedMessage (@Nonnull final Phase4Exception ex)
+  {
+    return "The addressing data contained in the SBDH could not be verified. Technical details: " +
+           ex.getClass ().getName () +
+           " - " +
+           ex.getMessage ();
+  }
+
+  @Nonnull
+  private CheckResult _checkReceiver (@Nonnull final String sLogPrefix,
+                                      @Nonnull final Phase4PeppolReceiverCheckData aReceiverCheckData,
+                                      @Nullable final IParticipantIdentifier aReceiverID,
+                                      @Nullable final IDocumentTypeIdentifier aDocTypeID,
+                                      @Nullable final IProcessIdentifier aProcessID) throws Phase4PeppolServletException
+  {
+    final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
+                                                                 aReceiverCheckData.getSMPClient (),
+                                                                 aReceiverID,
+                                                                 aDocTypeID,
+                                                                 aProcessID);
+    if (aReceiverEndpoint == null)
+    {
+      return CheckResult.createNotVerified ("Failed to resolve SMP endpoint for provided receiver ID (" +
+                                            (aReceiverID == null ? "null" : aReceiverID.getURIEncoded ()) +
+                                            ")/documentType ID (" +
+                                            (aDocTypeID == null ? "null" : aDocTypeID.getURIEncoded ()) +
+                                            ")/process ID (" +
+                                            (aProcessID == null ? "null" : aProcessID.getURIEncoded ()) +
+                                            ")/transport profile (" +
+                                            m_aTransportProfile.getID () +
+                                            ") - not handling incoming AS4 document");
+    }
+
+    try
+    {
+      // Check if the message is for us
+      _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint);
+
+      // Get the recipient certificate from the SMP
+      _checkIfEndpointCertificateMatches (sLogPrefix, aReceiverCheckData.getAPCertificate (), aReceiverEndpoint);
+    }
+    catch (final Phase4PeppolServletException ex)
+    {
+      // The SMP data does not match this AP
+      return CheckResult.createNotVerified (_getNotVerifiedMessage (ex));
+    }
+    return CheckResult.createVerified ();
+  }
+
   @Nonnull
   public AS4MessageProcessorResult processAS4UserMessage (@Nonnull final IAS4IncomingMessageMetadata aMessageMetadata,
                                                           @Nonnull final HttpHeaderMap aHttpHeaders,
@@ -552,38 +630,33 @@ public class Phase4PeppolServletMessageProcessorSPI implements IAS4ServletMessag
           final IParticipantIdentifier aReceiverID = aPeppolSBD.getReceiverAsIdentifier ();
           final IDocumentTypeIdentifier aDocTypeID = aPeppolSBD.getDocumentTypeAsIdentifier ();
           final IProcessIdentifier aProcessID = aPeppolSBD.getProcessAsIdentifier ();
-          final EndpointType aReceiverEndpoint = _getReceiverEndpoint (sLogPrefix,
-                                                                       aReceiverCheckData.getSMPClient (),
-                                                                       aReceiverID,
-                                                                       aDocTypeID,
-                                                                       aProcessID);
-          if (aReceiverEndpoint == null)
+          final Phase4PeppolReceiverCheckCache aReceiverCheckCache = m_aReceiverCheckCache != null ? m_aReceiverCheckCache
+                                                                                                  : Phase4PeppolServletConfiguration.getReceiverCheckCache ();
+          final CheckResult aCheckResult;
+          if (aReceiverCheckCache != null && aReceiverID != null && aDocTypeID != null && aProcessID != null)
           {
-            final String sMsg = "Failed to resolve SMP endpoint for provided receiver ID (" +
-                                (aReceiverID == null ? "null" : aReceiverID.getURIEncoded ()) +
-                                ")/documentType ID (" +
-                                (aDocTypeID == null ? "null" : aDocTypeID.getURIEncoded ()) +
-                                ")/process ID (" +
-                                (aProcessID == null ? "null" : aProcessID.getURIEncoded ()) +
-                                ")/transport profile (" +
-                                m_aTransportProfile.getID () +
-                                ") - not handling incoming AS4 document";
+            // The cached result may be used for other messages, so don't use
+            // the message specific log prefix
+            aCheckResult = aReceiverCheckCache.getOrCheck (aReceiverCheckData,
+                                                           m_aTransportProfile,
+                                                           aReceiverID,
+                                                           aDocTypeID,
+                                                           aProcessID,
+                                                           () -> _checkReceiver ("", aReceiverCheckData, aReceiverID, aDocTypeID, aProcessID));
+          }
+          else
+            aCheckResult = _checkReceiver (sLogPrefix, aReceiverCheckData, aReceiverID, aDocTypeID, aProcessID);
+
+          if (!aCheckResult.isVerified ())
+          {
+            final String sMsg = aCheckResult.getErrorMessage ();
             LOGGER.error (sLogPrefix + sMsg);
             return AS4MessageProcessorResult.createFailure (sMsg);
           }
-
-          // Check if the message is for us
-          _checkIfReceiverEndpointURLMatches (sLogPrefix, aReceiverCheckData.getAS4EndpointURL (), aReceiverEndpoint);
-
-          // Get the recipient certificate from the SMP
-          _checkIfEndpointCertificateMatches (sLogPrefix, aReceiverCheckData.getAPCertificate (), aReceiverEndpoint);
         }
         catch (final Phase4Exception ex)
         {
-          final String sMsg = "The addressing data contained in the SBDH could not be verified. Technical details: " +
-                              ex.getClass ().getName () +
-                              " - " +
-                              ex.getMessage ();
+          final String sMsg = _getNotVerifiedMessage (ex);
           LOGGER.error (sLogPrefix + sMsg);
           return AS4MessageProcessorResult.createFailure (sMsg);
         }
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.peppol.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.helger.peppol.smp.ESMPTransportProfile;
+import com.helger.peppol.utils.PeppolKeyStoreHelper;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.IProcessIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+import com.helger.phase4.peppol.servlet.Phase4PeppolReceiverCheckCache.CheckResult;
+import com.helger.smpclient.peppol.SMPClientReadOnly;
+
+/**
+ * Test class for class {@link Phase4PeppolReceiverCheckCache}.
+ *
+ * @author Philip Helger
+ */
+public final class Phase4PeppolReceiverCheckCacheTest
+{
+  private static final IParticipantIdentifier RECEIVER = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test");
+  private static final IDocumentTypeIdentifier DOCTYPE = PeppolIdentifierFactory.INSTANCE.createDocumentTypeIdentifierWithDefaultScheme ("doctype");
+  private static final IProcessIdentifier PROCESS = PeppolIdentifierFactory.INSTANCE.createProcessIdentifierWithDefaultScheme ("process");
+  private static final ESMPTransportProfile TP = ESMPTransportProfile.TRANSPORT_PROFILE_PEPPOL_AS4_V2;
+
+  private static final class MockCache extends Phase4PeppolReceiverCheckCache
+  {
+    private final AtomicLong m_aNow = new AtomicLong (0);
+
+    MockCache ()
+    {
+      // Refresh synchronously
+      super (10, Duration.ofMinutes (10), Duration.ofMinutes (8), Runnable::run);
+    }
+
+    @Override
+    protected long getCurrentNanoTime ()
+    {
+      return m_aNow.get ();
+    }
+
+    void advance (final Duration aDuration)
+    {
+      m_aNow.addAndGet (aDuration.toNanos ());
+    }
+  }
+
+  @Test
+  public void testCaching () throws Exception
+  {
+    final MockCache aCache = new MockCache ();
+    final Phase4PeppolReceiverCheckData aCheckData = new Phase4PeppolReceiverCheckData (new SMPClientReadOnly (URI.create ("http://smp.example.org")),
+                                                                                        "http://ap.example.org/as4",
+                                                                                        PeppolKeyStoreHelper.Config2018.CERTIFICATE_PILOT_AP);
+    final AtomicInteger aChecks = new AtomicInteger (0);
+    final Phase4PeppolReceiverCheckCache.IReceiverCheck aCheck = () -> aChecks.incrementAndGet () == 1 ? CheckResult.createVerified ()
+                                                                                                       : CheckResult.createNotVerified ("not for us");
+
+    assertTrue (aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck).isVerified ());
+    assertTrue (aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck).isVerified ());
+    assertEquals (1, aChecks.get ());
+
+    // A new client object for the same SMP uses the same entry
+    final Phase4PeppolReceiverCheckData aCheckData2 = new Phase4PeppolReceiverCheckData (new SMPClientReadOnly (URI.create ("http://smp.example.org")),
+                                                                                         "http://ap.example.org/as4",
+                                                                                         PeppolKeyStoreHelper.Config2018.CERTIFICATE_PILOT_AP);
+    assertTrue (aCache.getOrCheck (aCheckData2, TP, RECEIVER, DOCTYPE, PROCESS, aCheck).isVerified ());
+    assertEquals (1, aChecks.get ());
+
+    // Within the refresh interval - old result is returned, refresh happens
+    aCache.advance (Duration.ofMinutes (9));
+    assertTrue (aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck).isVerified ());
+    assertEquals (2, aChecks.get ());
+    assertEquals (1, aCache.getRefreshCount ());
+
+    // The refreshed negative result is used
+    final CheckResult aResult = aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck);
+    assertFalse (aResult.isVerified ());
+    assertEquals ("not for us", aResult.getErrorMessage ());
+    assertEquals (2, aChecks.get ());
+
+    // Negative results expire earlier - synchronous check
+    aCache.advance (Phase4PeppolReceiverCheckCache.DEFAULT_NEGATIVE_TTL);
+    assertFalse (aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck).isVerified ());
+    assertEquals (3, aChecks.get ());
+    assertEquals (2, aCache.getMissCount ());
+  }
+
+  @Test
+  public void testExceptionsAreNotCached () throws Exception
+  {
+    final MockCache aCache = new MockCache ();
+    final Phase4PeppolReceiverCheckData aCheckData = new Phase4PeppolReceiverCheckData (new SMPClientReadOnly (URI.create ("http://smp.example.org")),
+                                                                                        "http://ap.example.org/as4",
+                                                                                        PeppolKeyStoreHelper.Config2018.CERTIFICATE_PILOT_AP);
+    final AtomicInteger aChecks = new AtomicInteger (0);
+    final Phase4PeppolReceiverCheckCache.IReceiverCheck aCheck = () -> {
+      aChecks.incrementAndGet ();
+      throw new Phase4PeppolServletException ("SMP not reachable");
+    };
+    for (int i = 0; i < 2; ++i)
+      try
+      {
+        aCache.getOrCheck (aCheckData, TP, RECEIVER, DOCTYPE, PROCESS, aCheck);
+        fail ();
+      }
+      catch (final Phase4PeppolServletException ex)
+      {
+        // expected
+      }
+    assertEquals (2, aChecks.get ());
+    assertEquals (0, aCache.size ());
+  }
+}
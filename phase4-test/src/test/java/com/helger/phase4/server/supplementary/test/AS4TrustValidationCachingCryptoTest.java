@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.AS4TrustValidationCache;
+import com.helger.phase4.crypto.AS4TrustValidationCachingCrypto;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.scope.mock.ScopeTestRule;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Test class for class {@link AS4TrustValidationCachingCrypto}.
+ *
+ * @author Philip Helger
+ */
+public final class AS4TrustValidationCachingCryptoTest
+{
+  @Rule
+  public final ScopeTestRule m_aRule = new ScopeTestRule ();
+
+  @Before
+  public void before ()
+  {
+    // Ensure WSSConfig is initialized
+    WSSConfigManager.getInstance ();
+  }
+
+  @Test
+  public void testSignatureVerification () throws Exception
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final AS4TrustValidationCache aCache = new AS4TrustValidationCache (10, Duration.ofMinutes (10), Duration.ofMinutes (1));
+    final AS4TrustValidationCachingCrypto aCrypto = new AS4TrustValidationCachingCrypto (aCryptoFactory.getCrypto (), aCache);
+
+    final WSSecurityEngine aSecEngine = new WSSecurityEngine ();
+    aSecEngine.setWssConfig (WSSConfigManager.getInstance ().createWSSConfig ());
+    for (int i = 0; i < 3; ++i)
+    {
+      final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("UserMessageWithoutWSSE.xml"));
+      final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+      aSecHeader.insertSecurityHeader ();
+
+      final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+      aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (), aCryptoFactory.getKeyPassword ());
+      aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+      aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+      aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+      final Document aSignedDoc = aBuilder.build (aCryptoFactory.getCrypto ());
+
+      // Throws an exception if verification fails
+      aSecEngine.processSecurityHeader (aSignedDoc, null, null, aCrypto);
+    }
+
+    // Only the first trust validation was performed
+    assertEquals (1, aCache.getMissCount ());
+    assertEquals (2, aCache.getHitCount ());
+    assertEquals (1, aCache.size ());
+  }
+}
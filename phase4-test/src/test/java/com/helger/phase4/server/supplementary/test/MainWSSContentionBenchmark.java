@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.phase4.server.supplementary.test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.dom.engine.WSSecurityEngine;
+import org.apache.wss4j.dom.message.WSSecHeader;
+import org.apache.wss4j.dom.message.WSSecSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.io.resource.ClassPathResource;
+import com.helger.commons.timing.StopWatch;
+import com.helger.phase4.crypto.AS4CryptoFactoryProperties;
+import com.helger.phase4.crypto.ECryptoAlgorithmSign;
+import com.helger.phase4.crypto.ECryptoAlgorithmSignDigest;
+import com.helger.phase4.crypto.ECryptoKeyIdentifierType;
+import com.helger.phase4.crypto.IAS4CryptoFactory;
+import com.helger.phase4.wss.WSSConcurrentSecurity;
+import com.helger.phase4.wss.WSSConfigManager;
+import com.helger.phase4.wss.WSSSynchronizer;
+import com.helger.scope.mgr.ScopeManager;
+import com.helger.xml.serialize.read.DOMReader;
+
+/**
+ * Contention benchmark comparing the throughput of sign and verify in the
+ * synchronized and in the concurrent WSS4J security mode for an increasing
+ * number of threads.
+ *
+ * @author Philip Helger
+ */
+public final class MainWSSContentionBenchmark
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (MainWSSContentionBenchmark.class);
+  private static final int OPS_PER_THREAD = 200;
+
+  private static void _signAndVerify (@Nonnull final IAS4CryptoFactory aCryptoFactory,
+                                      @Nonnull final WSSecurityEngine aSecEngine) throws WSSecurityException
+  {
+    final Document aDoc = DOMReader.readXMLDOM (new ClassPathResource ("UserMessageWithoutWSSE.xml"));
+    final WSSecHeader aSecHeader = new WSSecHeader (aDoc);
+    aSecHeader.insertSecurityHeader ();
+
+    final WSSecSignature aBuilder = new WSSecSignature (aSecHeader);
+    aBuilder.setUserInfo (aCryptoFactory.getKeyAlias (), aCryptoFactory.getKeyPassword ());
+    aBuilder.setKeyIdentifierType (ECryptoKeyIdentifierType.BST_DIRECT_REFERENCE.getTypeID ());
+    aBuilder.setSignatureAlgorithm (ECryptoAlgorithmSign.RSA_SHA_256.getAlgorithmURI ());
+    aBuilder.setDigestAlgo (ECryptoAlgorithmSignDigest.DIGEST_SHA_256.getAlgorithmURI ());
+    final Document aSignedDoc = aBuilder.build (aCryptoFactory.getCrypto ());
+
+    aSecEngine.processSecurityHeader (aSignedDoc, null, null, aCryptoFactory.getCrypto ());
+  }
+
+  private static double _run (final int nThreads, final boolean bConcurrent)
+  {
+    final IAS4CryptoFactory aCryptoFactory = AS4CryptoFactoryProperties.getDefaultInstance ();
+    final AtomicInteger aErrors = new AtomicInteger (0);
+    final ExecutorService aES = Executors.newFixedThreadPool (nThreads);
+    final StopWatch aSW = StopWatch.createdStarted ();
+    for (int i = 0; i < nThreads; ++i)
+      aES.submit ( () -> {
+        for (int j = 0; j < OPS_PER_THREAD; ++j)
+          try
+          {
+            if (bConcurrent)
+              WSSConcurrentSecurity.callWithSecurityEngine (aEngine -> {
+                _signAndVerify (aCryptoFactory, aEngine);
+                return null;
+              });
+            else
+              WSSSynchronizer.call ( () -> {
+                final WSSecurityEngine aEngine = new WSSecurityEngine ();
+                aEngine.setWssConfig (WSSConfigManager.createStaticWSSConfig ());
+                _signAndVerify (aCryptoFactory, aEngine);
+                return null;
+              });
+          }
+          catch (final Exception ex)
+          {
+            aErrors.incrementAndGet ();
+            LOGGER.error ("Error in benchmark", ex);
+          }
+      });
+    aES.shutdown ();
+    ExecutorServiceHelper.waitUntilAllTasksAreFinished (aES);
+    final long nMillis = aSW.stopAndGetMillis ();
+    if (aErrors.get () > 0)
+      LOGGER.warn (aErrors.get () + " errors occurred");
+    return nThreads * OPS_PER_THREAD * 1000d / Math.max (nMillis, 1);
+  }
+
+  public static void main (final String [] args)
+  {
+    ScopeManager.onGlobalBegin ("MainWSSContentionBenchmark");
+    try
+    {
+      // Ensure WSSConfig is initialized
+      WSSConfigManager.getInstance ();
+
+      // Warm up
+      _run (2, false);
+      _run (2, true);
+
+      final int nMaxThreads = Runtime.getRuntime ().availableProcessors ();
+      for (int nThreads = 1; nThreads <= nMaxThreads; nThreads *= 2)
+      {
+        final double dSync = _run (nThreads, false);
+        final double dConcurrent = _run (nThreads, true);
+        LOGGER.info (String.format ("%3d threads: synchronized %8.1f ops/s; concurrent %8.1f ops/s; factor %.2f",
+                                    Integer.valueOf (nThreads),
+                                    Double.valueOf (dSync),
+                                    Double.valueOf (dConcurrent),
+                                    Double.valueOf (dConcurrent / dSync)));
+      }
+    }
+    finally
+    {
+      ScopeManager.onGlobalEnd ();
+    }
+  }
+}